@@ -0,0 +1,52 @@
+package com.jia.connectionPool.benchmark;
+
+import com.jia.entity.PropertiesBean;
+
+/**
+ * 基准测试使用的连接池配置
+ * */
+public final class BenchmarkConfig {
+
+    private BenchmarkConfig() {
+    }
+
+    /**
+     * 创建连接到StubDriver的节点配置
+     * @param nodeName 节点名称
+     * @param initConnections 初始连接数
+     * @param maxConnections 最大连接数
+     * @return 节点配置
+     * */
+    public static PropertiesBean bean(String nodeName, int initConnections, int maxConnections) {
+        return bean(nodeName, initConnections, maxConnections, 0, 0);
+    }
+
+    /**
+     * 创建连接到StubDriver的节点配置
+     * @param nodeName 节点名称
+     * @param initConnections 初始连接数
+     * @param maxConnections 最大连接数
+     * @param connectLatencyMs 创建连接的延迟 单位毫秒
+     * @param queryLatencyUs 执行语句的延迟 单位微秒
+     * @return 节点配置
+     * */
+    public static PropertiesBean bean(String nodeName, int initConnections, int maxConnections,
+                                      long connectLatencyMs, long queryLatencyUs) {
+        StubDriver.register();
+        PropertiesBean bean = new PropertiesBean();
+        bean.setNodeName(nodeName);
+        bean.setDriverName(StubDriver.class.getName());
+        bean.setUrl(StubDriver.url(nodeName, connectLatencyMs, queryLatencyUs));
+        bean.setUsername("bench");
+        bean.setPassword("bench");
+        bean.setInitConnections(initConnections);
+        bean.setMinConnections(initConnections);
+        bean.setMaxConnections(maxConnections);
+        bean.setConnectionInterval(500);
+        bean.setTimeout(5000);
+        bean.setValidation("isvalid");
+        bean.setValidationTimeout(3000);
+        bean.setValidationSkipWindow(500);
+        return bean;
+    }
+}
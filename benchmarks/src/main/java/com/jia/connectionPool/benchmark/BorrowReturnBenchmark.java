@@ -0,0 +1,89 @@
+package com.jia.connectionPool.benchmark;
+
+import com.jia.connectionPool.ConnectionPool;
+import com.jia.connectionPool.IConnectionPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 多线程争用下借出并立即归还连接的吞吐量
+ * 线程数从1到256, 连接池大小由poolSize控制, 线程数超过poolSize时会进入等待队列
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BorrowReturnBenchmark {
+
+    @Param({"32"})
+    public int poolSize;
+
+    private IConnectionPool pool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pool = ConnectionPool.CreateConnectionPool(BenchmarkConfig.bean("borrow", poolSize, poolSize));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.destory();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean threads001() throws SQLException {
+        return borrowReturn();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean threads004() throws SQLException {
+        return borrowReturn();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean threads016() throws SQLException {
+        return borrowReturn();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public boolean threads064() throws SQLException {
+        return borrowReturn();
+    }
+
+    @Benchmark
+    @Threads(256)
+    public boolean threads256() throws SQLException {
+        return borrowReturn();
+    }
+
+    private boolean borrowReturn() throws SQLException {
+        Connection conn = pool.getConnection();
+        if (conn == null) {
+            return false;
+        }
+        conn.close();
+        return true;
+    }
+}
@@ -0,0 +1,102 @@
+package com.jia.connectionPool.benchmark;
+
+import com.jia.connectionPool.ConnectionPool;
+import com.jia.connectionPool.IConnectionPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接创建风暴: 一批线程同时向一个空的连接池借连接
+ * 每个物理连接都有connectLatencyMs的握手延迟, 衡量全部借用者拿到连接所需的时间
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CreationStormBenchmark {
+
+    @Param({"64"})
+    public int borrowers;
+
+    @Param({"16"})
+    public int poolSize;
+
+    @Param({"5"})
+    public long connectLatencyMs;
+
+    private ExecutorService executor;
+
+    private IConnectionPool pool;
+
+    @Setup(Level.Trial)
+    public void setupExecutor() {
+        executor = Executors.newFixedThreadPool(borrowers);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Setup(Level.Invocation)
+    public void setupPool() {
+        pool = ConnectionPool.CreateConnectionPool(BenchmarkConfig.bean("storm", 0, poolSize, connectLatencyMs, 0));
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownPool() {
+        pool.destory();
+    }
+
+    @Benchmark
+    public int storm() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(borrowers);
+        for (int i = 0; i < borrowers; i++) {
+            futures.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    start.await();
+                    Connection conn = pool.getConnection();
+                    if (conn == null) {
+                        return false;
+                    }
+                    conn.close();
+                    return true;
+                }
+            }));
+        }
+        start.countDown();
+
+        int served = 0;
+        for (Future<Boolean> future : futures) {
+            if (future.get()) {
+                served++;
+            }
+        }
+        return served;
+    }
+}
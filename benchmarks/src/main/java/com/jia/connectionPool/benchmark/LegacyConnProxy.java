@@ -0,0 +1,44 @@
+package com.jia.connectionPool.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+
+/**
+ * 原来ConnectionPool中基于java.lang.reflect.Proxy的连接代理, 作为基准测试的对照组
+ * 每次调用都经过反射, 参数装箱为Object[], 并比较方法名
+ * */
+public class LegacyConnProxy implements InvocationHandler {
+
+    private final Connection conn;
+
+    private Connection con;
+
+    LegacyConnProxy(Connection conn) {
+        this.conn = conn;
+    }
+
+    public static Connection newInstance(Connection conn) {
+        LegacyConnProxy handler = new LegacyConnProxy(conn);
+        handler.con = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, handler);
+        return handler.con;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if ("close".equals(method.getName())) {
+            // 原来的实现在这里把连接还给连接池
+            return null;
+        }
+        if ("equals".equals(method.getName())) {
+            return proxy == args[0];
+        }
+        try {
+            return method.invoke(conn, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.jia.connectionPool.benchmark;
+
+import com.jia.connectionPool.ConnectionPool;
+import com.jia.connectionPool.IConnectionPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接包装类的调用开销: 原来的反射代理和手写的委托类对比
+ * 两者包装的都是同一种不访问网络的StubConnection, 差异只来自包装层
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyBenchmark {
+
+    private static final String SQL = "select name from student where id = ?";
+
+    private IConnectionPool pool;
+
+    private Connection legacy;
+
+    private Connection pooled;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        StubDriver.register();
+        pool = ConnectionPool.CreateConnectionPool(BenchmarkConfig.bean("proxy", 1, 1));
+        pooled = pool.getConnection();
+        legacy = LegacyConnProxy.newInstance(new StubConnection());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        pooled.close();
+        pool.destory();
+    }
+
+    @Benchmark
+    public boolean legacyGetAutoCommit() throws SQLException {
+        return legacy.getAutoCommit();
+    }
+
+    @Benchmark
+    public boolean pooledGetAutoCommit() throws SQLException {
+        return pooled.getAutoCommit();
+    }
+
+    @Benchmark
+    public void legacySetAutoCommit() throws SQLException {
+        legacy.setAutoCommit(true);
+    }
+
+    @Benchmark
+    public void pooledSetAutoCommit() throws SQLException {
+        pooled.setAutoCommit(true);
+    }
+
+    @Benchmark
+    public int legacyPrepareExecute() throws SQLException {
+        return prepareExecute(legacy);
+    }
+
+    @Benchmark
+    public int pooledPrepareExecute() throws SQLException {
+        return prepareExecute(pooled);
+    }
+
+    private static int prepareExecute(Connection conn) throws SQLException {
+        PreparedStatement ps = conn.prepareStatement(SQL);
+        try {
+            ps.setInt(1, 901);
+            return ps.executeUpdate();
+        } finally {
+            ps.close();
+        }
+    }
+}
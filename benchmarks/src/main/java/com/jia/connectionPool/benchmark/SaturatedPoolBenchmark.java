@@ -0,0 +1,72 @@
+package com.jia.connectionPool.benchmark;
+
+import com.jia.connectionPool.ConnectionPool;
+import com.jia.connectionPool.IConnectionPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接池饱和时的等待路径
+ * 64个线程共享一个很小的连接池, 每次借出后执行一条有往返延迟的语句, 大部分时间都在排队,
+ * 使用SampleTime模式观察获取连接延迟的分布(p99、p99.9), 等待队列应当保持先进先出且尾延迟平稳
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(64)
+public class SaturatedPoolBenchmark {
+
+    @Param({"4"})
+    public int poolSize;
+
+    @Param({"50"})
+    public long queryLatencyUs;
+
+    private IConnectionPool pool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pool = ConnectionPool.CreateConnectionPool(BenchmarkConfig.bean("saturated", poolSize, poolSize, 0, queryLatencyUs));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.destory();
+    }
+
+    @Benchmark
+    public int borrowExecuteReturn() throws SQLException {
+        Connection conn = pool.getConnection();
+        if (conn == null) {
+            return -1;
+        }
+        try {
+            PreparedStatement ps = conn.prepareStatement("update student set name = ? where id = ?");
+            ps.setString(1, "name");
+            ps.setInt(2, 901);
+            return ps.executeUpdate();
+        } finally {
+            conn.close();
+        }
+    }
+}
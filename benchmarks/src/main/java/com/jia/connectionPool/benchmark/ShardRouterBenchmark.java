@@ -0,0 +1,89 @@
+package com.jia.connectionPool.benchmark;
+
+import com.jia.connectionPool.ConnectionPool;
+import com.jia.connectionPool.IConnectionPool;
+import com.jia.connectionPool.routing.ShardRouter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一致性哈希分片路由的开销: 单独查找节点, 以及与直接借还连接对比
+ * 8个节点、每个节点160个虚拟节点
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShardRouterBenchmark {
+
+    private static final int SHARDS = 8;
+
+    private IConnectionPool[] pools;
+
+    private ShardRouter router;
+
+    private final String[] keys = new String[1024];
+
+    private long next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pools = new IConnectionPool[SHARDS];
+        Map<String, IConnectionPool> nodes = new LinkedHashMap<String, IConnectionPool>();
+        for (int i = 0; i < SHARDS; i++) {
+            pools[i] = ConnectionPool.CreateConnectionPool(BenchmarkConfig.bean("shard" + i, 2, 2));
+            nodes.put("shard" + i, pools[i]);
+        }
+        router = new ShardRouter("bench", nodes, ShardRouter.DEFAULT_VIRTUAL_NODES);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "user-" + (i * 7919);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (IConnectionPool pool : pools) {
+            pool.destory();
+        }
+    }
+
+    @Benchmark
+    public IConnectionPool selectLong() {
+        return router.select(next++);
+    }
+
+    @Benchmark
+    public IConnectionPool selectString() {
+        return router.select(keys[(int) (next++ & (keys.length - 1))]);
+    }
+
+    @Benchmark
+    public void directBorrowReturn() throws SQLException {
+        Connection conn = pools[(int) (next++ & (SHARDS - 1))].getConnection();
+        conn.close();
+    }
+
+    @Benchmark
+    public void shardedBorrowReturn() throws SQLException {
+        Connection conn = router.getConnection(next++);
+        conn.close();
+    }
+}
@@ -0,0 +1,114 @@
+package com.jia.connectionPool.benchmark;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * 进程内的JDBC驱动, url以jdbc:stub:开头, 不需要数据库即可创建连接
+ *
+ * url格式为 jdbc:stub:名称?connectLatencyMs=40&queryLatencyUs=200,
+ * connectLatencyMs模拟TCP握手和认证的耗时, queryLatencyUs模拟每次执行语句的往返耗时
+ * */
+public class StubDriver implements Driver {
+
+    public static final String URL_PREFIX = "jdbc:stub:";
+
+    static {
+        try {
+            DriverManager.registerDriver(new StubDriver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // 已经创建的物理连接数目
+    private static final AtomicLong CONNECTS = new AtomicLong();
+
+    /**
+     * 确保驱动已经注册
+     * */
+    public static void register() {
+    }
+
+    /**
+     * 生成带延迟参数的url
+     * @param name 名称
+     * @param connectLatencyMs 创建连接的延迟 单位毫秒
+     * @param queryLatencyUs 执行语句的延迟 单位微秒
+     * @return url
+     * */
+    public static String url(String name, long connectLatencyMs, long queryLatencyUs) {
+        return URL_PREFIX + name + "?connectLatencyMs=" + connectLatencyMs + "&queryLatencyUs=" + queryLatencyUs;
+    }
+
+    public static long getConnectCount() {
+        return CONNECTS.get();
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        long connectLatencyMs = parameter(url, "connectLatencyMs");
+        long queryLatencyUs = parameter(url, "queryLatencyUs");
+        if (connectLatencyMs > 0) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(connectLatencyMs));
+        }
+        CONNECTS.incrementAndGet();
+        return new StubConnection(TimeUnit.MICROSECONDS.toNanos(queryLatencyUs));
+    }
+
+    private static long parameter(String url, String name) {
+        int query = url.indexOf('?');
+        if (query < 0) {
+            return 0;
+        }
+        for (String pair : url.substring(query + 1).split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return Long.parseLong(pair.substring(eq + 1));
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(URL_PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException("getParentLogger");
+    }
+}
@@ -0,0 +1,108 @@
+package com.jia.connectionPool.benchmark;
+
+import com.jia.connectionPool.ConnectionPool;
+import com.jia.connectionPool.IConnectionPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一万个虚拟线程共享32个连接
+ *
+ * 只用4个载体线程运行虚拟线程, 如果连接池在监视器锁中阻塞, 少数等待连接的虚拟线程就会占满载体线程,
+ * 持有连接的虚拟线程无法继续执行归还, 全部请求超时; 连接池使用LockSupport排队时全部请求都能完成
+ * 需要JDK 21及以上运行, 通过反射创建虚拟线程, 本模块仍然可以用JDK 8编译
+ * */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Djdk.virtualThreadScheduler.parallelism=4", "-Djdk.tracePinnedThreads=short"})
+public class VirtualThreadBenchmark {
+
+    @Param({"10000"})
+    public int tasks;
+
+    @Param({"32"})
+    public int poolSize;
+
+    @Param({"200"})
+    public long queryLatencyUs;
+
+    private ExecutorService executor;
+
+    private IConnectionPool pool;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        try {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("虚拟线程需要JDK 21及以上", e);
+        }
+        pool = ConnectionPool.CreateConnectionPool(BenchmarkConfig.bean("virtual", poolSize, poolSize, 0, queryLatencyUs));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+        pool.destory();
+    }
+
+    @Benchmark
+    public int borrowExecuteReturn() throws Exception {
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(tasks);
+        for (int i = 0; i < tasks; i++) {
+            futures.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    Connection conn = pool.getConnection();
+                    if (conn == null) {
+                        return false;
+                    }
+                    try {
+                        PreparedStatement ps = conn.prepareStatement("select name from student where id = ?");
+                        ps.setInt(1, 901);
+                        ps.executeQuery().close();
+                        ps.close();
+                    } finally {
+                        conn.close();
+                    }
+                    return true;
+                }
+            }));
+        }
+
+        int served = 0;
+        for (Future<Boolean> future : futures) {
+            if (future.get()) {
+                served++;
+            }
+        }
+        if (served != tasks) {
+            throw new IllegalStateException((tasks - served) + "个请求等待连接超时");
+        }
+        return served;
+    }
+}
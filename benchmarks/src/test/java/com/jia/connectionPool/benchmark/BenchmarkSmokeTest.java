@@ -0,0 +1,99 @@
+package com.jia.connectionPool.benchmark;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 每个基准测试只执行一次setup, 一次操作和tearDown, 确认基准测试本身可以运行, 不测量性能
+ * */
+public class BenchmarkSmokeTest {
+
+    @Test
+    public void stubDriverHonoursConnectLatency() throws Exception {
+        StubDriver.register();
+        long start = System.nanoTime();
+        Connection conn = DriverManager.getConnection(StubDriver.url("smoke", 20, 0), "bench", "bench");
+        assertNotNull(conn);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        conn.close();
+    }
+
+    @Test(timeout = 10000)
+    public void borrowReturnBenchmarkRuns() throws Exception {
+        BorrowReturnBenchmark benchmark = new BorrowReturnBenchmark();
+        benchmark.poolSize = 2;
+        benchmark.setup();
+        try {
+            assertTrue(benchmark.threads001());
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void saturatedPoolBenchmarkRuns() throws Exception {
+        SaturatedPoolBenchmark benchmark = new SaturatedPoolBenchmark();
+        benchmark.poolSize = 1;
+        benchmark.queryLatencyUs = 10;
+        benchmark.setup();
+        try {
+            assertEquals(1, benchmark.borrowExecuteReturn());
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void proxyBenchmarkRuns() throws Exception {
+        ProxyBenchmark benchmark = new ProxyBenchmark();
+        benchmark.setup();
+        try {
+            benchmark.legacySetAutoCommit();
+            benchmark.pooledSetAutoCommit();
+            assertEquals(benchmark.legacyGetAutoCommit(), benchmark.pooledGetAutoCommit());
+            assertEquals(benchmark.legacyPrepareExecute(), benchmark.pooledPrepareExecute());
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void creationStormServesEveryBorrower() throws Exception {
+        CreationStormBenchmark benchmark = new CreationStormBenchmark();
+        benchmark.borrowers = 8;
+        benchmark.poolSize = 2;
+        benchmark.connectLatencyMs = 5;
+        benchmark.setupExecutor();
+        try {
+            benchmark.setupPool();
+            try {
+                assertEquals(8, benchmark.storm());
+            } finally {
+                benchmark.tearDownPool();
+            }
+        } finally {
+            benchmark.tearDownExecutor();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void shardRouterBenchmarkRuns() throws Exception {
+        ShardRouterBenchmark benchmark = new ShardRouterBenchmark();
+        benchmark.setup();
+        try {
+            assertNotNull(benchmark.selectLong());
+            assertNotNull(benchmark.selectString());
+            benchmark.directBorrowReturn();
+            benchmark.shardedBorrowReturn();
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+}
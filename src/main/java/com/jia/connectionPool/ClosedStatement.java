@@ -0,0 +1,44 @@
+package com.jia.connectionPool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.SQLException;
+
+/**
+ * 已经关闭的Statement占位对象
+ *
+ * 放回缓存的PreparedStatement仍然是打开的, 包装类关闭时把委托对象替换为本对象,
+ * 应用程序关闭之后的误用会抛出异常, 而不会影响到之后取走这个语句的使用者;
+ * 只有误用时才会经过反射, 正常调用路径上没有额外的检查
+ * */
+final class ClosedStatement {
+
+    static final CallableStatement INSTANCE = (CallableStatement) Proxy.newProxyInstance(
+            CallableStatement.class.getClassLoader(), new Class<?>[]{CallableStatement.class}, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("close".equals(name)) {
+                return null;
+            }
+            if ("isClosed".equals(name)) {
+                return true;
+            }
+            if ("toString".equals(name)) {
+                return "ClosedStatement";
+            }
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            }
+            throw new SQLException("Statement已经关闭");
+        }
+    });
+
+    private ClosedStatement() {
+    }
+}
@@ -0,0 +1,131 @@
+package com.jia.connectionPool;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监听配置文件的变化, 文件修改后重新加载配置
+ *
+ * WatchService只能监听目录, 这里监听配置文件所在的目录并过滤出配置文件本身的事件;
+ * 编辑器保存文件时往往连续产生多个事件, 等待一小段时间没有新的事件后才重新加载一次
+ * */
+class ConfigWatcher implements Runnable {
+
+    private final Logger log = Logger.getLogger(ConfigWatcher.class);
+
+    // 连续修改时合并事件的等待时间 单位毫秒
+    private static final long DEBOUNCE_MILLIS = 200;
+
+    private final Path file;
+
+    private final WatchService watchService;
+
+    private final ConnectionManager manager;
+
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    private ConfigWatcher(File file, WatchService watchService, ConnectionManager manager) {
+        this.file = file.toPath().getFileName();
+        this.watchService = watchService;
+        this.manager = manager;
+        this.thread = new Thread(this, "connection-pool-config-watcher");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * 开始监听配置文件
+     * @param file 配置文件
+     * @param manager 配置变化时重新加载的管理器
+     * @return 监听器, 无法监听时返回null
+     * */
+    static ConfigWatcher start(File file, ConnectionManager manager) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir == null || !dir.isDirectory()){
+            return null;
+        }
+        try {
+            WatchService watchService = FileSystems.getDefault().newWatchService();
+            dir.toPath().register(watchService, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+            ConfigWatcher watcher = new ConfigWatcher(file, watchService, manager);
+            watcher.thread.start();
+            return watcher;
+        } catch (IOException e) {
+            Logger.getLogger(ConfigWatcher.class).error("监听配置文件" + file + "失败", e);
+            return null;
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running){
+                WatchKey key = watchService.take();
+                boolean changed = drain(key);
+
+                // 合并连续的修改事件, 同一目录中其他文件的事件不推迟重新加载
+                long quietUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DEBOUNCE_MILLIS);
+                while (changed){
+                    long remaining = quietUntil - System.nanoTime();
+                    if (remaining <= 0){
+                        break;
+                    }
+                    WatchKey next = watchService.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null){
+                        break;
+                    }
+                    if (drain(next)){
+                        quietUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DEBOUNCE_MILLIS);
+                    }
+                }
+
+                if (changed && running){
+                    try {
+                        manager.reload();
+                    } catch (RuntimeException e) {
+                        log.error("重新加载配置文件失败", e);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // 已经关闭
+        }
+    }
+
+    /**
+     * 取出目录中的事件
+     * @return 是否包含配置文件的事件
+     * */
+    private boolean drain(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()){
+            if (file.equals(event.context())){
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    void close() {
+        running = false;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.error("关闭配置文件监听失败", e);
+        }
+    }
+}
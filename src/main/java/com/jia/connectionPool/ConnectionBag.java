@@ -0,0 +1,299 @@
+package com.jia.connectionPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.jia.connectionPool.PoolEntry.STATE_IN_USE;
+import static com.jia.connectionPool.PoolEntry.STATE_NOT_IN_USE;
+import static com.jia.connectionPool.PoolEntry.STATE_REMOVED;
+
+/**
+ * 无锁的连接容器
+ *
+ * 所有连接保存在一个写时复制的列表中, 借用时通过CAS把连接状态从空闲改为使用中,
+ * 线程本地保存上一次归还的连接作为快速路径, 没有空闲连接时进入先进先出的等待队列,
+ * 归还的连接直接交给等待时间最长的线程
+ * */
+final class ConnectionBag {
+
+    /**
+     * 容器状态的监听者
+     * */
+    interface BagStateListener {
+
+        /**
+         * 有线程进入等待队列
+         * @param waiting 当前等待的线程数目
+         * */
+        void onWaiting(int waiting);
+    }
+
+    // 全部连接, 只在创建和移除连接时写入
+    private final CopyOnWriteArrayList<PoolEntry> sharedList = new CopyOnWriteArrayList<PoolEntry>();
+
+    // 当前线程上一次归还的连接
+    private final ThreadLocal<PoolEntry> lastUsed = new ThreadLocal<PoolEntry>();
+
+    // 先进先出的等待队列
+    private final ConcurrentLinkedQueue<Waiter> waitQueue = new ConcurrentLinkedQueue<Waiter>();
+
+    // 等待队列的长度
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    private final BagStateListener listener;
+
+    ConnectionBag(BagStateListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 不等待地借用一个空闲连接
+     * 已经有线程在排队时直接返回null, 新来的线程不能插队
+     * @return 已经标记为使用中的连接, 没有可用连接时返回null
+     * */
+    PoolEntry poll() {
+        if (waiters.get() > 0) {
+            return null;
+        }
+
+        // 优先尝试当前线程上一次使用过的连接
+        PoolEntry entry = lastUsed.get();
+        if (entry != null) {
+            lastUsed.remove();
+            if (entry.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE)) {
+                return entry;
+            }
+        }
+        return scan();
+    }
+
+    private PoolEntry scan() {
+        for (PoolEntry e : sharedList) {
+            if (e.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE)) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 借用一个空闲连接, 没有空闲连接时排队等待
+     * @param deadline 等待的截止时间, 与System.nanoTime()比较
+     * @return 已经标记为使用中的连接, 超时返回null
+     * @throws InterruptedException
+     * */
+    PoolEntry borrow(long deadline) throws InterruptedException {
+        PoolEntry entry = poll();
+        if (entry != null || deadline - System.nanoTime() <= 0) {
+            return entry;
+        }
+
+        Waiter waiter = new Waiter(Thread.currentThread());
+        waiters.incrementAndGet();
+        waitQueue.offer(waiter);
+
+        // 入队之后再扫描一次, 入队之前归还的连接不会被交接过来
+        entry = scan();
+        if (entry != null) {
+            if (cancel(waiter)) {
+                return entry;
+            }
+            // 已经被交接了另一个连接, 把扫描到的连接还回去
+            handoff(entry);
+            return waiter.getEntry();
+        }
+
+        // 通知连接池在后台补充连接, 先归还的连接和新创建的连接谁先到就用谁
+        listener.onWaiting(waiters.get());
+
+        while (!waiter.isFulfilled()) {
+            if (waiter.isCancelled()) {
+                // 已经被abortWaiters()放弃
+                return null;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return cancel(waiter) ? null : waiter.getEntry();
+            }
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) {
+                if (cancel(waiter)) {
+                    throw new InterruptedException();
+                }
+                Thread.currentThread().interrupt();
+            }
+        }
+        return waiter.getEntry();
+    }
+
+    /**
+     * 不阻塞地借用一个空闲连接, 没有空闲连接时把等待者放入队列后立即返回
+     * 之后归还或者新建的连接在交接的线程上通过waiter.wake()通知等待者
+     * @param waiter 异步的等待者
+     * @return 借到的连接, 已经入队(或者已经在这里被交接了连接)时返回null
+     * */
+    PoolEntry borrowAsync(Waiter waiter) {
+        PoolEntry entry = poll();
+        if (entry != null) {
+            return entry;
+        }
+
+        waiters.incrementAndGet();
+        waitQueue.offer(waiter);
+
+        // 入队之后再扫描一次, 入队之前归还的连接不会被交接过来
+        entry = scan();
+        if (entry != null) {
+            if (cancel(waiter)) {
+                return entry;
+            }
+            // 已经被交接了另一个连接并通知了等待者, 把扫描到的连接还回去
+            handoff(entry);
+            return null;
+        }
+
+        listener.onWaiting(waiters.get());
+        return null;
+    }
+
+    /**
+     * 取消等待并移出等待队列
+     * @param waiter 等待者
+     * @return 已经被交接了连接时返回false
+     * */
+    boolean cancel(Waiter waiter) {
+        if (waiter.cancel()) {
+            if (waitQueue.remove(waiter)) {
+                waiters.decrementAndGet();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 归还连接, 有线程在等待时直接交接给等待时间最长的线程
+     * @param entry 要归还的连接
+     * */
+    void requite(PoolEntry entry) {
+        if (!handoff(entry)) {
+            lastUsed.set(entry);
+        }
+    }
+
+    /**
+     * 后台线程检查完空闲连接后放回, 不记录线程本地的快速路径
+     * @param entry 由后台线程占用的连接
+     * */
+    void unreserve(PoolEntry entry) {
+        handoff(entry);
+    }
+
+    /**
+     * 把空闲连接依次尝试交给队首的等待者
+     * @param entry 状态为空闲的连接
+     * @return 连接是否已经被其他线程取走
+     * */
+    private boolean handoff(PoolEntry entry) {
+        entry.setState(STATE_NOT_IN_USE);
+        // 计数在入队之前增加, 计数大于0但队列为空时不等待入队, 连接留在容器中由入队后重新扫描的线程取走
+        while (waiters.get() > 0 && !waitQueue.isEmpty()) {
+            if (!entry.compareAndSet(STATE_NOT_IN_USE, STATE_IN_USE)) {
+                // 已经被入队后扫描的线程取走
+                return true;
+            }
+            Waiter waiter = waitQueue.poll();
+            if (waiter != null) {
+                waiters.decrementAndGet();
+                if (waiter.fulfill(entry)) {
+                    return true;
+                }
+            }
+            entry.setState(STATE_NOT_IN_USE);
+        }
+        return false;
+    }
+
+    /**
+     * 让全部等待者立即返回null
+     * @return 被放弃的等待者数目
+     * */
+    int abortWaiters() {
+        int aborted = 0;
+        Waiter waiter;
+        while ((waiter = waitQueue.poll()) != null) {
+            waiters.decrementAndGet();
+            if (waiter.abort()) {
+                aborted++;
+            }
+        }
+        return aborted;
+    }
+
+    /**
+     * 添加一个新的连接
+     * @param entry 新建的连接, 状态为使用中时表示直接交给创建者使用
+     * */
+    void add(PoolEntry entry) {
+        sharedList.add(entry);
+        if (entry.getState() == STATE_NOT_IN_USE) {
+            handoff(entry);
+        }
+    }
+
+    /**
+     * 从容器中移除连接
+     * @param entry 要移除的连接
+     * @return 是否由本次调用完成移除
+     * */
+    boolean remove(PoolEntry entry) {
+        if (!entry.compareAndSet(STATE_IN_USE, STATE_REMOVED)
+                && !entry.compareAndSet(STATE_NOT_IN_USE, STATE_REMOVED)) {
+            return false;
+        }
+        return sharedList.remove(entry);
+    }
+
+    /**
+     * 获取全部连接的快照
+     * */
+    List<PoolEntry> values() {
+        return new ArrayList<PoolEntry>(sharedList);
+    }
+
+    /**
+     * 统计处于指定状态的连接数目
+     * @param state 连接状态
+     * @return 连接数目
+     * */
+    int count(int state) {
+        int count = 0;
+        for (PoolEntry e : sharedList) {
+            if (e.getState() == state) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    int size() {
+        return sharedList.size();
+    }
+
+    int getWaitingThreadCount() {
+        return waiters.get();
+    }
+
+    /**
+     * 获取队首等待者已经等待的时间
+     * @return 已等待的纳秒数, 没有等待者时返回0
+     * */
+    long getOldestWaitNanos() {
+        Waiter waiter = waitQueue.peek();
+        return waiter == null ? 0 : System.nanoTime() - waiter.enqueueTime;
+    }
+}
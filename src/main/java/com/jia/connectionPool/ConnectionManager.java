@@ -1,21 +1,58 @@
 package com.jia.connectionPool;
 
+import com.jia.connectionPool.batch.WriteCoalescer;
+import com.jia.connectionPool.cache.QueryCache;
+import com.jia.connectionPool.metrics.MetricsTracker;
+import com.jia.connectionPool.metrics.MetricsTrackerFactory;
+import com.jia.connectionPool.metrics.PoolEventLog;
+import com.jia.connectionPool.metrics.PoolStatsMXBean;
+import com.jia.connectionPool.routing.LatencyAwareBalancer;
+import com.jia.connectionPool.routing.LeastActiveBalancer;
+import com.jia.connectionPool.routing.LoadBalancer;
+import com.jia.connectionPool.routing.ReadWriteRouter;
+import com.jia.connectionPool.routing.RoundRobinBalancer;
+import com.jia.connectionPool.routing.ScatterGather;
+import com.jia.connectionPool.routing.ShardRouter;
+import com.jia.entity.PriorityClass;
 import com.jia.entity.PropertiesBean;
 import com.jia.utils.PropertiesManager;
 import org.apache.log4j.Logger;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ConnectionManager {
 
     private final Logger log = Logger.getLogger(ConnectionManager.class);
 
-    private static ConnectionManager dbm = null;
+    private static volatile ConnectionManager dbm = null;
+
+    /**
+     * 创建单例时需要建立连接, 使用ReentrantLock避免虚拟线程在监视器锁中阻塞
+     * */
+    private static final ReentrantLock instanceLock = new ReentrantLock();
 
     /**
      * 加载驱动器名称集合
@@ -27,8 +64,175 @@ public class ConnectionManager {
      * */
     private ConcurrentHashMap<String, IConnectionPool> pools = new ConcurrentHashMap<>();
 
+    /**
+     * 每个节点熔断时依次改用的节点
+     * */
+    private ConcurrentHashMap<String, List<String>> failovers = new ConcurrentHashMap<>();
+
+    /**
+     * 读写分离的分组, 重新加载配置时整体替换
+     * */
+    private volatile ConcurrentHashMap<String, ReadWriteRouter> routers = new ConcurrentHashMap<>();
+
+    /**
+     * 按分片键选择节点的分组, 重新加载配置时整体替换
+     * */
+    private volatile ConcurrentHashMap<String, ShardRouter> shardRouters = new ConcurrentHashMap<>();
+
+    /**
+     * 各个节点的写入合并
+     * */
+    private ConcurrentHashMap<String, WriteCoalescer> coalescers = new ConcurrentHashMap<>();
+
+    /**
+     * 各个节点的查询结果缓存
+     * */
+    private ConcurrentHashMap<String, QueryCache> queryCaches = new ConcurrentHashMap<>();
+
+    /**
+     * 在多个节点上并行执行查询
+     * */
+    private ScatterGather scatterGather;
+
+    /**
+     * 重新加载配置时加锁, 避免文件监听和手动调用同时修改连接池
+     * */
+    private final ReentrantLock reloadLock = new ReentrantLock();
+
+    /**
+     * 监听配置文件的变化, 没有开启时为null
+     * */
+    private ConfigWatcher configWatcher;
+
+    /**
+     * 是否把连接池指标注册为JMX MBean
+     * */
+    private final boolean jmxEnabled = Boolean.parseBoolean(PropertiesManager.getPorperty("jmx", "false").trim());
+
+    /**
+     * 全部连接池共用的维护线程, 负责补充最小连接数、回收空闲连接和保活
+     * */
+    private final ScheduledThreadPoolExecutor housekeeper = createHousekeeper();
+
     private ConnectionManager(){
+        configureEventLog();
         createPools();
+        createRouters();
+        createShardRouters();
+        createCoalescers();
+        createQueryCaches();
+        createScatterGather();
+        watchConfig();
+    }
+
+    /**
+     * 设置连接池事件日志的级别, 借出、归还等事件由后台线程异步输出
+     * */
+    private void configureEventLog(){
+        String level = PropertiesManager.getPorperty("eventlevel", "info");
+        int parsed = PoolEventLog.parseLevel(level, -1);
+        if (parsed < 0){
+            log.error("连接池事件级别设置有误, 默认设置为info");
+            parsed = PoolEventLog.INFO;
+        }
+        int capacity = parseInt("eventbuffer", PoolEventLog.DEFAULT_CAPACITY,
+                "连接池事件缓冲区大小设置有误, 默认设置为" + PoolEventLog.DEFAULT_CAPACITY);
+        boolean jfr = Boolean.parseBoolean(PropertiesManager.getPorperty("eventjfr", "false").trim());
+        PoolEventLog.configure(parsed, capacity, jfr);
+    }
+
+    /**
+     * 开启watchconfig时监听配置文件, 修改后自动重新加载
+     * */
+    private void watchConfig(){
+        if (!Boolean.parseBoolean(PropertiesManager.getPorperty("watchconfig", "false").trim())){
+            return;
+        }
+        File file = PropertiesManager.configFile();
+        if (file == null){
+            log.error("配置文件不在文件系统中, 无法监听配置文件的变化");
+            return;
+        }
+        configWatcher = ConfigWatcher.start(file, this);
+        if (configWatcher != null){
+            log.info("开始监听配置文件" + file);
+        }
+    }
+
+    /**
+     * 重新读取配置文件并应用到正在运行的连接池, 不会断开现有的连接
+     * 新增的节点创建连接池; 删除的节点停止借出连接, 使用中的连接归还后关闭;
+     * 其余节点在原来的连接池上应用新的配置, 连接地址或者账号变化时现有连接在归还后逐个替换.
+     * 写入合并和查询缓存按新的配置创建或者关闭, 已经存在的保留原来的参数
+     * */
+    public void reload(){
+        reloadLock.lock();
+        try {
+            if (!PropertiesManager.reload()){
+                log.error("重新读取配置文件失败, 继续使用原来的配置");
+                return;
+            }
+            String nodename = PropertiesManager.getProperty("nodename");
+            Set<String> names = new HashSet<String>();
+            if (nodename != null){
+                for (String name : nodename.split(",")){
+                    names.add(name);
+                }
+            }
+
+            // 删除的节点
+            for (String name : new ArrayList<String>(pools.keySet())){
+                if (!names.contains(name)){
+                    // 先执行完已经提交的写入再停止连接池
+                    closeCoalescer(name);
+                    queryCaches.remove(name);
+                    IConnectionPool pool = pools.remove(name);
+                    failovers.remove(name);
+                    if (jmxEnabled){
+                        unregisterMBean(name);
+                    }
+                    pool.drain();
+                    log.info("删除" + name + "数据库连接池");
+                }
+            }
+
+            for (String name : names){
+                PropertiesBean bean = loadBean(name);
+                if (bean == null){
+                    continue;
+                }
+                loadDriver(bean.getDriverName());
+                IConnectionPool pool = pools.get(name);
+                if (pool == null){
+                    warmUp(Collections.singletonList(createPool(name, bean)));
+                } else {
+                    pool.reconfigure(bean);
+                }
+            }
+
+            configureEventLog();
+            createRouters();
+            createShardRouters();
+            createCoalescers();
+            createQueryCaches();
+            log.info("重新加载配置文件完成");
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+
+    private static ScheduledThreadPoolExecutor createHousekeeper(){
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "connection-pool-housekeeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return executor;
     }
 
     /**
@@ -37,129 +241,689 @@ public class ConnectionManager {
     private void createPools(){
         String nodename = PropertiesManager.getProperty("nodename");
 
+        List<ConnectionPool> created = new ArrayList<ConnectionPool>();
         for (String name : nodename.split(",")){
-            PropertiesBean bean = new PropertiesBean();
-            bean.setNodeName(name);
+            PropertiesBean bean = loadBean(name);
+            if (bean != null){
+                loadDriver(bean.getDriverName());
+                created.add(createPool(name, bean));
+            }
+        }
+        warmUp(created);
+    }
 
+    /**
+     * 并行创建各个节点的初始连接
+     * 各个节点轮流提交预热任务, 每个节点都尽早得到第一个连接; 一个节点失败或者很慢不影响其他节点
+     * lazyinit为true时立即返回, 否则最多等待startuptimeout, 没有完成的连接在后台继续创建
+     *
+     * @param created 新创建的连接池
+     * */
+    private void warmUp(List<ConnectionPool> created){
+        int tasks = 0;
+        int rounds = 0;
+        for (ConnectionPool pool : created){
+            int initConnections = pool.getPropertiesBean().getInitConnections();
+            tasks += initConnections;
+            rounds = Math.max(rounds, initConnections);
+        }
+        if (tasks == 0){
+            return;
+        }
 
-            // 检测url配置
-            String url = PropertiesManager.getProperty(name + ".url");
-            if (url == null){
-                log.error(name + "节点url为空, 请检查配置文件");
-                continue;
+        // 验证预热线程数
+        String startupThreads = PropertiesManager.getPorperty("startupthreads", "8");
+        int threads;
+        try {
+            threads = Integer.parseInt(startupThreads.trim());
+            if (threads <= 0){
+                throw new NumberFormatException();
             }
-            bean.setUrl(url);
+        } catch (NumberFormatException e) {
+            log.error("预热线程数设置有误, 默认设置为8");
+            threads = 8;
+        }
 
-            // 检测driver配置
-            String driver = PropertiesManager.getProperty(name + ".driver");
-            if (driver == null){
-                log.error(name + "节点driver为空, 请检查配置文件");
-                continue;
+        // 验证启动时等待预热完成的最长时间
+        String startupTimeout = PropertiesManager.getPorperty("startuptimeout", "10000");
+        long timeout;
+        try {
+            timeout = Long.parseLong(startupTimeout.trim());
+        } catch (NumberFormatException e) {
+            log.error("启动等待时间设置有误, 默认设置为10000ms");
+            timeout = 10000;
+        }
+        boolean lazy = Boolean.parseBoolean(PropertiesManager.getPorperty("lazyinit", "false").trim());
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "connection-pool-warmup");
+                thread.setDaemon(true);
+                return thread;
             }
-            bean.setDriverName(driver);
+        });
+        executor.allowCoreThreadTimeOut(true);
 
-            // 验证user配置
-            String user = PropertiesManager.getProperty(name + ".user");
-            if (user == null){
-                log.error(name + "节点用户名设置为空, 请检查配置文件");
-                continue;
+        final CountDownLatch latch = new CountDownLatch(tasks);
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++){
+            for (final ConnectionPool pool : created){
+                if (round < pool.getPropertiesBean().getInitConnections()){
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                pool.warmUp();
+                            } finally {
+                                latch.countDown();
+                            }
+                        }
+                    });
+                }
             }
-            bean.setUsername(user);
+        }
+        executor.shutdown();
 
-            // 验证password配置
-            String password = PropertiesManager.getProperty(name + ".password");
-            if (password == null){
-                log.error(name + "节点密码设置为空, 请检查配置文件");
-                continue;
+        if (lazy){
+            log.info("连接池在后台预热, 共" + tasks + "个初始连接");
+            return;
+        }
+        boolean finished;
+        try {
+            finished = latch.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finished = false;
+        }
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        for (ConnectionPool pool : created){
+            PropertiesBean bean = pool.getPropertiesBean();
+            int total = pool.getTotalConnections();
+            if (total < bean.getInitConnections()){
+                log.error(bean.getNodeName() + "节点初始连接只创建了" + total + "/" + bean.getInitConnections() + "个, 剩余的连接在后台继续创建");
             }
-            bean.setPassword(password);
+        }
+        if (finished){
+            log.info("连接池预热完成, 耗时" + elapsed + "ms");
+        } else {
+            log.error("连接池预热超过" + timeout + "ms没有完成, 剩余的连接在后台继续创建");
+        }
+    }
 
+    /**
+     * 解析节点的配置
+     *
+     * @param name 节点名称
+     * @return 节点配置, 必填项缺失时返回null
+     * */
+    private PropertiesBean loadBean(String name){
+        PropertiesBean bean = new PropertiesBean();
+        bean.setNodeName(name);
 
-            // 验证最小连接数目配置
-            String minConnections = PropertiesManager.getProperty(name + ".minconnections");
-            int minConn;
 
-            try {
-                minConn = Integer.parseInt(minConnections);
-            } catch (NumberFormatException e) {
-                log.error(name + "节点最小数目设置有误, 默认设置为5");
-                minConn = 5;
+        // 检测url配置
+        String url = PropertiesManager.getProperty(name + ".url");
+        if (url == null){
+            log.error(name + "节点url为空, 请检查配置文件");
+            return null;
+        }
+        bean.setUrl(url);
+
+        // 检测driver配置
+        String driver = PropertiesManager.getProperty(name + ".driver");
+        if (driver == null){
+            log.error(name + "节点driver为空, 请检查配置文件");
+            return null;
+        }
+        bean.setDriverName(driver);
+
+        // 验证user配置
+        String user = PropertiesManager.getProperty(name + ".user");
+        if (user == null){
+            log.error(name + "节点用户名设置为空, 请检查配置文件");
+            return null;
+        }
+        bean.setUsername(user);
+
+        // 验证password配置
+        String password = PropertiesManager.getProperty(name + ".password");
+        if (password == null){
+            log.error(name + "节点密码设置为空, 请检查配置文件");
+            return null;
+        }
+        bean.setPassword(password);
+
+
+        // 验证最小连接数目配置
+        String minConnections = PropertiesManager.getProperty(name + ".minconnections");
+        int minConn;
+
+        try {
+            minConn = Integer.parseInt(minConnections);
+        } catch (NumberFormatException e) {
+            log.error(name + "节点最小数目设置有误, 默认设置为5");
+            minConn = 5;
+        }
+        bean.setMinConnections(minConn);
+
+        // 验证初试连接数目配置
+        String initConnections = PropertiesManager.getProperty(name + ".initconnections");
+        int initConn;
+
+        try {
+            initConn = Integer.parseInt(initConnections);
+        } catch (NumberFormatException e) {
+            log.error(name + "节点初始连接数目设置有误, 默认设置为5");
+            initConn = 5;
+        }
+        bean.setInitConnections(initConn);
+
+        // 验证最大连接数目配置是否正确
+        String maxConnections = PropertiesManager.getProperty(name + ".maxconnections");
+        int maxConn;
+
+        try {
+            maxConn = Integer.parseInt(maxConnections);
+        } catch (NumberFormatException e) {
+            log.error(name + "节点最大连接数目设置有误, 默认设置为30");
+            maxConn = 30;
+        }
+        bean.setMaxConnections(maxConn);
+
+
+        // 验证重连间隔时间
+        String conninterval = PropertiesManager.getProperty(name + ".conninterval");
+        int  intervalTime;
+        try {
+            intervalTime = Integer.parseInt(conninterval);
+        } catch (NumberFormatException e) {
+            log.error(name + "节点重连时间设置有误, 默认设置为500ms");
+            intervalTime = 500;
+        }
+        bean.setConnectionInterval(intervalTime);
+
+        // 验证超时时间
+        String timeout = PropertiesManager.getProperty(name + ".timeout");
+        int timeoutTime;
+        try {
+            timeoutTime = Integer.parseInt(timeout);
+        } catch (NumberFormatException e) {
+            log.error(name + "节点超时时间设置有误, 默认设置为2000ms");
+            timeoutTime = 2000;
+        }
+        bean.setTimeout(timeoutTime);
+
+        // 验证创建连接的最小间隔, 未配置时不限制
+        String createInterval = PropertiesManager.getPorperty(name + ".createinterval", "0");
+        int createIntervalTime;
+        try {
+            createIntervalTime = Integer.parseInt(createInterval.trim());
+        } catch (NumberFormatException e) {
+            log.error(name + "节点创建连接间隔设置有误, 默认不限制");
+            createIntervalTime = 0;
+        }
+        bean.setCreateInterval(createIntervalTime);
+
+        // 验证等待队列长度, 未配置时不限制
+        String maxWaiters = PropertiesManager.getPorperty(name + ".maxwaiters", "0");
+        int maxWaitersNum;
+        try {
+            maxWaitersNum = Integer.parseInt(maxWaiters.trim());
+        } catch (NumberFormatException e) {
+            log.error(name + "节点等待队列长度设置有误, 默认不限制");
+            maxWaitersNum = 0;
+        }
+        bean.setMaxWaiters(maxWaitersNum);
+
+        // 验证预编译语句缓存大小, 未配置时不缓存
+        String stmtCacheSize = PropertiesManager.getPorperty(name + ".stmtcachesize", "0");
+        int stmtCacheSizeNum;
+        try {
+            stmtCacheSizeNum = Integer.parseInt(stmtCacheSize.trim());
+        } catch (NumberFormatException e) {
+            log.error(name + "节点预编译语句缓存大小设置有误, 默认不缓存");
+            stmtCacheSizeNum = 0;
+        }
+        bean.setStatementCacheSize(stmtCacheSizeNum);
+
+        bean.setLoadShedding(Boolean.parseBoolean(PropertiesManager.getPorperty(name + ".loadshedding", "false").trim()));
+
+        // 验证空闲超时时间
+        String idleTimeout = PropertiesManager.getPorperty(name + ".idletimeout", "600000");
+        long idleTimeoutTime;
+        try {
+            idleTimeoutTime = Long.parseLong(idleTimeout.trim());
+        } catch (NumberFormatException e) {
+            log.error(name + "节点空闲超时时间设置有误, 默认设置为600000ms");
+            idleTimeoutTime = 600000;
+        }
+        bean.setIdleTimeout(idleTimeoutTime);
+
+        // 验证最大存活时间, 应当比数据库的wait_timeout短
+        String maxLifetime = PropertiesManager.getPorperty(name + ".maxlifetime", "1800000");
+        long maxLifetimeTime;
+        try {
+            maxLifetimeTime = Long.parseLong(maxLifetime.trim());
+        } catch (NumberFormatException e) {
+            log.error(name + "节点最大存活时间设置有误, 默认设置为1800000ms");
+            maxLifetimeTime = 1800000;
+        }
+        bean.setMaxLifetime(maxLifetimeTime);
+
+        // 验证保活间隔
+        String keepaliveTime = PropertiesManager.getPorperty(name + ".keepalivetime", "120000");
+        long keepaliveTimeTime;
+        try {
+            keepaliveTimeTime = Long.parseLong(keepaliveTime.trim());
+        } catch (NumberFormatException e) {
+            log.error(name + "节点保活间隔设置有误, 默认设置为120000ms");
+            keepaliveTimeTime = 120000;
+        }
+        bean.setKeepaliveTime(keepaliveTimeTime);
+
+        // 验证维护任务的执行间隔
+        String housekeepingInterval = PropertiesManager.getPorperty(name + ".housekeepinginterval", "5000");
+        long housekeepingIntervalTime;
+        try {
+            housekeepingIntervalTime = Long.parseLong(housekeepingInterval.trim());
+            if (housekeepingIntervalTime <= 0){
+                throw new NumberFormatException();
             }
-            bean.setMinConnections(minConn);
+        } catch (NumberFormatException e) {
+            log.error(name + "节点维护任务间隔设置有误, 默认设置为5000ms");
+            housekeepingIntervalTime = 5000;
+        }
+        bean.setHousekeepingInterval(housekeepingIntervalTime);
 
-            // 验证初试连接数目配置
-            String initConnections = PropertiesManager.getProperty(name + ".initconnections");
-            int initConn;
+        // 验证连接检测方式, 选择query时必须配置测试语句
+        String validation = PropertiesManager.getPorperty(name + ".validation", "isvalid").trim();
+        String testQuery = PropertiesManager.getProperty(name + ".testquery");
+        ValidationMode mode = ValidationMode.of(validation);
+        if (mode == null){
+            log.error(name + "节点连接检测方式设置有误, 默认设置为isvalid");
+            mode = ValidationMode.ISVALID;
+        } else if (mode == ValidationMode.QUERY && (testQuery == null || testQuery.trim().isEmpty())){
+            log.error(name + "节点没有设置测试语句, 默认使用isvalid检测连接");
+            mode = ValidationMode.ISVALID;
+        }
+        bean.setValidation(mode.name().toLowerCase());
+        bean.setTestQuery(testQuery == null ? null : testQuery.trim());
 
-            try {
-                initConn = Integer.parseInt(initConnections);
-            } catch (NumberFormatException e) {
-                log.error(name + "节点初始连接数目设置有误, 默认设置为5");
-                initConn = 5;
+        // 验证检测超时时间
+        String validationTimeout = PropertiesManager.getPorperty(name + ".validationtimeout", "3000");
+        int validationTimeoutTime;
+        try {
+            validationTimeoutTime = Integer.parseInt(validationTimeout.trim());
+        } catch (NumberFormatException e) {
+            log.error(name + "节点检测超时时间设置有误, 默认设置为3000ms");
+            validationTimeoutTime = 3000;
+        }
+        bean.setValidationTimeout(validationTimeoutTime);
+
+        // 验证跳过检测的时间窗口
+        String validationSkip = PropertiesManager.getPorperty(name + ".validationskip", "500");
+        long validationSkipTime;
+        try {
+            validationSkipTime = Long.parseLong(validationSkip.trim());
+        } catch (NumberFormatException e) {
+            log.error(name + "节点跳过检测的时间设置有误, 默认设置为500ms");
+            validationSkipTime = 500;
+        }
+        bean.setValidationSkipWindow(validationSkipTime);
+
+        // 验证熔断阈值
+        String breakerThreshold = PropertiesManager.getPorperty(name + ".breakerthreshold", "3");
+        int breakerThresholdNum;
+        try {
+            breakerThresholdNum = Integer.parseInt(breakerThreshold.trim());
+        } catch (NumberFormatException e) {
+            log.error(name + "节点熔断阈值设置有误, 默认设置为3");
+            breakerThresholdNum = 3;
+        }
+        bean.setBreakerThreshold(breakerThresholdNum);
+
+        // 验证自适应调整的配置
+        bean.setAdaptive(Boolean.parseBoolean(PropertiesManager.getPorperty(name + ".adaptive", "false").trim()));
+        String adaptiveInterval = PropertiesManager.getPorperty(name + ".adaptiveinterval", "1000");
+        long adaptiveIntervalTime;
+        try {
+            adaptiveIntervalTime = Long.parseLong(adaptiveInterval.trim());
+            if (adaptiveIntervalTime <= 0){
+                throw new NumberFormatException();
             }
-            bean.setInitConnections(initConn);
+        } catch (NumberFormatException e) {
+            log.error(name + "节点自适应调整周期设置有误, 默认设置为1000ms");
+            adaptiveIntervalTime = 1000;
+        }
+        bean.setAdaptiveInterval(adaptiveIntervalTime);
 
-            // 验证最大连接数目配置是否正确
-            String maxConnections = PropertiesManager.getProperty(name + ".maxconnections");
-            int maxConn;
+        String adaptiveWait = PropertiesManager.getPorperty(name + ".adaptivewait", "5");
+        long adaptiveWaitTime;
+        try {
+            adaptiveWaitTime = Long.parseLong(adaptiveWait.trim());
+        } catch (NumberFormatException e) {
+            log.error(name + "节点自适应调整等待阈值设置有误, 默认设置为5ms");
+            adaptiveWaitTime = 5;
+        }
+        bean.setAdaptiveWaitThreshold(adaptiveWaitTime);
 
+        // 验证泄漏检测的配置
+        String leakThreshold = PropertiesManager.getPorperty(name + ".leakthreshold", "0");
+        long leakThresholdTime;
+        try {
+            leakThresholdTime = Long.parseLong(leakThreshold.trim());
+        } catch (NumberFormatException e) {
+            log.error(name + "节点泄漏检测时间设置有误, 默认不检测");
+            leakThresholdTime = 0;
+        }
+        bean.setLeakThreshold(leakThresholdTime);
+
+        String leakTrace = PropertiesManager.getPorperty(name + ".leaktrace", "auto").trim();
+        int leakTraceSample;
+        if ("auto".equalsIgnoreCase(leakTrace)){
+            leakTraceSample = LeakDetector.TRACE_AUTO;
+        } else if ("always".equalsIgnoreCase(leakTrace)){
+            leakTraceSample = 1;
+        } else if ("never".equalsIgnoreCase(leakTrace)){
+            leakTraceSample = 0;
+        } else {
             try {
-                maxConn = Integer.parseInt(maxConnections);
+                leakTraceSample = Integer.parseInt(leakTrace);
+                if (leakTraceSample < 0){
+                    throw new NumberFormatException();
+                }
             } catch (NumberFormatException e) {
-                log.error(name + "节点最大连接数目设置有误, 默认设置为30");
-                maxConn = 30;
+                log.error(name + "节点借出位置记录方式设置有误, 默认设置为auto");
+                leakTraceSample = LeakDetector.TRACE_AUTO;
             }
-            bean.setMaxConnections(maxConn);
+        }
+        bean.setLeakTraceSample(leakTraceSample);
 
+        String leakReclaim = PropertiesManager.getPorperty(name + ".leakreclaim", "0");
+        long leakReclaimTime;
+        try {
+            leakReclaimTime = Long.parseLong(leakReclaim.trim());
+        } catch (NumberFormatException e) {
+            log.error(name + "节点泄漏回收时间设置有误, 默认不回收");
+            leakReclaimTime = 0;
+        }
+        bean.setLeakReclaim(leakReclaimTime);
 
-            // 验证重连间隔时间
-            String conninterval = PropertiesManager.getProperty(name + ".conninterval");
-            int  intervalTime;
-            try {
-                intervalTime = Integer.parseInt(conninterval);
-            } catch (NumberFormatException e) {
-                log.error(name + "节点重连时间设置有误, 默认设置为500ms");
-                intervalTime = 500;
+        bean.setPriorityClasses(loadPriorityClasses(name, bean.getMaxConnections()));
+
+        // 熔断时改用的节点
+        String failover = PropertiesManager.getProperty(name + ".failover");
+        if (failover != null && !failover.trim().isEmpty()){
+            List<String> peers = new ArrayList<String>();
+            for (String peer : failover.split(",")){
+                if (!peer.trim().isEmpty()){
+                    peers.add(peer.trim());
+                }
             }
-            bean.setConnectionInterval(intervalTime);
+            failovers.put(name, peers);
+        } else {
+            failovers.remove(name);
+        }
 
-            // 验证超时时间
-            String timeout = PropertiesManager.getProperty(name + ".timeout");
-            int timeoutTime;
+        return bean;
+    }
+
+    /**
+     * 解析节点的优先级类别, 预留的连接数之和超过最大连接数时按优先级从高到低分配
+     *
+     * @param name 节点名称
+     * @param maxConnections 节点的最大连接数
+     * @return 按优先级从高到低排列的类别, 没有配置时为空
+     * */
+    private List<PriorityClass> loadPriorityClasses(String name, int maxConnections){
+        String classNames = PropertiesManager.getProperty(name + ".priorityclasses");
+        if (classNames == null || classNames.trim().isEmpty()){
+            return Collections.emptyList();
+        }
+        List<PriorityClass> classes = new ArrayList<PriorityClass>();
+        int unreserved = maxConnections;
+        for (String className : classNames.split(",")){
+            className = className.trim();
+            if (className.isEmpty()){
+                continue;
+            }
+            int reserved = parseInt(name + "." + className + ".reserved", 0,
+                    name + "节点" + className + "类别预留连接数设置有误, 默认不预留");
+            int max = parseInt(name + "." + className + ".max", maxConnections,
+                    name + "节点" + className + "类别最大连接数设置有误, 默认设置为" + maxConnections);
+            if (reserved > unreserved){
+                log.error(name + "节点预留连接数之和超过最大连接数, " + className + "类别只预留" + unreserved + "个");
+                reserved = unreserved;
+            }
+            unreserved -= reserved;
+            classes.add(new PriorityClass(className, reserved, Math.max(Math.min(max, maxConnections), reserved)));
+        }
+        return classes;
+    }
+
+    /**
+     * 加载JDBC驱动, 已经加载过的驱动不重复加载
+     *
+     * @param driverName 驱动类名
+     * */
+    private void loadDriver(String driverName){
+        if (!drivers.contains(driverName)){
             try {
-                timeoutTime = Integer.parseInt(timeout);
-            } catch (NumberFormatException e) {
-                log.error(name + "节点超时时间设置有误, 默认设置为2000ms");
-                timeoutTime = 2000;
-            }
-            bean.setConnectionInterval(timeoutTime);
-
-            // 创建驱动
-            if (!drivers.contains(bean.getDriverName())){
-                try {
-                    System.out.println(bean.getDriverName());
-                    Class.forName(bean.getDriverName());
-                    log.info("加载JDBC驱动" + bean.getDriverName()+"成功");
-                    drivers.add(bean.getDriverName());
-                } catch (ClassNotFoundException e) {
-                    log.error("未找到JDBC驱动" + bean.getDriverName() + "请倒入相关驱动包");
-                    e.printStackTrace();
-                }
+                Class.forName(driverName);
+                log.info("加载JDBC驱动" + driverName+"成功");
+                drivers.add(driverName);
+            } catch (ClassNotFoundException e) {
+                log.error("未找到JDBC驱动" + driverName + "请倒入相关驱动包");
+                e.printStackTrace();
             }
+        }
+    }
+
+    /**
+     * 创建连接池并注册到管理器, 初始连接由warmUp()创建
+     * 节点暂时无法连接时连接池仍然注册, 由熔断和后台重连处理
+     *
+     * @param name 节点名称
+     * @param bean 节点配置
+     * @return 新创建的连接池
+     * */
+    private ConnectionPool createPool(String name, PropertiesBean bean){
+        ConnectionPool cp = ConnectionPool.createEmptyPool(bean);
+
+        pools.put(name, cp);
+        if (jmxEnabled){
+            registerMBean(name, cp);
+        }
+        cp.checkPool(housekeeper);
+        log.info("创建" +name+"数据库连接池成功");
+        return cp;
+    }
+
+    /**
+     * 根据groups配置把节点组成读写分离的分组
+     * */
+    private void createRouters(){
+        ConcurrentHashMap<String, ReadWriteRouter> routers = new ConcurrentHashMap<>();
+        String groups = PropertiesManager.getProperty("groups");
+        if (groups == null || groups.trim().isEmpty()){
+            this.routers = routers;
+            return;
+        }
 
+        for (String group : groups.split(",")){
+            group = group.trim();
 
-            // 创建连接池
-            IConnectionPool cp = ConnectionPool.CreateConnectionPool(bean);
+            // 检测主库配置
+            String primaryName = PropertiesManager.getProperty(group + ".primary");
+            IConnectionPool primary = primaryName == null ? null : pools.get(primaryName.trim());
+            if (primary == null){
+                log.error(group + "分组主库节点" + primaryName + "不存在, 请检查配置文件");
+                continue;
+            }
 
-            System.out.println(cp);
-            if (cp != null){
-                pools.put(name, cp);
-                cp.checkPool();
-                log.info("创建" +name+"数据库连接池成功");
+            // 检测从库配置, 不存在的节点跳过
+            List<IConnectionPool> replicas = new ArrayList<IConnectionPool>();
+            String replicaNames = PropertiesManager.getPorperty(group + ".replicas", "");
+            for (String replicaName : replicaNames.split(",")){
+                replicaName = replicaName.trim();
+                if (replicaName.isEmpty()){
+                    continue;
+                }
+                IConnectionPool replica = pools.get(replicaName);
+                if (replica == null){
+                    log.error(group + "分组从库节点" + replicaName + "不存在, 请检查配置文件");
+                    continue;
+                }
+                replicas.add(replica);
+            }
+
+            // 验证负载均衡策略
+            String balance = PropertiesManager.getPorperty(group + ".balance", "roundrobin").trim();
+            LoadBalancer loadBalancer;
+            if ("roundrobin".equalsIgnoreCase(balance)){
+                loadBalancer = new RoundRobinBalancer();
+            } else if ("leastactive".equalsIgnoreCase(balance)){
+                loadBalancer = new LeastActiveBalancer();
+            } else if ("latency".equalsIgnoreCase(balance)){
+                loadBalancer = new LatencyAwareBalancer();
             } else {
-                log.info("创建" +name+"数据库连接池失败");
+                log.error(group + "分组负载均衡策略设置有误, 默认设置为roundrobin");
+                loadBalancer = new RoundRobinBalancer();
             }
 
+            routers.put(group, new ReadWriteRouter(group, primary, replicas, loadBalancer));
+            log.info("创建" + group + "读写分离分组成功, 从库数目" + replicas.size());
+        }
+        this.routers = routers;
+    }
+
+    /**
+     * 根据shardgroups配置创建一致性哈希的分片分组
+     * */
+    private void createShardRouters(){
+        ConcurrentHashMap<String, ShardRouter> shardRouters = new ConcurrentHashMap<>();
+        String groups = PropertiesManager.getProperty("shardgroups");
+        if (groups == null || groups.trim().isEmpty()){
+            this.shardRouters = shardRouters;
+            return;
+        }
+
+        for (String group : groups.split(",")){
+            group = group.trim();
+            if (group.isEmpty()){
+                continue;
+            }
+
+            // 检测分片节点配置, 不存在的节点跳过
+            Map<String, IConnectionPool> shards = new LinkedHashMap<String, IConnectionPool>();
+            String shardNames = PropertiesManager.getPorperty(group + ".shards", "");
+            for (String shardName : shardNames.split(",")){
+                shardName = shardName.trim();
+                if (shardName.isEmpty()){
+                    continue;
+                }
+                IConnectionPool shard = pools.get(shardName);
+                if (shard == null){
+                    log.error(group + "分片分组节点" + shardName + "不存在, 请检查配置文件");
+                    continue;
+                }
+                shards.put(shardName, shard);
+            }
+            if (shards.isEmpty()){
+                log.error(group + "分片分组没有可用的节点, 请检查配置文件");
+                continue;
+            }
+
+            int virtualNodes = parseInt(group + ".vnodes", ShardRouter.DEFAULT_VIRTUAL_NODES,
+                    group + "分片分组虚拟节点数设置有误, 默认设置为" + ShardRouter.DEFAULT_VIRTUAL_NODES);
+            shardRouters.put(group, new ShardRouter(group, shards, virtualNodes));
+            log.info("创建" + group + "分片分组成功, 节点数目" + shards.size());
+        }
+        this.shardRouters = shardRouters;
+    }
+
+    /**
+     * 为配置了batch=true的节点创建写入合并, 关闭不再配置batch=true的节点的写入合并
+     * */
+    private void createCoalescers(){
+        for (String name : pools.keySet()){
+            if (!Boolean.parseBoolean(PropertiesManager.getPorperty(name + ".batch", "false").trim())){
+                closeCoalescer(name);
+                continue;
+            }
+            if (coalescers.containsKey(name)){
+                continue;
+            }
+            int batchSize = parseInt(name + ".batchsize", 100, name + "节点每批写入数目设置有误, 默认设置为100");
+            int queueCapacity = parseInt(name + ".batchqueue", 10000, name + "节点写入队列长度设置有误, 默认设置为10000");
+            int writers = parseInt(name + ".batchwriters", 1, name + "节点写入线程数设置有误, 默认设置为1");
+            int linger = parseInt(name + ".batchlinger", 0, name + "节点凑批等待时间设置有误, 默认不等待");
+            coalescers.put(name, new WriteCoalescer(this, name, batchSize, queueCapacity, writers, linger));
+            log.info("创建" + name + "节点写入合并成功");
+        }
+    }
+
+    /**
+     * 关闭节点的写入合并, 等待已经提交的语句执行完
+     * */
+    private void closeCoalescer(String name){
+        WriteCoalescer coalescer = coalescers.remove(name);
+        if (coalescer != null){
+            coalescer.close(5, TimeUnit.SECONDS);
+            log.info("关闭" + name + "节点写入合并");
+        }
+    }
+
+    /**
+     * 为配置了querycache=true的节点创建查询结果缓存, 删除不再配置querycache=true的节点的缓存
+     * */
+    private void createQueryCaches(){
+        for (String name : pools.keySet()){
+            if (!Boolean.parseBoolean(PropertiesManager.getPorperty(name + ".querycache", "false").trim())){
+                queryCaches.remove(name);
+                continue;
+            }
+            if (queryCaches.containsKey(name)){
+                continue;
+            }
+            int ttl = parseInt(name + ".querycachettl", 60000, name + "节点查询缓存存活时间设置有误, 默认设置为60000ms");
+            int size = parseInt(name + ".querycachesize", 10000, name + "节点查询缓存数目设置有误, 默认设置为10000");
+            String memory = PropertiesManager.getPorperty(name + ".querycachememory", "67108864");
+            long maxBytes;
+            try {
+                maxBytes = Long.parseLong(memory.trim());
+            } catch (NumberFormatException e) {
+                log.error(name + "节点查询缓存内存上限设置有误, 默认设置为67108864");
+                maxBytes = 67108864;
+            }
+            queryCaches.put(name, new QueryCache(this, name, ttl, size, maxBytes));
+            log.info("创建" + name + "节点查询缓存成功");
+        }
+    }
+
+    /**
+     * 创建并行查询使用的线程池, 空闲的线程会自动退出
+     * */
+    private void createScatterGather(){
+        int threads = parseInt("scattergatherthreads", 16, "并行查询线程数设置有误, 默认设置为16");
+        int queue = parseInt("scattergatherqueue", 1000, "并行查询队列长度设置有误, 默认设置为1000");
+        scatterGather = new ScatterGather(this, threads, queue);
+    }
+
+    private int parseInt(String key, int defaultValue, String message){
+        String value = PropertiesManager.getPorperty(key, String.valueOf(defaultValue));
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed < 0){
+                throw new NumberFormatException();
+            }
+            return parsed;
+        } catch (NumberFormatException e) {
+            log.error(message);
+            return defaultValue;
         }
     }
 
@@ -168,11 +932,21 @@ public class ConnectionManager {
      *
      * @return 返回此类的单例
      * */
-    public synchronized static ConnectionManager getInstance(){
-        if (dbm == null){
-            dbm = new ConnectionManager();
+    public static ConnectionManager getInstance(){
+        ConnectionManager manager = dbm;
+        if (manager == null){
+            instanceLock.lock();
+            try {
+                manager = dbm;
+                if (manager == null){
+                    manager = new ConnectionManager();
+                    dbm = manager;
+                }
+            } finally {
+                instanceLock.unlock();
+            }
         }
-        return dbm;
+        return manager;
     }
 
     /**
@@ -182,19 +956,312 @@ public class ConnectionManager {
      * @return 连接池中的一个可用连接或者为null
      * */
     public Connection getConnection(String nodeName){
+        IConnectionPool pool = route(nodeName);
+        if (pool == null){
+            log.error("找不到" + nodeName + "连接池");
+            return null;
+        }
+        return pool.getConnection();
+    }
+
+    /**
+     * 从节点自己的连接池中获取连接, 节点熔断时也不切换到failover节点
+     * 用于必须访问指定节点的场景, 比如写入合并和在各个分片上并行查询
+     *
+     * @param nodeName 连接池的节点名称
+     * @return 连接池中的一个可用连接或者为null
+     * */
+    public Connection getNodeConnection(String nodeName){
         IConnectionPool pool = pools.get(nodeName);
+        if (pool == null){
+            log.error("找不到" + nodeName + "连接池");
+            return null;
+        }
         return pool.getConnection();
     }
 
+    /**
+     * 从节点自己的连接池中获取连接, 最多等待指定的时间, 节点熔断时也不切换到failover节点
+     *
+     * @param nodeName 连接池的节点名称
+     * @param timeout 最长等待时间, 为0时一直等待
+     * @param unit 时间单位
+     * @return 连接池中的一个可用连接或者为null
+     * */
+    public Connection getNodeConnection(String nodeName, long timeout, TimeUnit unit){
+        IConnectionPool pool = pools.get(nodeName);
+        if (pool == null){
+            log.error("找不到" + nodeName + "连接池");
+            return null;
+        }
+        return pool.getConnection(timeout, unit);
+    }
+
+    /**
+     * 从指定的连接池中获取连接, 最多等待指定的时间
+     *
+     * @param nodeName 连接池的节点名称
+     * @param timeout 最长等待时间, 为0时一直等待
+     * @param unit 时间单位
+     * @return 连接池中的一个可用连接或者为null
+     * */
+    public Connection getConnection(String nodeName, long timeout, TimeUnit unit){
+        IConnectionPool pool = route(nodeName);
+        if (pool == null){
+            log.error("找不到" + nodeName + "连接池");
+            return null;
+        }
+        return pool.getConnection(timeout, unit);
+    }
+
+    /**
+     * 按优先级类别从指定的连接池中获取连接
+     *
+     * @param nodeName 连接池的节点名称
+     * @param priorityClass 节点配置的优先级类别, 没有配置的类别按最低优先级处理
+     * @return 连接池中的一个可用连接或者为null
+     * */
+    public Connection getConnection(String nodeName, String priorityClass){
+        IConnectionPool pool = route(nodeName);
+        if (pool == null){
+            log.error("找不到" + nodeName + "连接池");
+            return null;
+        }
+        return pool.getConnection(priorityClass);
+    }
+
+    /**
+     * 按优先级类别从指定的连接池中获取连接, 最多等待指定的时间
+     *
+     * @param nodeName 连接池的节点名称
+     * @param priorityClass 节点配置的优先级类别, 没有配置的类别按最低优先级处理
+     * @param timeout 最长等待时间, 为0时一直等待
+     * @param unit 时间单位
+     * @return 连接池中的一个可用连接或者为null
+     * */
+    public Connection getConnection(String nodeName, String priorityClass, long timeout, TimeUnit unit){
+        IConnectionPool pool = route(nodeName);
+        if (pool == null){
+            log.error("找不到" + nodeName + "连接池");
+            return null;
+        }
+        return pool.getConnection(priorityClass, timeout, unit);
+    }
+
+    /**
+     * 从指定的连接池中异步获取连接, 等待期间不占用线程
+     *
+     * @param nodeName 连接池的节点名称
+     * @return 获取到连接时完成, 找不到连接池时以异常完成
+     * */
+    public CompletableFuture<Connection> getConnectionAsync(String nodeName){
+        IConnectionPool pool = route(nodeName);
+        if (pool == null){
+            return missingPool(nodeName);
+        }
+        return pool.getConnectionAsync();
+    }
+
+    /**
+     * 从指定的连接池中异步获取连接, 最多等待指定的时间
+     *
+     * @param nodeName 连接池的节点名称
+     * @param timeout 最长等待时间, 为0时一直等待
+     * @param unit 时间单位
+     * @return 获取到连接时完成, 超时或者找不到连接池时以异常完成
+     * */
+    public CompletableFuture<Connection> getConnectionAsync(String nodeName, long timeout, TimeUnit unit){
+        IConnectionPool pool = route(nodeName);
+        if (pool == null){
+            return missingPool(nodeName);
+        }
+        return pool.getConnectionAsync(timeout, unit);
+    }
+
+    /**
+     * 在指定节点上打开一层不开启事务的范围, 嵌套的范围共用一个连接
+     *
+     * @param nodeName 连接池的节点名称
+     * @return 事务范围, 使用完后必须关闭
+     * @throws SQLException 找不到连接池或者获取连接失败
+     * */
+    public TransactionScope openScope(String nodeName) throws SQLException{
+        return openScope(nodeName, false);
+    }
+
+    /**
+     * 在指定节点上打开一层事务范围, 嵌套的范围共用一个连接, 最外层的范围关闭时归还
+     *
+     * @param nodeName 连接池的节点名称
+     * @param transactional 是否需要事务, 已经在事务中时加入外层的事务
+     * @return 事务范围, 使用完后必须关闭
+     * @throws SQLException 找不到连接池、获取连接或者开启事务失败
+     * */
+    public TransactionScope openScope(String nodeName, boolean transactional) throws SQLException{
+        IConnectionPool pool = scopePool(nodeName);
+        if (pool == null){
+            throw new SQLException("找不到" + nodeName + "连接池");
+        }
+        return pool.openScope(transactional);
+    }
+
+    /**
+     * 选择打开事务范围的连接池
+     * 当前线程已经在节点或者它的failover节点上打开了范围时继续使用该连接池, 不因为熔断状态变化而换用其他连接
+     * */
+    private IConnectionPool scopePool(String nodeName){
+        IConnectionPool pool = pools.get(nodeName);
+        if (pool == null || pool.inScope()){
+            return pool;
+        }
+        List<String> peers = failovers.get(nodeName);
+        if (peers != null){
+            for (String peer : peers){
+                IConnectionPool peerPool = pools.get(peer);
+                if (peerPool != null && peerPool.inScope()){
+                    return peerPool;
+                }
+            }
+        }
+        return route(nodeName);
+    }
+
+    private CompletableFuture<Connection> missingPool(String nodeName){
+        log.error("找不到" + nodeName + "连接池");
+        CompletableFuture<Connection> future = new CompletableFuture<Connection>();
+        future.completeExceptionally(new SQLException("找不到" + nodeName + "连接池"));
+        return future;
+    }
+
+    /**
+     * 选择实际使用的连接池
+     * 节点熔断时按failover配置的顺序改用第一个正常的节点, 都不正常时仍使用原节点, 由原节点直接返回失败
+     *
+     * @param nodeName 连接池的节点名称
+     * @return 连接池
+     * */
+    private IConnectionPool route(String nodeName){
+        IConnectionPool pool = pools.get(nodeName);
+        if (pool == null || pool.getHealth().isAvailable()){
+            return pool;
+        }
+        List<String> peers = failovers.get(nodeName);
+        if (peers != null){
+            for (String peer : peers){
+                IConnectionPool peerPool = pools.get(peer);
+                if (peerPool != null && peerPool.getHealth().isAvailable()){
+                    return peerPool;
+                }
+            }
+        }
+        return pool;
+    }
+
+
+    /**
+     * 获取读写分离的分组
+     *
+     * @param group 分组名称
+     * @return 读写分离路由, 找不到分组时返回null
+     * */
+    public ReadWriteRouter getRouter(String group){
+        return routers.get(group);
+    }
+
+    /**
+     * 从读写分离的分组中获取连接, 只读时使用从库
+     *
+     * @param group 分组名称
+     * @param readOnly 是否只读
+     * @return 可用连接或者为null
+     * */
+    public Connection getConnection(String group, boolean readOnly){
+        ReadWriteRouter router = routers.get(group);
+        if (router == null){
+            log.error("找不到" + group + "读写分离分组");
+            return null;
+        }
+        return router.getConnection(readOnly);
+    }
+
+    /**
+     * 获取分片分组
+     *
+     * @param group 分组名称
+     * @return 分片路由, 找不到分组时返回null
+     * */
+    public ShardRouter getShardRouter(String group){
+        return shardRouters.get(group);
+    }
+
+    /**
+     * 从分片键所在的节点获取连接, 节点熔断时按failover配置改用其他节点
+     *
+     * @param group 分片分组名称
+     * @param key 分片键
+     * @return 可用连接或者为null
+     * */
+    public Connection getShardConnection(String group, long key){
+        ShardRouter router = shardRouters.get(group);
+        if (router == null){
+            log.error("找不到" + group + "分片分组");
+            return null;
+        }
+        return getConnection(router.nodeOf(key));
+    }
+
+    /**
+     * 从分片键所在的节点获取连接, 节点熔断时按failover配置改用其他节点
+     *
+     * @param group 分片分组名称
+     * @param key 分片键
+     * @return 可用连接或者为null
+     * */
+    public Connection getShardConnection(String group, String key){
+        ShardRouter router = shardRouters.get(group);
+        if (router == null){
+            log.error("找不到" + group + "分片分组");
+            return null;
+        }
+        return getConnection(router.nodeOf(key));
+    }
+
+    /**
+     * 获取在多个节点上并行执行查询的执行器
+     * */
+    public ScatterGather getScatterGather(){
+        return scatterGather;
+    }
+
+    /**
+     * 获取节点的写入合并
+     *
+     * @param nodeName 节点名称
+     * @return 写入合并, 节点没有配置batch=true时返回null
+     * */
+    public WriteCoalescer getWriteCoalescer(String nodeName){
+        return coalescers.get(nodeName);
+    }
+
+    /**
+     * 获取节点的查询结果缓存
+     *
+     * @param nodeName 节点名称
+     * @return 查询结果缓存, 节点没有配置querycache=true时返回null
+     * */
+    public QueryCache getQueryCache(String nodeName){
+        return queryCaches.get(nodeName);
+    }
 
     /**
      * 回收指定连接池的连接
+     * 节点熔断时连接可能来自failover节点, 连接池中借出的连接总是归还到它实际所属的连接池
      *
      * @param poolName 连接池名称
      * @param conn 要回收的连接
      */
     public void closeConnection(String poolName, Connection conn) throws SQLException{
-        IConnectionPool pool = pools.get(poolName);
+        IConnectionPool pool = conn instanceof PooledConnection ? ((PooledConnection) conn).pool : pools.get(poolName);
         if (pool != null){
             try {
                 pool.releaseConnection(conn);
@@ -202,18 +1269,94 @@ public class ConnectionManager {
                 log.error("回收"+poolName+"池中的连接失败");
                 throw new SQLException(e);
             }
+        }else if (conn != null){
+            // 不是从连接池借出的连接, 找不到连接池时直接关闭
+            conn.close();
         }else {
             log.error("找不到"+poolName+"连接池, 无法回收");
         }
     }
 
+    /**
+     * 获取指定连接池的指标记录对象
+     *
+     * @param nodeName 连接池的节点名称
+     * @return 指标记录对象, 默认为PoolStats; 找不到连接池时返回null
+     * */
+    public MetricsTracker getMetricsTracker(String nodeName){
+        IConnectionPool pool = pools.get(nodeName);
+        return pool == null ? null : pool.getMetricsTracker();
+    }
+
+    /**
+     * 为全部连接池替换指标记录对象, 例如接入外部的监控系统
+     *
+     * @param factory 为每个节点创建指标记录对象
+     * */
+    public void setMetricsTrackerFactory(MetricsTrackerFactory factory){
+        for (Map.Entry<String, IConnectionPool> poolEntry : pools.entrySet()){
+            IConnectionPool pool = poolEntry.getValue();
+            pool.setMetricsTracker(factory.create(poolEntry.getKey(), pool));
+            if (jmxEnabled){
+                registerMBean(poolEntry.getKey(), pool);
+            }
+        }
+    }
+
+    private static ObjectName mbeanName(String nodeName) throws MalformedObjectNameException {
+        return new ObjectName("com.jia.connectionPool:type=Pool,name=" + ObjectName.quote(nodeName));
+    }
+
+    /**
+     * 把连接池的指标注册为JMX MBean, 已经注册过时先注销旧的
+     * 指标记录对象没有实现PoolStatsMXBean时不注册
+     * */
+    private void registerMBean(String nodeName, IConnectionPool pool){
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = mbeanName(nodeName);
+            if (server.isRegistered(objectName)){
+                server.unregisterMBean(objectName);
+            }
+            if (pool.getMetricsTracker() instanceof PoolStatsMXBean){
+                server.registerMBean(pool.getMetricsTracker(), objectName);
+            }
+        } catch (JMException e) {
+            log.error("注册" + nodeName + "连接池MBean失败", e);
+        }
+    }
+
+    private void unregisterMBean(String nodeName){
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName objectName = mbeanName(nodeName);
+            if (server.isRegistered(objectName)){
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            log.error("注销" + nodeName + "连接池MBean失败", e);
+        }
+    }
+
     /**
      * 销毁全部的连接
      * */
     public void destory(){
+        if (configWatcher != null){
+            configWatcher.close();
+        }
+        // 先执行完已经提交的写入再关闭连接池
+        for (WriteCoalescer coalescer : coalescers.values()){
+            coalescer.close(5, TimeUnit.SECONDS);
+        }
+        scatterGather.shutdown();
+        housekeeper.shutdownNow();
         for (Map.Entry<String, IConnectionPool> poolEntry : pools.entrySet()){
             IConnectionPool pool = poolEntry.getValue();
             pool.destory();
+            if (jmxEnabled){
+                unregisterMBean(poolEntry.getKey());
+            }
         }
     }
 
@@ -1,19 +1,30 @@
 package com.jia.connectionPool;
 
+import com.jia.connectionPool.metrics.MetricsTracker;
+import com.jia.connectionPool.metrics.PoolEventLog;
+import com.jia.connectionPool.metrics.PoolStats;
 import com.jia.entity.PropertiesBean;
 import org.apache.log4j.Logger;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
-import java.util.LinkedList;
-import java.util.TimerTask;
-import java.util.concurrent.Executors;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
 
 /**
@@ -24,37 +35,100 @@ public class  ConnectionPool implements IConnectionPool {
     // 打印日志
     private static final Logger log = Logger.getLogger(ConnectionPool.class);
 
-    // 解析properties文件所得到的节点实体类
-    private PropertiesBean propertiesBean = null;
+    // 解析properties文件所得到的节点实体类, 重新加载配置时整体替换
+    private volatile PropertiesBean propertiesBean = null;
 
     // 连接池可用状态
-    private Boolean isActive = true;
+    private volatile boolean isActive = true;
 
-    // 空闲连接池 这里删除插入比较频繁 使用LinkedList比较好
-    private LinkedList<Connection> freeConnections = new LinkedList<Connection>();
+    // 全部连接, 借出和归还通过CAS完成, 不需要对连接池加锁
+    private final ConnectionBag connectionBag = new ConnectionBag(new ConnectionBag.BagStateListener() {
+        @Override
+        public void onWaiting(int waiting) {
+            fillPool();
+        }
+    });
+
+    // 后台创建连接的线程, 借用连接的线程不需要等待TCP握手和认证
+    private ThreadPoolExecutor fillerExecutor;
+
+    // 后台补充连接的任务是否已经提交
+    private final AtomicBoolean fillScheduled = new AtomicBoolean();
+
+    // 上一次创建连接的时间 单位毫秒
+    private long lastCreateTime;
+
+    // 连续创建连接失败的次数
+    private int createFailures;
+
+    // 热点路径上的指标记录
+    private volatile MetricsTracker metricsTracker = new PoolStats(this);
 
-    // 活动的连接池 活动连接数 <= 允许的最大的连接数 maxConnections;
-    private LinkedList<Connection> activeConnections = new LinkedList<Connection>();
+    // 预编译语句缓存命中次数
+    private final LongAdder statementCacheHits = new LongAdder();
+
+    // 预编译语句缓存未命中次数
+    private final LongAdder statementCacheMisses = new LongAdder();
+
+    // 创建失败后最长的退避时间 单位毫秒
+    private static final long MAX_BACKOFF_MILLIS = 30000;
+
+    // 连接总数(包括正在创建中的), 总数 <= 允许的最大的连接数 maxConnections;
+    private final AtomicInteger totalConnections = new AtomicInteger();
+
+    // 不设置超时时间时的最长等待时间, 避免计算截止时间时溢出
+    private static final long MAX_WAIT_NANOS = Long.MAX_VALUE >> 1;
 
     // 当前线程获得的连接
     private ThreadLocal<Connection> currentConnection = new ThreadLocal<Connection>();
 
+    // 当前线程通过事务范围绑定的连接
+    private final ThreadLocal<TransactionScope.Binding> scopeBinding = new ThreadLocal<TransactionScope.Binding>();
+
+    // 借出连接前的检测方式
+    private ValidationMode validationMode = ValidationMode.ISVALID;
+
+    // 节点的健康状态, 连续创建连接失败后熔断
+    private NodeHealth health = new NodeHealth(0);
+
+    // 自适应调整连接池大小, 没有开启时为null
+    private volatile PoolSizer sizer;
+
+    // 按优先级类别分配借用连接的许可, 没有配置优先级类别时为null
+    private volatile PriorityQuota quota;
+
+    // 连接泄漏检测
+    private final LeakDetector leakDetector = new LeakDetector(this);
+
+    // 注册维护任务的共享定时器
+    private volatile ScheduledExecutorService scheduler;
+
+    // 在共享定时器上注册的自适应调整任务
+    private volatile ScheduledFuture<?> sizingTask;
+
+    // 在共享定时器上注册的维护任务
+    private volatile ScheduledFuture<?> housekeepingTask;
+
+    // 在共享定时器上注册的状态输出任务
+    private volatile ScheduledFuture<?> statusTask;
+
 
     private ConnectionPool() {
         super();
     }
 
     public static ConnectionPool CreateConnectionPool(PropertiesBean propertiesBean){
-        ConnectionPool connectionPool = new ConnectionPool();
-        connectionPool.propertiesBean = propertiesBean;
+        ConnectionPool connectionPool = createEmptyPool(propertiesBean);
 
         // 初始化时根据配置中的配置的初始连接数目创建指定数目的连接
         for (int i  = 0; i < connectionPool.propertiesBean.getInitConnections(); i++){
             try {
-                Connection conn = connectionPool.newConnection();
-                connectionPool.freeConnections.add(conn);
+                if (connectionPool.addConnection() == null){
+                    break;
+                }
             } catch (SQLException e) {
                 log.error(connectionPool.propertiesBean.getNodeName()+"节点连接池初始化失败");
+                connectionPool.destory();
                 return null;
             }
         }
@@ -62,10 +136,76 @@ public class  ConnectionPool implements IConnectionPool {
         return connectionPool;
     }
 
+    /**
+     * 创建一个还没有连接的连接池, 初始连接由调用者通过warmUp()创建
+     * 连接池立即可用, 预热完成前借连接的线程排队等待新建的连接
+     * @param propertiesBean 节点配置
+     * @return 连接池
+     * */
+    static ConnectionPool createEmptyPool(PropertiesBean propertiesBean){
+        ConnectionPool connectionPool = new ConnectionPool();
+        connectionPool.propertiesBean = propertiesBean;
+        connectionPool.fillerExecutor = createFillerExecutor(propertiesBean.getNodeName());
+        connectionPool.validationMode = validationMode(propertiesBean);
+        connectionPool.health = new NodeHealth(propertiesBean.getBreakerThreshold());
+        connectionPool.quota = createQuota(propertiesBean);
+        if (propertiesBean.isAdaptive()){
+            connectionPool.sizer = new PoolSizer(connectionPool);
+        }
+        return connectionPool;
+    }
+
+    private static PriorityQuota createQuota(PropertiesBean propertiesBean){
+        if (propertiesBean.getPriorityClasses().isEmpty()){
+            return null;
+        }
+        return new PriorityQuota(propertiesBean.getPriorityClasses(), propertiesBean.getMaxConnections());
+    }
+
+    /**
+     * 预热时创建初始连接, 可以由多个线程同时调用
+     * 两次创建之间至少间隔createInterval毫秒; 达到初始连接数、创建失败或者节点熔断后返回
+     * @return 本次调用创建的连接数
+     * */
+    int warmUp(){
+        int created = 0;
+        long createInterval = this.propertiesBean.getCreateInterval();
+        while (this.isActive && this.health.isAvailable()
+                && this.totalConnections.get() < this.propertiesBean.getInitConnections()){
+            try {
+                if (created > 0 && createInterval > 0){
+                    Thread.sleep(createInterval);
+                }
+                // 按初始连接数占用名额, 多个线程同时预热时不会超过初始连接数
+                if (this.addConnection(this.propertiesBean.getInitConnections()) == null){
+                    break;
+                }
+                created++;
+            } catch (SQLException e) {
+                // 只在第一次失败时输出堆栈, 其余的预热线程不重复输出
+                if (this.health.getConsecutiveFailures() == 1){
+                    log.error(this.propertiesBean.getNodeName() + "节点预热时创建连接失败", e);
+                }
+                break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return created;
+    }
+
+    private static ValidationMode validationMode(PropertiesBean propertiesBean){
+        ValidationMode mode = ValidationMode.of(propertiesBean.getValidation());
+        if (mode == ValidationMode.QUERY && propertiesBean.getTestQuery() == null){
+            mode = null;
+        }
+        return mode == null ? ValidationMode.ISVALID : mode;
+    }
+
     /**
      * 创建一个新的连接
      * @return 数据库连接对象
-     * @throws ClassNotFoundException
      * @throws SQLException
      * */
     private Connection newConnection() throws SQLException{
@@ -80,17 +220,258 @@ public class  ConnectionPool implements IConnectionPool {
                 throw new SQLException(e);
             }
         }
+        return conn;
+    }
 
-        if (conn != null){
+    /**
+     * 创建后台补充连接的线程池, 单线程依次创建, 空闲一段时间后线程自动退出
+     * @param nodeName 节点名称
+     * @return 线程池
+     * */
+    private static ThreadPoolExecutor createFillerExecutor(final String nodeName){
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, nodeName + "-connection-filler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 在不超过最大连接数的前提下创建一个新的空闲连接并加入连接池
+     * 有线程在等待时新连接直接交接给等待时间最长的线程
+     * @return 新加入的连接, 已经达到最大连接数时返回null
+     * @throws SQLException
+     * */
+    private PoolEntry addConnection() throws SQLException{
+        return this.addConnection(this.propertiesBean.getMaxConnections());
+    }
+
+    /**
+     * 在连接总数不超过limit的前提下创建一个新的空闲连接并加入连接池
+     * @param limit 连接总数的上限, 不超过最大连接数
+     * @return 新加入的连接, 已经达到上限时返回null
+     * @throws SQLException
+     * */
+    private PoolEntry addConnection(int limit) throws SQLException{
+        limit = Math.min(limit, this.propertiesBean.getMaxConnections());
+        // 先占用名额再创建连接, 创建过程不持有任何锁
+        int total;
+        do {
+            total = this.totalConnections.get();
+            if (total >= limit){
+                return null;
+            }
+        } while (!this.totalConnections.compareAndSet(total, total + 1));
 
-            ConnProxy connProxy = new ConnProxy(conn, this);
-            conn = connProxy.newInstance();
+        Connection conn = null;
+        SessionState sessionState;
+        long start = System.nanoTime();
+        try {
+            conn = this.newConnection();
+            // 读取一次会话的默认状态, 之后的读取和重复设置不再访问数据库
+            sessionState = new SessionState(conn);
+        } catch (SQLException e) {
+            if (conn != null){
+                closeQuietly(conn);
+            }
+            this.totalConnections.decrementAndGet();
+            this.metricsTracker.recordCreateFailure();
+            if (this.health.recordFailure()){
+                // 排队的线程不可能在超时前拿到新连接, 立即返回
+                int aborted = this.connectionBag.abortWaiters();
+                log.error(this.propertiesBean.getNodeName() + "节点连续" + this.health.getConsecutiveFailures()
+                        + "次创建连接失败, 熔断, 放弃等待的线程" + aborted + "个");
+            }
+            throw e;
+        }
+        long createNanos = System.nanoTime() - start;
+        this.metricsTracker.recordCreate(createNanos);
+        PoolEventLog.record(PoolEventLog.CREATE, this.propertiesBean.getNodeName(), createNanos);
+        if (this.health.recordSuccess()){
+            log.info(this.propertiesBean.getNodeName() + "节点重新连接成功, 恢复正常");
+        }
+
+        PoolEntry entry = new PoolEntry(conn, sessionState, this.propertiesBean.getStatementCacheSize(), this.lifetime());
+        this.connectionBag.add(entry);
+        return entry;
+    }
+
+    private void closeQuietly(Connection conn){
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            log.error(this.propertiesBean.getNodeName() + "节点关闭连接失败", e);
+        }
+    }
+
+    /**
+     * 计算新连接的存活时间
+     * 在最大存活时间的基础上随机减少最多2.5%, 避免同一批创建的连接同时到期
+     * @return 存活时间 单位毫秒, 0表示不限制
+     * */
+    long lifetime(){
+        long maxLifetime = this.propertiesBean.getMaxLifetime();
+        if (maxLifetime <= 0){
+            return 0;
+        }
+        long variance = maxLifetime > 10000 ? ThreadLocalRandom.current().nextLong(maxLifetime / 40) : 0;
+        return maxLifetime - variance;
+    }
+
+    /**
+     * 通知后台线程补充连接, 已经有补充任务在执行时不重复提交
+     * */
+    void fillPool(){
+        if (this.isActive && this.fillScheduled.compareAndSet(false, true)){
+            try {
+                this.fillerExecutor.execute(new PoolFiller());
+            } catch (RejectedExecutionException e) {
+                this.fillScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * 判断是否需要补充连接
+     * 连接总数低于最小连接数, 或者有线程在等待, 或者节点熔断需要尝试重新连接, 且没有达到最大连接数
+     * */
+    private boolean needMoreConnections(){
+        int total = this.totalConnections.get();
+        if (total >= this.propertiesBean.getMaxConnections()){
+            return false;
+        }
+        return total < this.minimumSize() || this.connectionBag.getWaitingThreadCount() > 0
+                || !this.health.isAvailable();
+    }
+
+    /**
+     * 保持预热的连接数目, 开启自适应调整时由PoolSizer决定, 否则为最小连接数
+     * */
+    private int minimumSize(){
+        PoolSizer sizer = this.sizer;
+        return sizer == null ? this.propertiesBean.getMinConnections() : sizer.getTargetSize();
+    }
+
+    /**
+     * 关闭空闲连接, 直到连接总数不超过指定数目
+     * @param size 保留的连接数目
+     * @return 关闭的连接数目
+     * */
+    int closeIdleAbove(int size){
+        int closed = 0;
+        for (PoolEntry entry : this.connectionBag.values()){
+            if (this.totalConnections.get() <= size){
+                break;
+            }
+            if (entry.compareAndSet(PoolEntry.STATE_NOT_IN_USE, PoolEntry.STATE_IN_USE)){
+                this.closeEntry(entry);
+                closed++;
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * 获取连接总数, 包括正在创建中的连接
+     * */
+    int getTotalConnections(){
+        return this.totalConnections.get();
+    }
+
+    /**
+     * 后台补充连接的任务
+     * 两次创建之间至少间隔createInterval毫秒, 创建失败后以重连间隔时间为基数指数退避
+     * */
+    class PoolFiller implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    while (isActive && needMoreConnections()){
+                        try {
+                            long wait = Math.max(lastCreateTime + propertiesBean.getCreateInterval() - System.currentTimeMillis(), 0);
+                            if (createFailures > 0){
+                                // 退避时间从上一次尝试开始计算
+                                wait = Math.max(wait, lastCreateTime + backoffMillis() - System.currentTimeMillis());
+                            }
+                            if (wait > 0){
+                                Thread.sleep(wait);
+                                continue;
+                            }
+
+                            lastCreateTime = System.currentTimeMillis();
+                            health.beginProbe();
+                            try {
+                                if (addConnection() == null){
+                                    break;
+                                }
+                                createFailures = 0;
+                            } catch (SQLException e) {
+                                createFailures++;
+                                String message = propertiesBean.getNodeName() + "节点创建连接失败, 第" + createFailures
+                                        + "次, " + backoffMillis() + "ms后重试";
+                                // 只在第一次失败时输出堆栈, 节点宕机期间不重复刷屏
+                                if (createFailures == 1){
+                                    log.error(message, e);
+                                } else {
+                                    log.warn(message + ": " + e.getMessage());
+                                }
+                            }
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+
+                    // 任务结束前再检查一次, 避免错过结束期间到达的补充请求
+                    fillScheduled.set(false);
+                    if (!isActive || !needMoreConnections() || !fillScheduled.compareAndSet(false, true)){
+                        return;
+                    }
+                }
+            } catch (RuntimeException e) {
+                fillScheduled.set(false);
+                throw e;
+            }
+        }
+
+        private long backoffMillis(){
+            long base = Math.max(propertiesBean.getConnectionInterval(), 1);
+            int shift = Math.min(createFailures - 1, 16);
+            return Math.min(base << shift, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    /**
+     * 关闭连接并从连接池中移除
+     * @param entry 要移除的连接
+     * */
+    private void closeEntry(PoolEntry entry){
+        if (this.connectionBag.remove(entry)){
+            this.totalConnections.decrementAndGet();
+            if (this.isActive){
+                this.metricsTracker.recordEviction();
+            }
+            PoolEventLog.record(PoolEventLog.EVICT, this.propertiesBean.getNodeName(), 0);
+            if (entry.statementCache != null){
+                // 关闭物理连接时驱动会关闭上面的全部Statement
+                entry.statementCache.clear();
+            }
+            try {
+                entry.connection.close();
+            } catch (SQLException e) {
+                log.error(this.propertiesBean.getNodeName() + "节点关闭连接失败", e);
+            }
         }
-        return conn;
     }
 
     /**
-     * 检验连接是否有效
+     * 检验连接是否已经关闭, 只检查驱动本地的状态, 不与数据库交互
      * @param  connection 连接对象
      * @return 连接是否有效的判断
      * */
@@ -105,210 +486,939 @@ public class  ConnectionPool implements IConnectionPool {
         return true;
     }
 
+    /**
+     * 借出前检测连接是否可用
+     * 连接在跳过检测的时间窗口内被使用或检测过时认为可用, 繁忙的连接不会每次借出都与数据库交互一次
+     * @param entry 已经占用的连接
+     * @param now 当前时间 单位毫秒
+     * @return 连接是否可用
+     * */
+    private boolean isAlive(PoolEntry entry, long now) throws SQLException{
+        if (!this.isValidConnection(entry.connection)){
+            return false;
+        }
+        if (now - Math.max(entry.lastAccessed, entry.lastKeepalive) < this.propertiesBean.getValidationSkipWindow()){
+            return true;
+        }
+        if (this.validate(entry.connection)){
+            entry.lastKeepalive = now;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 按照配置的检测方式检测连接, 借出前和保活时使用
+     * @param connection 物理连接
+     * @return 连接是否可用
+     * */
+    private boolean validate(Connection connection){
+        // 超时时间向上取整为秒, 0表示不限制
+        int timeoutSeconds = (int) ((this.propertiesBean.getValidationTimeout() + 999L) / 1000);
+        try {
+            switch (this.validationMode) {
+                case NONE:
+                    return true;
+                case QUERY:
+                    Statement statement = connection.createStatement();
+                    try {
+                        statement.setQueryTimeout(timeoutSeconds);
+                        statement.execute(this.propertiesBean.getTestQuery());
+                    } finally {
+                        statement.close();
+                    }
+                    // 手动提交模式下测试语句会开启事务, 回滚后再交给应用程序
+                    if (!connection.getAutoCommit()){
+                        connection.rollback();
+                    }
+                    return true;
+                default:
+                    return connection.isValid(timeoutSeconds);
+            }
+        } catch (SQLException e) {
+            log.warn(this.propertiesBean.getNodeName() + "节点连接检测失败: " + e.getMessage());
+            return false;
+        }
+    }
 
-    public synchronized Connection getConnection() {
-        Connection conn = null;
 
-        if (this.getActiveNum() < this.propertiesBean.getMaxConnections()){
-            // 当前活跃的连接没有达到最大的连接数
-            // 在连接池没有达到最大的连接数之前, 如果有可用的空闲连接就直接使用空闲连接, 否则创建新的连接
-            if (this.getFreeNum() > 0){
-                log.info("从空闲连接池中获取连接");
-                conn = this.freeConnections.pollFirst();
-
-                //连接闲置久了也会超时，因此空闲池中的有效连接会越来越少，需要另一个进程进行扫描监测，不断保持一定数量的可用连接
-                //在下面定义了checkFreepools的TimerTask类，在checkPool()方法中进行调用
-                // 由于数据库连接闲置久了会超时关闭，因此需要连接池采用机制保证每次请求的连接都是有效可用的
-                try {
-                    if (this.isValidConnection(conn)){
-                        this.activeConnections.add(conn);
-                        currentConnection.set(conn);
-                    }else{
-                        // 同步方法, 可重入锁
-                        conn = getConnection();
+    public Connection getConnection() {
+        return this.getConnection(this.propertiesBean.getTimeout(), TimeUnit.MILLISECONDS);
+    }
+
+    public Connection getConnection(long timeout, TimeUnit unit) {
+        return this.getConnection(null, timeout, unit);
+    }
+
+    public Connection getConnection(String priorityClass) {
+        return this.getConnection(priorityClass, this.propertiesBean.getTimeout(), TimeUnit.MILLISECONDS);
+    }
+
+    public Connection getConnection(String priorityClass, long timeout, TimeUnit unit) {
+        if (!this.isActive){
+            return null;
+        }
+
+        // 整个请求只计算一次截止时间, 超时时间为0时一直等待, 直到有可用连接
+        long timeoutNanos = timeout > 0 ? Math.min(unit.toNanos(timeout), MAX_WAIT_NANOS) : MAX_WAIT_NANOS;
+        long start = System.nanoTime();
+        long deadline = start + timeoutNanos;
+
+        PriorityQuota quota = this.quota;
+        PriorityQuota.Level level = null;
+        int permit = PriorityQuota.NONE;
+        try {
+            if (quota != null){
+                // 先按优先级拿到许可, 拿到许可的请求在连接池中排队时前面最多只有最大连接数个请求
+                level = quota.classOf(priorityClass);
+                if (quota.getWaitingCount() > 0 && this.shouldShed(timeoutNanos)){
+                    this.metricsTracker.recordRejected();
+                    return null;
+                }
+                permit = quota.acquire(level, deadline);
+                if (permit == PriorityQuota.NONE){
+                    // 连接池停用时等待被放弃, 不算超时
+                    if (this.isActive){
+                        this.recordTimeout();
                     }
-                } catch (SQLException e) {
-                    e.printStackTrace();
+                    return null;
                 }
-            }else{
-                log.info("空闲连接池无可用连接, 创建新的连接");
-                try {
-                    conn = this.newConnection();
-                    this.activeConnections.add(conn);
-                } catch (SQLException e) {
-                    e.printStackTrace();
+            }
+            PooledConnection pooledConnection = this.borrow(start, deadline, timeoutNanos);
+            if (pooledConnection != null && permit != PriorityQuota.NONE){
+                pooledConnection.quota = quota;
+                pooledConnection.priorityClass = level;
+                pooledConnection.permit = permit;
+                permit = PriorityQuota.NONE;
+            }
+            return pooledConnection;
+        } catch (InterruptedException e) {
+            log.error("线程等待被打断");
+            Thread.currentThread().interrupt();
+        } catch (SQLException e) {
+            log.error(this.propertiesBean.getNodeName() + "节点获取连接失败", e);
+        } finally {
+            // 没有借到连接时归还许可
+            if (permit != PriorityQuota.NONE){
+                quota.release(level, permit);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 从连接池借出连接, 有可用的空闲连接就直接使用空闲连接, 否则排队等待归还的连接或者后台新创建的连接
+     * @param start 开始获取连接的时间 单位纳秒
+     * @param deadline 截止时间 单位纳秒
+     * @param timeoutNanos 本次请求的超时时间
+     * @return 借出的连接, 超时或者拒绝时返回null
+     * */
+    private PooledConnection borrow(long start, long deadline, long timeoutNanos) throws InterruptedException, SQLException {
+        while (true) {
+            PoolEntry entry = this.connectionBag.poll();
+            if (entry == null){
+                if (this.shouldShed(timeoutNanos)){
+                    this.metricsTracker.recordRejected();
+                    return null;
                 }
+                entry = this.connectionBag.borrow(deadline);
+                if (entry == null){
+                    this.recordTimeout();
+                    return null;
+                }
+            }
+
+            // 失效的连接在交给应用程序之前移除, 在截止时间内继续获取下一个连接
+            PooledConnection pooledConnection = this.checkout(entry, start, null);
+            if (pooledConnection != null){
+                return pooledConnection;
+            }
+        }
+    }
+
+    private void recordTimeout(){
+        PoolEventLog.record(PoolEventLog.TIMEOUT, this.propertiesBean.getNodeName(), 0);
+        this.metricsTracker.recordTimeout();
+        PoolSizer sizer = this.sizer;
+        if (sizer != null){
+            sizer.recordTimeout();
+        }
+    }
+
+    /**
+     * 检测连接并借出给应用程序
+     * 由于数据库连接闲置久了会超时关闭，因此需要连接池采用机制保证每次请求的连接都是有效可用的
+     * @param entry 已经标记为使用中的连接
+     * @param start 开始获取连接的时间 单位纳秒
+     * @param request 异步获取连接的请求, 同步获取时为null; 异步获取时在交接连接的线程上执行,
+     *                不记录为当前线程的连接, 借用线程和借出位置使用请求中记录的值
+     * @return 借出的连接, 连接已经失效时关闭连接并返回null
+     * @throws SQLException
+     * */
+    private PooledConnection checkout(PoolEntry entry, long start, AsyncRequest request) throws SQLException {
+        long now = System.currentTimeMillis();
+        boolean alive;
+        try {
+            alive = !entry.isPastLifetime(now) && this.isAlive(entry, now);
+        } catch (SQLException e) {
+            this.closeEntry(entry);
+            this.fillPool();
+            throw e;
+        }
+        if (!alive){
+            this.closeEntry(entry);
+            this.fillPool();
+            return null;
+        }
+
+        entry.lastAccessed = now;
+        PooledConnection pooledConnection;
+        if (request == null){
+            pooledConnection = new PooledConnection(this, entry, this.leakDetector.borrowerName(), this.leakDetector.borrowSite());
+            currentConnection.set(pooledConnection);
+        } else {
+            pooledConnection = new PooledConnection(this, entry, request.borrowerName, request.borrowSite);
+        }
+        entry.borrower = pooledConnection;
+        this.metricsTracker.recordAcquire(pooledConnection.borrowTime - start);
+        PoolEventLog.record(PoolEventLog.BORROW, this.propertiesBean.getNodeName(), pooledConnection.borrowTime - start);
+        PoolSizer sizer = this.sizer;
+        if (sizer != null){
+            sizer.recordAcquire(pooledConnection.borrowTime - start);
+        }
+        return pooledConnection;
+    }
+
+    public CompletableFuture<Connection> getConnectionAsync() {
+        return this.getConnectionAsync(this.propertiesBean.getTimeout(), TimeUnit.MILLISECONDS);
+    }
+
+    public CompletableFuture<Connection> getConnectionAsync(long timeout, TimeUnit unit) {
+        long timeoutNanos = timeout > 0 ? Math.min(unit.toNanos(timeout), MAX_WAIT_NANOS) : MAX_WAIT_NANOS;
+        final AsyncRequest request = new AsyncRequest(timeoutNanos);
+        if (!this.isActive){
+            request.future.completeExceptionally(new SQLException(this.propertiesBean.getNodeName() + "节点连接池已经停用"));
+            return request.future;
+        }
+
+        // 取消或者完成时移出等待队列并取消超时任务
+        request.future.whenComplete(new BiConsumer<Connection, Throwable>() {
+            @Override
+            public void accept(Connection connection, Throwable throwable) {
+                request.finish();
+            }
+        });
+        request.acquire();
+
+        if (timeout > 0 && !request.future.isDone()){
+            ScheduledExecutorService scheduler = this.scheduler;
+            request.timeoutTask = (scheduler != null ? scheduler : AsyncTimer.INSTANCE).schedule(new Runnable() {
+                @Override
+                public void run() {
+                    request.timeout();
+                }
+            }, timeoutNanos, TimeUnit.NANOSECONDS);
+            if (request.future.isDone()){
+                request.timeoutTask.cancel(false);
+            }
+        }
+        return request.future;
+    }
+
+    /**
+     * 没有调用checkPool()时异步获取连接使用的超时定时器
+     * */
+    private static final class AsyncTimer {
+
+        static final ScheduledThreadPoolExecutor INSTANCE = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "connection-pool-async-timeout");
+                thread.setDaemon(true);
+                return thread;
             }
-        } else{
-            // 已经达到最大连接数
-            // 当前连接池中的活动的连接数目已经达到最大的连接数目, 新的请求进入等待状态, 直到有空闲连接
-            log.info("当前已经达到最大的连接数");
-            long startTime = System.currentTimeMillis();
+        });
+
+        static {
+            INSTANCE.setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    /**
+     * 一次异步获取连接的请求
+     * 没有空闲连接时只在等待队列中放入一个等待者, 不占用任何线程;
+     * 归还或者新建的连接在交接的线程上检测后直接完成future, 超时和取消时把等待者移出队列
+     * 配置了优先级类别时先按最低优先级的类别拿到许可, 同样在等待队列中等待
+     * */
+    private final class AsyncRequest {
+
+        final CompletableFuture<Connection> future = new CompletableFuture<Connection>();
+
+        // 开始获取连接的时间 单位纳秒
+        final long start = System.nanoTime();
 
+        // 截止时间 单位纳秒
+        final long deadline;
+
+        // 当前在等待队列中的等待者
+        volatile AsyncWaiter waiter;
+
+        // 优先级许可, 没有配置优先级类别时为null
+        final PriorityQuota quota = ConnectionPool.this.quota;
+
+        final PriorityQuota.Level priorityClass = quota == null ? null : quota.classOf(null);
+
+        // 拿到的许可类型, 借出连接时转交给连接
+        final AtomicInteger permit = new AtomicInteger(PriorityQuota.NONE);
+
+        // 等待许可的等待者
+        volatile AsyncPermitWaiter permitWaiter;
+
+        volatile ScheduledFuture<?> timeoutTask;
+
+        // 发起请求的线程名称和位置, 连接通常在归还连接的线程上借出, 所以在创建请求时记录
+        final String borrowerName = leakDetector.borrowerName();
+
+        final Throwable borrowSite = leakDetector.borrowSite();
+
+        AsyncRequest(long timeoutNanos) {
+            this.deadline = start + timeoutNanos;
+        }
+
+        /**
+         * 有空闲连接时直接完成, 否则进入等待队列后返回
+         * */
+        void acquire() {
+            if (quota != null && permit.get() == PriorityQuota.NONE){
+                if (quota.getWaitingCount() > 0 && shouldShed(deadline - System.nanoTime())){
+                    metricsTracker.recordRejected();
+                    future.completeExceptionally(new SQLException(propertiesBean.getNodeName() + "节点拒绝获取连接"));
+                    return;
+                }
+                AsyncPermitWaiter permitWaiter = new AsyncPermitWaiter(this);
+                this.permitWaiter = permitWaiter;
+                int kind = quota.acquireAsync(permitWaiter);
+                if (kind == PriorityQuota.NONE){
+                    // 已经进入许可的等待队列, 拿到许可时继续
+                    return;
+                }
+                this.permitWaiter = null;
+                holdPermit(kind);
+            }
             try {
-                // 进入等待状态 等待notify() 或者 notifyAll()的调用 或者等待了超过重连时间
-                this.wait(this.propertiesBean.getConnectionInterval());
-            } catch (InterruptedException e) {
-                log.error("线程等待被打断");
+                while (!future.isDone()){
+                    PoolEntry entry = connectionBag.poll();
+                    if (entry == null){
+                        if (shouldShed(deadline - System.nanoTime())){
+                            metricsTracker.recordRejected();
+                            future.completeExceptionally(new SQLException(propertiesBean.getNodeName() + "节点拒绝获取连接"));
+                            return;
+                        }
+                        AsyncWaiter waiter = new AsyncWaiter(this);
+                        this.waiter = waiter;
+                        entry = connectionBag.borrowAsync(waiter);
+                        if (entry == null){
+                            // 已经进入等待队列, 由交接连接的线程完成; 拿到许可前超时任务已经执行过时在这里超时
+                            if (quota != null && System.nanoTime() - deadline >= 0){
+                                timeout();
+                            }
+                            return;
+                        }
+                        this.waiter = null;
+                    }
+                    if (complete(entry)){
+                        return;
+                    }
+                }
+            } catch (SQLException e) {
+                future.completeExceptionally(e);
             }
-            if (this.propertiesBean.getTimeout() != 0){
-                if (System.currentTimeMillis() - startTime > this.propertiesBean.getTimeout()){
-                    return null;
+        }
+
+        /**
+         * 检测连接后完成future, 已经取消或者超时时归还连接
+         * @return 连接已经失效时返回false
+         * */
+        private boolean complete(PoolEntry entry) throws SQLException {
+            PooledConnection pooledConnection = checkout(entry, start, this);
+            if (pooledConnection == null){
+                return false;
+            }
+            int kind = permit.getAndSet(PriorityQuota.NONE);
+            if (kind != PriorityQuota.NONE){
+                pooledConnection.quota = quota;
+                pooledConnection.priorityClass = priorityClass;
+                pooledConnection.permit = kind;
+            }
+            if (!future.complete(pooledConnection)){
+                releaseConnection(pooledConnection);
+            }
+            return true;
+        }
+
+        /**
+         * 等待者被交接了连接或者被放弃, 在交接连接的线程上执行
+         * */
+        void onWake(AsyncWaiter waiter) {
+            if (!waiter.isFulfilled()){
+                future.completeExceptionally(new SQLException(propertiesBean.getNodeName() + "节点不可用, 放弃等待"));
+                return;
+            }
+            this.waiter = null;
+            try {
+                if (!complete(waiter.getEntry())){
+                    // 交接过来的连接已经失效, 重新排队
+                    acquire();
                 }
+            } catch (SQLException e) {
+                future.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * 拿到许可, future已经完成时直接归还
+         * */
+        private void holdPermit(int kind) {
+            permit.set(kind);
+            if (future.isDone()){
+                releasePermit();
+            }
+        }
+
+        private void releasePermit() {
+            int kind = permit.getAndSet(PriorityQuota.NONE);
+            if (kind != PriorityQuota.NONE){
+                quota.release(priorityClass, kind);
+            }
+        }
+
+        /**
+         * 等待许可的等待者拿到了许可或者被放弃, 在归还许可或者停用连接池的线程上执行
+         * */
+        void onPermit(AsyncPermitWaiter permitWaiter) {
+            this.permitWaiter = null;
+            if (permitWaiter.isAborted()){
+                future.completeExceptionally(new SQLException(propertiesBean.getNodeName() + "节点不可用, 放弃等待"));
+                return;
+            }
+            holdPermit(permitWaiter.kind);
+            acquire();
+        }
+
+        void timeout() {
+            AsyncPermitWaiter permitWaiter = this.permitWaiter;
+            AsyncWaiter waiter = this.waiter;
+            if ((permitWaiter != null && quota.cancel(permitWaiter) == PriorityQuota.NONE)
+                    || (waiter != null && connectionBag.cancel(waiter))){
+                recordTimeout();
+                future.completeExceptionally(new SQLTimeoutException(propertiesBean.getNodeName() + "节点等待连接超时"));
+            }
+        }
+
+        /**
+         * future完成后取消超时任务, 被应用程序取消时移出等待队列
+         * */
+        void finish() {
+            ScheduledFuture<?> timeoutTask = this.timeoutTask;
+            if (timeoutTask != null){
+                timeoutTask.cancel(false);
+            }
+            AsyncWaiter waiter = this.waiter;
+            if (future.isCancelled() && waiter != null){
+                connectionBag.cancel(waiter);
+            }
+            AsyncPermitWaiter permitWaiter = this.permitWaiter;
+            if (future.isCancelled() && permitWaiter != null){
+                quota.cancel(permitWaiter);
+            }
+            // 没有借到连接时归还许可, 借到连接时许可已经转交给连接
+            if (quota != null){
+                releasePermit();
             }
-            conn = this.getConnection();
         }
-        return conn;
+    }
+
+    /**
+     * 异步获取连接时等待许可的等待者, 没有等待的线程
+     * */
+    private static final class AsyncPermitWaiter extends PriorityQuota.PermitWaiter {
+
+        private final AsyncRequest request;
+
+        AsyncPermitWaiter(AsyncRequest request) {
+            super(request.priorityClass, null);
+            this.request = request;
+        }
+
+        @Override
+        void wake() {
+            request.onPermit(this);
+        }
+    }
+
+    /**
+     * 异步获取连接时的等待者, 没有等待的线程
+     * */
+    private static final class AsyncWaiter extends Waiter {
+
+        private final AsyncRequest request;
+
+        AsyncWaiter(AsyncRequest request) {
+            super(null);
+            this.request = request;
+        }
+
+        @Override
+        void wake() {
+            request.onWake(this);
+        }
+    }
+
+    /**
+     * 判断是否直接拒绝新的等待请求
+     * 节点熔断, 等待队列已满, 或者队首的线程已经等待了超过本次请求的超时时间(按先进先出的顺序本次请求不可能在超时前拿到连接)
+     * @param timeoutNanos 本次请求的超时时间
+     * @return 是否拒绝
+     * */
+    private boolean shouldShed(long timeoutNanos){
+        if (!this.health.isAvailable()){
+            // 节点熔断, 不等待连接超时
+            PoolEventLog.record(PoolEventLog.REJECT, this.propertiesBean.getNodeName(), PoolEventLog.REJECT_BREAKER);
+            return true;
+        }
+        int maxWaiters = this.propertiesBean.getMaxWaiters();
+        if (maxWaiters > 0 && this.getPendingNum() >= maxWaiters){
+            PoolEventLog.record(PoolEventLog.REJECT, this.propertiesBean.getNodeName(), PoolEventLog.REJECT_QUEUE_FULL);
+            return true;
+        }
+        if (this.propertiesBean.isLoadShedding() && this.connectionBag.getOldestWaitNanos() >= timeoutNanos){
+            PoolEventLog.record(PoolEventLog.REJECT, this.propertiesBean.getNodeName(), PoolEventLog.REJECT_WAIT_TOO_LONG);
+            return true;
+        }
+        return false;
     }
 
     public Connection getCurrentConnection() {
+        TransactionScope.Binding binding = this.scopeBinding.get();
+        if (binding != null){
+            return binding.connection;
+        }
         Connection connection = currentConnection.get();
         try {
             if ( !isValidConnection(connection)){
                 connection = this.getConnection();
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            log.error(this.propertiesBean.getNodeName() + "节点检查当前线程的连接失败", e);
+            connection = this.getConnection();
         }
         return connection;
     }
 
-    public synchronized void releaseConnection(Connection conn) throws SQLException {
-        log.info(Thread.currentThread().getName() +"关闭连接"+ conn);
+    public TransactionScope openScope(boolean transactional) throws SQLException {
+        TransactionScope.Binding binding = this.scopeBinding.get();
+        boolean created = false;
+        if (binding == null){
+            Connection conn = this.getConnection();
+            if (conn == null){
+                throw new SQLException(this.propertiesBean.getNodeName() + "节点获取连接失败");
+            }
+            binding = new TransactionScope.Binding((PooledConnection) conn);
+            binding.connection.binding = binding;
+            this.scopeBinding.set(binding);
+            created = true;
+        } else if (binding.connection.isClosed()){
+            throw new SQLException(this.propertiesBean.getNodeName() + "节点事务范围中的连接已经被回收");
+        }
+        try {
+            return TransactionScope.open(binding, transactional);
+        } catch (SQLException e) {
+            if (created){
+                this.unbind(binding);
+            }
+            throw e;
+        }
+    }
 
+    public boolean inScope() {
+        return this.scopeBinding.get() != null;
+    }
 
-        Connection connection = this.activeConnections.get(0);
+    /**
+     * 最外层的事务范围关闭, 解除绑定并归还连接
+     * @param binding 当前线程绑定的连接
+     * */
+    void unbind(TransactionScope.Binding binding) throws SQLException {
+        if (this.scopeBinding.get() == binding){
+            this.scopeBinding.remove();
+        }
+        binding.connection.binding = null;
+        this.releaseConnection(binding.connection);
+    }
 
-        System.out.println(connection == conn);
-        System.out.println(connection.equals(conn));
+    public void releaseConnection(Connection conn) throws SQLException {
+        if (conn == null){
+            return;
+        }
+        if ( !(conn instanceof PooledConnection) || ((PooledConnection) conn).pool != this){
+            throw new SQLException("连接不属于" + this.propertiesBean.getNodeName() + "节点连接池");
+        }
+        PooledConnection pooledConnection = (PooledConnection) conn;
+        if (pooledConnection.binding != null){
+            // 由事务范围管理, 最外层的范围关闭时归还
+            return;
+        }
 
-        boolean b = this.activeConnections.remove(conn);
+        if (this.currentConnection.get() == conn){
+            this.currentConnection.remove();
+        }
+        if ( !pooledConnection.markClosed()){
+            // 重复归还
+            return;
+        }
 
-        this.currentConnection.remove();
+        releasePermit(pooledConnection);
+        long usage = System.nanoTime() - pooledConnection.borrowTime;
+        this.metricsTracker.recordUsage(usage);
+        PoolEventLog.record(PoolEventLog.RETURN, this.propertiesBean.getNodeName(), usage);
+        PoolSizer sizer = this.sizer;
+        if (sizer != null){
+            sizer.recordUsage(usage);
+        }
 
-        int size = this.activeConnections.size();
+        // 关闭应用程序没有关闭的Statement, 避免泄漏
+        pooledConnection.closeStatements();
+        // 回滚没有提交的事务并恢复被修改过的会话属性, 失败时关闭连接
+        boolean reset = pooledConnection.resetSession();
 
-        if ( !isValidConnection(conn)){
-            freeConnections.add(conn);
-        }else{
-            freeConnections.add(this.newConnection());
+        PoolEntry entry = pooledConnection.entry;
+        entry.borrower = null;
+        long now = System.currentTimeMillis();
+        entry.lastAccessed = now;
+        // 连接池已经停用、连接需要替换或者连接池缩小后超过最大连接数时关闭归还的连接
+        if (reset && this.isActive && !entry.isExpired(now) && this.isValidConnection(entry.connection)
+                && this.totalConnections.get() <= this.propertiesBean.getMaxConnections()){
+            this.connectionBag.requite(entry);
+        } else {
+            this.closeEntry(entry);
+            // 低于最小连接数或者有线程在等待时在后台补充新的连接
+            this.fillPool();
         }
-        this.notifyAll();
     }
 
-    public synchronized void destory() {
-        for (Connection conn : this.freeConnections){
-            try {
-                if (this.isValidConnection(conn)){
-                    conn.close();
-                }
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
+    /**
+     * 强制回收应用程序长时间没有归还的连接
+     * 物理连接直接关闭(未提交的事务由数据库回滚), 应用程序之后再使用这个连接会抛出异常
+     * @param pooledConnection 借出的连接
+     * @return 连接已经归还时返回false
+     * */
+    boolean reclaim(PooledConnection pooledConnection){
+        if ( !pooledConnection.markClosed()){
+            return false;
         }
-        for (Connection conn : this.activeConnections){
-            try {
-                if (this.isValidConnection(conn)){
-                    conn.close();
-                }
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
+        releasePermit(pooledConnection);
+        PoolEntry entry = pooledConnection.entry;
+        entry.borrower = null;
+        this.metricsTracker.recordUsage(System.nanoTime() - pooledConnection.borrowTime);
+        this.closeEntry(entry);
+        this.fillPool();
+        return true;
+    }
+
+    /**
+     * 归还借用连接时拿到的优先级许可, 由markClosed()保证只归还一次
+     * */
+    private static void releasePermit(PooledConnection pooledConnection){
+        PriorityQuota quota = pooledConnection.quota;
+        if (quota != null){
+            pooledConnection.quota = null;
+            quota.release(pooledConnection.priorityClass, pooledConnection.permit);
         }
+    }
+
+    public long getLeakCount() {
+        return this.leakDetector.getLeakCount();
+    }
+
+    public long getReclaimCount() {
+        return this.leakDetector.getReclaimCount();
+    }
+
+    public void destory() {
         this.isActive = false;
-        this.freeConnections.clear();
-        this.activeConnections.clear();
+        this.cancelTasks();
+        if (this.statusTask != null){
+            this.statusTask.cancel(false);
+        }
+        this.fillerExecutor.shutdownNow();
+        // 正在等待的线程立即返回, 不会在已经销毁的连接池上一直等待
+        this.abortWaiters();
+        for (PoolEntry entry : this.connectionBag.values()){
+            this.closeEntry(entry);
+        }
+    }
+
+    /**
+     * 放弃等待许可和等待连接的全部请求
+     * @return 被放弃的请求数
+     * */
+    private int abortWaiters() {
+        int aborted = this.connectionBag.abortWaiters();
+        PriorityQuota quota = this.quota;
+        if (quota != null){
+            aborted += quota.abortWaiters();
+        }
+        return aborted;
     }
 
     public boolean isActive() {
         return this.isActive;
     }
 
-    public void checkPool() {
+    public void checkPool(ScheduledExecutorService scheduler) {
         final String nodeName = this.propertiesBean.getNodeName();
-        ScheduledExecutorService ses = Executors.newScheduledThreadPool(2);
 
-        // 开启一个定时器线程输出状态
-        ses.scheduleAtFixedRate(new TimerTask() {
+        // 在共享定时器上记录状态, 只在事件级别为debug时输出
+        this.statusTask = scheduler.scheduleAtFixedRate(new Runnable() {
             @Override
             public void run() {
-                System.out.println(nodeName +"空闲连接数:"+ getFreeNum());
-                System.out.println(nodeName +"活动连接数:"+ getActiveNum());
+                if (PoolEventLog.isEnabled(PoolEventLog.STATUS)){
+                    PoolEventLog.record(PoolEventLog.STATUS, nodeName, getFreeNum(), getActiveNum());
+                }
             }
         }, 1, 1, TimeUnit.SECONDS);
 
+        this.scheduler = scheduler;
+        this.scheduleTasks(scheduler);
+    }
 
+    /**
+     * 注册维护任务和自适应调整任务
+     * @param scheduler 共享定时器
+     * */
+    private void scheduleTasks(ScheduledExecutorService scheduler){
+        // 在共享定时器上维护连接池, 各个连接池的执行时间错开
+        long interval = this.propertiesBean.getHousekeepingInterval();
+        long initialDelay = ThreadLocalRandom.current().nextLong(interval) + 1;
+        this.housekeepingTask = scheduler.scheduleWithFixedDelay(new HouseKeeper(), initialDelay, interval, TimeUnit.MILLISECONDS);
 
-        // 开启一个定时器线程, 监控并维持空闲池中的最小连接数
-        ses.scheduleAtFixedRate(new checkFreePools(this), 1 , 5, TimeUnit.SECONDS);
+        // 开启自适应调整时定期根据负载调整连接池大小
+        PoolSizer sizer = this.sizer;
+        if (sizer != null){
+            long sizingInterval = this.propertiesBean.getAdaptiveInterval();
+            this.sizingTask = scheduler.scheduleWithFixedDelay(sizer, sizingInterval, sizingInterval, TimeUnit.MILLISECONDS);
+        }
     }
 
-    class checkFreePools extends TimerTask {
-        private ConnectionPool conpool = null;
+    private void cancelTasks(){
+        if (this.housekeepingTask != null){
+            this.housekeepingTask.cancel(false);
+        }
+        if (this.sizingTask != null){
+            this.sizingTask.cancel(false);
+        }
+    }
 
-        public  checkFreePools (ConnectionPool conpool){
-            this.conpool = conpool;
+    public void reconfigure(PropertiesBean bean) {
+        if (!this.isActive){
+            return;
         }
+        PropertiesBean old = this.propertiesBean;
+        this.propertiesBean = bean;
+        this.validationMode = validationMode(bean);
+        this.health.setThreshold(bean.getBreakerThreshold());
+        // 优先级类别变化时在原来的许可上调整, 借出的连接仍然计入各自类别使用中的许可数
+        if (old.getMaxConnections() != bean.getMaxConnections() || !old.getPriorityClasses().equals(bean.getPriorityClasses())){
+            PriorityQuota quota = this.quota;
+            if (quota == null || bean.getPriorityClasses().isEmpty()){
+                this.quota = createQuota(bean);
+            } else {
+                quota.resize(bean.getPriorityClasses(), bean.getMaxConnections());
+            }
+        }
+
+        // 连接地址或者账号变化时不断开现有连接, 在归还或者空闲时逐个替换为使用新配置的连接
+        if (!equal(old.getUrl(), bean.getUrl()) || !equal(old.getUsername(), bean.getUsername())
+                || !equal(old.getPassword(), bean.getPassword())){
+            for (PoolEntry entry : this.connectionBag.values()){
+                entry.evicted = true;
+            }
+            log.info(bean.getNodeName() + "节点连接参数已经变化, 现有连接在归还后替换");
+        }
+
+        // 缩小时先关闭多余的空闲连接, 使用中的连接归还时关闭
+        if (this.totalConnections.get() > bean.getMaxConnections()){
+            this.closeIdleAbove(bean.getMaxConnections());
+        }
+
+        // 维护周期或者自适应调整的配置变化时重新注册定时任务
+        boolean adaptiveChanged = old.isAdaptive() != bean.isAdaptive() || old.getAdaptiveInterval() != bean.getAdaptiveInterval();
+        if (adaptiveChanged){
+            this.sizer = bean.isAdaptive() ? new PoolSizer(this) : null;
+        }
+        ScheduledExecutorService scheduler = this.scheduler;
+        if (scheduler != null && (adaptiveChanged || old.getHousekeepingInterval() != bean.getHousekeepingInterval())){
+            this.cancelTasks();
+            this.scheduleTasks(scheduler);
+        }
+
+        // 最小连接数变大时补充连接
+        this.fillPool();
+        log.info(bean.getNodeName() + "节点连接池配置已经更新");
+    }
+
+    private static boolean equal(String a, String b){
+        return a == null ? b == null : a.equals(b);
+    }
+
+    public void drain() {
+        this.isActive = false;
+        this.cancelTasks();
+        if (this.statusTask != null){
+            this.statusTask.cancel(false);
+        }
+        int aborted = this.abortWaiters();
+        int closed = this.closeIdleAbove(0);
+        this.fillerExecutor.shutdown();
+        log.info(this.propertiesBean.getNodeName() + "节点连接池停用, 关闭空闲连接" + closed + "个, 放弃等待的线程" + aborted
+                + "个, 使用中的连接" + this.totalConnections.get() + "个在归还后关闭");
+    }
+
+    /**
+     * 连接池的维护任务
+     * 关闭超过最大存活时间的连接, 把空闲过久的连接减少到最小连接数, 对闲置的连接做保活检测,
+     * 最后在低于最小连接数时通知后台线程补充连接
+     * 只处理空闲的连接, 先通过CAS占用再处理, 不会和借用连接的线程冲突; 使用中的连接到期后在归还时关闭
+     * */
+    class HouseKeeper implements Runnable {
         @Override
         public void run() {
-            if (this.conpool != null && this.conpool.isActive){
-                int poolstotalnum = conpool.getFreeNum() + conpool.getActiveNum();
-                int subnum = conpool.propertiesBean.getMinConnections() - poolstotalnum;
-
-                if (subnum > 0){
-                    System.out.println(conpool.propertiesBean.getNodeName() + "维持最小连接数目, 需要补充"+ subnum + "个连接");
+            if (!isActive){
+                return;
+            }
+            try {
+                long now = System.currentTimeMillis();
+                long idleTimeout = propertiesBean.getIdleTimeout();
+                long keepaliveTime = propertiesBean.getKeepaliveTime();
+                int removable = totalConnections.get() - minimumSize();
+                PropertiesBean bean = propertiesBean;
+                boolean checkLeaks = bean.getLeakThreshold() > 0 || bean.getLeakReclaim() > 0;
+                long nowNanos = System.nanoTime();
 
-                    for (int a = 0; a < subnum; a++){
-                        try {
-                            conpool.freeConnections.add(conpool.newConnection());
-                        } catch (SQLException e) {
-                            e.printStackTrace();
+                for (PoolEntry entry : connectionBag.values()){
+                    if (entry.getState() != PoolEntry.STATE_NOT_IN_USE){
+                        PooledConnection borrower = entry.borrower;
+                        if (checkLeaks && borrower != null){
+                            leakDetector.check(borrower, nowNanos);
                         }
+                        continue;
                     }
+                    if (entry.isExpired(now)){
+                        if (entry.compareAndSet(PoolEntry.STATE_NOT_IN_USE, PoolEntry.STATE_IN_USE)){
+                            closeEntry(entry);
+                            removable--;
+                        }
+                    } else if (idleTimeout > 0 && removable > 0 && now - entry.lastAccessed >= idleTimeout){
+                        if (entry.compareAndSet(PoolEntry.STATE_NOT_IN_USE, PoolEntry.STATE_IN_USE)){
+                            closeEntry(entry);
+                            removable--;
+                        }
+                    } else if (keepaliveTime > 0 && now - Math.max(entry.lastAccessed, entry.lastKeepalive) >= keepaliveTime){
+                        if (entry.compareAndSet(PoolEntry.STATE_NOT_IN_USE, PoolEntry.STATE_IN_USE)){
+                            keepalive(entry);
+                        }
+                    }
+                }
+
+                if (needMoreConnections()){
+                    fillPool();
                 }
+            } catch (RuntimeException e) {
+                // 异常会使定时任务停止执行, 记录后继续下一轮
+                log.error(propertiesBean.getNodeName() + "节点维护连接池失败", e);
+            }
+        }
+
+        /**
+         * 对已经占用的空闲连接做保活检测, 有效时放回连接池, 失效时关闭
+         * @param entry 已经由维护线程占用的连接
+         * */
+        private void keepalive(PoolEntry entry){
+            if (validate(entry.connection)){
+                entry.lastKeepalive = System.currentTimeMillis();
+                connectionBag.unreserve(entry);
+            } else {
+                log.warn(propertiesBean.getNodeName() + "节点保活检测失败, 关闭连接");
+                closeEntry(entry);
             }
         }
     }
 
-    public int getActiveNum() {
-        return this.activeConnections.size();
+    /**
+     * 获取当前的节点配置
+     * */
+    PropertiesBean getPropertiesBean() {
+        return this.propertiesBean;
     }
 
-    public int getFreeNum() {
-        return this.freeConnections.size();
+    /**
+     * 获取连接池的节点名称
+     * */
+    String getNodeName() {
+        return this.propertiesBean.getNodeName();
     }
 
+    /**
+     * 记录一次预编译语句缓存的查找结果
+     * @param hit 是否命中
+     * */
+    void recordStatementCache(boolean hit) {
+        if (hit){
+            this.statementCacheHits.increment();
+        } else {
+            this.statementCacheMisses.increment();
+        }
+    }
 
-    class ConnProxy implements InvocationHandler{
+    public long getStatementCacheHits() {
+        return this.statementCacheHits.sum();
+    }
 
-        Connection conn;
-        ConnectionPool cp;
-        Connection con;
+    public long getStatementCacheMisses() {
+        return this.statementCacheMisses.sum();
+    }
 
-        ConnProxy(Connection conn,ConnectionPool cp){
-            this.conn = conn;
-            this.cp = cp;
-        }
+    public void setMetricsTracker(MetricsTracker metricsTracker) {
+        this.metricsTracker = metricsTracker == null ? MetricsTracker.NOOP : metricsTracker;
+    }
 
-        public Connection newInstance(){
-            con =  (Connection) Proxy.newProxyInstance(conn.getClass().getClassLoader(), conn.getClass().getInterfaces(), this);
-            return con;
-        }
+    public MetricsTracker getMetricsTracker() {
+        return this.metricsTracker;
+    }
 
-        @Override
-        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    public int getTargetSize() {
+        return this.minimumSize();
+    }
 
-            if ("close".equals(method.getName())){
-                cp.releaseConnection(con);
-                return null;
-            }
-            if ("equals".equals(method.getName())){
-                Connection  connection = (Connection) args[0];
-                method.invoke(con, connection);
+    public String getSizingDecision() {
+        return this.sizer == null ? "" : this.sizer.getLastDecision();
+    }
 
-                return null;
-            }
-            return method.invoke(conn, args);
-        }
+    public NodeHealth getHealth() {
+        return this.health;
+    }
+
+    public int getPendingNum() {
+        PriorityQuota quota = this.quota;
+        int waiting = this.connectionBag.getWaitingThreadCount();
+        return quota == null ? waiting : waiting + quota.getWaitingCount();
+    }
+
+    public int getActiveNum() {
+        return this.connectionBag.count(PoolEntry.STATE_IN_USE);
+    }
+
+    public int getFreeNum() {
+        return this.connectionBag.count(PoolEntry.STATE_NOT_IN_USE);
     }
 }
@@ -1,8 +1,14 @@
 package com.jia.connectionPool;
 
 
+import com.jia.connectionPool.metrics.MetricsTracker;
+import com.jia.entity.PropertiesBean;
+
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 连接池接口
@@ -15,11 +21,67 @@ public interface IConnectionPool {
      * */
     Connection getConnection();
 
+    /**
+     * 获取连接, 没有可用连接时按先来后到的顺序排队等待
+     * @param timeout 最长等待时间, 为0时一直等待
+     * @param unit 时间单位
+     * @return 数据库连接, 超时或者等待队列已满时返回null
+     * */
+    Connection getConnection(long timeout, TimeUnit unit);
+
+    /**
+     * 按优先级类别获取连接, 使用配置的超时时间
+     * @param priorityClass 节点配置的优先级类别, 为null或者没有配置时按最低优先级处理
+     * @return 数据库连接, 超时或者拒绝时返回null
+     * */
+    Connection getConnection(String priorityClass);
+
+    /**
+     * 按优先级类别获取连接
+     * 先拿到类别的许可再借用连接: 优先使用为类别预留的连接, 使用的连接不超过类别的上限;
+     * 等待许可时优先级高的类别先得到满足, 同一类别内按先来后到的顺序
+     * @param priorityClass 节点配置的优先级类别, 为null或者没有配置时按最低优先级处理
+     * @param timeout 最长等待时间, 为0时一直等待
+     * @param unit 时间单位
+     * @return 数据库连接, 超时或者拒绝时返回null
+     * */
+    Connection getConnection(String priorityClass, long timeout, TimeUnit unit);
+
     /**
      * 获取当前线程的数据库连接
+     * 在事务范围中时返回范围绑定的连接, 否则返回当前线程借出且没有归还的连接, 都没有时借出新的连接
      * */
     Connection getCurrentConnection();
 
+    /**
+     * 打开一层事务范围, 当前线程已经有打开的范围时使用同一个连接, 最外层的范围关闭时归还连接
+     * @param transactional 是否需要事务, 已经在事务中时加入外层的事务
+     * @return 事务范围, 使用完后必须关闭
+     * @throws SQLException 获取连接或者开启事务失败
+     * */
+    TransactionScope openScope(boolean transactional) throws SQLException;
+
+    /**
+     * 当前线程是否有打开的事务范围
+     * */
+    boolean inScope();
+
+    /**
+     * 异步获取连接, 使用配置的超时时间
+     * @return 获取到连接时完成
+     * */
+    CompletableFuture<Connection> getConnectionAsync();
+
+    /**
+     * 异步获取连接, 等待期间不占用任何线程
+     * 归还或者新建的连接在交接的线程上直接完成future, 耗时的后续操作应当使用thenXxxAsync在其他线程执行;
+     * 取消future时从等待队列中移除, 已经拿到的连接自动归还
+     * @param timeout 最长等待时间, 为0时一直等待
+     * @param unit 时间单位
+     * @return 获取到连接时完成; 超时时以SQLTimeoutException异常完成, 节点熔断或者拒绝时以SQLException异常完成
+     * */
+    CompletableFuture<Connection> getConnectionAsync(long timeout, TimeUnit unit);
+
     /**
      *      * 释放当前的数据库连接
      *      * @param conn 数据库连接对象
@@ -33,6 +95,18 @@ public interface IConnectionPool {
      * */
     void destory();
 
+    /**
+     * 停用连接池, 立即关闭空闲连接, 使用中的连接在归还后关闭, 不会中断正在执行的操作
+     * */
+    void drain();
+
+    /**
+     * 在不重建连接池的情况下应用新的配置
+     * 连接数上下限、超时时间等立即生效; 连接地址或者账号变化时现有连接在归还后逐个替换
+     * @param bean 新的节点配置
+     * */
+    void reconfigure(PropertiesBean bean);
+
     /**
      * 检查连接池可用
      * @return 连接池是否是可用的
@@ -40,9 +114,29 @@ public interface IConnectionPool {
     boolean isActive();
 
     /**
-     * 定时器, 检查连接池
+     * 在共享的定时器上注册连接池的维护任务
+     * 补充最小连接数, 关闭空闲过久和超过最大存活时间的连接, 对空闲连接保活
+     * @param scheduler 由ConnectionManager创建, 全部连接池共用
+     * */
+    void checkPool(ScheduledExecutorService scheduler);
+
+    /**
+     * 获取保持预热的连接数目
+     * @return 开启自适应调整时为当前调整到的大小, 否则为最小连接数
+     * */
+    int getTargetSize();
+
+    /**
+     * 获取最近一次自适应调整的说明
+     * @return 调整的方向、大小以及依据的负载, 没有调整过时为空字符串
+     * */
+    String getSizingDecision();
+
+    /**
+     * 获取节点的健康状态
+     * @return 健康状态, 熔断时获取连接不再排队等待
      * */
-    void checkPool();
+    NodeHealth getHealth();
 
     /**
      * 获取线程池活动的连接数目
@@ -50,9 +144,50 @@ public interface IConnectionPool {
      * */
     int getActiveNum();
 
+    /**
+     * 获取正在等待连接的线程数目
+     * @return 等待的线程数目
+     * */
+    int getPendingNum();
+
     /**
      * 获取空闲的连接数目
      * @return 空闲连接的数目
      * */
     int getFreeNum();
+
+    /**
+     * 获取报告过的连接泄漏次数
+     * @return 借出超过leakThreshold没有归还的连接数目
+     * */
+    long getLeakCount();
+
+    /**
+     * 获取强制回收的连接泄漏次数
+     * @return 借出超过leakReclaim被强制回收的连接数目
+     * */
+    long getReclaimCount();
+
+    /**
+     * 获取预编译语句缓存的命中次数
+     * @return 命中次数
+     * */
+    long getStatementCacheHits();
+
+    /**
+     * 获取预编译语句缓存的未命中次数
+     * @return 未命中次数
+     * */
+    long getStatementCacheMisses();
+
+    /**
+     * 替换连接池的指标记录对象, 默认使用PoolStats
+     * @param metricsTracker 指标记录对象, 为null时不记录
+     * */
+    void setMetricsTracker(MetricsTracker metricsTracker);
+
+    /**
+     * 获取连接池的指标记录对象
+     * */
+    MetricsTracker getMetricsTracker();
 }
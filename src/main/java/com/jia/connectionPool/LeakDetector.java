@@ -0,0 +1,128 @@
+package com.jia.connectionPool;
+
+import com.jia.entity.PropertiesBean;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 连接泄漏检测
+ *
+ * 维护任务定期检查借出的连接, 超过leakThreshold没有归还时报告一次, 超过leakReclaim时强制回收;
+ * 记录借出位置需要生成异常堆栈, 代价较高, 默认只在发现第一次泄漏后才开始记录, 也可以按间隔采样或者每次都记录
+ * */
+final class LeakDetector {
+
+    private static final Logger log = Logger.getLogger(LeakDetector.class);
+
+    // 发现泄漏后才开始记录借出位置
+    static final int TRACE_AUTO = -1;
+
+    private final ConnectionPool pool;
+
+    // 报告过的泄漏次数
+    private final LongAdder leaks = new LongAdder();
+
+    // 强制回收的次数
+    private final LongAdder reclaims = new LongAdder();
+
+    // 自动模式下是否已经开始记录借出位置
+    private volatile boolean tracing;
+
+    LeakDetector(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * 是否开启了泄漏检测
+     * */
+    boolean isEnabled() {
+        PropertiesBean bean = pool.getPropertiesBean();
+        return bean.getLeakThreshold() > 0 || bean.getLeakReclaim() > 0;
+    }
+
+    /**
+     * 借出连接时记录借用线程的名称, 在发起请求的线程上调用
+     * @return 线程名称, 没有开启泄漏检测时返回null, 不产生任何额外的开销
+     * */
+    String borrowerName() {
+        return isEnabled() ? Thread.currentThread().getName() : null;
+    }
+
+    /**
+     * 借出连接时按采样配置记录借出位置, 在发起请求的线程上调用
+     * @return 借出位置, 不需要记录时返回null
+     * */
+    Throwable borrowSite() {
+        return shouldTrace() ? new Exception("连接借出位置") : null;
+    }
+
+    /**
+     * 借出连接时判断是否需要记录借出位置
+     * 没有开启泄漏检测时只读取配置, 不产生任何额外的开销
+     * */
+    boolean shouldTrace() {
+        if (!isEnabled()){
+            return false;
+        }
+        PropertiesBean bean = pool.getPropertiesBean();
+        int sample = bean.getLeakTraceSample();
+        if (sample == TRACE_AUTO){
+            return tracing;
+        }
+        if (sample <= 0){
+            return false;
+        }
+        return sample == 1 || ThreadLocalRandom.current().nextInt(sample) == 0;
+    }
+
+    /**
+     * 检查一个借出的连接, 由维护任务调用
+     * @param connection 借出的连接
+     * @param now 当前时间 单位纳秒
+     * */
+    void check(PooledConnection connection, long now) {
+        PropertiesBean bean = pool.getPropertiesBean();
+        long held = TimeUnit.NANOSECONDS.toMillis(now - connection.borrowTime);
+
+        long threshold = bean.getLeakThreshold();
+        if (threshold > 0 && held >= threshold && !connection.leakReported){
+            connection.leakReported = true;
+            leaks.increment();
+            String message = bean.getNodeName() + "节点的连接被" + borrower(connection) + "借出" + held
+                    + "ms没有归还, 可能发生了连接泄漏";
+            if (connection.borrowSite != null){
+                log.warn(message, connection.borrowSite);
+            } else if (bean.getLeakTraceSample() == TRACE_AUTO && !tracing){
+                tracing = true;
+                log.warn(message + ", 开始记录之后借出连接的位置");
+            } else {
+                log.warn(message);
+            }
+        }
+
+        long reclaim = bean.getLeakReclaim();
+        if (reclaim > 0 && held >= reclaim && pool.reclaim(connection)){
+            reclaims.increment();
+            log.error(bean.getNodeName() + "节点的连接被" + borrower(connection) + "借出" + held
+                    + "ms没有归还, 强制回收", connection.borrowSite);
+        }
+    }
+
+    /**
+     * 借出连接的线程, 借出后才开启泄漏检测的连接没有记录线程名称
+     * */
+    private static String borrower(PooledConnection connection) {
+        return connection.borrowerName == null ? "未记录的线程" : "线程" + connection.borrowerName;
+    }
+
+    long getLeakCount() {
+        return leaks.sum();
+    }
+
+    long getReclaimCount() {
+        return reclaims.sum();
+    }
+}
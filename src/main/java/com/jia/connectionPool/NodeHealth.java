@@ -0,0 +1,112 @@
+package com.jia.connectionPool;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 节点的健康状态, 按连续创建连接失败的次数熔断
+ *
+ * 关闭(正常)状态下连续失败达到阈值后打开, 打开期间获取连接不再排队等待, 没有空闲连接时直接失败;
+ * 后台补充连接的线程按退避间隔继续尝试连接数据库, 尝试期间为半开, 成功后关闭, 失败后重新打开
+ * 只统计创建连接的失败, 空闲过久被数据库断开的连接不会触发熔断
+ * */
+public final class NodeHealth {
+
+    /**
+     * 熔断器状态
+     * */
+    public enum State {
+        // 正常
+        CLOSED,
+        // 已熔断, 获取连接直接失败
+        OPEN,
+        // 正在尝试重新连接
+        HALF_OPEN
+    }
+
+    // 连续失败多少次后熔断, 0表示不熔断
+    private volatile int threshold;
+
+    // 连续失败的次数
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private volatile State state = State.CLOSED;
+
+    // 最近一次熔断的时间 单位毫秒
+    private volatile long openedAt;
+
+    NodeHealth(int threshold) {
+        this.threshold = threshold;
+    }
+
+    void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * 节点是否可以接受排队等待的请求
+     * */
+    public boolean isAvailable() {
+        return state == State.CLOSED;
+    }
+
+    /**
+     * 熔断状态下开始一次重新连接的尝试
+     * */
+    void beginProbe() {
+        if (state == State.OPEN) {
+            state = State.HALF_OPEN;
+        }
+    }
+
+    /**
+     * 记录一次成功创建连接
+     * @return 是否从熔断中恢复
+     * */
+    boolean recordSuccess() {
+        consecutiveFailures.set(0);
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 记录一次创建连接失败
+     * @return 是否因为本次失败进入熔断
+     * */
+    boolean recordFailure() {
+        int failures = consecutiveFailures.incrementAndGet();
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            return false;
+        }
+        if (threshold > 0 && failures >= threshold && state == State.CLOSED) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            return true;
+        }
+        return false;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    public long getOpenedAt() {
+        return openedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "NodeHealth{" +
+                "state=" + state +
+                ", consecutiveFailures=" + consecutiveFailures +
+                '}';
+    }
+}
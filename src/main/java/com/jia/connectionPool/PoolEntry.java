@@ -0,0 +1,98 @@
+package com.jia.connectionPool;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * 连接池中的一个连接槽位, 持有物理连接以及它的借用状态
+ * 借出与归还只通过CAS切换状态, 不需要对整个连接池加锁
+ * */
+final class PoolEntry {
+
+    // 空闲
+    static final int STATE_NOT_IN_USE = 0;
+    // 已借出
+    static final int STATE_IN_USE = 1;
+    // 已从连接池中移除
+    static final int STATE_REMOVED = -1;
+
+    private static final AtomicIntegerFieldUpdater<PoolEntry> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(PoolEntry.class, "state");
+
+    // 物理连接
+    final Connection connection;
+
+    // 预编译语句缓存, 没有开启时为null
+    final StatementCache statementCache;
+
+    // 会话状态, 归还时恢复被修改过的属性
+    final SessionState sessionState;
+
+    // 创建时间 单位毫秒
+    final long createTime;
+
+    // 最后一次被借出或归还的时间 单位毫秒
+    volatile long lastAccessed;
+
+    // 最后一次保活检测的时间 单位毫秒
+    volatile long lastKeepalive;
+
+    // 到期时间 单位毫秒, 0表示不限制存活时间
+    final long expireTime;
+
+    // 需要替换为新的连接(例如账号已经变化), 归还或者空闲时关闭
+    volatile boolean evicted;
+
+    // 当前借出给应用程序的连接, 空闲时为null
+    volatile PooledConnection borrower;
+
+    private volatile int state = STATE_NOT_IN_USE;
+
+    PoolEntry(Connection connection, SessionState sessionState, int statementCacheSize, long lifetime) {
+        this.connection = connection;
+        this.sessionState = sessionState;
+        this.statementCache = statementCacheSize > 0 ? new StatementCache(statementCacheSize) : null;
+        this.createTime = System.currentTimeMillis();
+        this.lastAccessed = this.createTime;
+        this.lastKeepalive = this.createTime;
+        this.expireTime = lifetime > 0 ? this.createTime + lifetime : 0;
+    }
+
+    int getState() {
+        return state;
+    }
+
+    void setState(int state) {
+        this.state = state;
+    }
+
+    boolean compareAndSet(int expect, int update) {
+        return STATE_UPDATER.compareAndSet(this, expect, update);
+    }
+
+    /**
+     * 判断连接是否已经超过最大存活时间或者被标记为需要替换
+     * @param now 当前时间 单位毫秒
+     * */
+    boolean isExpired(long now) {
+        return evicted || isPastLifetime(now);
+    }
+
+    /**
+     * 判断连接是否已经超过最大存活时间
+     * @param now 当前时间 单位毫秒
+     * */
+    boolean isPastLifetime(long now) {
+        return expireTime > 0 && now >= expireTime;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolEntry{" +
+                "connection=" + connection +
+                ", state=" + state +
+                ", lastAccessed=" + lastAccessed +
+                ", expireTime=" + expireTime +
+                '}';
+    }
+}
@@ -0,0 +1,157 @@
+package com.jia.connectionPool;
+
+import com.jia.entity.PropertiesBean;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 自适应调整连接池大小
+ *
+ * 连接池大小指保持预热的连接数目, 在最小连接数和最大连接数之间调整; 有线程等待时仍然可以临时创建到最大连接数
+ * 每个周期根据利特尔法则估算需要的连接数: 获取连接的速率 * 平均占用时间 * 余量,
+ * 平均等待时间超过阈值或者有请求超时时加法增大(至少加1, 不低于估算值), 估算值超过当前大小时增大到估算值;
+ * 连续几个周期没有压力且估算值不到当前大小的一半时乘法减小(每次减到3/4, 不低于估算值),
+ * 没有压力时超过当前大小的空闲连接(高峰期临时创建的)也在连续几个周期后关闭
+ * */
+final class PoolSizer implements Runnable {
+
+    private static final Logger log = Logger.getLogger(PoolSizer.class);
+
+    // 估算值的余量
+    private static final double HEADROOM = 1.25;
+
+    // 连续多少个周期负载较低才减小, 避免来回调整
+    private static final int SHRINK_AFTER_TICKS = 3;
+
+    private final ConnectionPool pool;
+
+    // 以下计数在每个周期结束时清零
+    private final LongAdder acquires = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder releases = new LongAdder();
+    private final LongAdder usageNanos = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    // 当前的连接池大小
+    private volatile int targetSize;
+
+    // 最近一次调整的说明
+    private volatile String lastDecision = "";
+
+    // 上一个周期的结束时间 单位纳秒
+    private long lastTick = System.nanoTime();
+
+    // 负载较低的连续周期数
+    private int lowTicks;
+
+    PoolSizer(ConnectionPool pool) {
+        this.pool = pool;
+        this.targetSize = pool.getPropertiesBean().getMinConnections();
+    }
+
+    void recordAcquire(long nanos) {
+        acquires.increment();
+        waitNanos.add(nanos);
+    }
+
+    void recordUsage(long nanos) {
+        releases.increment();
+        usageNanos.add(nanos);
+    }
+
+    void recordTimeout() {
+        timeouts.increment();
+    }
+
+    int getTargetSize() {
+        return targetSize;
+    }
+
+    String getLastDecision() {
+        return lastDecision;
+    }
+
+    @Override
+    public void run() {
+        try {
+            tick();
+        } catch (RuntimeException e) {
+            // 异常会使定时任务停止执行, 记录后继续下一轮
+            log.error(pool.getNodeName() + "节点调整连接池大小失败", e);
+        }
+    }
+
+    private void tick() {
+        // 每次都读取最新的配置, 重新加载配置后立即按新的上下限调整
+        PropertiesBean bean = pool.getPropertiesBean();
+        int minSize = bean.getMinConnections();
+        int maxSize = Math.max(minSize, bean.getMaxConnections());
+        long waitThresholdNanos = bean.getAdaptiveWaitThreshold() * 1000000L;
+
+        long now = System.nanoTime();
+        double seconds = (now - lastTick) / 1e9;
+        lastTick = now;
+        if (seconds <= 0) {
+            return;
+        }
+
+        long acquireCount = acquires.sumThenReset();
+        long waitSum = waitNanos.sumThenReset();
+        long releaseCount = releases.sumThenReset();
+        long usageSum = usageNanos.sumThenReset();
+        long timeoutCount = timeouts.sumThenReset();
+
+        double rate = acquireCount / seconds;
+        double holdNanos = releaseCount > 0 ? (double) usageSum / releaseCount : 0;
+        long meanWaitNanos = acquireCount > 0 ? waitSum / acquireCount : 0;
+        // 利特尔法则: 平均同时使用的连接数 = 到达速率 * 平均占用时间
+        int demand = (int) Math.ceil(rate * holdNanos / 1e9 * HEADROOM);
+
+        int current = targetSize;
+        int next = current;
+        boolean reclaim = false;
+        if (timeoutCount > 0 || meanWaitNanos >= waitThresholdNanos && acquireCount > 0) {
+            lowTicks = 0;
+            next = Math.max(current + 1, demand);
+        } else if (demand > current) {
+            lowTicks = 0;
+            next = demand;
+        } else if (demand < current / 2 || pool.getTotalConnections() > current) {
+            if (++lowTicks >= SHRINK_AFTER_TICKS) {
+                lowTicks = 0;
+                reclaim = true;
+                if (demand < current / 2) {
+                    next = Math.max(demand, current * 3 / 4);
+                }
+            }
+        } else {
+            lowTicks = 0;
+        }
+        next = Math.min(Math.max(next, minSize), maxSize);
+
+        if (next > current) {
+            publish("增大", current, next, rate, holdNanos, meanWaitNanos, timeoutCount);
+            pool.fillPool();
+        } else if (reclaim) {
+            if (next < current) {
+                publish("减小", current, next, rate, holdNanos, meanWaitNanos, timeoutCount);
+            }
+            int closed = pool.closeIdleAbove(next);
+            if (closed > 0) {
+                log.info(pool.getNodeName() + "节点负载较低, 关闭" + closed + "个多余的空闲连接");
+            }
+        }
+    }
+
+    /**
+     * 更新连接池大小并输出调整的依据
+     * */
+    private void publish(String action, int current, int next, double rate, double holdNanos, long meanWaitNanos, long timeoutCount) {
+        // 先更新说明, 看到新的大小时一定能看到对应的说明
+        lastDecision = String.format("%s %d -> %d (速率=%.1f/s, 平均占用=%.2fms, 平均等待=%.2fms, 超时=%d)",
+                action, current, next, rate, holdNanos / 1e6, meanWaitNanos / 1e6, timeoutCount);
+        targetSize = next;
+        log.info(pool.getNodeName() + "节点调整连接池大小: " + lastDecision);
+    }
+}
@@ -0,0 +1,533 @@
+package com.jia.connectionPool;
+
+import org.apache.log4j.Logger;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * 提供给应用程序使用的连接, 每次借出连接时创建一个新的实例
+ *
+ * 所有方法直接委托给物理连接, 不经过反射; 通过本连接创建的Statement都会被记录下来,
+ * 归还连接时统一关闭, 归还之后再调用任何方法都会抛出异常
+ * 自动提交、隔离级别、catalog和只读属性通过SessionState读写, 重复设置相同的值不访问数据库,
+ * 归还时只恢复被修改过的属性
+ * */
+final class PooledConnection implements Connection {
+
+    private static final Logger log = Logger.getLogger(PooledConnection.class);
+
+    private static final AtomicIntegerFieldUpdater<PooledConnection> CLOSED_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(PooledConnection.class, "closed");
+
+    // 所属的连接池
+    final ConnectionPool pool;
+
+    // 连接池中的连接槽位
+    final PoolEntry entry;
+
+    // 物理连接
+    private final Connection delegate;
+
+    // 通过本连接创建且尚未关闭的Statement
+    private final ArrayList<Statement> openStatements = new ArrayList<Statement>();
+
+    // 借出时间 单位纳秒
+    final long borrowTime;
+
+    // 借出连接的线程名称, 只在开启泄漏检测时记录
+    final String borrowerName;
+
+    // 借出位置, 没有记录时为null
+    final Throwable borrowSite;
+
+    // 是否已经报告过泄漏
+    volatile boolean leakReported;
+
+    // 非自动提交模式下执行过语句, 可能有没有提交的事务
+    private boolean commitDirty;
+
+    // 是否已经归还
+    private volatile int closed;
+
+    // 绑定的事务范围, 范围打开期间调用close()不归还连接
+    TransactionScope.Binding binding;
+
+    // 借用时拿到的优先级许可, 归还连接时归还; 没有配置优先级类别时为null
+    PriorityQuota quota;
+
+    // 许可所属的类别
+    PriorityQuota.Level priorityClass;
+
+    // 许可的类型
+    int permit;
+
+    /**
+     * @param borrowerName 发起请求的线程名称, 没有开启泄漏检测时为null
+     * @param borrowSite 发起请求的位置, 没有记录时为null
+     * */
+    PooledConnection(ConnectionPool pool, PoolEntry entry, String borrowerName, Throwable borrowSite) {
+        this.pool = pool;
+        this.entry = entry;
+        this.delegate = entry.connection;
+        this.borrowTime = System.nanoTime();
+        this.borrowerName = borrowerName;
+        this.borrowSite = borrowSite;
+    }
+
+    /**
+     * 检查连接是否已经归还
+     * @return 物理连接
+     * @throws SQLException 连接已经归还
+     * */
+    private Connection delegate() throws SQLException {
+        if (closed != 0) {
+            throw new SQLException("连接已经关闭");
+        }
+        return delegate;
+    }
+
+    private void checkClientInfo() throws SQLClientInfoException {
+        if (closed != 0) {
+            throw new SQLClientInfoException("连接已经关闭", null);
+        }
+    }
+
+    /**
+     * 标记连接已经归还, 同一个实例只有第一次调用返回true
+     * */
+    boolean markClosed() {
+        return CLOSED_UPDATER.compareAndSet(this, 0, 1);
+    }
+
+    <T extends Statement> T trackStatement(T statement) {
+        openStatements.add(statement);
+        return statement;
+    }
+
+    /**
+     * 执行语句前调用, 非自动提交模式下可能开启了事务, 归还时需要回滚
+     * 提交之后再次执行同一个Statement也会开启新的事务, 所以每次执行都要标记
+     * */
+    void markDirty() {
+        commitDirty = true;
+    }
+
+    void untrackStatement(Statement statement) {
+        // Statement通常按创建的逆序关闭, 从尾部开始查找
+        for (int i = openStatements.size() - 1; i >= 0; i--) {
+            if (openStatements.get(i) == statement) {
+                openStatements.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 生成预编译语句缓存的键
+     * @return 缓存键, 连接池没有开启预编译语句缓存时返回null
+     * */
+    private StatementKey cacheKey(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) {
+        if (entry.statementCache == null) {
+            return null;
+        }
+        return new StatementKey(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    /**
+     * 从缓存中取走预编译语句
+     * @param key 缓存键, 为null时不使用缓存
+     * @return 缓存的PreparedStatement, 未命中时返回null
+     * @throws SQLException 连接已经归还
+     * */
+    private PreparedStatement takeCached(StatementKey key) throws SQLException {
+        delegate();
+        if (key == null) {
+            return null;
+        }
+        PreparedStatement statement = entry.statementCache.take(key);
+        pool.recordStatementCache(statement != null);
+        return statement;
+    }
+
+    /**
+     * 应用程序关闭缓存的预编译语句时放回缓存, 被淘汰的语句在这里真正关闭
+     * @param key 缓存键
+     * @param statement 物理PreparedStatement
+     * */
+    void recycleStatement(StatementKey key, PreparedStatement statement) throws SQLException {
+        try {
+            statement.clearParameters();
+            statement.clearBatch();
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+        PreparedStatement evicted = entry.statementCache.offer(key, statement);
+        if (evicted != null) {
+            evicted.close();
+        }
+    }
+
+    /**
+     * 归还前回滚没有提交的事务, 再恢复被修改过的会话属性
+     * 先回滚是因为恢复自动提交时驱动会提交进行中的事务
+     * @return 是否成功, 失败时连接不能再借给其他线程
+     * */
+    boolean resetSession() {
+        SessionState state = entry.sessionState;
+        try {
+            if (commitDirty && !state.getAutoCommit()) {
+                delegate.rollback();
+            }
+            commitDirty = false;
+            state.reset(delegate);
+            return true;
+        } catch (SQLException e) {
+            log.warn(pool.getNodeName() + "节点归还连接时恢复会话状态失败, 关闭连接", e);
+            return false;
+        }
+    }
+
+    /**
+     * 关闭通过本连接创建且没有被应用程序关闭的Statement
+     * */
+    void closeStatements() {
+        if (openStatements.isEmpty()) {
+            return;
+        }
+        Statement[] statements = openStatements.toArray(new Statement[openStatements.size()]);
+        openStatements.clear();
+        for (Statement statement : statements) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                log.warn(pool.getNodeName() + "节点归还连接时关闭Statement失败", e);
+            }
+        }
+    }
+
+    @Override
+    public Statement createStatement() throws SQLException {
+        return trackStatement(new PooledStatement(this, delegate().createStatement()));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        StatementKey key = cacheKey(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, 0);
+        PreparedStatement statement = takeCached(key);
+        if (statement == null) {
+            statement = delegate().prepareStatement(sql);
+        }
+        return trackStatement(new PooledPreparedStatement(this, statement, key));
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql) throws SQLException {
+        return trackStatement(new PooledCallableStatement(this, delegate().prepareCall(sql)));
+    }
+
+    @Override
+    public String nativeSQL(String sql) throws SQLException {
+        return delegate().nativeSQL(sql);
+    }
+
+    @Override
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        entry.sessionState.setAutoCommit(delegate(), autoCommit);
+        if (autoCommit) {
+            // 开启自动提交时驱动会提交进行中的事务
+            commitDirty = false;
+        }
+    }
+
+    @Override
+    public boolean getAutoCommit() throws SQLException {
+        delegate();
+        return entry.sessionState.getAutoCommit();
+    }
+
+    @Override
+    public void commit() throws SQLException {
+        delegate().commit();
+        commitDirty = false;
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        delegate().rollback();
+        commitDirty = false;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        pool.releaseConnection(this);
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return closed != 0 || delegate.isClosed();
+    }
+
+    @Override
+    public DatabaseMetaData getMetaData() throws SQLException {
+        return delegate().getMetaData();
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) throws SQLException {
+        entry.sessionState.setReadOnly(delegate(), readOnly);
+    }
+
+    @Override
+    public boolean isReadOnly() throws SQLException {
+        delegate();
+        return entry.sessionState.isReadOnly();
+    }
+
+    @Override
+    public void setCatalog(String catalog) throws SQLException {
+        entry.sessionState.setCatalog(delegate(), catalog);
+    }
+
+    @Override
+    public String getCatalog() throws SQLException {
+        delegate();
+        return entry.sessionState.getCatalog();
+    }
+
+    @Override
+    public void setTransactionIsolation(int level) throws SQLException {
+        entry.sessionState.setTransactionIsolation(delegate(), level);
+    }
+
+    @Override
+    public int getTransactionIsolation() throws SQLException {
+        delegate();
+        return entry.sessionState.getTransactionIsolation();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return delegate().getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        delegate().clearWarnings();
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+        return trackStatement(new PooledStatement(this, delegate().createStatement(resultSetType, resultSetConcurrency)));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        StatementKey key = cacheKey(sql, resultSetType, resultSetConcurrency, 0);
+        PreparedStatement statement = takeCached(key);
+        if (statement == null) {
+            statement = delegate().prepareStatement(sql, resultSetType, resultSetConcurrency);
+        }
+        return trackStatement(new PooledPreparedStatement(this, statement, key));
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        return trackStatement(new PooledCallableStatement(this, delegate().prepareCall(sql, resultSetType, resultSetConcurrency)));
+    }
+
+    @Override
+    public java.util.Map<String,Class<?>> getTypeMap() throws SQLException {
+        return delegate().getTypeMap();
+    }
+
+    @Override
+    public void setTypeMap(java.util.Map<String,Class<?>> map) throws SQLException {
+        delegate().setTypeMap(map);
+    }
+
+    @Override
+    public void setHoldability(int holdability) throws SQLException {
+        delegate().setHoldability(holdability);
+    }
+
+    @Override
+    public int getHoldability() throws SQLException {
+        return delegate().getHoldability();
+    }
+
+    @Override
+    public Savepoint setSavepoint() throws SQLException {
+        Savepoint savepoint = delegate().setSavepoint();
+        commitDirty = true;
+        return savepoint;
+    }
+
+    @Override
+    public Savepoint setSavepoint(String name) throws SQLException {
+        Savepoint savepoint = delegate().setSavepoint(name);
+        commitDirty = true;
+        return savepoint;
+    }
+
+    @Override
+    public void rollback(Savepoint savepoint) throws SQLException {
+        delegate().rollback(savepoint);
+    }
+
+    @Override
+    public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+        delegate().releaseSavepoint(savepoint);
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        return trackStatement(new PooledStatement(this, delegate().createStatement(resultSetType, resultSetConcurrency, resultSetHoldability)));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        StatementKey key = cacheKey(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        PreparedStatement statement = takeCached(key);
+        if (statement == null) {
+            statement = delegate().prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        }
+        return trackStatement(new PooledPreparedStatement(this, statement, key));
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        return trackStatement(new PooledCallableStatement(this, delegate().prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability)));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        return trackStatement(new PooledPreparedStatement(this, delegate().prepareStatement(sql, autoGeneratedKeys), null));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+        return trackStatement(new PooledPreparedStatement(this, delegate().prepareStatement(sql, columnIndexes), null));
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+        return trackStatement(new PooledPreparedStatement(this, delegate().prepareStatement(sql, columnNames), null));
+    }
+
+    @Override
+    public Clob createClob() throws SQLException {
+        return delegate().createClob();
+    }
+
+    @Override
+    public Blob createBlob() throws SQLException {
+        return delegate().createBlob();
+    }
+
+    @Override
+    public NClob createNClob() throws SQLException {
+        return delegate().createNClob();
+    }
+
+    @Override
+    public SQLXML createSQLXML() throws SQLException {
+        return delegate().createSQLXML();
+    }
+
+    @Override
+    public boolean isValid(int timeout) throws SQLException {
+        return delegate().isValid(timeout);
+    }
+
+    @Override
+    public void setClientInfo(String name, String value) throws SQLClientInfoException {
+        checkClientInfo();
+        delegate.setClientInfo(name, value);
+    }
+
+    @Override
+    public void setClientInfo(Properties properties) throws SQLClientInfoException {
+        checkClientInfo();
+        delegate.setClientInfo(properties);
+    }
+
+    @Override
+    public String getClientInfo(String name) throws SQLException {
+        return delegate().getClientInfo(name);
+    }
+
+    @Override
+    public Properties getClientInfo() throws SQLException {
+        return delegate().getClientInfo();
+    }
+
+    @Override
+    public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+        return delegate().createArrayOf(typeName, elements);
+    }
+
+    @Override
+    public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+        return delegate().createStruct(typeName, attributes);
+    }
+
+    @Override
+    public void setSchema(String schema) throws SQLException {
+        delegate().setSchema(schema);
+    }
+
+    @Override
+    public String getSchema() throws SQLException {
+        return delegate().getSchema();
+    }
+
+    @Override
+    public void abort(Executor executor) throws SQLException {
+        delegate().abort(executor);
+    }
+
+    @Override
+    public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+        delegate().setNetworkTimeout(executor, milliseconds);
+    }
+
+    @Override
+    public int getNetworkTimeout() throws SQLException {
+        return delegate().getNetworkTimeout();
+    }
+
+    @Override
+    public <T> T unwrap(java.lang.Class<T> iface) throws java.sql.SQLException {
+        return delegate().unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(java.lang.Class<?> iface) throws java.sql.SQLException {
+        return delegate().isWrapperFor(iface);
+    }
+
+    @Override
+    public String toString() {
+        return "PooledConnection{" + delegate + '}';
+    }
+}
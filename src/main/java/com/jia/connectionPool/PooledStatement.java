@@ -0,0 +1,425 @@
+package com.jia.connectionPool;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Statement的包装类, 直接委托给物理Statement
+ * getConnection()返回连接池的连接而不是物理连接, 关闭时从所属连接的记录中移除
+ * 会放回预编译语句缓存的语句记录被修改的属性和打开的结果集, 放回前恢复和关闭, 不影响下一个使用者
+ * */
+class PooledStatement implements Statement {
+
+    // 会被恢复的属性, 每个占一位
+    private static final int MAX_ROWS = 1;
+    private static final int QUERY_TIMEOUT = 1 << 1;
+    private static final int FETCH_SIZE = 1 << 2;
+    private static final int FETCH_DIRECTION = 1 << 3;
+    private static final int MAX_FIELD_SIZE = 1 << 4;
+
+    // 读不到原来的值或者要求不再复用的修改: setEscapeProcessing、setCursorName、setPoolable(false)、closeOnCompletion
+    private static final int NOT_REUSABLE = 1 << 5;
+
+    // 创建本Statement的连接
+    final PooledConnection connection;
+
+    // 物理Statement, 放回预编译语句缓存之后替换为ClosedStatement
+    Statement delegate;
+
+    // 被修改过的属性, 只在会放回缓存时记录
+    private int modified;
+
+    // 被修改的属性在借出时的值
+    private int originalMaxRows;
+    private int originalQueryTimeout;
+    private int originalFetchSize;
+    private int originalFetchDirection;
+    private int originalMaxFieldSize;
+
+    // 还没有关闭的物理结果集, 只在会放回缓存时记录
+    private List<ResultSet> results;
+
+    PooledStatement(PooledConnection connection, Statement delegate) {
+        this.connection = connection;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+        connection.markDirty();
+        return new PooledResultSet(this, delegate.executeQuery(sql));
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+        connection.markDirty();
+        return delegate.executeUpdate(sql);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        connection.untrackStatement(this);
+        delegate.close();
+    }
+
+    /**
+     * 物理语句关闭时是否放回预编译语句缓存
+     * */
+    boolean isCached() {
+        return false;
+    }
+
+    /**
+     * 记录一个属性被修改
+     * @return 会放回缓存并且是第一次修改时返回true, 调用者保存原来的值
+     * */
+    private boolean firstModification(int property) {
+        if (!isCached() || (modified & property) != 0) {
+            return false;
+        }
+        modified |= property;
+        return true;
+    }
+
+    void resultOpened(ResultSet resultSet) {
+        if (isCached()) {
+            if (results == null) {
+                results = new ArrayList<ResultSet>(2);
+            }
+            results.add(resultSet);
+        }
+    }
+
+    void resultClosed(ResultSet resultSet) {
+        if (results != null) {
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i) == resultSet) {
+                    results.remove(i);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 放回预编译语句缓存前关闭还没有关闭的结果集, 把修改过的属性恢复为借出时的值
+     * @param statement 物理语句
+     * @return 有无法恢复的修改时返回false, 物理语句不能再放回缓存
+     * */
+    boolean restore(Statement statement) throws SQLException {
+        if (results != null) {
+            for (ResultSet resultSet : results) {
+                resultSet.close();
+            }
+            results = null;
+        }
+        if ((modified & NOT_REUSABLE) != 0) {
+            return false;
+        }
+        if ((modified & MAX_ROWS) != 0) {
+            statement.setMaxRows(originalMaxRows);
+        }
+        if ((modified & QUERY_TIMEOUT) != 0) {
+            statement.setQueryTimeout(originalQueryTimeout);
+        }
+        if ((modified & FETCH_SIZE) != 0) {
+            statement.setFetchSize(originalFetchSize);
+        }
+        if ((modified & FETCH_DIRECTION) != 0) {
+            statement.setFetchDirection(originalFetchDirection);
+        }
+        if ((modified & MAX_FIELD_SIZE) != 0) {
+            statement.setMaxFieldSize(originalMaxFieldSize);
+        }
+        modified = 0;
+        return true;
+    }
+
+    @Override
+    public int getMaxFieldSize() throws SQLException {
+        return delegate.getMaxFieldSize();
+    }
+
+    @Override
+    public void setMaxFieldSize(int max) throws SQLException {
+        if (firstModification(MAX_FIELD_SIZE)) {
+            originalMaxFieldSize = delegate.getMaxFieldSize();
+        }
+        delegate.setMaxFieldSize(max);
+    }
+
+    @Override
+    public int getMaxRows() throws SQLException {
+        return delegate.getMaxRows();
+    }
+
+    @Override
+    public void setMaxRows(int max) throws SQLException {
+        if (firstModification(MAX_ROWS)) {
+            originalMaxRows = delegate.getMaxRows();
+        }
+        delegate.setMaxRows(max);
+    }
+
+    @Override
+    public void setEscapeProcessing(boolean enable) throws SQLException {
+        firstModification(NOT_REUSABLE);
+        delegate.setEscapeProcessing(enable);
+    }
+
+    @Override
+    public int getQueryTimeout() throws SQLException {
+        return delegate.getQueryTimeout();
+    }
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+        if (firstModification(QUERY_TIMEOUT)) {
+            originalQueryTimeout = delegate.getQueryTimeout();
+        }
+        delegate.setQueryTimeout(seconds);
+    }
+
+    @Override
+    public void cancel() throws SQLException {
+        delegate.cancel();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return delegate.getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        delegate.clearWarnings();
+    }
+
+    @Override
+    public void setCursorName(String name) throws SQLException {
+        firstModification(NOT_REUSABLE);
+        delegate.setCursorName(name);
+    }
+
+    @Override
+    public boolean execute(String sql) throws SQLException {
+        connection.markDirty();
+        return delegate.execute(sql);
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        ResultSet resultSet = delegate.getResultSet();
+        return resultSet == null ? null : new PooledResultSet(this, resultSet);
+    }
+
+    @Override
+    public int getUpdateCount() throws SQLException {
+        return delegate.getUpdateCount();
+    }
+
+    @Override
+    public boolean getMoreResults() throws SQLException {
+        return delegate.getMoreResults();
+    }
+
+    @Override
+    public void setFetchDirection(int direction) throws SQLException {
+        if (firstModification(FETCH_DIRECTION)) {
+            originalFetchDirection = delegate.getFetchDirection();
+        }
+        delegate.setFetchDirection(direction);
+    }
+
+    @Override
+    public int getFetchDirection() throws SQLException {
+        return delegate.getFetchDirection();
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        if (firstModification(FETCH_SIZE)) {
+            originalFetchSize = delegate.getFetchSize();
+        }
+        delegate.setFetchSize(rows);
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        return delegate.getFetchSize();
+    }
+
+    @Override
+    public int getResultSetConcurrency() throws SQLException {
+        return delegate.getResultSetConcurrency();
+    }
+
+    @Override
+    public int getResultSetType() throws SQLException {
+        return delegate.getResultSetType();
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+        delegate.addBatch(sql);
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        delegate.clearBatch();
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        connection.markDirty();
+        return delegate.executeBatch();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return connection;
+    }
+
+    @Override
+    public boolean getMoreResults(int current) throws SQLException {
+        return delegate.getMoreResults(current);
+    }
+
+    @Override
+    public ResultSet getGeneratedKeys() throws SQLException {
+        return new PooledResultSet(this, delegate.getGeneratedKeys());
+    }
+
+    @Override
+    public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        connection.markDirty();
+        return delegate.executeUpdate(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        connection.markDirty();
+        return delegate.executeUpdate(sql, columnIndexes);
+    }
+
+    @Override
+    public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+        connection.markDirty();
+        return delegate.executeUpdate(sql, columnNames);
+    }
+
+    @Override
+    public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+        connection.markDirty();
+        return delegate.execute(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+        connection.markDirty();
+        return delegate.execute(sql, columnIndexes);
+    }
+
+    @Override
+    public boolean execute(String sql, String[] columnNames) throws SQLException {
+        connection.markDirty();
+        return delegate.execute(sql, columnNames);
+    }
+
+    @Override
+    public int getResultSetHoldability() throws SQLException {
+        return delegate.getResultSetHoldability();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return delegate.isClosed();
+    }
+
+    @Override
+    public void setPoolable(boolean poolable) throws SQLException {
+        if (!poolable) {
+            firstModification(NOT_REUSABLE);
+        }
+        delegate.setPoolable(poolable);
+    }
+
+    @Override
+    public boolean isPoolable() throws SQLException {
+        return delegate.isPoolable();
+    }
+
+    @Override
+    public void closeOnCompletion() throws SQLException {
+        firstModification(NOT_REUSABLE);
+        delegate.closeOnCompletion();
+    }
+
+    @Override
+    public boolean isCloseOnCompletion() throws SQLException {
+        return delegate.isCloseOnCompletion();
+    }
+
+    @Override
+    public long getLargeUpdateCount() throws SQLException {
+        return delegate.getLargeUpdateCount();
+    }
+
+    @Override
+    public void setLargeMaxRows(long max) throws SQLException {
+        if (firstModification(MAX_ROWS)) {
+            originalMaxRows = delegate.getMaxRows();
+        }
+        delegate.setLargeMaxRows(max);
+    }
+
+    @Override
+    public long getLargeMaxRows() throws SQLException {
+        return delegate.getLargeMaxRows();
+    }
+
+    @Override
+    public long[] executeLargeBatch() throws SQLException {
+        connection.markDirty();
+        return delegate.executeLargeBatch();
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql) throws SQLException {
+        connection.markDirty();
+        return delegate.executeLargeUpdate(sql);
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+        connection.markDirty();
+        return delegate.executeLargeUpdate(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+        connection.markDirty();
+        return delegate.executeLargeUpdate(sql, columnIndexes);
+    }
+
+    @Override
+    public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+        connection.markDirty();
+        return delegate.executeLargeUpdate(sql, columnNames);
+    }
+
+    @Override
+    public <T> T unwrap(java.lang.Class<T> iface) throws java.sql.SQLException {
+        return delegate.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(java.lang.Class<?> iface) throws java.sql.SQLException {
+        return delegate.isWrapperFor(iface);
+    }
+}
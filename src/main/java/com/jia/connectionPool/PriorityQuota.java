@@ -0,0 +1,417 @@
+package com.jia.connectionPool;
+
+import com.jia.entity.PriorityClass;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按优先级类别分配借用连接的许可
+ *
+ * 借用连接前先拿到所属类别的许可: 每个类别使用的连接不超过自己的上限, 优先使用为自己预留的连接,
+ * 预留的用完后与其他类别竞争共享部分(最大连接数减去所有预留的连接数). 许可的总数不超过最大连接数,
+ * 所以拿到许可的请求在连接池中排队时前面最多只有最大连接数个请求, 预留给高优先级类别的连接不会被低优先级的请求占满.
+ * 没有许可时按类别排队, 归还许可时先满足优先级高的类别, 同一类别内先来先得.
+ * 没有配置或者无法识别的类别按最低优先级处理, 没有预留的连接
+ * */
+final class PriorityQuota {
+
+    // 许可的类型
+    static final int NONE = 0;
+    static final int RESERVED = 1;
+    static final int SHARED = 2;
+
+    // 当前配置的类别, 按名称查找
+    private volatile Map<String, Level> classes;
+
+    // 按优先级从高到低排列, 最后是隐含的最低优先级类别和已经删除但还有许可没有归还的类别
+    private volatile Level[] levels;
+
+    private final Level defaultLevel = new Level("default");
+
+    // 使用中的共享许可数
+    private final AtomicInteger sharedInUse = new AtomicInteger();
+
+    private volatile int sharedCapacity;
+
+    // 有类别使用中的预留许可超过了调整后的预留数时为true, 超出的部分占用共享许可
+    private volatile boolean overReserved;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // 所有类别的等待数, 只在持有lock时修改
+    private volatile int waiting;
+
+    // 连接池停用后为true, 之后的等待者立即被放弃; 只在持有lock时修改
+    private boolean aborted;
+
+    /**
+     * @param classes 按优先级从高到低排列的类别, 预留的连接数之和不超过maxConnections
+     * @param maxConnections 节点的最大连接数
+     * */
+    PriorityQuota(List<PriorityClass> classes, int maxConnections) {
+        this.resize(classes, maxConnections);
+    }
+
+    /**
+     * 配置变化时在原来的许可上调整每个类别的限制
+     * 同名的类别保留使用中的许可数, 借出的连接归还时仍然计入这些类别, 调整后的上限对已经借出的连接同样有效;
+     * 删除的类别在许可全部归还之前按没有预留的类别保留, 新的请求按最低优先级处理
+     * */
+    void resize(List<PriorityClass> classes, int maxConnections) {
+        List<PermitWaiter> granted;
+        lock.lock();
+        try {
+            Map<String, Level> previous = this.classes;
+            Map<String, Level> current = new HashMap<String, Level>();
+            List<Level> ordered = new ArrayList<Level>();
+            int totalReserved = 0;
+            for (PriorityClass priorityClass : classes) {
+                Level level = previous == null ? null : previous.get(priorityClass.getName());
+                if (level == null) {
+                    level = new Level(priorityClass.getName());
+                }
+                level.reserved = priorityClass.getReservedConnections();
+                level.max = priorityClass.getMaxConnections();
+                totalReserved += level.reserved;
+                current.put(level.name, level);
+                ordered.add(level);
+            }
+            defaultLevel.max = maxConnections;
+            ordered.add(defaultLevel);
+            if (this.levels != null) {
+                for (Level level : this.levels) {
+                    if (!ordered.contains(level) && (level.inUse.get() > 0 || !level.waiters.isEmpty())) {
+                        level.reserved = 0;
+                        ordered.add(level);
+                    }
+                }
+            }
+            boolean overReserved = false;
+            for (Level level : ordered) {
+                overReserved |= level.reservedInUse.get() > level.reserved;
+            }
+            this.sharedCapacity = Math.max(maxConnections - totalReserved, 0);
+            this.overReserved = overReserved;
+            this.levels = ordered.toArray(new Level[ordered.size()]);
+            this.classes = current;
+            // 限制变大时分配给等待者
+            granted = grantLocked();
+        } finally {
+            lock.unlock();
+        }
+        wakeAll(granted);
+    }
+
+    /**
+     * 获取类别, 为null或者没有配置时返回最低优先级的类别
+     * */
+    Level classOf(String name) {
+        Level level = name == null ? null : classes.get(name);
+        return level == null ? defaultLevel : level;
+    }
+
+    /**
+     * 获取许可, 没有许可时按优先级排队等待
+     * @param priorityClass 类别
+     * @param deadline 截止时间 单位纳秒
+     * @return 许可的类型, 超时或者被abortWaiters()放弃时返回NONE
+     * @throws InterruptedException 等待被打断
+     * */
+    int acquire(Level priorityClass, long deadline) throws InterruptedException {
+        PermitWaiter waiter = new PermitWaiter(priorityClass, Thread.currentThread());
+        int kind = acquireAsync(waiter);
+        while (kind == NONE) {
+            kind = waiter.kind;
+            if (kind != NONE) {
+                break;
+            }
+            if (waiter.aborted) {
+                return NONE;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return cancel(waiter);
+            }
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) {
+                kind = cancel(waiter);
+                if (kind != NONE) {
+                    release(priorityClass, kind);
+                }
+                throw new InterruptedException();
+            }
+        }
+        return kind;
+    }
+
+    /**
+     * 获取许可, 没有许可时放入等待队列后立即返回, 拿到许可或者被放弃时调用等待者的wake()
+     * @return 许可的类型, 已经进入等待队列或者被放弃时返回NONE
+     * */
+    int acquireAsync(PermitWaiter waiter) {
+        // 有等待者时不插队, 由grant按优先级分配
+        if (waiting == 0) {
+            int kind = tryAcquire(waiter.priorityClass);
+            if (kind != NONE) {
+                return kind;
+            }
+        }
+        List<PermitWaiter> granted;
+        lock.lock();
+        try {
+            if (aborted) {
+                waiter.aborted = true;
+                granted = null;
+            } else {
+                waiter.priorityClass.waiters.addLast(waiter);
+                waiting++;
+                granted = grantLocked();
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (waiter.aborted) {
+            waiter.wake();
+            return NONE;
+        }
+        int kind = NONE;
+        if (granted != null) {
+            for (PermitWaiter other : granted) {
+                if (other == waiter) {
+                    kind = waiter.kind;
+                } else {
+                    other.wake();
+                }
+            }
+        }
+        return kind;
+    }
+
+    /**
+     * 放弃等待
+     * @return 已经拿到许可时返回许可的类型, 由调用者使用或者归还; 否则返回NONE
+     * */
+    int cancel(PermitWaiter waiter) {
+        lock.lock();
+        try {
+            if (waiter.kind == NONE && waiter.priorityClass.waiters.remove(waiter)) {
+                waiting--;
+            }
+            return waiter.kind;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 连接池停用时放弃全部等待者, 之后新的等待者也立即被放弃
+     * 等待的线程从acquire()返回NONE, 异步的等待者在wake()中通过isAborted()判断
+     * @return 被放弃的等待者数目
+     * */
+    int abortWaiters() {
+        List<PermitWaiter> abandoned = new ArrayList<PermitWaiter>();
+        lock.lock();
+        try {
+            aborted = true;
+            for (Level level : levels) {
+                PermitWaiter waiter;
+                while ((waiter = level.waiters.pollFirst()) != null) {
+                    waiter.aborted = true;
+                    abandoned.add(waiter);
+                }
+            }
+            waiting = 0;
+        } finally {
+            lock.unlock();
+        }
+        for (PermitWaiter waiter : abandoned) {
+            waiter.wake();
+        }
+        return abandoned.size();
+    }
+
+    /**
+     * 归还许可, 有等待者时按优先级分配
+     * */
+    void release(Level priorityClass, int kind) {
+        if (kind == RESERVED) {
+            priorityClass.reservedInUse.decrementAndGet();
+        } else {
+            sharedInUse.decrementAndGet();
+        }
+        priorityClass.inUse.decrementAndGet();
+        if (waiting > 0) {
+            grant();
+        }
+    }
+
+    private void grant() {
+        List<PermitWaiter> granted;
+        lock.lock();
+        try {
+            granted = grantLocked();
+        } finally {
+            lock.unlock();
+        }
+        wakeAll(granted);
+    }
+
+    private static void wakeAll(List<PermitWaiter> granted) {
+        if (granted != null) {
+            for (PermitWaiter waiter : granted) {
+                waiter.wake();
+            }
+        }
+    }
+
+    /**
+     * 按优先级依次满足每个类别队首的等待者, 一个类别拿不到许可时继续尝试下一个类别
+     * @return 拿到许可的等待者, 没有时为null; 需要在释放锁之后唤醒
+     * */
+    private List<PermitWaiter> grantLocked() {
+        List<PermitWaiter> granted = null;
+        for (Level level : levels) {
+            if (waiting == 0) {
+                break;
+            }
+            ArrayDeque<PermitWaiter> queue = level.waiters;
+            while (!queue.isEmpty()) {
+                int kind = tryAcquire(level);
+                if (kind == NONE) {
+                    break;
+                }
+                PermitWaiter waiter = queue.pollFirst();
+                waiter.kind = kind;
+                waiting--;
+                if (granted == null) {
+                    granted = new ArrayList<PermitWaiter>();
+                }
+                granted.add(waiter);
+            }
+        }
+        return granted;
+    }
+
+    /**
+     * 不等待获取许可, 先检查类别的上限, 再依次尝试预留的和共享的许可
+     * */
+    private int tryAcquire(Level priorityClass) {
+        if (!increment(priorityClass.inUse, priorityClass.max)) {
+            return NONE;
+        }
+        int reserved = priorityClass.reserved;
+        if (reserved > 0 && increment(priorityClass.reservedInUse, reserved)) {
+            return RESERVED;
+        }
+        int capacity = overReserved ? sharedCapacity - excessReserved() : sharedCapacity;
+        while (true) {
+            int shared = sharedInUse.get();
+            if (shared >= capacity) {
+                priorityClass.inUse.decrementAndGet();
+                return NONE;
+            }
+            if (sharedInUse.compareAndSet(shared, shared + 1)) {
+                return SHARED;
+            }
+        }
+    }
+
+    /**
+     * 调整配置后超出预留数的预留许可, 在归还之前占用共享的部分
+     * */
+    private int excessReserved() {
+        int excess = 0;
+        for (Level level : levels) {
+            excess += Math.max(level.reservedInUse.get() - level.reserved, 0);
+        }
+        return excess;
+    }
+
+    private static boolean increment(AtomicInteger count, int limit) {
+        while (true) {
+            int current = count.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (count.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 获取等待许可的请求数
+     * */
+    int getWaitingCount() {
+        return waiting;
+    }
+
+    /**
+     * 获取一个类别使用中的连接数
+     * */
+    int getInUse(Level priorityClass) {
+        return priorityClass.inUse.get();
+    }
+
+    /**
+     * 一个优先级类别的限制和使用中的许可数, 调整配置时按名称保留
+     * */
+    static final class Level {
+
+        final String name;
+
+        volatile int reserved;
+
+        volatile int max;
+
+        // 使用中的许可数
+        final AtomicInteger inUse = new AtomicInteger();
+
+        // 使用中的预留许可数
+        final AtomicInteger reservedInUse = new AtomicInteger();
+
+        // 等待队列, 只在持有lock时访问
+        final ArrayDeque<PermitWaiter> waiters = new ArrayDeque<PermitWaiter>();
+
+        Level(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * 等待许可的请求, 拿到许可后kind不为NONE, 被放弃后aborted为true
+     * */
+    static class PermitWaiter {
+
+        final Level priorityClass;
+
+        private final Thread thread;
+
+        volatile int kind = NONE;
+
+        private volatile boolean aborted;
+
+        PermitWaiter(Level priorityClass, Thread thread) {
+            this.priorityClass = priorityClass;
+            this.thread = thread;
+        }
+
+        /**
+         * 拿到许可或者被放弃后在分配许可的线程上调用
+         * */
+        void wake() {
+            LockSupport.unpark(thread);
+        }
+
+        boolean isAborted() {
+            return aborted;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.jia.connectionPool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 物理连接的会话状态
+ *
+ * 创建连接时读取一次自动提交、隔离级别、catalog和只读属性作为默认值, 之后所有修改都经过这里:
+ * 设置的值与当前值相同时不访问数据库, 读取时直接返回记录的值;
+ * 归还连接时只恢复与默认值不同的属性, 没有修改过的连接归还时不产生任何数据库交互
+ *
+ * 同一时间只有借到连接的线程访问, 借出和归还时的CAS保证了可见性, 不需要加锁
+ * */
+final class SessionState {
+
+    static final int DIRTY_AUTO_COMMIT = 1;
+    static final int DIRTY_ISOLATION = 1 << 1;
+    static final int DIRTY_CATALOG = 1 << 2;
+    static final int DIRTY_READ_ONLY = 1 << 3;
+
+    // 创建连接时的状态, 归还时恢复到这些值
+    private final boolean defaultAutoCommit;
+    private final int defaultIsolation;
+    private final String defaultCatalog;
+    private final boolean defaultReadOnly;
+
+    // 物理连接当前的状态
+    private boolean autoCommit;
+    private int isolation;
+    private String catalog;
+    private boolean readOnly;
+
+    // 与默认值不同的属性
+    private int dirtyBits;
+
+    SessionState(Connection connection) throws SQLException {
+        this.defaultAutoCommit = this.autoCommit = connection.getAutoCommit();
+        this.defaultIsolation = this.isolation = connection.getTransactionIsolation();
+        this.defaultCatalog = this.catalog = connection.getCatalog();
+        this.defaultReadOnly = this.readOnly = connection.isReadOnly();
+    }
+
+    boolean getAutoCommit() {
+        return autoCommit;
+    }
+
+    int getTransactionIsolation() {
+        return isolation;
+    }
+
+    String getCatalog() {
+        return catalog;
+    }
+
+    boolean isReadOnly() {
+        return readOnly;
+    }
+
+    boolean isDirty() {
+        return dirtyBits != 0;
+    }
+
+    void setAutoCommit(Connection connection, boolean autoCommit) throws SQLException {
+        if (this.autoCommit == autoCommit) {
+            return;
+        }
+        connection.setAutoCommit(autoCommit);
+        this.autoCommit = autoCommit;
+        mark(DIRTY_AUTO_COMMIT, autoCommit != defaultAutoCommit);
+    }
+
+    void setTransactionIsolation(Connection connection, int isolation) throws SQLException {
+        if (this.isolation == isolation) {
+            return;
+        }
+        connection.setTransactionIsolation(isolation);
+        this.isolation = isolation;
+        mark(DIRTY_ISOLATION, isolation != defaultIsolation);
+    }
+
+    void setCatalog(Connection connection, String catalog) throws SQLException {
+        if (equal(this.catalog, catalog)) {
+            return;
+        }
+        connection.setCatalog(catalog);
+        this.catalog = catalog;
+        mark(DIRTY_CATALOG, !equal(catalog, defaultCatalog));
+    }
+
+    void setReadOnly(Connection connection, boolean readOnly) throws SQLException {
+        if (this.readOnly == readOnly) {
+            return;
+        }
+        connection.setReadOnly(readOnly);
+        this.readOnly = readOnly;
+        mark(DIRTY_READ_ONLY, readOnly != defaultReadOnly);
+    }
+
+    /**
+     * 把修改过的属性恢复为默认值, 调用前必须先结束进行中的事务
+     * @param connection 物理连接
+     * */
+    void reset(Connection connection) throws SQLException {
+        if (dirtyBits == 0) {
+            return;
+        }
+        if ((dirtyBits & DIRTY_AUTO_COMMIT) != 0) {
+            setAutoCommit(connection, defaultAutoCommit);
+        }
+        if ((dirtyBits & DIRTY_ISOLATION) != 0) {
+            setTransactionIsolation(connection, defaultIsolation);
+        }
+        if ((dirtyBits & DIRTY_CATALOG) != 0) {
+            setCatalog(connection, defaultCatalog);
+        }
+        if ((dirtyBits & DIRTY_READ_ONLY) != 0) {
+            setReadOnly(connection, defaultReadOnly);
+        }
+    }
+
+    private void mark(int bit, boolean dirty) {
+        dirtyBits = dirty ? dirtyBits | bit : dirtyBits & ~bit;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
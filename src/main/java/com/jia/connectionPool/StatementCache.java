@@ -0,0 +1,91 @@
+package com.jia.connectionPool;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 单个物理连接上的预编译语句缓存, 按最近归还的顺序淘汰
+ *
+ * 借出时从缓存中取走, 应用程序关闭时再放回, 同一个物理PreparedStatement不会同时被两处使用;
+ * 被淘汰的PreparedStatement由调用者在锁外关闭
+ * 使用ReentrantLock而不是synchronized, 虚拟线程在这里阻塞时不会占住载体线程
+ * */
+final class StatementCache {
+
+    // 最多缓存的PreparedStatement数目
+    private final int maxSize;
+
+    // 按放回顺序排列, 最早放回的在最前面
+    private final LinkedHashMap<StatementKey, PreparedStatement> cache;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    StatementCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.cache = new LinkedHashMap<StatementKey, PreparedStatement>(maxSize * 4 / 3 + 1);
+    }
+
+    /**
+     * 取走一个缓存的PreparedStatement
+     * @param key 缓存键
+     * @return 缓存的PreparedStatement, 未命中时返回null
+     * */
+    PreparedStatement take(StatementKey key) {
+        lock.lock();
+        try {
+            return cache.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 把PreparedStatement放回缓存
+     * @param key 缓存键
+     * @param statement 要放回的PreparedStatement
+     * @return 需要关闭的PreparedStatement(相同键的旧语句或者最久未使用的语句), 没有时返回null
+     * */
+    PreparedStatement offer(StatementKey key, PreparedStatement statement) {
+        lock.lock();
+        try {
+            PreparedStatement evicted = cache.put(key, statement);
+            if (evicted == null && cache.size() > maxSize) {
+                Iterator<Map.Entry<StatementKey, PreparedStatement>> it = cache.entrySet().iterator();
+                evicted = it.next().getValue();
+                it.remove();
+            }
+            return evicted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 清空缓存
+     * @return 缓存中的全部PreparedStatement
+     * */
+    List<PreparedStatement> clear() {
+        lock.lock();
+        try {
+            List<PreparedStatement> statements = new ArrayList<PreparedStatement>(cache.values());
+            cache.clear();
+            return statements;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return cache.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
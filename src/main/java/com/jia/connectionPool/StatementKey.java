@@ -0,0 +1,60 @@
+package com.jia.connectionPool;
+
+/**
+ * 预编译语句缓存的键, 由SQL文本和结果集的类型、并发性、可保持性组成
+ * */
+final class StatementKey {
+
+    // SQL文本
+    private final String sql;
+
+    // 结果集类型
+    private final int resultSetType;
+
+    // 结果集并发性
+    private final int resultSetConcurrency;
+
+    // 结果集可保持性, 0表示使用连接的默认值
+    private final int resultSetHoldability;
+
+    StatementKey(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) {
+        this.sql = sql;
+        this.resultSetType = resultSetType;
+        this.resultSetConcurrency = resultSetConcurrency;
+        this.resultSetHoldability = resultSetHoldability;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof StatementKey)) {
+            return false;
+        }
+        StatementKey that = (StatementKey) o;
+        return resultSetType == that.resultSetType
+                && resultSetConcurrency == that.resultSetConcurrency
+                && resultSetHoldability == that.resultSetHoldability
+                && sql.equals(that.sql);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = sql.hashCode();
+        result = 31 * result + resultSetType;
+        result = 31 * result + resultSetConcurrency;
+        result = 31 * result + resultSetHoldability;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "StatementKey{" +
+                "sql='" + sql + '\'' +
+                ", resultSetType=" + resultSetType +
+                ", resultSetConcurrency=" + resultSetConcurrency +
+                ", resultSetHoldability=" + resultSetHoldability +
+                '}';
+    }
+}
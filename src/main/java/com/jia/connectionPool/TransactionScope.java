@@ -0,0 +1,156 @@
+package com.jia.connectionPool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 把一个连接绑定到当前线程的范围, 按引用计数嵌套
+ *
+ * 最外层的范围从连接池借出连接, 内层的范围直接使用同一个连接, 最外层的范围关闭时才归还.
+ * 范围打开期间应用程序对连接调用close()不会归还连接, 分层的DAO代码可以照常关闭连接.
+ * 开启事务的范围关闭前必须调用commit(), 否则回滚; 需要事务的内层范围加入外层的事务, 没有提交就关闭时
+ * 整个事务只能回滚, 外层commit()会回滚并抛出异常. 不需要事务的范围只共用连接, 不影响事务
+ *
+ * 只能在打开它的线程上使用
+ * */
+public final class TransactionScope implements AutoCloseable {
+
+    private final Binding binding;
+
+    // 是否需要事务
+    private final boolean transactional;
+
+    // 是否由这个范围开启了事务
+    private final boolean owner;
+
+    // 开启事务前的自动提交属性, 事务结束后恢复
+    private final boolean previousAutoCommit;
+
+    private boolean committed;
+
+    private boolean closed;
+
+    private TransactionScope(Binding binding, boolean transactional, boolean owner, boolean previousAutoCommit) {
+        this.binding = binding;
+        this.transactional = transactional;
+        this.owner = owner;
+        this.previousAutoCommit = previousAutoCommit;
+    }
+
+    /**
+     * 在绑定的连接上打开一层范围
+     * @param binding 当前线程绑定的连接
+     * @param transactional 是否需要事务, 连接已经在事务中时加入外层的事务
+     * */
+    static TransactionScope open(Binding binding, boolean transactional) throws SQLException {
+        boolean owner = false;
+        boolean previousAutoCommit = true;
+        if (transactional && !binding.inTransaction) {
+            previousAutoCommit = binding.connection.getAutoCommit();
+            binding.connection.setAutoCommit(false);
+            binding.inTransaction = true;
+            binding.rollbackOnly = false;
+            owner = true;
+        }
+        binding.depth++;
+        return new TransactionScope(binding, transactional, owner, previousAutoCommit);
+    }
+
+    /**
+     * 获取绑定的连接, 嵌套的范围得到同一个连接
+     * */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("事务范围已经关闭");
+        }
+        return binding.connection;
+    }
+
+    /**
+     * 提交事务; 加入外层事务的范围只记录已经完成, 由开启事务的范围提交
+     * @throws SQLException 提交失败, 或者事务已经被内层范围标记为只能回滚
+     * */
+    public void commit() throws SQLException {
+        if (closed) {
+            throw new SQLException("事务范围已经关闭");
+        }
+        if (owner && binding.inTransaction) {
+            if (binding.rollbackOnly) {
+                binding.connection.rollback();
+                committed = true;
+                throw new SQLException("内层范围没有完成, 事务已经回滚");
+            }
+            binding.connection.commit();
+        }
+        committed = true;
+    }
+
+    /**
+     * 标记事务只能回滚
+     * */
+    public void setRollbackOnly() {
+        if (binding.inTransaction) {
+            binding.rollbackOnly = true;
+        }
+    }
+
+    /**
+     * 是否是最外层的范围
+     * */
+    public boolean isOutermost() {
+        return binding.depth == 1;
+    }
+
+    /**
+     * 关闭这一层范围, 开启事务的范围没有提交时回滚, 最外层的范围关闭时归还连接
+     * */
+    @Override
+    public void close() throws SQLException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (binding.inTransaction) {
+                if (owner) {
+                    binding.inTransaction = false;
+                    try {
+                        if (!committed) {
+                            binding.connection.rollback();
+                        }
+                    } finally {
+                        // 外层没有事务的范围继续使用原来的提交方式
+                        binding.connection.setAutoCommit(previousAutoCommit);
+                    }
+                } else if (transactional && !committed) {
+                    binding.rollbackOnly = true;
+                }
+            }
+        } finally {
+            if (--binding.depth == 0) {
+                binding.connection.pool.unbind(binding);
+            }
+        }
+    }
+
+    /**
+     * 当前线程在一个连接池上绑定的连接
+     * */
+    static final class Binding {
+
+        final PooledConnection connection;
+
+        // 打开的范围数
+        int depth;
+
+        // 是否有范围开启的事务
+        boolean inTransaction;
+
+        // 事务是否只能回滚
+        boolean rollbackOnly;
+
+        Binding(PooledConnection connection) {
+            this.connection = connection;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.jia.connectionPool;
+
+/**
+ * 借出连接前的有效性检测方式
+ * */
+enum ValidationMode {
+
+    // 调用Connection.isValid(), MySQL驱动会发送COM_PING, 不经过SQL解析
+    ISVALID,
+
+    // 执行配置的测试语句, 用于不支持isValid()的驱动
+    QUERY,
+
+    // 只检查连接是否已经关闭, 不与数据库交互
+    NONE;
+
+    /**
+     * 解析配置中的检测方式
+     * @param name isvalid、query或者none, 不区分大小写
+     * @return 检测方式, 无法识别时返回null
+     * */
+    static ValidationMode of(String name) {
+        if (name == null) {
+            return null;
+        }
+        for (ValidationMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name.trim())) {
+                return mode;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,94 @@
+package com.jia.connectionPool;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 等待队列中的一个等待者
+ *
+ * 归还连接的线程通过CAS把等待者从等待状态改为已交接, 等待者超时或被打断时改为已取消,
+ * 两者只有一个能成功, 保证连接不会交给已经放弃等待的线程
+ * 状态改变后通过wake()通知等待者, 默认唤醒等待的线程, 异步获取时由子类改为完成CompletableFuture
+ * */
+class Waiter {
+
+    static final int WAITING = 0;
+    static final int FULFILLED = 1;
+    static final int CANCELLED = 2;
+
+    private static final AtomicIntegerFieldUpdater<Waiter> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(Waiter.class, "state");
+
+    // 等待的线程, 异步获取时为null
+    final Thread thread;
+
+    // 入队时间 单位纳秒
+    final long enqueueTime;
+
+    // 交接过来的连接
+    private PoolEntry entry;
+
+    private volatile int state = WAITING;
+
+    Waiter(Thread thread) {
+        this.thread = thread;
+        this.enqueueTime = System.nanoTime();
+    }
+
+    /**
+     * 把连接交给等待者
+     * @param entry 已经标记为使用中的连接
+     * @return 等待者已经取消时返回false, 连接仍由调用者负责
+     * */
+    boolean fulfill(PoolEntry entry) {
+        this.entry = entry;
+        if (STATE_UPDATER.compareAndSet(this, WAITING, FULFILLED)) {
+            wake();
+            return true;
+        }
+        this.entry = null;
+        return false;
+    }
+
+    /**
+     * 取消等待
+     * @return 已经被交接连接时返回false
+     * */
+    boolean cancel() {
+        return STATE_UPDATER.compareAndSet(this, WAITING, CANCELLED);
+    }
+
+    /**
+     * 由其他线程放弃等待并唤醒等待的线程, 例如节点熔断时
+     * @return 已经被交接连接时返回false
+     * */
+    boolean abort() {
+        if (STATE_UPDATER.compareAndSet(this, WAITING, CANCELLED)) {
+            wake();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 通知等待者已经被交接连接或者被放弃, 在交接连接的线程上执行
+     * */
+    void wake() {
+        LockSupport.unpark(thread);
+    }
+
+    boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    boolean isFulfilled() {
+        return state == FULFILLED;
+    }
+
+    /**
+     * 获取交接过来的连接, 只在isFulfilled()为true之后调用
+     * */
+    PoolEntry getEntry() {
+        return entry;
+    }
+}
@@ -0,0 +1,348 @@
+package com.jia.connectionPool.batch;
+
+import com.jia.connectionPool.ConnectionManager;
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 合并小的写入语句批量执行
+ *
+ * 应用程序提交的语句先放入有界队列, 由少数几个写入线程取出, 按提交顺序执行, 连续的相同SQL的语句合并为一个JDBC批处理,
+ * 一批语句只借一次连接、只提交一次事务; 每个语句通过CompletableFuture返回影响的行数.
+ * MySQL的驱动在url中配置rewriteBatchedStatements=true后会把批处理的INSERT改写为多行INSERT.
+ * 提交之前失败时回滚整批, 再逐条重新执行, 一条语句出错不影响同一批的其他语句;
+ * 提交本身失败时无法确定是否已经生效, 整批以异常完成, 不重新执行.
+ * 写入只使用节点自己的连接池, 节点熔断时不切换到failover节点
+ * */
+public class WriteCoalescer {
+
+    private static final Logger log = Logger.getLogger(WriteCoalescer.class);
+
+    private final ConnectionManager manager;
+
+    // 写入的节点
+    private final String nodeName;
+
+    // 每批最多合并的语句数
+    private final int batchSize;
+
+    // 凑批时最多等待的时间 单位毫秒, 0表示不等待
+    private final long lingerMillis;
+
+    private final ArrayBlockingQueue<Write> queue;
+
+    private final Thread[] writers;
+
+    private volatile boolean running = true;
+
+    // 提交语句时持有读锁, 关闭时持有写锁, 关闭开始之后不会再有语句进入队列
+    private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    // 执行的批次数
+    private final LongAdder batches = new LongAdder();
+
+    // 执行的语句数
+    private final LongAdder writes = new LongAdder();
+
+    /**
+     * @param manager 连接池管理器
+     * @param nodeName 写入的节点
+     * @param batchSize 每批最多合并的语句数
+     * @param queueCapacity 队列长度, 队列满时直接拒绝
+     * @param writerCount 写入线程数, 同时最多占用相同数目的连接
+     * @param lingerMillis 凑批时最多等待的时间 单位毫秒
+     * */
+    public WriteCoalescer(ConnectionManager manager, String nodeName, int batchSize, int queueCapacity,
+                          int writerCount, long lingerMillis) {
+        this.manager = manager;
+        this.nodeName = nodeName;
+        this.batchSize = Math.max(batchSize, 1);
+        this.lingerMillis = Math.max(lingerMillis, 0);
+        this.queue = new ArrayBlockingQueue<Write>(Math.max(queueCapacity, 1));
+        this.writers = new Thread[Math.max(writerCount, 1)];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new Thread(new Writer(), nodeName + "-write-coalescer-" + i);
+            writers[i].setDaemon(true);
+            writers[i].start();
+        }
+    }
+
+    /**
+     * 提交一条写入语句
+     * @param sql 带占位符的INSERT/UPDATE/DELETE语句, 相同的SQL才会合并
+     * @param params 占位符的值
+     * @return 影响的行数, 驱动没有返回行数时为Statement.SUCCESS_NO_INFO; 队列已满或者已经关闭时异常完成
+     * */
+    public CompletableFuture<Integer> submit(String sql, Object... params) {
+        Write write = new Write(sql, params);
+        closeLock.readLock().lock();
+        try {
+            if (!running) {
+                write.future.completeExceptionally(new SQLException(nodeName + "节点写入合并已经关闭"));
+            } else if (!queue.offer(write)) {
+                write.future.completeExceptionally(new SQLException(nodeName + "节点写入队列已满"));
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return write.future;
+    }
+
+    /**
+     * 获取队列中等待执行的语句数
+     * */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * 获取执行的批次数
+     * */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * 获取执行的语句数
+     * */
+    public long getWriteCount() {
+        return writes.sum();
+    }
+
+    /**
+     * 停止接收新的语句, 等待队列中的语句执行完后退出写入线程
+     * @param timeout 最长等待时间
+     * @param unit 时间单位
+     * */
+    public void close(long timeout, TimeUnit unit) {
+        closeLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread writer : writers) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            try {
+                if (remaining > 0) {
+                    writer.join(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        // 超时后剩余的语句直接失败, 不让调用者一直等待
+        Write write;
+        while ((write = queue.poll()) != null) {
+            write.future.completeExceptionally(new SQLException(nodeName + "节点写入合并已经关闭"));
+        }
+    }
+
+    /**
+     * 是否已经关闭
+     * */
+    public boolean isClosed() {
+        return !running;
+    }
+
+    /**
+     * 写入线程, 每次取出一批语句按提交顺序分组执行
+     * */
+    private class Writer implements Runnable {
+
+        private final List<Write> batch = new ArrayList<Write>();
+
+        @Override
+        public void run() {
+            while (running || !queue.isEmpty()) {
+                try {
+                    Write first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    if (lingerMillis > 0 && batch.size() < batchSize) {
+                        linger();
+                    }
+                    execute(batch);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    log.error(nodeName + "节点批量写入失败", e);
+                    fail(batch, new SQLException(e));
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        /**
+         * 队列中的语句不够一批时再等待一小段时间
+         * */
+        private void linger() throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+            while (batch.size() < batchSize) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return;
+                }
+                Write write = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (write == null) {
+                    return;
+                }
+                batch.add(write);
+                queue.drainTo(batch, batchSize - batch.size());
+            }
+        }
+    }
+
+    /**
+     * 在一个事务中按提交顺序执行一批语句, 连续的相同SQL的语句合并为一个批处理
+     * 不同SQL的语句之间可能有依赖, 例如先INSERT再UPDATE同一行, 所以不跨过其他语句合并
+     * */
+    private void execute(List<Write> batch) {
+        List<List<Write>> groups = new ArrayList<List<Write>>();
+        List<Write> group = null;
+        for (Write write : batch) {
+            if (group == null || !group.get(0).sql.equals(write.sql)) {
+                group = new ArrayList<Write>();
+                groups.add(group);
+            }
+            group.add(write);
+        }
+
+        Connection conn = manager.getNodeConnection(nodeName);
+        if (conn == null) {
+            fail(batch, new SQLException(nodeName + "节点获取连接失败"));
+            return;
+        }
+        try {
+            List<int[]> results = new ArrayList<int[]>(groups.size());
+            try {
+                conn.setAutoCommit(false);
+                for (List<Write> statements : groups) {
+                    results.add(executeBatch(conn, statements.get(0).sql, statements));
+                }
+            } catch (SQLException e) {
+                rollback(conn);
+                log.warn(nodeName + "节点批量写入失败, 逐条重新执行: " + e.getMessage());
+                executeEach(conn, batch);
+                return;
+            }
+            try {
+                conn.commit();
+            } catch (SQLException e) {
+                // 提交失败时可能已经生效, 重新执行可能重复写入, 交给调用者判断
+                rollback(conn);
+                log.error(nodeName + "节点批量写入提交失败, " + batch.size() + "条语句结果未知", e);
+                writes.add(batch.size());
+                fail(batch, e);
+                return;
+            }
+
+            // 先更新统计再通知调用者, 调用者拿到结果时统计已经包含这一批
+            batches.increment();
+            writes.add(batch.size());
+            int i = 0;
+            for (List<Write> statements : groups) {
+                int[] counts = results.get(i++);
+                for (int j = 0; j < statements.size(); j++) {
+                    statements.get(j).future.complete(j < counts.length ? counts[j] : Statement.SUCCESS_NO_INFO);
+                }
+            }
+        } finally {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                log.error(nodeName + "节点归还连接失败", e);
+            }
+        }
+    }
+
+    private static int[] executeBatch(Connection conn, String sql, List<Write> group) throws SQLException {
+        PreparedStatement statement = conn.prepareStatement(sql);
+        try {
+            for (Write write : group) {
+                bind(statement, write.params);
+                statement.addBatch();
+            }
+            return statement.executeBatch();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * 逐条执行并单独提交, 每条语句得到自己的结果
+     * */
+    private void executeEach(Connection conn, List<Write> batch) {
+        for (Write write : batch) {
+            writes.increment();
+            try {
+                PreparedStatement statement = conn.prepareStatement(write.sql);
+                try {
+                    bind(statement, write.params);
+                    int count = statement.executeUpdate();
+                    conn.commit();
+                    write.future.complete(count);
+                } finally {
+                    statement.close();
+                }
+            } catch (SQLException e) {
+                rollback(conn);
+                write.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement statement, Object[] params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            statement.setObject(i + 1, params[i]);
+        }
+    }
+
+    private void rollback(Connection conn) {
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            log.error(nodeName + "节点回滚失败", e);
+        }
+    }
+
+    private static void fail(List<Write> batch, SQLException e) {
+        for (Write write : batch) {
+            write.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 一条等待执行的写入语句
+     * */
+    private static final class Write {
+
+        final String sql;
+
+        final Object[] params;
+
+        final CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+
+        Write(String sql, Object[] params) {
+            this.sql = sql;
+            this.params = params == null ? new Object[0] : params;
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package com.jia.connectionPool.cache;
+
+import com.jia.connectionPool.ConnectionManager;
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 读多写少的查询结果缓存
+ *
+ * 以SQL和参数为键缓存读取到内存中的查询结果, 命中时不借用连接; 同一个键同时未命中时只有一个线程查询数据库,
+ * 其余线程等待它的结果. 缓存项超过存活时间后失效, 数目或者估算的内存占用超过上限时按写入顺序淘汰最早的缓存项.
+ * 查询涉及的表从FROM和JOIN子句中解析, 修改表之后调用invalidate(表名)使相关的缓存项失效
+ *
+ * 缓存位于借用连接之前, 通过ConnectionManager.getQueryCache(节点)获取, 而不是放在PooledStatement里:
+ * 语句包装类只能在已经借到连接之后才被调用, 放在那里命中时也要借用和归还一次连接
+ * */
+public class QueryCache {
+
+    private static final Logger log = Logger.getLogger(QueryCache.class);
+
+    // 表名和可选的别名, 别名不能是紧跟在表名后面的关键字
+    private static final String TABLE = "[`\"\\w.]+(?:\\s+(?:as\\s+)?(?!(?:where|join|inner|left|right|full|cross"
+            + "|natural|straight_join|on|using|group|order|having|limit|union|for|lock)\\b)[`\"\\w]+)?";
+
+    // 解析FROM和JOIN后面的表, FROM后面可以是逗号分隔的多个表
+    private static final Pattern TABLE_PATTERN = Pattern.compile(
+            "\\b(?:from|join)\\s+(" + TABLE + "(?:\\s*,\\s*" + TABLE + ")*)", Pattern.CASE_INSENSITIVE);
+
+    private final ConnectionManager manager;
+
+    // 查询的节点
+    private final String nodeName;
+
+    // 缓存项的存活时间 单位毫秒
+    private final long ttlMillis;
+
+    // 最多缓存的项数
+    private final int maxEntries;
+
+    // 最多占用的内存 单位字节
+    private final long maxBytes;
+
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+
+    // 按写入顺序排列的缓存项, 用于淘汰; 已经失效或者被替换的缓存项在淘汰时跳过
+    private final ConcurrentLinkedQueue<Entry> insertionOrder = new ConcurrentLinkedQueue<Entry>();
+
+    // insertionOrder的长度
+    private final AtomicInteger queued = new AtomicInteger();
+
+    // 表名到缓存键的索引
+    private final ConcurrentHashMap<String, Set<Key>> tables = new ConcurrentHashMap<String, Set<Key>>();
+
+    // 正在查询数据库的键
+    private final ConcurrentHashMap<Key, CompletableFuture<QueryResult>> loading = new ConcurrentHashMap<Key, CompletableFuture<QueryResult>>();
+
+    // 每次失效时增加, 查询期间发生过失效的结果不写入缓存
+    private final AtomicLong version = new AtomicLong();
+
+    // 写入、淘汰和失效时持有, 保证检查version和写入索引之间不会发生失效; 读取缓存不需要
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param manager 连接池管理器
+     * @param nodeName 查询的节点
+     * @param ttlMillis 缓存项的存活时间 单位毫秒
+     * @param maxEntries 最多缓存的项数
+     * @param maxBytes 最多占用的内存 单位字节
+     * */
+    public QueryCache(ConnectionManager manager, String nodeName, long ttlMillis, int maxEntries, long maxBytes) {
+        this.manager = manager;
+        this.nodeName = nodeName;
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = Math.max(maxEntries, 1);
+        this.maxBytes = Math.max(maxBytes, 1);
+    }
+
+    /**
+     * 执行查询, 缓存中有没有过期的结果时直接返回
+     * @param sql 带占位符的SELECT语句
+     * @param params 占位符的值
+     * @return 查询结果
+     * @throws SQLException 查询数据库失败
+     * */
+    public QueryResult query(String sql, Object... params) throws SQLException {
+        Key key = new Key(sql, params);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (!entry.isExpired(System.currentTimeMillis())) {
+                hits.increment();
+                return entry.result;
+            }
+            // 过期的缓存项在读到时删除, 不等到按数目淘汰
+            writeLock.lock();
+            try {
+                remove(entry);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        misses.increment();
+
+        CompletableFuture<QueryResult> future = new CompletableFuture<QueryResult>();
+        CompletableFuture<QueryResult> existing = loading.putIfAbsent(key, future);
+        if (existing != null) {
+            return await(existing);
+        }
+        try {
+            long startVersion = version.get();
+            QueryResult result = load(key);
+            put(key, result, startVersion);
+            future.complete(result);
+            return result;
+        } catch (SQLException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    private static QueryResult await(CompletableFuture<QueryResult> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待查询结果被打断", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException(e.getCause());
+        }
+    }
+
+    /**
+     * 从节点自己的连接池查询, 节点熔断时直接失败, 不能把failover节点的结果缓存为这个节点的结果
+     * */
+    private QueryResult load(Key key) throws SQLException {
+        Connection conn = manager.getNodeConnection(nodeName);
+        if (conn == null) {
+            throw new SQLException(nodeName + "节点获取连接失败");
+        }
+        try {
+            PreparedStatement statement = conn.prepareStatement(key.sql);
+            try {
+                for (int i = 0; i < key.params.length; i++) {
+                    statement.setObject(i + 1, key.params[i]);
+                }
+                ResultSet resultSet = statement.executeQuery();
+                try {
+                    return QueryResult.read(resultSet);
+                } finally {
+                    resultSet.close();
+                }
+            } finally {
+                statement.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * 写入缓存
+     * @param startVersion 开始查询时的version, 查询期间发生过失效时不写入
+     * */
+    private void put(Key key, QueryResult result, long startVersion) {
+        if (result.getSize() > maxBytes) {
+            return;
+        }
+        Entry entry = new Entry(key, result, System.currentTimeMillis() + ttlMillis, tablesOf(key.sql));
+        writeLock.lock();
+        try {
+            if (version.get() != startVersion) {
+                return;
+            }
+            index(entry);
+            evict();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void index(Entry entry) {
+        Key key = entry.key;
+        QueryResult result = entry.result;
+        for (String table : entry.tables) {
+            Set<Key> keys = tables.get(table);
+            if (keys == null) {
+                Set<Key> created = Collections.newSetFromMap(new ConcurrentHashMap<Key, Boolean>());
+                keys = tables.putIfAbsent(table, created);
+                if (keys == null) {
+                    keys = created;
+                }
+            }
+            keys.add(key);
+        }
+        bytes.addAndGet(result.getSize());
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes.addAndGet(-previous.result.getSize());
+        }
+        insertionOrder.offer(entry);
+        queued.incrementAndGet();
+    }
+
+    /**
+     * 数目或者内存占用超过上限时按写入顺序淘汰,
+     * 队列中跳过的旧缓存项过多时也从队首开始清理
+     * */
+    private void evict() {
+        while (entries.size() > maxEntries || bytes.get() > maxBytes || queued.get() > 2 * maxEntries) {
+            Entry entry = insertionOrder.poll();
+            if (entry == null) {
+                return;
+            }
+            queued.decrementAndGet();
+            remove(entry);
+        }
+    }
+
+    /**
+     * 删除缓存项, 表的索引为空时一起删除; 持有writeLock时调用
+     * */
+    private void remove(Entry entry) {
+        if (entries.remove(entry.key, entry)) {
+            bytes.addAndGet(-entry.result.getSize());
+            for (String table : entry.tables) {
+                Set<Key> keys = tables.get(table);
+                if (keys != null && keys.remove(entry.key) && keys.isEmpty()) {
+                    tables.remove(table, keys);
+                }
+            }
+        }
+    }
+
+    /**
+     * 使涉及指定表的缓存项失效, 修改表之后调用
+     * @param table 表名, 不区分大小写
+     * */
+    public void invalidate(String table) {
+        Set<Key> keys;
+        writeLock.lock();
+        try {
+            version.incrementAndGet();
+            keys = tables.remove(normalize(table));
+            if (keys == null) {
+                return;
+            }
+            for (Key key : keys) {
+                Entry entry = entries.get(key);
+                if (entry != null) {
+                    remove(entry);
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        log.debug(nodeName + "节点" + table + "表的查询缓存失效" + keys.size() + "项");
+    }
+
+    /**
+     * 清空全部缓存项
+     * */
+    public void invalidateAll() {
+        writeLock.lock();
+        try {
+            version.incrementAndGet();
+            for (Entry entry : entries.values()) {
+                remove(entry);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 解析SQL中FROM和JOIN后面的表名
+     * */
+    static Set<String> tablesOf(String sql) {
+        Set<String> names = new HashSet<String>();
+        Matcher matcher = TABLE_PATTERN.matcher(sql);
+        while (matcher.find()) {
+            for (String table : matcher.group(1).split(",")) {
+                names.add(normalize(table.trim().split("\\s+")[0]));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * 去掉库名和引号, 转为小写
+     * */
+    private static String normalize(String table) {
+        String name = table.replace("`", "").replace("\"", "");
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0) {
+            name = name.substring(dot + 1);
+        }
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * 获取索引中的表数目
+     * */
+    int getTableCount() {
+        return tables.size();
+    }
+
+    /**
+     * 获取估算的内存占用 单位字节
+     * */
+    public long getEstimatedBytes() {
+        return bytes.get();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * 缓存键: SQL和参数
+     * */
+    private static final class Key {
+
+        final String sql;
+
+        final Object[] params;
+
+        private final int hash;
+
+        Key(String sql, Object[] params) {
+            this.sql = sql;
+            this.params = params == null ? new Object[0] : params.clone();
+            this.hash = 31 * sql.hashCode() + Arrays.deepHashCode(this.params);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && sql.equals(other.sql) && Arrays.deepEquals(params, other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+
+        final Key key;
+
+        final QueryResult result;
+
+        // 过期时间 单位毫秒
+        final long expireTime;
+
+        // 查询涉及的表
+        final Set<String> tables;
+
+        Entry(Key key, QueryResult result, long expireTime, Set<String> tables) {
+            this.key = key;
+            this.result = result;
+            this.expireTime = expireTime;
+            this.tables = tables;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expireTime;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.jia.connectionPool.cache;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 已经读取到内存中的查询结果, 创建后不再修改, 可以被多个线程同时读取
+ * */
+public final class QueryResult {
+
+    // 列名
+    private final String[] labels;
+
+    // 列名到下标的映射, 不区分大小写
+    private final Map<String, Integer> columns;
+
+    private final List<Object[]> rows;
+
+    // 估算的内存占用 单位字节
+    private final long size;
+
+    private QueryResult(String[] labels, List<Object[]> rows, long size) {
+        this.labels = labels;
+        this.rows = rows;
+        this.size = size;
+        Map<String, Integer> columns = new HashMap<String, Integer>();
+        for (int i = labels.length - 1; i >= 0; i--) {
+            columns.put(labels[i].toLowerCase(Locale.ROOT), i);
+        }
+        this.columns = columns;
+    }
+
+    /**
+     * 读取结果集的全部行
+     * @param resultSet 结果集, 不会被关闭
+     * @return 查询结果
+     * */
+    static QueryResult read(ResultSet resultSet) throws SQLException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        String[] labels = new String[columnCount];
+        long size = 64;
+        for (int i = 0; i < columnCount; i++) {
+            labels[i] = metaData.getColumnLabel(i + 1);
+            size += sizeOf(labels[i]);
+        }
+        List<Object[]> rows = new ArrayList<Object[]>();
+        while (resultSet.next()) {
+            Object[] row = new Object[columnCount];
+            size += 16 + 8L * columnCount;
+            for (int i = 0; i < columnCount; i++) {
+                row[i] = resultSet.getObject(i + 1);
+                size += sizeOf(row[i]);
+            }
+            rows.add(row);
+        }
+        return new QueryResult(labels, Collections.unmodifiableList(rows), size);
+    }
+
+    /**
+     * 粗略估算一个值占用的内存
+     * */
+    private static long sizeOf(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        }
+        if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        }
+        return 32;
+    }
+
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    public int getColumnCount() {
+        return labels.length;
+    }
+
+    /**
+     * 获取列名
+     * @param column 从0开始的列下标
+     * */
+    public String getColumnLabel(int column) {
+        return labels[column];
+    }
+
+    /**
+     * 获取一个值, 返回的对象与其他线程共享, 不能修改
+     * @param row 从0开始的行下标
+     * @param column 从0开始的列下标
+     * */
+    public Object get(int row, int column) {
+        return rows.get(row)[column];
+    }
+
+    /**
+     * 按列名获取一个值, 返回的对象与其他线程共享, 不能修改
+     * @param row 从0开始的行下标
+     * @param label 列名, 不区分大小写
+     * */
+    public Object get(int row, String label) {
+        Integer column = columns.get(label.toLowerCase(Locale.ROOT));
+        if (column == null) {
+            throw new IllegalArgumentException("查询结果中没有" + label + "列");
+        }
+        return rows.get(row)[column];
+    }
+
+    /**
+     * 获取估算的内存占用 单位字节
+     * */
+    long getSize() {
+        return size;
+    }
+}
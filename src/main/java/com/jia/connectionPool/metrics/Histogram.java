@@ -0,0 +1,91 @@
+package com.jia.connectionPool.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 固定桶的直方图, 第i个桶记录[2^(i-1), 2^i)微秒的样本
+ *
+ * 桶在创建时全部分配好, 记录一个样本只需要计算下标并累加, 不分配对象;
+ * 分位数按桶的上界估算, 误差不超过一倍
+ * */
+public final class Histogram {
+
+    // 最后一个桶记录所有超过2^(BUCKETS-2)微秒(约67秒)的样本
+    private static final int BUCKETS = 28;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sumNanos = new LongAdder();
+
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public Histogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 记录一个样本
+     * @param nanos 样本值 单位纳秒
+     * */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        long micros = nanos / 1000;
+        int index = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+        buckets[index].increment();
+        count.increment();
+        sumNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return 平均值 单位微秒
+     * */
+    public double getMeanMicros() {
+        long n = count.sum();
+        return n == 0 ? 0 : sumNanos.sum() / 1000.0 / n;
+    }
+
+    /**
+     * @return 最大值 单位微秒
+     * */
+    public long getMaxMicros() {
+        return maxNanos.get() / 1000;
+    }
+
+    /**
+     * 估算分位数
+     * @param quantile 0到1之间的分位
+     * @return 分位数所在桶的上界 单位微秒
+     * */
+    public long getPercentileMicros(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets[i].sum();
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return i == BUCKETS - 1 ? getMaxMicros() : (1L << i);
+            }
+        }
+        return getMaxMicros();
+    }
+}
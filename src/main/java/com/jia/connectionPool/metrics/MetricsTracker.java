@@ -0,0 +1,80 @@
+package com.jia.connectionPool.metrics;
+
+/**
+ * 连接池热点路径上的指标记录接口
+ *
+ * 这些方法在借出和归还连接的路径上同步调用, 实现类不能阻塞, 也不应该分配对象
+ * */
+public interface MetricsTracker {
+
+    /**
+     * 成功获取连接, 包括排队等待的时间
+     * @param nanos 获取连接耗费的纳秒数
+     * */
+    void recordAcquire(long nanos);
+
+    /**
+     * 连接被归还
+     * @param nanos 从借出到归还经过的纳秒数
+     * */
+    void recordUsage(long nanos);
+
+    /**
+     * 等待连接超时
+     * */
+    void recordTimeout();
+
+    /**
+     * 等待队列已满或者等待时间过长, 请求被直接拒绝
+     * */
+    void recordRejected();
+
+    /**
+     * 成功创建一个物理连接
+     * @param nanos 创建连接耗费的纳秒数
+     * */
+    void recordCreate(long nanos);
+
+    /**
+     * 创建物理连接失败
+     * */
+    void recordCreateFailure();
+
+    /**
+     * 连接因为失效或者空闲过久被关闭并移出连接池
+     * */
+    void recordEviction();
+
+    /**
+     * 不记录任何指标
+     * */
+    MetricsTracker NOOP = new MetricsTracker() {
+        @Override
+        public void recordAcquire(long nanos) {
+        }
+
+        @Override
+        public void recordUsage(long nanos) {
+        }
+
+        @Override
+        public void recordTimeout() {
+        }
+
+        @Override
+        public void recordRejected() {
+        }
+
+        @Override
+        public void recordCreate(long nanos) {
+        }
+
+        @Override
+        public void recordCreateFailure() {
+        }
+
+        @Override
+        public void recordEviction() {
+        }
+    };
+}
@@ -0,0 +1,16 @@
+package com.jia.connectionPool.metrics;
+
+import com.jia.connectionPool.IConnectionPool;
+
+/**
+ * 为每个节点的连接池创建指标记录对象
+ * */
+public interface MetricsTrackerFactory {
+
+    /**
+     * @param nodeName 节点名称
+     * @param pool 节点的连接池, 可以用来读取活动连接数等即时数值
+     * @return 指标记录对象
+     * */
+    MetricsTracker create(String nodeName, IConnectionPool pool);
+}
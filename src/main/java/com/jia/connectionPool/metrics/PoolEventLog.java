@@ -0,0 +1,330 @@
+package com.jia.connectionPool.metrics;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 连接池事件日志
+ *
+ * 借出、归还、创建、关闭、超时等事件在热点路径上只写入预先分配的环形缓冲区, 不拼接字符串、不加锁也不做I/O,
+ * 由后台线程取出后输出到log4j(以及开启时的JFR). 每种事件按级别开关, 关闭的事件只需要读取一次开关.
+ * 缓冲区写满时丢弃新的事件并计数, 不会阻塞借出和归还连接的线程
+ * */
+public final class PoolEventLog {
+
+    private static final Logger log = Logger.getLogger(PoolEventLog.class);
+
+    // 事件类型
+    public static final int BORROW = 0;
+    public static final int RETURN = 1;
+    public static final int CREATE = 2;
+    public static final int EVICT = 3;
+    public static final int TIMEOUT = 4;
+    public static final int REJECT = 5;
+    public static final int STATUS = 6;
+
+    // 事件级别
+    public static final int OFF = 0;
+    public static final int WARN = 1;
+    public static final int INFO = 2;
+    public static final int DEBUG = 3;
+
+    // 拒绝获取连接的原因, 作为REJECT事件的值
+    public static final long REJECT_BREAKER = 0;
+    public static final long REJECT_QUEUE_FULL = 1;
+    public static final long REJECT_WAIT_TOO_LONG = 2;
+
+    // 每种事件的级别
+    private static final int[] LEVELS = {DEBUG, DEBUG, INFO, INFO, WARN, WARN, DEBUG};
+
+    private static final String[] NAMES = {"borrow", "return", "create", "evict", "timeout", "reject", "status"};
+
+    // 默认的缓冲区大小
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    // 开启的事件类型, 每种事件占一位
+    private static volatile int enabled = mask(INFO);
+
+    // JFR事件类, 只在使用java21配置编译时打包, 核心代码不直接引用jdk.jfr
+    private static final String JFR_EVENT = "com.jia.connectionPool.metrics.PoolJfrEvent";
+
+    // 输出JFR事件的方法, 为null时不输出JFR事件
+    private static volatile Method jfr;
+
+    private static volatile Ring ring;
+
+    private static final ReentrantLock startLock = new ReentrantLock();
+
+    private PoolEventLog() {
+    }
+
+    /**
+     * 设置事件级别, 第一次开启时创建缓冲区和后台线程
+     * @param level 事件级别 OFF/WARN/INFO/DEBUG
+     * @param capacity 缓冲区大小, 只在第一次创建时生效
+     * @param jfrEnabled 是否同时输出为JFR事件, 运行环境不支持JFR或者没有打包JFR事件时忽略
+     * */
+    public static void configure(int level, int capacity, boolean jfrEnabled) {
+        if (level > OFF) {
+            start(capacity);
+        }
+        Method emit = jfrEnabled ? jfrEmitter() : null;
+        if (jfrEnabled && emit == null) {
+            log.warn("运行环境不支持JFR或者没有使用java21配置编译, 连接池事件只输出到日志");
+        }
+        jfr = emit;
+        enabled = mask(level);
+    }
+
+    /**
+     * 创建缓冲区并启动后台线程, 已经启动时返回原来的缓冲区
+     * */
+    private static Ring start(int capacity) {
+        startLock.lock();
+        try {
+            if (ring == null) {
+                Ring created = new Ring(capacity);
+                Thread drainer = new Thread(created, "connection-pool-event-log");
+                drainer.setDaemon(true);
+                drainer.start();
+                ring = created;
+            }
+            return ring;
+        } finally {
+            startLock.unlock();
+        }
+    }
+
+    /**
+     * 解析事件级别, 无法识别时返回defaultLevel
+     * */
+    public static int parseLevel(String level, int defaultLevel) {
+        String value = level == null ? "" : level.trim();
+        if ("off".equalsIgnoreCase(value)) {
+            return OFF;
+        } else if ("warn".equalsIgnoreCase(value)) {
+            return WARN;
+        } else if ("info".equalsIgnoreCase(value)) {
+            return INFO;
+        } else if ("debug".equalsIgnoreCase(value)) {
+            return DEBUG;
+        }
+        return defaultLevel;
+    }
+
+    private static int mask(int level) {
+        int mask = 0;
+        for (int type = 0; type < LEVELS.length; type++) {
+            if (LEVELS[type] <= level) {
+                mask |= 1 << type;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * 通过反射加载JFR事件类的emit方法
+     * @return emit方法, 运行环境没有jdk.jfr或者没有打包JFR事件类时返回null
+     * */
+    private static Method jfrEmitter() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            Method emit = Class.forName(JFR_EVENT).getDeclaredMethod("emit",
+                    long.class, String.class, String.class, long.class, long.class);
+            emit.setAccessible(true);
+            return emit;
+        } catch (Exception e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * 事件是否开启, 需要额外计算事件的值时先判断
+     * */
+    public static boolean isEnabled(int type) {
+        return (enabled & (1 << type)) != 0;
+    }
+
+    /**
+     * 记录一个事件
+     * @param type 事件类型
+     * @param node 节点名称
+     * @param value 事件的值, 借出时为等待的纳秒数, 归还时为使用的纳秒数, 创建时为耗费的纳秒数
+     * */
+    public static void record(int type, String node, long value) {
+        record(type, node, value, 0);
+    }
+
+    /**
+     * 记录一个事件
+     * @param type 事件类型
+     * @param node 节点名称
+     * @param value 事件的值
+     * @param value2 事件的第二个值, STATUS事件为活动连接数
+     * */
+    public static void record(int type, String node, long value, long value2) {
+        if ((enabled & (1 << type)) == 0) {
+            return;
+        }
+        Ring current = ring;
+        if (current == null) {
+            // 没有经过configure直接使用连接池时, 第一个事件按默认大小启动
+            current = start(DEFAULT_CAPACITY);
+        }
+        current.publish(type, node, value, value2);
+    }
+
+    /**
+     * 获取缓冲区写满时丢弃的事件数
+     * */
+    public static long getDroppedCount() {
+        Ring current = ring;
+        return current == null ? 0 : current.dropped.get();
+    }
+
+    /**
+     * 多个线程写入、一个后台线程读取的环形缓冲区
+     * 写入线程用CAS占用一个位置, 写完各个字段后再写入该位置的序号表示可以读取
+     * */
+    private static final class Ring implements Runnable {
+
+        private static final long MIN_IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+        private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+        private final int mask;
+
+        private final long[] times;
+
+        private final int[] types;
+
+        private final String[] nodes;
+
+        private final long[] values;
+
+        private final long[] values2;
+
+        // 每个位置已经写完的序号
+        private final AtomicLongArray published;
+
+        // 下一个写入的序号
+        private final AtomicLong tail = new AtomicLong();
+
+        // 下一个读取的序号, 只由后台线程修改
+        private final AtomicLong head = new AtomicLong();
+
+        private final AtomicLong dropped = new AtomicLong();
+
+        Ring(int capacity) {
+            int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+            this.mask = size - 1;
+            this.times = new long[size];
+            this.types = new int[size];
+            this.nodes = new String[size];
+            this.values = new long[size];
+            this.values2 = new long[size];
+            this.published = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                published.set(i, -1);
+            }
+        }
+
+        void publish(int type, String node, long value, long value2) {
+            long sequence;
+            do {
+                sequence = tail.get();
+                if (sequence - head.get() > mask) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+            } while (!tail.compareAndSet(sequence, sequence + 1));
+
+            int slot = (int) (sequence & mask);
+            times[slot] = System.currentTimeMillis();
+            types[slot] = type;
+            nodes[slot] = node;
+            values[slot] = value;
+            values2[slot] = value2;
+            published.lazySet(slot, sequence);
+        }
+
+        @Override
+        public void run() {
+            long reportedDrops = 0;
+            long reportTime = 0;
+            // 没有事件时等待的时间, 从最短开始逐步加倍, 读到事件后恢复
+            long idleNanos = MIN_IDLE_NANOS;
+            while (true) {
+                long sequence = head.get();
+                int slot = (int) (sequence & mask);
+                if (published.get(slot) != sequence) {
+                    long drops = dropped.get();
+                    long now = System.currentTimeMillis();
+                    if (drops != reportedDrops && now - reportTime >= 1000) {
+                        log.warn("连接池事件缓冲区已满, 丢弃事件" + (drops - reportedDrops) + "个");
+                        reportedDrops = drops;
+                        reportTime = now;
+                    }
+                    LockSupport.parkNanos(idleNanos);
+                    idleNanos = Math.min(idleNanos << 1, MAX_IDLE_NANOS);
+                    continue;
+                }
+                idleNanos = MIN_IDLE_NANOS;
+                long time = times[slot];
+                int type = types[slot];
+                String node = nodes[slot];
+                long value = values[slot];
+                long value2 = values2[slot];
+                nodes[slot] = null;
+                head.lazySet(sequence + 1);
+                try {
+                    write(time, type, node, value, value2);
+                } catch (Throwable e) {
+                    log.error("输出连接池事件失败", e);
+                }
+            }
+        }
+    }
+
+    private static void write(long time, int type, String node, long value, long value2) throws Exception {
+        Method emit = jfr;
+        if (emit != null) {
+            emit.invoke(null, time, NAMES[type], node, value, value2);
+        }
+        Level level = LEVELS[type] == WARN ? Level.WARN : LEVELS[type] == INFO ? Level.INFO : Level.DEBUG;
+        if (log.isEnabledFor(level)) {
+            log.log(level, format(type, node, value, value2));
+        }
+    }
+
+    private static String format(int type, String node, long value, long value2) {
+        switch (type) {
+            case BORROW:
+                return node + "节点借出连接, 等待" + TimeUnit.NANOSECONDS.toMicros(value) + "us";
+            case RETURN:
+                return node + "节点归还连接, 使用" + TimeUnit.NANOSECONDS.toMicros(value) + "us";
+            case CREATE:
+                return node + "节点创建连接, 耗时" + TimeUnit.NANOSECONDS.toMillis(value) + "ms";
+            case EVICT:
+                return node + "节点关闭连接";
+            case TIMEOUT:
+                return node + "节点等待连接超时";
+            case REJECT:
+                return node + (value == REJECT_QUEUE_FULL ? "节点等待队列已满, 拒绝获取连接"
+                        : value == REJECT_WAIT_TOO_LONG ? "节点等待时间过长, 拒绝获取连接" : "节点熔断, 拒绝获取连接");
+            case STATUS:
+                return node + "节点空闲连接数:" + value + ", 活动连接数:" + value2;
+            default:
+                return node + "节点未知事件" + type;
+        }
+    }
+}
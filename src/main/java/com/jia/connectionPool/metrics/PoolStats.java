@@ -0,0 +1,212 @@
+package com.jia.connectionPool.metrics;
+
+import com.jia.connectionPool.IConnectionPool;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 连接池默认的指标记录实现
+ * 计数使用分段的LongAdder, 耗时使用固定桶的直方图, 记录时不加锁也不分配对象
+ * */
+public class PoolStats implements MetricsTracker, PoolStatsMXBean {
+
+    private final IConnectionPool pool;
+
+    // 获取连接的等待时间
+    private final Histogram acquire = new Histogram();
+
+    // 连接从借出到归还的时间
+    private final Histogram usage = new Histogram();
+
+    // 创建物理连接的时间
+    private final Histogram create = new Histogram();
+
+    private final LongAdder timeouts = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder createFailures = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    public PoolStats(IConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public void recordAcquire(long nanos) {
+        acquire.record(nanos);
+    }
+
+    @Override
+    public void recordUsage(long nanos) {
+        usage.record(nanos);
+    }
+
+    @Override
+    public void recordTimeout() {
+        timeouts.increment();
+    }
+
+    @Override
+    public void recordRejected() {
+        rejected.increment();
+    }
+
+    @Override
+    public void recordCreate(long nanos) {
+        create.record(nanos);
+    }
+
+    @Override
+    public void recordCreateFailure() {
+        createFailures.increment();
+    }
+
+    @Override
+    public void recordEviction() {
+        evictions.increment();
+    }
+
+    public Histogram getAcquireHistogram() {
+        return acquire;
+    }
+
+    public Histogram getUsageHistogram() {
+        return usage;
+    }
+
+    public Histogram getCreateHistogram() {
+        return create;
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return pool.getActiveNum();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return pool.getFreeNum();
+    }
+
+    @Override
+    public int getPendingThreads() {
+        return pool.getPendingNum();
+    }
+
+    @Override
+    public int getTargetSize() {
+        return pool.getTargetSize();
+    }
+
+    @Override
+    public String getSizingDecision() {
+        return pool.getSizingDecision();
+    }
+
+    @Override
+    public String getHealthState() {
+        return pool.getHealth().getState().name();
+    }
+
+    @Override
+    public int getConsecutiveFailures() {
+        return pool.getHealth().getConsecutiveFailures();
+    }
+
+    @Override
+    public long getAcquireCount() {
+        return acquire.getCount();
+    }
+
+    @Override
+    public double getAcquireMeanMicros() {
+        return acquire.getMeanMicros();
+    }
+
+    @Override
+    public long getAcquireP50Micros() {
+        return acquire.getPercentileMicros(0.5);
+    }
+
+    @Override
+    public long getAcquireP99Micros() {
+        return acquire.getPercentileMicros(0.99);
+    }
+
+    @Override
+    public long getAcquireMaxMicros() {
+        return acquire.getMaxMicros();
+    }
+
+    @Override
+    public double getUsageMeanMicros() {
+        return usage.getMeanMicros();
+    }
+
+    @Override
+    public long getUsageP99Micros() {
+        return usage.getPercentileMicros(0.99);
+    }
+
+    @Override
+    public long getUsageMaxMicros() {
+        return usage.getMaxMicros();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    @Override
+    public long getCreateCount() {
+        return create.getCount();
+    }
+
+    @Override
+    public double getCreateMeanMicros() {
+        return create.getMeanMicros();
+    }
+
+    @Override
+    public long getCreateMaxMicros() {
+        return create.getMaxMicros();
+    }
+
+    @Override
+    public long getCreateFailureCount() {
+        return createFailures.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getLeakCount() {
+        return pool.getLeakCount();
+    }
+
+    @Override
+    public long getReclaimCount() {
+        return pool.getReclaimCount();
+    }
+
+    @Override
+    public long getStatementCacheHits() {
+        return pool.getStatementCacheHits();
+    }
+
+    @Override
+    public long getStatementCacheMisses() {
+        return pool.getStatementCacheMisses();
+    }
+}
@@ -0,0 +1,59 @@
+package com.jia.connectionPool.metrics;
+
+/**
+ * 通过JMX暴露的连接池指标, 注册名称为com.jia.connectionPool:type=Pool,name=节点名称
+ * */
+public interface PoolStatsMXBean {
+
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    int getPendingThreads();
+
+    int getTargetSize();
+
+    String getSizingDecision();
+
+    String getHealthState();
+
+    int getConsecutiveFailures();
+
+    long getAcquireCount();
+
+    double getAcquireMeanMicros();
+
+    long getAcquireP50Micros();
+
+    long getAcquireP99Micros();
+
+    long getAcquireMaxMicros();
+
+    double getUsageMeanMicros();
+
+    long getUsageP99Micros();
+
+    long getUsageMaxMicros();
+
+    long getTimeoutCount();
+
+    long getRejectedCount();
+
+    long getCreateCount();
+
+    double getCreateMeanMicros();
+
+    long getCreateMaxMicros();
+
+    long getCreateFailureCount();
+
+    long getEvictionCount();
+
+    long getLeakCount();
+
+    long getReclaimCount();
+
+    long getStatementCacheHits();
+
+    long getStatementCacheMisses();
+}
@@ -0,0 +1,96 @@
+package com.jia.connectionPool.routing;
+
+import com.jia.connectionPool.IConnectionPool;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 按响应时间加权随机选择从库
+ *
+ * 每个从库记录借用连接耗时的指数移动平均值, 权重为 1 / (平均耗时 * (使用中的连接数 + 1)),
+ * 借用耗时包括等待空闲连接、创建连接和借出时的检测, 不包括应用程序持有连接的时间, 长事务不会让从库显得慢.
+ * 响应慢或者负载高的从库分到的请求少, 但不会完全没有请求, 恢复之后平均值会重新降下来;
+ * 还没有统计数据的从库按已知的最快从库计算, 先分到一部分请求.
+ * 选择时分两遍计算权重, 不分配数组
+ * */
+public class LatencyAwareBalancer implements LoadBalancer {
+
+    // 新样本的权重
+    private static final double ALPHA = 0.2;
+
+    // 平均耗时的下限 单位纳秒, 避免除以0
+    private static final double MIN_LATENCY_NANOS = 1000;
+
+    private final ConcurrentHashMap<IConnectionPool, Latency> latencies = new ConcurrentHashMap<IConnectionPool, Latency>();
+
+    /**
+     * 单个从库的平均耗时, 并发更新时允许丢失个别样本
+     * */
+    private static final class Latency {
+        volatile double average = -1;
+    }
+
+    @Override
+    public IConnectionPool select(List<IConnectionPool> replicas) {
+        int size = replicas.size();
+        if (size == 1) {
+            return replicas.get(0);
+        }
+
+        double fastest = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            double average = averageOf(replicas.get(i));
+            if (average >= 0 && average < fastest) {
+                fastest = average;
+            }
+        }
+        if (fastest == Double.MAX_VALUE) {
+            fastest = MIN_LATENCY_NANOS;
+        }
+
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            total += weightOf(replicas.get(i), fastest);
+        }
+
+        // 两遍之间平均值和使用中的连接数可能变化, 剩下的部分落到最后一个从库
+        double point = ThreadLocalRandom.current().nextDouble(total);
+        for (int i = 0; i < size - 1; i++) {
+            point -= weightOf(replicas.get(i), fastest);
+            if (point < 0) {
+                return replicas.get(i);
+            }
+        }
+        return replicas.get(size - 1);
+    }
+
+    /**
+     * 从库的平均耗时, 还没有统计数据时返回-1
+     * */
+    private double averageOf(IConnectionPool replica) {
+        Latency latency = latencies.get(replica);
+        return latency == null ? -1 : latency.average;
+    }
+
+    private double weightOf(IConnectionPool replica, double fastest) {
+        double average = averageOf(replica);
+        average = Math.max(average < 0 ? fastest : average, MIN_LATENCY_NANOS);
+        return 1.0 / (average * (replica.getActiveNum() + 1));
+    }
+
+    @Override
+    public void record(IConnectionPool replica, long nanos) {
+        Latency latency = latencies.get(replica);
+        if (latency == null) {
+            latency = new Latency();
+            Latency existing = latencies.putIfAbsent(replica, latency);
+            if (existing != null) {
+                latency = existing;
+            }
+        }
+        double average = latency.average;
+        latency.average = average < 0 ? nanos : average + ALPHA * (nanos - average);
+    }
+}
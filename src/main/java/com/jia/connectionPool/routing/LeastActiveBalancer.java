@@ -0,0 +1,36 @@
+package com.jia.connectionPool.routing;
+
+import com.jia.connectionPool.IConnectionPool;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 选择使用中的连接加上等待线程最少的从库
+ * 数目相同时从轮询的位置开始比较, 避免总是选中第一个从库
+ * */
+public class LeastActiveBalancer implements LoadBalancer {
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public IConnectionPool select(List<IConnectionPool> replicas) {
+        int size = replicas.size();
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+        IConnectionPool best = null;
+        int bestLoad = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            IConnectionPool replica = replicas.get((start + i) % size);
+            int load = replica.getActiveNum() + replica.getPendingNum();
+            if (load < bestLoad) {
+                best = replica;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public void record(IConnectionPool replica, long nanos) {
+    }
+}
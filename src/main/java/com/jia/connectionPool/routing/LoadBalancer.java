@@ -0,0 +1,25 @@
+package com.jia.connectionPool.routing;
+
+import com.jia.connectionPool.IConnectionPool;
+
+import java.util.List;
+
+/**
+ * 从库的负载均衡策略
+ * */
+public interface LoadBalancer {
+
+    /**
+     * 选择一个从库
+     * @param replicas 全部从库的连接池, 不为空
+     * @return 选中的连接池
+     * */
+    IConnectionPool select(List<IConnectionPool> replicas);
+
+    /**
+     * 从库借用了一次连接, 可以用来统计各个从库的响应时间
+     * @param replica 从库的连接池
+     * @param nanos 借用连接经过的纳秒数, 包括等待空闲连接、创建连接和借出时的检测, 不包括应用程序使用连接的时间
+     * */
+    void record(IConnectionPool replica, long nanos);
+}
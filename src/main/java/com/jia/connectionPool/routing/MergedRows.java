@@ -0,0 +1,375 @@
+package com.jia.connectionPool.routing;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 并行查询合并后的结果, 用法与ResultSet类似: 调用next()移动到下一行, 再读取当前行的值
+ *
+ * 各个节点的行一边到达一边返回, 不等所有节点查询结束. 任何一个节点失败或者超过自己的截止时间时next()抛出异常,
+ * 并取消其余节点的查询. 只能由一个线程读取, 用完后调用close()
+ * */
+public class MergedRows implements AutoCloseable {
+
+    private final List<ScatterGather.NodeQuery> queries;
+
+    // 行的排序, 为null时按到达顺序返回
+    private final Comparator<Object[]> order;
+
+    // 最多返回的行数, 0表示不限制
+    private final int limit;
+
+    // 等待节点的行时每次最长等待的时间, 之后检查节点是否超时
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // 还没有开始执行的节点数, 为0之前缓冲已满的节点继续缓冲, 不占着线程等待
+    private final AtomicInteger unstarted;
+
+    private final ReentrantLock spaceLock = new ReentrantLock();
+
+    // 读取了一行, 缓冲已满的节点可以继续
+    private final Condition spaceAvailable = spaceLock.newCondition();
+
+    // 等待缓冲空间的节点数, 只在持有spaceLock时修改
+    private volatile int blockedProducers;
+
+    // 查询已经结束的节点
+    private final boolean[] finished;
+
+    private int pending;
+
+    // 排序时每个节点的当前行, 按order排列
+    private PriorityQueue<Head> heads;
+
+    // 排序时上一次返回的行所属的节点, 读取下一行前需要补充它的下一行
+    private ScatterGather.NodeQuery last;
+
+    private Object[] current;
+
+    private int returned;
+
+    private volatile boolean closed;
+
+    // 第一个执行成功的节点的列名
+    private volatile String[] labels;
+
+    private Map<String, Integer> columns;
+
+    MergedRows(List<ScatterGather.NodeQuery> queries, Comparator<Object[]> order, int limit) {
+        this.queries = queries;
+        this.order = order;
+        this.limit = limit;
+        this.finished = new boolean[queries.size()];
+        this.pending = queries.size();
+        this.unstarted = new AtomicInteger(queries.size());
+    }
+
+    /**
+     * 移动到下一行
+     * @return 还有行时返回true
+     * @throws SQLException 有节点查询失败或者超时
+     * */
+    public boolean next() throws SQLException {
+        if (closed || (limit > 0 && returned >= limit)) {
+            current = null;
+            close();
+            return false;
+        }
+        current = order == null ? nextArrived() : nextOrdered();
+        if (current == null) {
+            close();
+            return false;
+        }
+        returned++;
+        return true;
+    }
+
+    /**
+     * 所有节点共用一个队列, 先到的行先返回
+     * */
+    private Object[] nextArrived() throws SQLException {
+        BlockingQueue<Object> queue = queries.isEmpty() ? null : queries.get(0).queue;
+        while (pending > 0) {
+            Object item = take(queue, null);
+            if (item instanceof ScatterGather.Done) {
+                done((ScatterGather.Done) item);
+            } else {
+                return (Object[]) item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 每个节点的结果已经排好序, 每次返回所有节点当前行中最小的一行
+     * */
+    private Object[] nextOrdered() throws SQLException {
+        if (heads == null) {
+            heads = new PriorityQueue<Head>(Math.max(queries.size(), 1), new Comparator<Head>() {
+                @Override
+                public int compare(Head a, Head b) {
+                    int result = order.compare(a.row, b.row);
+                    return result != 0 ? result : a.query.index - b.query.index;
+                }
+            });
+            for (ScatterGather.NodeQuery query : queries) {
+                fill(query);
+            }
+        } else if (last != null) {
+            fill(last);
+        }
+        Head head = heads.poll();
+        if (head == null) {
+            last = null;
+            return null;
+        }
+        last = head.query;
+        return head.row;
+    }
+
+    /**
+     * 读取一个节点的下一行放入heads, 节点已经结束时不放入
+     * */
+    private void fill(ScatterGather.NodeQuery query) throws SQLException {
+        if (finished[query.index]) {
+            return;
+        }
+        Object item = take(query.queue, query);
+        if (item instanceof ScatterGather.Done) {
+            done((ScatterGather.Done) item);
+        } else {
+            heads.add(new Head(query, (Object[]) item));
+        }
+    }
+
+    /**
+     * 读取一个队列中的下一项, 等待期间检查节点是否超过了自己的截止时间
+     * @param queue 要读取的队列
+     * @param query 队列所属的节点, 所有节点共用队列时为null
+     * */
+    private Object take(BlockingQueue<Object> queue, ScatterGather.NodeQuery query) throws SQLException {
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                Object item = queue.poll(Math.max(Math.min(POLL_NANOS, remainingNanos(query, now)), 0),
+                        TimeUnit.NANOSECONDS);
+                if (item != null) {
+                    if (blockedProducers > 0) {
+                        signalSpace();
+                    }
+                    return item;
+                }
+                // 队列为空, 截止时间已过的节点一定还没有结束
+                String expired = expired(query, System.nanoTime());
+                if (expired != null) {
+                    abort();
+                    throw new SQLTimeoutException(expired + "节点查询超时");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            throw new SQLException("等待并行查询结果被打断", e);
+        }
+    }
+
+    /**
+     * 距离最早的截止时间的纳秒数
+     * @param query 等待的节点, 为null时计算所有还没有结束的节点
+     * */
+    private long remainingNanos(ScatterGather.NodeQuery query, long now) {
+        if (query != null) {
+            return query.remainingNanos(now);
+        }
+        long remaining = Long.MAX_VALUE;
+        for (ScatterGather.NodeQuery candidate : queries) {
+            if (!finished[candidate.index]) {
+                remaining = Math.min(remaining, candidate.remainingNanos(now));
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * 超过截止时间还没有结束的节点名称
+     * @param query 等待的节点, 为null时检查所有还没有结束的节点
+     * @return 节点名称, 没有超时的节点时返回null
+     * */
+    private String expired(ScatterGather.NodeQuery query, long now) {
+        if (query != null) {
+            return query.isExpired(now) ? query.node : null;
+        }
+        StringBuilder names = null;
+        for (ScatterGather.NodeQuery candidate : queries) {
+            if (!finished[candidate.index] && candidate.isExpired(now)) {
+                if (names == null) {
+                    names = new StringBuilder();
+                } else {
+                    names.append(',');
+                }
+                names.append(candidate.node);
+            }
+        }
+        return names == null ? null : names.toString();
+    }
+
+    /**
+     * 一个节点开始执行
+     * */
+    void nodeStarted() {
+        unstarted.decrementAndGet();
+    }
+
+    /**
+     * 节点的缓冲已满时等待调用者读取
+     * 同一次调用还有节点在线程池队列中等待时不等待, 继续缓冲, 让已经开始的节点尽快结束并让出线程
+     * @param queue 节点的队列
+     * @return 可以继续放入时返回true, 合并结果已经关闭或者等待被打断时返回false
+     * */
+    boolean awaitSpace(BlockingQueue<Object> queue) {
+        spaceLock.lock();
+        try {
+            blockedProducers++;
+            try {
+                while (queue.size() >= ScatterGather.NODE_BUFFER && unstarted.get() == 0) {
+                    if (closed) {
+                        return false;
+                    }
+                    spaceAvailable.await(POLL_NANOS, TimeUnit.NANOSECONDS);
+                }
+                return !closed;
+            } finally {
+                blockedProducers--;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            spaceLock.unlock();
+        }
+    }
+
+    private void signalSpace() {
+        spaceLock.lock();
+        try {
+            spaceAvailable.signalAll();
+        } finally {
+            spaceLock.unlock();
+        }
+    }
+
+    private void done(ScatterGather.Done done) throws SQLException {
+        finished[done.query.index] = true;
+        pending--;
+        if (done.error != null) {
+            abort();
+            throw done.error;
+        }
+    }
+
+    /**
+     * 关闭并取消还在执行的查询
+     * */
+    private void abort() {
+        close();
+        for (ScatterGather.NodeQuery query : queries) {
+            if (!finished[query.index]) {
+                query.cancel();
+            }
+        }
+    }
+
+    /**
+     * 获取当前行, 返回的数组不能修改
+     * */
+    public Object[] getRow() {
+        return current;
+    }
+
+    /**
+     * 获取当前行的一个值
+     * @param column 从0开始的列下标
+     * */
+    public Object get(int column) {
+        return current[column];
+    }
+
+    /**
+     * 按列名获取当前行的一个值
+     * @param label 列名, 不区分大小写
+     * */
+    public Object get(String label) {
+        if (columns == null) {
+            String[] names = labels;
+            if (names == null) {
+                throw new IllegalStateException("还没有读取到查询结果");
+            }
+            Map<String, Integer> map = new HashMap<String, Integer>();
+            for (int i = names.length - 1; i >= 0; i--) {
+                map.put(names[i].toLowerCase(), i);
+            }
+            columns = map;
+        }
+        Integer column = columns.get(label.toLowerCase());
+        if (column == null) {
+            throw new IllegalArgumentException("查询结果中没有" + label + "列");
+        }
+        return current[column];
+    }
+
+    /**
+     * 获取已经返回的行数
+     * */
+    public int getRowCount() {
+        return returned;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 记录第一个执行成功的节点的列名
+     * */
+    void publishLabels(ResultSetMetaData metaData) throws SQLException {
+        if (labels != null) {
+            return;
+        }
+        String[] names = new String[metaData.getColumnCount()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = metaData.getColumnLabel(i + 1);
+        }
+        labels = names;
+    }
+
+    /**
+     * 停止读取, 还在执行的节点读完当前行后结束并归还连接
+     * */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    private static final class Head {
+
+        final ScatterGather.NodeQuery query;
+
+        final Object[] row;
+
+        Head(ScatterGather.NodeQuery query, Object[] row) {
+            this.query = query;
+            this.row = row;
+        }
+    }
+}
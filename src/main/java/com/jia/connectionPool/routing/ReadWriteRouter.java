@@ -0,0 +1,152 @@
+package com.jia.connectionPool.routing;
+
+import com.jia.connectionPool.IConnectionPool;
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 读写分离路由
+ *
+ * 把ConnectionManager中的多个节点组成一个分组, 一个主库和若干从库;
+ * 写操作使用主库的连接, 只读操作(借出时指定或者调用setReadOnly(true))按负载均衡策略使用从库的连接,
+ * 熔断的从库不参与负载均衡, 从库都不可用时使用主库
+ * */
+public class ReadWriteRouter {
+
+    private static final Logger log = Logger.getLogger(ReadWriteRouter.class);
+
+    // 分组名称
+    private final String name;
+
+    // 主库
+    private final IConnectionPool primary;
+
+    // 从库
+    private final List<IConnectionPool> replicas;
+
+    // 从库的负载均衡策略
+    private volatile LoadBalancer loadBalancer;
+
+    public ReadWriteRouter(String name, IConnectionPool primary, List<IConnectionPool> replicas, LoadBalancer loadBalancer) {
+        this.name = name;
+        this.primary = primary;
+        this.replicas = Collections.unmodifiableList(replicas);
+        this.loadBalancer = loadBalancer;
+    }
+
+    /**
+     * 获取主库的连接, 之后调用setReadOnly(true)时会切换到从库
+     * @return 连接, 超时返回null
+     * */
+    public Connection getConnection() {
+        return getConnection(false);
+    }
+
+    /**
+     * 获取连接
+     * @param readOnly 是否只读, 只读时使用从库的连接
+     * @return 连接, 超时返回null
+     * */
+    public Connection getConnection(boolean readOnly) {
+        RoutingConnection connection = new RoutingConnection(this, readOnly);
+        try {
+            return bind(connection, readOnly) ? connection : null;
+        } catch (SQLException e) {
+            log.error(name + "分组获取连接失败", e);
+            return null;
+        }
+    }
+
+    /**
+     * 为读写分离的连接借用主库或者从库的物理连接
+     * 选中的连接池就是当前连接所属的连接池时继续使用当前的连接, 不在同一个连接池中借用第二个连接
+     * @param connection 读写分离的连接
+     * @param readOnly 是否只读
+     * @return 是否成功借到连接或者继续使用当前的连接
+     * @throws SQLException 新的连接无法设置为原来连接的会话属性
+     * */
+    boolean bind(RoutingConnection connection, boolean readOnly) throws SQLException {
+        IConnectionPool bound = connection.getPool();
+        List<IConnectionPool> candidates = readOnly ? availableReplicas() : null;
+        if (candidates != null && !candidates.isEmpty()) {
+            IConnectionPool replica = loadBalancer.select(candidates);
+            if (replica == bound) {
+                return true;
+            }
+            // 借用连接的耗时包括等待空闲连接、创建连接和借出时的检测, 反映从库的负载和响应速度
+            long start = System.nanoTime();
+            Connection conn = replica.getConnection();
+            loadBalancer.record(replica, System.nanoTime() - start);
+            if (conn != null) {
+                connection.bind(replica, conn);
+                return true;
+            }
+            log.warn(name + "分组从库获取连接失败, 改为使用主库");
+        }
+        if (primary == bound) {
+            return true;
+        }
+        Connection conn = primary.getConnection();
+        if (conn == null) {
+            return false;
+        }
+        connection.bind(primary, conn);
+        return true;
+    }
+
+    /**
+     * 获取没有熔断的从库
+     * @return 全部从库都正常时直接返回从库列表, 不创建新的列表
+     * */
+    private List<IConnectionPool> availableReplicas() {
+        int size = replicas.size();
+        for (int i = 0; i < size; i++) {
+            if (!replicas.get(i).getHealth().isAvailable()) {
+                List<IConnectionPool> available = new ArrayList<IConnectionPool>(size);
+                for (IConnectionPool replica : replicas) {
+                    if (replica.getHealth().isAvailable()) {
+                        available.add(replica);
+                    }
+                }
+                return available;
+            }
+        }
+        return replicas;
+    }
+
+    /**
+     * 是否配置了从库
+     * */
+    boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public IConnectionPool getPrimary() {
+        return primary;
+    }
+
+    public List<IConnectionPool> getReplicas() {
+        return replicas;
+    }
+
+    public LoadBalancer getLoadBalancer() {
+        return loadBalancer;
+    }
+
+    /**
+     * 替换从库的负载均衡策略
+     * @param loadBalancer 负载均衡策略
+     * */
+    public void setLoadBalancer(LoadBalancer loadBalancer) {
+        this.loadBalancer = loadBalancer;
+    }
+}
@@ -0,0 +1,25 @@
+package com.jia.connectionPool.routing;
+
+import com.jia.connectionPool.IConnectionPool;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 轮询选择从库
+ * */
+public class RoundRobinBalancer implements LoadBalancer {
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Override
+    public IConnectionPool select(List<IConnectionPool> replicas) {
+        // 计数溢出为负数后取绝对值仍然均匀
+        int index = (next.getAndIncrement() & Integer.MAX_VALUE) % replicas.size();
+        return replicas.get(index);
+    }
+
+    @Override
+    public void record(IConnectionPool replica, long nanos) {
+    }
+}
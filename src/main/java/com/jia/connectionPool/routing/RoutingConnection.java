@@ -0,0 +1,440 @@
+package com.jia.connectionPool.routing;
+
+import com.jia.connectionPool.IConnectionPool;
+import org.apache.log4j.Logger;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+/**
+ * 读写分离的连接
+ *
+ * 借出时按是否只读使用主库或者从库的连接; 与MySQL驱动的ReplicationConnection类似,
+ * 没有进行中的事务(自动提交模式)时调用setReadOnly会归还当前的连接并换成另一侧的连接,
+ * 在事务中调用时只把只读标记传给当前的连接; 其余方法直接委托给当前的连接.
+ * 通过这个连接设置的事务隔离级别、catalog、schema和holdability在切换时复制到新的连接
+ * */
+final class RoutingConnection implements Connection {
+
+    private static final Logger log = Logger.getLogger(RoutingConnection.class);
+
+    // 所属的读写分离路由
+    private final ReadWriteRouter router;
+
+    // 当前使用的连接
+    private Connection current;
+
+    // 当前连接所属的连接池
+    private IConnectionPool currentPool;
+
+    // 是否只读
+    private boolean readOnly;
+
+    // 应用程序设置过的会话属性, 切换连接时复制到新的连接; 没有设置过时为-1或者null
+    private int isolation = -1;
+
+    private int holdability = -1;
+
+    private String catalog;
+
+    private String schema;
+
+    // 是否已经关闭
+    private volatile boolean closed;
+
+    RoutingConnection(ReadWriteRouter router, boolean readOnly) {
+        this.router = router;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * 换成新借到的连接, 之前的连接归还给所属的连接池
+     * @param pool 新连接所属的连接池
+     * @param connection 新借到的连接
+     * @throws SQLException 新的连接无法设置为原来连接的会话属性, 新的连接已经归还, 继续使用原来的连接
+     * */
+    void bind(IConnectionPool pool, Connection connection) throws SQLException {
+        Connection old = this.current;
+
+        if (old != null) {
+            try {
+                copySession(connection);
+            } catch (SQLException e) {
+                try {
+                    connection.close();
+                } catch (SQLException closeError) {
+                    log.error(router.getName() + "分组归还连接失败", closeError);
+                }
+                throw e;
+            }
+        }
+
+        this.currentPool = pool;
+        this.current = connection;
+
+        if (old != null) {
+            try {
+                old.close();
+            } catch (SQLException e) {
+                log.error(router.getName() + "分组切换连接时归还连接失败", e);
+            }
+        }
+    }
+
+    /**
+     * 把设置过的会话属性复制到新的连接
+     * */
+    private void copySession(Connection connection) throws SQLException {
+        if (catalog != null) {
+            connection.setCatalog(catalog);
+        }
+        if (schema != null) {
+            connection.setSchema(schema);
+        }
+        if (isolation != -1) {
+            connection.setTransactionIsolation(isolation);
+        }
+        if (holdability != -1) {
+            connection.setHoldability(holdability);
+        }
+    }
+
+    /**
+     * 当前连接所属的连接池
+     * */
+    IConnectionPool getPool() {
+        return currentPool;
+    }
+
+    /**
+     * 检查连接是否已经关闭
+     * @return 当前使用的连接
+     * @throws SQLException 连接已经关闭
+     * */
+    private Connection delegate() throws SQLException {
+        if (closed) {
+            throw new SQLException("连接已经关闭");
+        }
+        return current;
+    }
+
+    private void checkClientInfo() throws SQLClientInfoException {
+        if (closed) {
+            throw new SQLClientInfoException("连接已经关闭", null);
+        }
+    }
+
+    @Override
+    public Statement createStatement() throws SQLException {
+        return delegate().createStatement();
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        return delegate().prepareStatement(sql);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql) throws SQLException {
+        return delegate().prepareCall(sql);
+    }
+
+    @Override
+    public String nativeSQL(String sql) throws SQLException {
+        return delegate().nativeSQL(sql);
+    }
+
+    @Override
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        delegate().setAutoCommit(autoCommit);
+    }
+
+    @Override
+    public boolean getAutoCommit() throws SQLException {
+        return delegate().getAutoCommit();
+    }
+
+    @Override
+    public void commit() throws SQLException {
+        delegate().commit();
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        delegate().rollback();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        current.close();
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return closed || current.isClosed();
+    }
+
+    @Override
+    public DatabaseMetaData getMetaData() throws SQLException {
+        return delegate().getMetaData();
+    }
+
+    @Override
+    public void setReadOnly(boolean readOnly) throws SQLException {
+        Connection conn = delegate();
+        if (readOnly != this.readOnly && router.hasReplicas() && conn.getAutoCommit()) {
+            // 没有进行中的事务, 切换到另一侧的连接
+            if (!router.bind(this, readOnly)) {
+                throw new SQLException("获取" + (readOnly ? "从库" : "主库") + "连接超时");
+            }
+            if (current == conn) {
+                // 没有可用的从库, 继续使用原来的主库连接
+                conn.setReadOnly(readOnly);
+            }
+        } else {
+            conn.setReadOnly(readOnly);
+        }
+        this.readOnly = readOnly;
+    }
+
+    @Override
+    public boolean isReadOnly() throws SQLException {
+        delegate();
+        return readOnly;
+    }
+
+    @Override
+    public void setCatalog(String catalog) throws SQLException {
+        delegate().setCatalog(catalog);
+        this.catalog = catalog;
+    }
+
+    @Override
+    public String getCatalog() throws SQLException {
+        return delegate().getCatalog();
+    }
+
+    @Override
+    public void setTransactionIsolation(int level) throws SQLException {
+        delegate().setTransactionIsolation(level);
+        this.isolation = level;
+    }
+
+    @Override
+    public int getTransactionIsolation() throws SQLException {
+        return delegate().getTransactionIsolation();
+    }
+
+    @Override
+    public SQLWarning getWarnings() throws SQLException {
+        return delegate().getWarnings();
+    }
+
+    @Override
+    public void clearWarnings() throws SQLException {
+        delegate().clearWarnings();
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException {
+        return delegate().createStatement(resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        return delegate().prepareStatement(sql, resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+        return delegate().prepareCall(sql, resultSetType, resultSetConcurrency);
+    }
+
+    @Override
+    public java.util.Map<String,Class<?>> getTypeMap() throws SQLException {
+        return delegate().getTypeMap();
+    }
+
+    @Override
+    public void setTypeMap(java.util.Map<String,Class<?>> map) throws SQLException {
+        delegate().setTypeMap(map);
+    }
+
+    @Override
+    public void setHoldability(int holdability) throws SQLException {
+        delegate().setHoldability(holdability);
+        this.holdability = holdability;
+    }
+
+    @Override
+    public int getHoldability() throws SQLException {
+        return delegate().getHoldability();
+    }
+
+    @Override
+    public Savepoint setSavepoint() throws SQLException {
+        return delegate().setSavepoint();
+    }
+
+    @Override
+    public Savepoint setSavepoint(String name) throws SQLException {
+        return delegate().setSavepoint(name);
+    }
+
+    @Override
+    public void rollback(Savepoint savepoint) throws SQLException {
+        delegate().rollback(savepoint);
+    }
+
+    @Override
+    public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+        delegate().releaseSavepoint(savepoint);
+    }
+
+    @Override
+    public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        return delegate().createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        return delegate().prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    @Override
+    public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+        return delegate().prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+        return delegate().prepareStatement(sql, autoGeneratedKeys);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+        return delegate().prepareStatement(sql, columnIndexes);
+    }
+
+    @Override
+    public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+        return delegate().prepareStatement(sql, columnNames);
+    }
+
+    @Override
+    public Clob createClob() throws SQLException {
+        return delegate().createClob();
+    }
+
+    @Override
+    public Blob createBlob() throws SQLException {
+        return delegate().createBlob();
+    }
+
+    @Override
+    public NClob createNClob() throws SQLException {
+        return delegate().createNClob();
+    }
+
+    @Override
+    public SQLXML createSQLXML() throws SQLException {
+        return delegate().createSQLXML();
+    }
+
+    @Override
+    public boolean isValid(int timeout) throws SQLException {
+        return delegate().isValid(timeout);
+    }
+
+    @Override
+    public void setClientInfo(String name, String value) throws SQLClientInfoException {
+        checkClientInfo();
+        current.setClientInfo(name, value);
+    }
+
+    @Override
+    public void setClientInfo(Properties properties) throws SQLClientInfoException {
+        checkClientInfo();
+        current.setClientInfo(properties);
+    }
+
+    @Override
+    public String getClientInfo(String name) throws SQLException {
+        return delegate().getClientInfo(name);
+    }
+
+    @Override
+    public Properties getClientInfo() throws SQLException {
+        return delegate().getClientInfo();
+    }
+
+    @Override
+    public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+        return delegate().createArrayOf(typeName, elements);
+    }
+
+    @Override
+    public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+        return delegate().createStruct(typeName, attributes);
+    }
+
+    @Override
+    public void setSchema(String schema) throws SQLException {
+        delegate().setSchema(schema);
+        this.schema = schema;
+    }
+
+    @Override
+    public String getSchema() throws SQLException {
+        return delegate().getSchema();
+    }
+
+    @Override
+    public void abort(Executor executor) throws SQLException {
+        delegate().abort(executor);
+    }
+
+    @Override
+    public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+        delegate().setNetworkTimeout(executor, milliseconds);
+    }
+
+    @Override
+    public int getNetworkTimeout() throws SQLException {
+        return delegate().getNetworkTimeout();
+    }
+
+    @Override
+    public <T> T unwrap(java.lang.Class<T> iface) throws java.sql.SQLException {
+        return delegate().unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(java.lang.Class<?> iface) throws java.sql.SQLException {
+        return delegate().isWrapperFor(iface);
+    }
+
+    @Override
+    public String toString() {
+        return "RoutingConnection{" + current + '}';
+    }
+}
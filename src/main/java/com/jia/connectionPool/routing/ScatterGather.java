@@ -0,0 +1,335 @@
+package com.jia.connectionPool.routing;
+
+import com.jia.connectionPool.ConnectionManager;
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 在多个节点上并行执行同一个查询并合并结果
+ *
+ * 每个节点的查询作为一个任务提交到有界的线程池, 各自借用连接、执行语句, 把读到的行放入自己的队列;
+ * 调用者通过MergedRows边读边合并, 总耗时接近最慢的节点而不是所有节点之和.
+ * 指定排序时按各个节点已经排好序的结果做多路归并, 指定limit时每个节点最多返回limit行
+ *
+ * 节点数超过线程数或者多个调用共用线程池时, 一部分节点的查询在线程池的队列中等待. 这时已经开始的节点
+ * 读得比调用者快也继续缓冲, 不占着线程等待调用者, 否则调用者等待排队的节点、排队的节点等待线程, 形成死锁;
+ * 同一次调用的节点全部开始之后, 缓冲超过NODE_BUFFER行的节点才等待调用者读取
+ * */
+public class ScatterGather {
+
+    private static final Logger log = Logger.getLogger(ScatterGather.class);
+
+    // 每个节点缓冲的行数, 全部节点开始执行后调用者读得慢时查询线程等待
+    static final int NODE_BUFFER = 1024;
+
+    private final ConnectionManager manager;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param manager 连接池管理器
+     * @param threads 查询线程数, 同时最多占用相同数目的连接
+     * @param queueCapacity 等待执行的节点查询数, 超过时对应节点直接失败
+     * */
+    public ScatterGather(ConnectionManager manager, int threads, int queueCapacity) {
+        this.manager = manager;
+        final AtomicInteger sequence = new AtomicInteger();
+        int size = Math.max(threads, 1);
+        this.executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(queueCapacity, 1)), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "connection-pool-scatter-" + sequence.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 在每个节点上执行查询, 按到达顺序返回各个节点的行
+     * @param nodes 节点名称
+     * @param sql 带占位符的SELECT语句
+     * @param params 占位符的值
+     * @return 合并后的结果, 用完后需要关闭
+     * */
+    public MergedRows query(Collection<String> nodes, String sql, Object... params) {
+        return query(nodes, sql, params, null, 0, 0);
+    }
+
+    /**
+     * 在每个节点上执行查询并合并结果
+     * @param nodes 节点名称
+     * @param sql 带占位符的SELECT语句
+     * @param params 占位符的值, 可以为null
+     * @param order 行的排序, 各个节点的SQL必须按相同的顺序ORDER BY; 为null时按到达顺序返回
+     * @param limit 最多返回的行数, 同时限制每个节点返回的行数; 0表示不限制
+     * @param timeoutMillis 每个节点借用连接加查询的最长时间 单位毫秒, 从该节点的查询开始执行时计算,
+     *                      不包括在线程池队列中等待的时间; 0表示使用连接池的借用超时且不限制查询时间
+     * @return 合并后的结果, 用完后需要关闭
+     * */
+    public MergedRows query(Collection<String> nodes, String sql, Object[] params, Comparator<Object[]> order,
+                            int limit, long timeoutMillis) {
+        long timeoutNanos = timeoutMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+        Object[] values = params == null ? new Object[0] : params;
+        List<NodeQuery> queries = new ArrayList<NodeQuery>(nodes.size());
+        BlockingQueue<Object> shared = order == null ? new LinkedBlockingQueue<Object>() : null;
+        int index = 0;
+        for (String node : nodes) {
+            BlockingQueue<Object> queue = shared != null ? shared : new LinkedBlockingQueue<Object>();
+            queries.add(new NodeQuery(index++, node, sql, values, Math.max(limit, 0), timeoutNanos, queue));
+        }
+        MergedRows rows = new MergedRows(queries, order, Math.max(limit, 0));
+        for (NodeQuery query : queries) {
+            query.rows = rows;
+        }
+        for (NodeQuery query : queries) {
+            try {
+                executor.execute(query);
+            } catch (RejectedExecutionException e) {
+                query.start();
+                query.finish(new SQLException(query.node + "节点并行查询队列已满"));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 按一列的值排序, null排在最前面, 与MySQL的ORDER BY一致
+     * @param column 从0开始的列下标
+     * @param ascending 是否升序
+     * */
+    public static Comparator<Object[]> orderBy(final int column, final boolean ascending) {
+        return new Comparator<Object[]>() {
+            @Override
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            public int compare(Object[] a, Object[] b) {
+                Object x = a[column];
+                Object y = b[column];
+                int result;
+                if (x == null || y == null) {
+                    result = x == null ? (y == null ? 0 : -1) : 1;
+                } else {
+                    result = ((Comparable) x).compareTo(y);
+                }
+                return ascending ? result : -result;
+            }
+        };
+    }
+
+    /**
+     * 停止查询线程, 已经提交的查询会执行完
+     * */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * 一个节点上的查询, 结果逐行放入队列, 结束时放入Done
+     * */
+    final class NodeQuery implements Runnable {
+
+        final int index;
+
+        final String node;
+
+        private final String sql;
+
+        private final Object[] params;
+
+        private final int limit;
+
+        // 借用连接加查询的最长时间 单位纳秒, 0表示不限制
+        private final long timeoutNanos;
+
+        // 截止时间 单位纳秒, 开始执行时设置; 0表示不限制
+        private volatile long deadline;
+
+        // 是否已经开始执行
+        private volatile boolean started;
+
+        final BlockingQueue<Object> queue;
+
+        // 所属的合并结果, 提交前设置
+        MergedRows rows;
+
+        // 正在执行的语句, 超时时用来取消查询
+        private volatile PreparedStatement statement;
+
+        NodeQuery(int index, String node, String sql, Object[] params, int limit, long timeoutNanos,
+                  BlockingQueue<Object> queue) {
+            this.index = index;
+            this.node = node;
+            this.sql = sql;
+            this.params = params;
+            this.limit = limit;
+            this.timeoutNanos = timeoutNanos;
+            this.queue = queue;
+        }
+
+        /**
+         * 开始执行, 从这里开始计算超时时间
+         * */
+        void start() {
+            if (timeoutNanos > 0) {
+                deadline = System.nanoTime() + timeoutNanos;
+            }
+            started = true;
+            rows.nodeStarted();
+        }
+
+        /**
+         * 是否已经开始执行并超过了截止时间
+         * */
+        boolean isExpired(long now) {
+            long current = deadline;
+            return started && current != 0 && now - current >= 0;
+        }
+
+        /**
+         * 距离截止时间的纳秒数, 还没有开始或者不限制时返回Long.MAX_VALUE
+         * */
+        long remainingNanos(long now) {
+            long current = deadline;
+            return started && current != 0 ? current - now : Long.MAX_VALUE;
+        }
+
+        @Override
+        public void run() {
+            start();
+            if (rows.isClosed()) {
+                finish(null);
+                return;
+            }
+            Connection conn = null;
+            try {
+                // 每个节点只查询自己的数据, 节点熔断时直接失败, 不能改用failover节点
+                if (deadline == 0) {
+                    conn = manager.getNodeConnection(node);
+                } else {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new SQLTimeoutException(node + "节点查询超时");
+                    }
+                    conn = manager.getNodeConnection(node, remaining, TimeUnit.NANOSECONDS);
+                }
+                if (conn == null) {
+                    throw new SQLException(node + "节点获取连接失败");
+                }
+                execute(conn);
+                finish(null);
+            } catch (SQLException e) {
+                finish(e);
+            } catch (RuntimeException e) {
+                finish(new SQLException(node + "节点查询失败", e));
+            } finally {
+                if (conn != null) {
+                    try {
+                        conn.close();
+                    } catch (SQLException e) {
+                        log.error(node + "节点归还连接失败", e);
+                    }
+                }
+            }
+        }
+
+        private void execute(Connection conn) throws SQLException {
+            PreparedStatement statement = conn.prepareStatement(sql);
+            try {
+                for (int i = 0; i < params.length; i++) {
+                    statement.setObject(i + 1, params[i]);
+                }
+                if (limit > 0) {
+                    statement.setMaxRows(limit);
+                }
+                if (deadline != 0) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    statement.setQueryTimeout((int) Math.max(1, (remaining + 999) / 1000));
+                }
+                this.statement = statement;
+                ResultSet resultSet = statement.executeQuery();
+                try {
+                    int columnCount = resultSet.getMetaData().getColumnCount();
+                    rows.publishLabels(resultSet.getMetaData());
+                    while (!rows.isClosed() && resultSet.next()) {
+                        Object[] row = new Object[columnCount];
+                        for (int i = 0; i < columnCount; i++) {
+                            row[i] = resultSet.getObject(i + 1);
+                        }
+                        if (!put(row)) {
+                            return;
+                        }
+                    }
+                } finally {
+                    resultSet.close();
+                }
+            } finally {
+                this.statement = null;
+                statement.close();
+            }
+        }
+
+        /**
+         * 放入队列, 缓冲已满且全部节点都已经开始时等待调用者读取, 合并结果关闭后放弃
+         * */
+        private boolean put(Object item) {
+            if (queue.size() >= NODE_BUFFER && !rows.awaitSpace(queue)) {
+                return false;
+            }
+            queue.add(item);
+            return true;
+        }
+
+        void finish(SQLException error) {
+            put(new Done(this, error));
+        }
+
+        /**
+         * 取消正在执行的查询
+         * */
+        void cancel() {
+            PreparedStatement current = statement;
+            if (current != null) {
+                try {
+                    current.cancel();
+                } catch (SQLException e) {
+                    log.warn(node + "节点取消查询失败: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 节点查询结束的标记
+     * */
+    static final class Done {
+
+        final NodeQuery query;
+
+        // 查询失败的原因, 成功时为null
+        final SQLException error;
+
+        Done(NodeQuery query, SQLException error) {
+            this.query = query;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.jia.connectionPool.routing;
+
+import com.jia.connectionPool.IConnectionPool;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 按分片键选择节点的一致性哈希环
+ *
+ * 每个节点在环上放置若干个虚拟节点, 分片键哈希后顺时针找到的第一个虚拟节点所属的节点就是目标节点;
+ * 增加或者删除一个节点时只有约1/n的键改变归属.
+ * 环在创建后不再修改, 查找时先按哈希值的高位找到分桶, 再在桶内比较一两个位置, 不加锁也不分配对象
+ * */
+public class ShardRouter {
+
+    // 每个节点默认的虚拟节点数
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // 分组名称
+    private final String name;
+
+    // 分组中的节点名称
+    private final List<String> nodes;
+
+    // 虚拟节点在环上的位置, 从小到大排列
+    private final long[] points;
+
+    // 每个虚拟节点所属的节点名称
+    private final String[] nodeNames;
+
+    // 每个虚拟节点所属的连接池
+    private final IConnectionPool[] pools;
+
+    // 分桶使用哈希值高位的位数
+    private final int bucketBits;
+
+    // 每个分桶中第一个虚拟节点的下标, 最后多一项等于虚拟节点总数
+    private final int[] buckets;
+
+    /**
+     * @param name 分组名称
+     * @param nodes 节点名称到连接池的映射
+     * @param virtualNodes 每个节点的虚拟节点数
+     * */
+    public ShardRouter(String name, Map<String, IConnectionPool> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException(name + "分组没有节点");
+        }
+        this.name = name;
+        this.nodes = Collections.unmodifiableList(new ArrayList<String>(nodes.keySet()));
+        int replicas = Math.max(virtualNodes, 1);
+
+        // 虚拟节点的位置只由节点名称决定, 与节点的配置顺序无关
+        TreeMap<Long, String> ring = new TreeMap<Long, String>();
+        for (String node : nodes.keySet()) {
+            for (int i = 0; i < replicas; i++) {
+                Long point = hash(node + "#" + i);
+                String owner = ring.get(point);
+                // 极少数位置冲突时按名称取较小的节点, 保证结果稳定
+                if (owner == null || node.compareTo(owner) < 0) {
+                    ring.put(point, node);
+                }
+            }
+        }
+
+        this.points = new long[ring.size()];
+        this.nodeNames = new String[ring.size()];
+        this.pools = new IConnectionPool[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, String> point : ring.entrySet()) {
+            points[i] = point.getKey();
+            nodeNames[i] = point.getValue();
+            pools[i] = nodes.get(point.getValue());
+            i++;
+        }
+
+        // 分桶数取不小于虚拟节点总数的2的幂, 平均每个桶不超过一个虚拟节点
+        int bits = 1;
+        while ((1 << bits) < points.length && bits < 30) {
+            bits++;
+        }
+        this.bucketBits = bits;
+        this.buckets = new int[(1 << bits) + 1];
+        int index = 0;
+        for (int bucket = 0; bucket < buckets.length - 1; bucket++) {
+            while (index < points.length && bucketOf(points[index]) < bucket) {
+                index++;
+            }
+            buckets[bucket] = index;
+        }
+        buckets[buckets.length - 1] = points.length;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 获取分组中的全部节点名称, 用于在所有分片上并行查询
+     * */
+    public List<String> getNodeNames() {
+        return nodes;
+    }
+
+    /**
+     * 选择分片键所在节点的连接池
+     * @param key 分片键
+     * */
+    public IConnectionPool select(long key) {
+        return pools[indexOf(hash(key))];
+    }
+
+    /**
+     * 选择分片键所在节点的连接池
+     * @param key 分片键
+     * */
+    public IConnectionPool select(CharSequence key) {
+        return pools[indexOf(hash(key))];
+    }
+
+    /**
+     * 获取分片键所在节点的名称
+     * @param key 分片键
+     * */
+    public String nodeOf(long key) {
+        return nodeNames[indexOf(hash(key))];
+    }
+
+    /**
+     * 获取分片键所在节点的名称
+     * @param key 分片键
+     * */
+    public String nodeOf(CharSequence key) {
+        return nodeNames[indexOf(hash(key))];
+    }
+
+    /**
+     * 从分片键所在的节点获取连接
+     * @param key 分片键
+     * @return 可用连接或者为null
+     * */
+    public Connection getConnection(long key) {
+        return select(key).getConnection();
+    }
+
+    /**
+     * 从分片键所在的节点获取连接
+     * @param key 分片键
+     * @return 可用连接或者为null
+     * */
+    public Connection getConnection(CharSequence key) {
+        return select(key).getConnection();
+    }
+
+    /**
+     * 顺时针找到第一个位置不小于hash的虚拟节点, 超过最后一个时回到第一个
+     * */
+    private int indexOf(long hash) {
+        int bucket = bucketOf(hash);
+        int index = buckets[bucket];
+        int end = buckets[bucket + 1];
+        // 前面分桶的位置都小于hash, 后面分桶的位置都大于hash
+        while (index < end && points[index] < hash) {
+            index++;
+        }
+        return index == points.length ? 0 : index;
+    }
+
+    /**
+     * 翻转符号位后按无符号数取高位, 分桶的顺序与位置的大小顺序一致
+     * */
+    private int bucketOf(long hash) {
+        return (int) ((hash ^ Long.MIN_VALUE) >>> (64 - bucketBits));
+    }
+
+    /**
+     * 整数分片键的哈希, 连续的键也能均匀分布
+     * */
+    static long hash(long key) {
+        return mix(key);
+    }
+
+    /**
+     * 字符串分片键的哈希, 逐个字符计算FNV-1a后再混合, 不需要转换为字节数组
+     * */
+    static long hash(CharSequence key) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * MurmurHash3的64位混合函数
+     * */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,59 @@
+package com.jia.entity;
+
+/**
+ * 获取连接的优先级类别, 例如面向用户的请求和后台的批处理任务
+ * */
+public class PriorityClass {
+
+    // 类别名称
+    private final String name;
+    // 为这个类别预留的连接数, 其他类别不能使用
+    private final int reservedConnections;
+    // 这个类别最多同时使用的连接数
+    private final int maxConnections;
+
+    public PriorityClass(String name, int reservedConnections, int maxConnections) {
+        this.name = name;
+        this.reservedConnections = reservedConnections;
+        this.maxConnections = maxConnections;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getReservedConnections() {
+        return reservedConnections;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PriorityClass)) {
+            return false;
+        }
+        PriorityClass that = (PriorityClass) o;
+        return reservedConnections == that.reservedConnections && maxConnections == that.maxConnections
+                && name.equals(that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return (name.hashCode() * 31 + reservedConnections) * 31 + maxConnections;
+    }
+
+    @Override
+    public String toString() {
+        return "PriorityClass{" +
+                "name='" + name + '\'' +
+                ", reservedConnections=" + reservedConnections +
+                ", maxConnections=" + maxConnections +
+                '}';
+    }
+}
@@ -1,5 +1,8 @@
 package com.jia.entity;
 
+import java.util.Collections;
+import java.util.List;
+
 public class PropertiesBean {
 
     // 节点名称
@@ -22,6 +25,46 @@ public class PropertiesBean {
     private int connectionInterval;
     // 超时时间 单位毫秒
     private int timeout;
+    // 两次创建物理连接之间的最小间隔 单位毫秒
+    private int createInterval;
+    // 等待队列的最大长度, 0表示不限制
+    private int maxWaiters;
+    // 每个连接缓存的预编译语句数目, 0表示不缓存
+    private int statementCacheSize;
+    // 队首等待时间超过请求的超时时间时是否直接拒绝
+    private boolean loadShedding;
+    // 超过最小连接数的空闲连接闲置多久后关闭 单位毫秒, 0表示不关闭
+    private long idleTimeout;
+    // 连接的最大存活时间 单位毫秒, 0表示不限制
+    private long maxLifetime;
+    // 空闲连接闲置多久后发送一次保活检测 单位毫秒, 0表示不检测
+    private long keepaliveTime;
+    // 后台维护任务的执行间隔 单位毫秒
+    private long housekeepingInterval;
+    // 借出连接前的检测方式: isvalid、query或者none
+    private String validation;
+    // 检测方式为query时执行的测试语句
+    private String testQuery;
+    // 检测等待数据库响应的最长时间 单位毫秒
+    private int validationTimeout;
+    // 连接在这段时间内被使用过时借出前不再检测 单位毫秒
+    private long validationSkipWindow;
+    // 连续创建连接失败多少次后熔断, 0表示不熔断
+    private int breakerThreshold;
+    // 是否根据负载自适应调整连接池大小
+    private boolean adaptive;
+    // 自适应调整的周期 单位毫秒
+    private long adaptiveInterval;
+    // 平均等待时间超过多少时增大连接池 单位毫秒
+    private long adaptiveWaitThreshold;
+    // 连接借出超过多少时间没有归还时报告可能泄漏 单位毫秒, 0表示不检测
+    private long leakThreshold;
+    // 记录借出位置的采样间隔, 0表示不记录, 1表示每次都记录, -1表示发现泄漏后才开始记录
+    private int leakTraceSample;
+    // 连接借出超过多少时间没有归还时强制回收 单位毫秒, 0表示不回收
+    private long leakReclaim;
+    // 获取连接的优先级类别, 按优先级从高到低排列, 为空时不区分类别
+    private List<PriorityClass> priorityClasses = Collections.emptyList();
 
     public String getNodeName() {
         return nodeName;
@@ -103,6 +146,166 @@ public class PropertiesBean {
         this.timeout = timeout;
     }
 
+    public int getCreateInterval() {
+        return createInterval;
+    }
+
+    public void setCreateInterval(int createInterval) {
+        this.createInterval = createInterval;
+    }
+
+    public int getMaxWaiters() {
+        return maxWaiters;
+    }
+
+    public void setMaxWaiters(int maxWaiters) {
+        this.maxWaiters = maxWaiters;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    public boolean isLoadShedding() {
+        return loadShedding;
+    }
+
+    public void setLoadShedding(boolean loadShedding) {
+        this.loadShedding = loadShedding;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    public void setMaxLifetime(long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+    }
+
+    public long getKeepaliveTime() {
+        return keepaliveTime;
+    }
+
+    public void setKeepaliveTime(long keepaliveTime) {
+        this.keepaliveTime = keepaliveTime;
+    }
+
+    public long getHousekeepingInterval() {
+        return housekeepingInterval;
+    }
+
+    public void setHousekeepingInterval(long housekeepingInterval) {
+        this.housekeepingInterval = housekeepingInterval;
+    }
+
+    public String getValidation() {
+        return validation;
+    }
+
+    public void setValidation(String validation) {
+        this.validation = validation;
+    }
+
+    public String getTestQuery() {
+        return testQuery;
+    }
+
+    public void setTestQuery(String testQuery) {
+        this.testQuery = testQuery;
+    }
+
+    public int getValidationTimeout() {
+        return validationTimeout;
+    }
+
+    public void setValidationTimeout(int validationTimeout) {
+        this.validationTimeout = validationTimeout;
+    }
+
+    public long getValidationSkipWindow() {
+        return validationSkipWindow;
+    }
+
+    public void setValidationSkipWindow(long validationSkipWindow) {
+        this.validationSkipWindow = validationSkipWindow;
+    }
+
+    public int getBreakerThreshold() {
+        return breakerThreshold;
+    }
+
+    public void setBreakerThreshold(int breakerThreshold) {
+        this.breakerThreshold = breakerThreshold;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public long getAdaptiveInterval() {
+        return adaptiveInterval;
+    }
+
+    public void setAdaptiveInterval(long adaptiveInterval) {
+        this.adaptiveInterval = adaptiveInterval;
+    }
+
+    public long getAdaptiveWaitThreshold() {
+        return adaptiveWaitThreshold;
+    }
+
+    public void setAdaptiveWaitThreshold(long adaptiveWaitThreshold) {
+        this.adaptiveWaitThreshold = adaptiveWaitThreshold;
+    }
+
+    public long getLeakThreshold() {
+        return leakThreshold;
+    }
+
+    public void setLeakThreshold(long leakThreshold) {
+        this.leakThreshold = leakThreshold;
+    }
+
+    public int getLeakTraceSample() {
+        return leakTraceSample;
+    }
+
+    public void setLeakTraceSample(int leakTraceSample) {
+        this.leakTraceSample = leakTraceSample;
+    }
+
+    public long getLeakReclaim() {
+        return leakReclaim;
+    }
+
+    public void setLeakReclaim(long leakReclaim) {
+        this.leakReclaim = leakReclaim;
+    }
+
+    public List<PriorityClass> getPriorityClasses() {
+        return priorityClasses;
+    }
+
+    public void setPriorityClasses(List<PriorityClass> priorityClasses) {
+        this.priorityClasses = priorityClasses;
+    }
+
     @Override
     public String toString() {
         return "PropertiesBean{" +
@@ -116,6 +319,26 @@ public class PropertiesBean {
                 ", initConnections=" + initConnections +
                 ", connectionInterval=" + connectionInterval +
                 ", timeout=" + timeout +
+                ", createInterval=" + createInterval +
+                ", maxWaiters=" + maxWaiters +
+                ", loadShedding=" + loadShedding +
+                ", statementCacheSize=" + statementCacheSize +
+                ", idleTimeout=" + idleTimeout +
+                ", maxLifetime=" + maxLifetime +
+                ", keepaliveTime=" + keepaliveTime +
+                ", housekeepingInterval=" + housekeepingInterval +
+                ", validation='" + validation + '\'' +
+                ", testQuery='" + testQuery + '\'' +
+                ", validationTimeout=" + validationTimeout +
+                ", validationSkipWindow=" + validationSkipWindow +
+                ", breakerThreshold=" + breakerThreshold +
+                ", adaptive=" + adaptive +
+                ", adaptiveInterval=" + adaptiveInterval +
+                ", adaptiveWaitThreshold=" + adaptiveWaitThreshold +
+                ", leakThreshold=" + leakThreshold +
+                ", leakTraceSample=" + leakTraceSample +
+                ", leakReclaim=" + leakReclaim +
+                ", priorityClasses=" + priorityClasses +
                 '}';
     }
 }
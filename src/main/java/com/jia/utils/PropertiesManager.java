@@ -1,23 +1,89 @@
 package com.jia.utils;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.util.Enumeration;
 import java.util.Properties;
 
 public class PropertiesManager {
 
-    private static Properties pro = new Properties();
+    /**
+     * 配置文件名称
+     * */
+    public static final String FILE_NAME = "dataBase.properties";
+
+    /**
+     * 指定配置文件路径的系统属性, 没有指定时使用classpath中的配置文件
+     * */
+    public static final String PATH_PROPERTY = "connectionPool.config";
+
+    // 重新加载时整体替换, 读取的线程不会看到加载了一半的配置
+    private static volatile Properties pro = new Properties();
 
     private PropertiesManager(){}
 
     static {
         try {
-            pro.load(PropertiesManager.class.getClassLoader().getResourceAsStream("dataBase.properties"));
+            pro = load();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    private static Properties load() throws IOException {
+        Properties properties = new Properties();
+        File file = configFile();
+        InputStream in = file != null ? new FileInputStream(file)
+                : PropertiesManager.class.getClassLoader().getResourceAsStream(FILE_NAME);
+        if (in == null){
+            throw new IOException("找不到配置文件" + FILE_NAME);
+        }
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    /**
+     * 重新读取配置文件, 读取失败时保留原来的配置
+     * @return 是否读取成功
+     * */
+    public static boolean reload(){
+        try {
+            pro = load();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 获取配置文件在文件系统中的位置
+     * @return 配置文件, 配置文件在jar包中时返回null
+     * */
+    public static File configFile(){
+        String path = System.getProperty(PATH_PROPERTY);
+        if (path != null){
+            return new File(path);
+        }
+        URL url = PropertiesManager.class.getClassLoader().getResource(FILE_NAME);
+        if (url == null || !"file".equals(url.getProtocol())){
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
     public static String getProperty(String key){
         return pro.getProperty(key);
     }
@@ -0,0 +1,48 @@
+package com.jia.connectionPool.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timestamp;
+
+/**
+ * 连接池事件对应的JFR事件, 只在开启eventjfr时由事件日志的后台线程加载
+ * 事件本身的时间是输出的时间, 发生的时间记录在time字段
+ * */
+@Name("com.jia.connectionPool.PoolEvent")
+@Label("Connection Pool Event")
+@Category("Connection Pool")
+@Description("连接池的借出、归还、创建、关闭、超时等事件")
+final class PoolJfrEvent extends Event {
+
+    @Label("Time")
+    @Timestamp(Timestamp.MILLISECONDS_SINCE_EPOCH)
+    long time;
+
+    @Label("Type")
+    String type;
+
+    @Label("Node")
+    String node;
+
+    @Label("Value")
+    long value;
+
+    @Label("Value 2")
+    long value2;
+
+    static void emit(long time, String type, String node, long value, long value2) {
+        PoolJfrEvent event = new PoolJfrEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        event.time = time;
+        event.type = type;
+        event.node = node;
+        event.value = value;
+        event.value2 = value2;
+        event.commit();
+    }
+}
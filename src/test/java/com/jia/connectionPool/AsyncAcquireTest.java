@@ -0,0 +1,177 @@
+package com.jia.connectionPool;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncAcquireTest {
+
+    private ConnectionPool pool;
+
+    private String nodeName;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.destory();
+        }
+    }
+
+    private void create(int initConnections, int maxConnections) throws Exception {
+        nodeName = TestPools.nodeName("async");
+        pool = TestPools.create(TestPools.bean(nodeName, initConnections, maxConnections));
+    }
+
+    private static Throwable failure(CompletableFuture<Connection> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("expected failure");
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    @Test
+    public void idleConnectionCompletesImmediately() throws Exception {
+        create(1, 1);
+        CompletableFuture<Connection> future = pool.getConnectionAsync();
+
+        assertTrue(future.isDone());
+        future.get().close();
+        assertEquals(1, pool.getFreeNum());
+    }
+
+    @Test(timeout = 10000)
+    public void returnedConnectionIsHandedToWaiter() throws Exception {
+        create(1, 1);
+        Connection held = pool.getConnection();
+        final AtomicReference<String> completedBy = new AtomicReference<String>();
+        CompletableFuture<Connection> future = pool.getConnectionAsync(5000, TimeUnit.MILLISECONDS);
+        future.whenComplete(new BiConsumer<Connection, Throwable>() {
+            @Override
+            public void accept(Connection connection, Throwable throwable) {
+                completedBy.set(Thread.currentThread().getName());
+            }
+        });
+        assertFalse(future.isDone());
+        assertEquals(1, pool.getPendingNum());
+
+        // 归还连接的线程直接完成future, 不需要额外的线程
+        held.close();
+        assertTrue(future.isDone());
+        assertEquals(Thread.currentThread().getName(), completedBy.get());
+        assertEquals(0, pool.getPendingNum());
+        future.get().close();
+    }
+
+    @Test(timeout = 10000)
+    public void timeoutFailsFutureAndLeavesQueue() throws Exception {
+        create(1, 1);
+        Connection held = pool.getConnection();
+        CompletableFuture<Connection> future = pool.getConnectionAsync(50, TimeUnit.MILLISECONDS);
+
+        assertTrue(failure(future) instanceof SQLTimeoutException);
+        assertEquals(0, pool.getPendingNum());
+        held.close();
+        assertEquals(1, pool.getFreeNum());
+    }
+
+    @Test(timeout = 10000)
+    public void cancelledFutureLeavesQueue() throws Exception {
+        create(1, 1);
+        Connection held = pool.getConnection();
+        CompletableFuture<Connection> future = pool.getConnectionAsync(5000, TimeUnit.MILLISECONDS);
+        assertEquals(1, pool.getPendingNum());
+
+        assertTrue(future.cancel(false));
+        assertEquals(0, pool.getPendingNum());
+        // 取消之后归还的连接回到连接池, 不会交给已经取消的请求
+        held.close();
+        assertEquals(1, pool.getFreeNum());
+        assertEquals(0, pool.getActiveNum());
+    }
+
+    @Test(timeout = 10000)
+    public void deadConnectionIsReplacedForWaiter() throws Exception {
+        create(1, 1);
+        Connection held = pool.getConnection();
+        CompletableFuture<Connection> future = pool.getConnectionAsync(5000, TimeUnit.MILLISECONDS);
+
+        // 归还的连接已经断开, 请求继续等待新建的连接
+        TestDriver.node(nodeName).connections.get(0).closed = true;
+        held.close();
+        Connection conn = future.get(5, TimeUnit.SECONDS);
+        assertNotNull(conn);
+        assertEquals(2, TestDriver.node(nodeName).opened.get());
+        conn.close();
+    }
+
+    @Test
+    public void inactivePoolFailsFuture() throws Exception {
+        create(1, 1);
+        pool.destory();
+
+        Throwable cause = failure(pool.getConnectionAsync());
+        assertTrue(cause instanceof SQLException);
+        pool = null;
+    }
+
+    @Test(timeout = 30000)
+    public void manyWaitersShareFewConnections() throws Exception {
+        create(2, 2);
+        final int requests = 500;
+        final CountDownLatch done = new CountDownLatch(requests);
+        final AtomicInteger failures = new AtomicInteger();
+        List<CompletableFuture<Connection>> futures = new ArrayList<CompletableFuture<Connection>>();
+        for (int i = 0; i < requests; i++) {
+            CompletableFuture<Connection> future = pool.getConnectionAsync(10000, TimeUnit.MILLISECONDS);
+            future.whenComplete(new BiConsumer<Connection, Throwable>() {
+                @Override
+                public void accept(Connection connection, Throwable throwable) {
+                    try {
+                        if (connection == null) {
+                            failures.incrementAndGet();
+                        } else {
+                            connection.close();
+                        }
+                    } catch (SQLException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+            futures.add(future);
+        }
+
+        // 同步借用的线程和异步请求在同一个队列中排队
+        for (int i = 0; i < 50; i++) {
+            Connection conn = pool.getConnection(5000, TimeUnit.MILLISECONDS);
+            assertNotNull(conn);
+            conn.close();
+        }
+        assertTrue(done.await(20, TimeUnit.SECONDS));
+        assertEquals(0, failures.get());
+        assertEquals(0, pool.getPendingNum());
+        assertEquals(2, pool.getFreeNum());
+    }
+}
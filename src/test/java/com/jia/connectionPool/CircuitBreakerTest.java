@@ -0,0 +1,166 @@
+package com.jia.connectionPool;
+
+import com.jia.connectionPool.routing.LoadBalancer;
+import com.jia.entity.PropertiesBean;
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private ConnectionPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.destory();
+        }
+    }
+
+    @Test
+    public void breakerOpensAfterThresholdAndClosesOnSuccess() {
+        NodeHealth health = new NodeHealth(2);
+
+        assertFalse(health.recordFailure());
+        assertTrue(health.isAvailable());
+        assertTrue(health.recordFailure());
+        assertEquals(NodeHealth.State.OPEN, health.getState());
+        assertFalse(health.isAvailable());
+
+        // 半开状态下的尝试失败时重新打开, 不重复报告熔断
+        health.beginProbe();
+        assertEquals(NodeHealth.State.HALF_OPEN, health.getState());
+        assertFalse(health.recordFailure());
+        assertEquals(NodeHealth.State.OPEN, health.getState());
+
+        health.beginProbe();
+        assertTrue(health.recordSuccess());
+        assertEquals(NodeHealth.State.CLOSED, health.getState());
+        assertEquals(0, health.getConsecutiveFailures());
+    }
+
+    @Test
+    public void zeroThresholdNeverOpens() {
+        NodeHealth health = new NodeHealth(0);
+        for (int i = 0; i < 100; i++) {
+            assertFalse(health.recordFailure());
+        }
+        assertTrue(health.isAvailable());
+        // 关闭状态下开始尝试不改变状态
+        health.beginProbe();
+        assertEquals(NodeHealth.State.CLOSED, health.getState());
+    }
+
+    private void awaitState(NodeHealth health, NodeHealth.State state) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (health.getState() != state && System.nanoTime() - deadline < 0) {
+            Thread.sleep(1);
+        }
+        assertEquals(state, health.getState());
+    }
+
+    @Test(timeout = 15000)
+    public void openBreakerFailsFastAndRecovers() throws Exception {
+        String nodeName = TestPools.nodeName("breaker");
+        PropertiesBean bean = TestPools.bean(nodeName, 1, 2);
+        bean.setBreakerThreshold(2);
+        pool = TestPools.create(bean);
+        TestDriver.Node node = TestDriver.node(nodeName);
+        Connection held = pool.getConnection();
+
+        // 排队的线程在熔断时立即返回, 不等到超时
+        node.failConnect = true;
+        long start = System.nanoTime();
+        assertNull(pool.getConnection(5000, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(3));
+        assertFalse(pool.getHealth().isAvailable());
+
+        // 熔断期间没有空闲连接时直接拒绝
+        start = System.nanoTime();
+        assertNull(pool.getConnection(5000, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+
+        // 后台线程继续尝试, 数据库恢复后关闭熔断
+        node.failConnect = false;
+        awaitState(pool.getHealth(), NodeHealth.State.CLOSED);
+        Connection conn = pool.getConnection(2000, TimeUnit.MILLISECONDS);
+        assertNotNull(conn);
+        conn.close();
+        held.close();
+    }
+
+    @Test(timeout = 15000)
+    public void openNodeFailsOverToHealthyPeer() throws Exception {
+        ConnectionManager manager = TestManager.get();
+        TestDriver.node("fo1").failConnect = true;
+        try {
+            TestManager.reload(Arrays.asList("fo1", "fo2"), TestManager.node("fo1", "breakerthreshold=1", "failover=fo2")
+                    + TestManager.node("fo2")
+                    + "groups=fog\nfog.primary=fo2\nfog.replicas=fo1\n");
+
+            Connection conn = manager.getConnection("fo1");
+            assertNotNull(conn);
+            conn.createStatement().executeUpdate("update failover set x = 1");
+            conn.close();
+            assertTrue(TestDriver.node("fo2").executed.contains("update failover set x = 1"));
+
+            // 必须使用原节点时不切换, 熔断的节点直接返回失败
+            assertNull(manager.getNodeConnection("fo1"));
+
+            // 熔断的从库不参与负载均衡, 只读请求使用主库
+            manager.getRouter("fog").setLoadBalancer(new LoadBalancer() {
+                @Override
+                public IConnectionPool select(List<IConnectionPool> replicas) {
+                    throw new AssertionError("open replica offered to the balancer: " + replicas);
+                }
+
+                @Override
+                public void record(IConnectionPool replica, long nanos) {
+                }
+            });
+            conn = manager.getConnection("fog", true);
+            assertNotNull(conn);
+            conn.createStatement().executeUpdate("update replica set x = 1");
+            conn.close();
+            assertTrue(TestDriver.node("fo2").executed.contains("update replica set x = 1"));
+        } finally {
+            TestManager.reload(Collections.<String>emptyList(), "");
+            TestDriver.node("fo1").failConnect = false;
+        }
+    }
+
+    @Test(timeout = 15000)
+    public void failoverConnectionIsReturnedToPeerByNodeName() throws Exception {
+        ConnectionManager manager = TestManager.get();
+        TestDriver.node("fo3").failConnect = true;
+        try {
+            TestManager.reload(Arrays.asList("fo3", "fo4"), TestManager.node("fo3", "breakerthreshold=1", "failover=fo4")
+                    + TestManager.node("fo4"));
+
+            Connection conn = manager.getConnection("fo3");
+            assertNotNull(conn);
+            ConnectionPool peer = ((PooledConnection) conn).pool;
+            assertEquals("fo4", peer.getPropertiesBean().getNodeName());
+            assertEquals(1, peer.getActiveNum());
+
+            // 按原节点名称回收, 连接归还到实际借出它的failover节点
+            manager.closeConnection("fo3", conn);
+            assertEquals(0, peer.getActiveNum());
+            assertEquals(peer.getTotalConnections(), peer.getFreeNum());
+        } finally {
+            TestManager.reload(Collections.<String>emptyList(), "");
+            TestDriver.node("fo3").failConnect = false;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.jia.connectionPool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionBagTest {
+
+    private ConnectionBag bag;
+
+    @Before
+    public void setUp() {
+        bag = new ConnectionBag(new ConnectionBag.BagStateListener() {
+            @Override
+            public void onWaiting(int waiting) {
+            }
+        });
+    }
+
+    private PoolEntry newEntry() {
+        PoolEntry entry = new PoolEntry(null, null, 0, 0);
+        bag.add(entry);
+        return entry;
+    }
+
+    private static long deadline(long millis) {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * 在另一个线程上借用, 返回借到的连接
+     * */
+    private Thread borrowAsync(final AtomicReference<PoolEntry> result, final long millis, final CountDownLatch done) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(bag.borrow(deadline(millis)));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void awaitWaiters(int count) throws InterruptedException {
+        long deadline = deadline(2000);
+        while (bag.getWaitingThreadCount() < count && System.nanoTime() - deadline < 0) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, bag.getWaitingThreadCount());
+    }
+
+    @Test
+    public void pollMarksEntryInUseUntilRequited() {
+        PoolEntry entry = newEntry();
+
+        assertSame(entry, bag.poll());
+        assertEquals(PoolEntry.STATE_IN_USE, entry.getState());
+        assertNull(bag.poll());
+
+        bag.requite(entry);
+        assertEquals(PoolEntry.STATE_NOT_IN_USE, entry.getState());
+        assertSame(entry, bag.poll());
+    }
+
+    @Test
+    public void borrowTimesOutWithoutIdleEntry() throws InterruptedException {
+        newEntry();
+        assertNotNull(bag.poll());
+
+        long start = System.nanoTime();
+        assertNull(bag.borrow(deadline(50)));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(0, bag.getWaitingThreadCount());
+    }
+
+    @Test
+    public void requiteHandsEntryToWaiter() throws InterruptedException {
+        PoolEntry entry = newEntry();
+        assertSame(entry, bag.poll());
+
+        AtomicReference<PoolEntry> result = new AtomicReference<PoolEntry>();
+        CountDownLatch done = new CountDownLatch(1);
+        borrowAsync(result, 5000, done);
+        awaitWaiters(1);
+
+        bag.requite(entry);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertSame(entry, result.get());
+        assertEquals(PoolEntry.STATE_IN_USE, entry.getState());
+        assertEquals(0, bag.getWaitingThreadCount());
+    }
+
+    @Test
+    public void pollDoesNotOvertakeWaiters() throws InterruptedException {
+        PoolEntry entry = newEntry();
+        assertSame(entry, bag.poll());
+
+        AtomicReference<PoolEntry> result = new AtomicReference<PoolEntry>();
+        CountDownLatch done = new CountDownLatch(1);
+        borrowAsync(result, 5000, done);
+        awaitWaiters(1);
+
+        // 有线程在排队时新来的线程不能直接拿走新加入的连接
+        PoolEntry added = newEntry();
+        assertNull(bag.poll());
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertSame(added, result.get());
+        bag.requite(entry);
+    }
+
+    @Test
+    public void abortWaitersReleasesWaitingThreads() throws InterruptedException {
+        newEntry();
+        assertNotNull(bag.poll());
+
+        CountDownLatch done = new CountDownLatch(2);
+        AtomicReference<PoolEntry> first = new AtomicReference<PoolEntry>();
+        AtomicReference<PoolEntry> second = new AtomicReference<PoolEntry>();
+        borrowAsync(first, 10000, done);
+        borrowAsync(second, 10000, done);
+        awaitWaiters(2);
+
+        assertEquals(2, bag.abortWaiters());
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertNull(first.get());
+        assertNull(second.get());
+        assertEquals(0, bag.getWaitingThreadCount());
+    }
+
+    @Test
+    public void cancelledWaiterIsSkippedByHandoff() throws InterruptedException {
+        PoolEntry entry = newEntry();
+        assertSame(entry, bag.poll());
+
+        Waiter waiter = new Waiter(Thread.currentThread());
+        assertNull(bag.borrowAsync(waiter));
+        assertTrue(bag.cancel(waiter));
+
+        bag.requite(entry);
+        assertFalse(waiter.isFulfilled());
+        assertEquals(PoolEntry.STATE_NOT_IN_USE, entry.getState());
+    }
+
+    @Test
+    public void concurrentBorrowersNeverShareAnEntry() throws InterruptedException {
+        final int entries = 4;
+        for (int i = 0; i < entries; i++) {
+            newEntry();
+        }
+        final Set<PoolEntry> held = Collections.newSetFromMap(new ConcurrentHashMap<PoolEntry, Boolean>());
+        final AtomicBoolean overlap = new AtomicBoolean();
+        final AtomicInteger borrowed = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(16);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 16; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 2000; i++) {
+                            PoolEntry entry = bag.borrow(deadline(5000));
+                            if (entry == null) {
+                                continue;
+                            }
+                            borrowed.incrementAndGet();
+                            // 同一个连接同时被两个线程持有时第二次加入失败
+                            if (!held.add(entry)) {
+                                overlap.set(true);
+                            }
+                            held.remove(entry);
+                            bag.requite(entry);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertFalse(overlap.get());
+        assertEquals(16 * 2000, borrowed.get());
+        assertEquals(entries, bag.count(PoolEntry.STATE_NOT_IN_USE));
+        assertEquals(0, bag.getWaitingThreadCount());
+    }
+}
@@ -0,0 +1,188 @@
+package com.jia.connectionPool;
+
+import com.jia.entity.PriorityClass;
+import com.jia.entity.PropertiesBean;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HotReloadTest {
+
+    private ConnectionPool pool;
+
+    private String nodeName;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.destory();
+        }
+    }
+
+    private PropertiesBean bean(int initConnections, int maxConnections) {
+        return TestPools.bean(nodeName, initConnections, maxConnections);
+    }
+
+    private List<Connection> borrow(int count) {
+        List<Connection> borrowed = new ArrayList<Connection>();
+        for (int i = 0; i < count; i++) {
+            Connection conn = pool.getConnection(2000, TimeUnit.MILLISECONDS);
+            assertNotNull(conn);
+            borrowed.add(conn);
+        }
+        return borrowed;
+    }
+
+    private static void closeAll(List<Connection> connections) throws Exception {
+        for (Connection conn : connections) {
+            conn.close();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void largerMaximumAppliesWithoutRestart() throws Exception {
+        nodeName = TestPools.nodeName("reload");
+        pool = TestPools.create(bean(1, 1));
+        TestDriver.TestConnection warm = TestDriver.node(nodeName).connections.get(0);
+        Connection held = pool.getConnection();
+        assertNull(pool.getConnection(50, TimeUnit.MILLISECONDS));
+
+        pool.reconfigure(bean(1, 2));
+        Connection second = pool.getConnection(2000, TimeUnit.MILLISECONDS);
+        assertNotNull(second);
+        // 原来的连接继续使用
+        assertFalse(warm.closed);
+        second.close();
+        held.close();
+    }
+
+    @Test(timeout = 10000)
+    public void smallerMaximumClosesIdleAndReturnedExcess() throws Exception {
+        nodeName = TestPools.nodeName("reload");
+        pool = TestPools.create(bean(1, 3));
+        List<Connection> borrowed = borrow(3);
+        closeAll(borrowed.subList(0, 1));
+
+        // 空闲的多余连接立即关闭, 使用中的多余连接在归还时关闭
+        pool.reconfigure(bean(1, 1));
+        assertEquals(2, pool.getTotalConnections());
+        closeAll(borrowed.subList(1, 3));
+        assertEquals(1, pool.getTotalConnections());
+        assertEquals(1, pool.getFreeNum());
+    }
+
+    @Test(timeout = 10000)
+    public void changedCredentialsReplaceConnectionsOnReturn() throws Exception {
+        nodeName = TestPools.nodeName("reload");
+        pool = TestPools.create(bean(1, 1));
+        TestDriver.TestConnection old = TestDriver.node(nodeName).connections.get(0);
+        Connection conn = pool.getConnection();
+
+        PropertiesBean changed = bean(1, 1);
+        changed.setPassword("changed");
+        pool.reconfigure(changed);
+        // 借出的连接不受影响
+        assertFalse(old.closed);
+        conn.close();
+        assertTrue(old.closed);
+
+        conn = pool.getConnection(2000, TimeUnit.MILLISECONDS);
+        assertNotNull(conn);
+        assertEquals(2, TestDriver.node(nodeName).opened.get());
+        conn.close();
+    }
+
+    @Test(timeout = 10000)
+    public void changedPriorityClassesCountConnectionsAlreadyBorrowed() throws Exception {
+        nodeName = TestPools.nodeName("reload");
+        PropertiesBean bean = bean(1, 4);
+        bean.setPriorityClasses(Collections.singletonList(new PriorityClass("batch", 0, 2)));
+        pool = TestPools.create(bean);
+        Connection first = pool.getConnection("batch");
+        Connection second = pool.getConnection("batch");
+        assertNotNull(first);
+        assertNotNull(second);
+
+        // 上限调大到3后batch只能再借一个, 调整前借出的两个仍然计入
+        PropertiesBean changed = bean(1, 4);
+        changed.setPriorityClasses(Collections.singletonList(new PriorityClass("batch", 0, 3)));
+        pool.reconfigure(changed);
+        Connection third = pool.getConnection("batch", 2000, TimeUnit.MILLISECONDS);
+        assertNotNull(third);
+        assertNull(pool.getConnection("batch", 50, TimeUnit.MILLISECONDS));
+
+        // 调整前借出的连接归还到调整后的许可
+        first.close();
+        Connection fourth = pool.getConnection("batch", 2000, TimeUnit.MILLISECONDS);
+        assertNotNull(fourth);
+        assertNull(pool.getConnection("batch", 50, TimeUnit.MILLISECONDS));
+        closeAll(Arrays.asList(second, third, fourth));
+    }
+
+    @Test(timeout = 20000)
+    public void reloadAddsReconfiguresAndRemovesNodes() throws Exception {
+        ConnectionManager manager = TestManager.get();
+        TestDriver.Node node = TestDriver.node("hr1");
+        try {
+            TestManager.reload(Collections.singletonList("hr1"), TestManager.node("hr1"));
+            Connection held = manager.getNodeConnection("hr1");
+            assertNotNull(held);
+            TestDriver.TestConnection warm = node.connections.get(0);
+
+            // 已有的节点保留连接池和连接
+            TestManager.reload(Collections.singletonList("hr1"), TestManager.node("hr1", "maxconnections=8"));
+            assertEquals(1, node.opened.get());
+            held.close();
+            Connection again = manager.getNodeConnection("hr1");
+            assertNotNull(again);
+            assertSame(warm, node.connections.get(0));
+            assertEquals(1, node.opened.get());
+
+            // 删除的节点不再借出连接, 使用中的连接归还时关闭
+            TestManager.reload(Collections.<String>emptyList(), "");
+            assertNull(manager.getNodeConnection("hr1"));
+            assertFalse(warm.closed);
+            again.close();
+            assertTrue(warm.closed);
+        } finally {
+            TestManager.reload(Collections.<String>emptyList(), "");
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void watcherReloadsModifiedFile() throws Exception {
+        ConnectionManager manager = TestManager.get();
+        File file = TestManager.update(Collections.<String>emptyList(), "");
+        ConfigWatcher watcher = ConfigWatcher.start(file, manager);
+        assertNotNull(watcher);
+        try {
+            TestManager.update(Collections.singletonList("hw1"), TestManager.node("hw1"));
+
+            Connection conn = null;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (conn == null && System.nanoTime() - deadline < 0) {
+                Thread.sleep(50);
+                conn = manager.getNodeConnection("hw1");
+            }
+            assertNotNull(conn);
+            conn.close();
+        } finally {
+            watcher.close();
+            TestManager.reload(Collections.<String>emptyList(), "");
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.jia.connectionPool;
+
+import com.jia.entity.PropertiesBean;
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class HouseKeeperTest {
+
+    private ConnectionPool pool;
+
+    private String nodeName;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.destory();
+        }
+    }
+
+    private PropertiesBean bean(int initConnections, int maxConnections) {
+        nodeName = TestPools.nodeName("housekeeper");
+        return TestPools.bean(nodeName, initConnections, maxConnections);
+    }
+
+    /**
+     * 直接执行一轮维护, 不依赖共享定时器的调度时间
+     * */
+    private void housekeep() {
+        pool.new HouseKeeper().run();
+    }
+
+    private void awaitOpened(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (TestDriver.node(nodeName).opened.get() < count && System.nanoTime() - deadline < 0) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, TestDriver.node(nodeName).opened.get());
+    }
+
+    @Test(timeout = 10000)
+    public void idleConnectionsAboveMinimumAreClosed() throws Exception {
+        PropertiesBean bean = bean(1, 3);
+        bean.setIdleTimeout(50);
+        pool = TestPools.create(bean);
+
+        List<Connection> borrowed = new ArrayList<Connection>();
+        for (int i = 0; i < 3; i++) {
+            Connection conn = pool.getConnection(2000, TimeUnit.MILLISECONDS);
+            assertNotNull(conn);
+            borrowed.add(conn);
+        }
+        for (Connection conn : borrowed) {
+            conn.close();
+        }
+        Thread.sleep(80);
+        housekeep();
+
+        // 空闲过久的连接只减少到最小连接数
+        assertEquals(1, pool.getFreeNum());
+        int closed = 0;
+        for (TestDriver.TestConnection physical : TestDriver.node(nodeName).connections) {
+            if (physical.closed) {
+                closed++;
+            }
+        }
+        assertEquals(2, closed);
+    }
+
+    @Test(timeout = 10000)
+    public void expiredIdleConnectionIsReplaced() throws Exception {
+        PropertiesBean bean = bean(1, 1);
+        bean.setMaxLifetime(50);
+        pool = TestPools.create(bean);
+        TestDriver.TestConnection first = TestDriver.node(nodeName).connections.get(0);
+
+        Thread.sleep(80);
+        housekeep();
+
+        assertTrue(first.closed);
+        // 低于最小连接数时由后台线程补充
+        awaitOpened(2);
+        Connection conn = pool.getConnection();
+        assertNotNull(conn);
+        conn.close();
+    }
+
+    @Test(timeout = 10000)
+    public void connectionExpiringWhileBorrowedIsClosedOnReturn() throws Exception {
+        PropertiesBean bean = bean(1, 1);
+        bean.setMaxLifetime(50);
+        pool = TestPools.create(bean);
+        TestDriver.TestConnection first = TestDriver.node(nodeName).connections.get(0);
+
+        Connection conn = pool.getConnection();
+        Thread.sleep(80);
+        // 使用中的连接不被维护任务关闭
+        housekeep();
+        assertFalse(first.closed);
+
+        conn.close();
+        assertTrue(first.closed);
+        awaitOpened(2);
+    }
+
+    @Test(timeout = 10000)
+    public void keepaliveChecksIdleConnection() throws Exception {
+        PropertiesBean bean = bean(1, 1);
+        bean.setKeepaliveTime(30);
+        pool = TestPools.create(bean);
+        TestDriver.TestConnection physical = TestDriver.node(nodeName).connections.get(0);
+
+        Thread.sleep(50);
+        int before = physical.count("isValid");
+        housekeep();
+
+        assertEquals(before + 1, physical.count("isValid"));
+        assertFalse(physical.closed);
+        assertEquals(1, pool.getFreeNum());
+
+        // 刚检测过的连接在下一轮不再检测
+        housekeep();
+        assertEquals(before + 1, physical.count("isValid"));
+    }
+
+    @Test(timeout = 10000)
+    public void failedKeepaliveClosesConnection() throws Exception {
+        PropertiesBean bean = bean(1, 1);
+        bean.setKeepaliveTime(30);
+        pool = TestPools.create(bean);
+        TestDriver.TestConnection physical = TestDriver.node(nodeName).connections.get(0);
+
+        Thread.sleep(50);
+        // 模拟数据库端已经断开连接, isClosed()仍然返回false
+        physical.dropped = true;
+        housekeep();
+
+        assertTrue(physical.closed);
+
+        awaitOpened(2);
+        Connection conn = pool.getConnection();
+        assertNotNull(conn);
+        assertEquals(2, TestDriver.node(nodeName).connections.size());
+        conn.close();
+    }
+
+    @Test
+    public void lifetimesAreSpreadBelowTheMaximum() throws Exception {
+        PropertiesBean bean = bean(1, 1);
+        bean.setMaxLifetime(TimeUnit.MINUTES.toMillis(30));
+        pool = TestPools.create(bean);
+
+        // 最多提前2.5%, 同一批创建的连接不会同时到期
+        Set<Long> lifetimes = new HashSet<Long>();
+        for (int i = 0; i < 20; i++) {
+            long lifetime = pool.lifetime();
+            assertTrue(lifetime <= bean.getMaxLifetime());
+            assertTrue(lifetime > bean.getMaxLifetime() - bean.getMaxLifetime() / 40);
+            lifetimes.add(lifetime);
+        }
+        assertTrue(lifetimes.size() > 1);
+    }
+
+    @Test(timeout = 10000)
+    public void poolTasksRunOnTheSharedScheduler() throws Exception {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+        scheduler.setRemoveOnCancelPolicy(true);
+        try {
+            PropertiesBean bean = bean(1, 1);
+            bean.setHousekeepingInterval(5000);
+            pool = TestPools.create(bean);
+            // 连接池没有自己的定时线程, 状态记录和维护任务都注册到传入的定时器上
+            pool.checkPool(scheduler);
+            assertEquals(2, scheduler.getQueue().size());
+
+            pool.destory();
+            assertEquals(0, scheduler.getQueue().size());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void managerUsesOneHousekeepingThreadForAllPools() throws Exception {
+        TestManager.get();
+        try {
+            TestManager.reload(Arrays.asList("hk1", "hk2"), TestManager.node("hk1") + TestManager.node("hk2"));
+            int housekeepers = 0;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().equals("connection-pool-housekeeper")) {
+                    housekeepers++;
+                }
+            }
+            assertEquals(1, housekeepers);
+        } finally {
+            TestManager.reload(Collections.<String>emptyList(), "");
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.jia.connectionPool;
+
+import com.jia.entity.PropertiesBean;
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LeakDetectorTest {
+
+    private ConnectionPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.destory();
+        }
+    }
+
+    private PropertiesBean bean() {
+        return TestPools.bean(TestPools.nodeName("leak"), 1, 1);
+    }
+
+    private void housekeep() {
+        pool.new HouseKeeper().run();
+    }
+
+    private PooledConnection borrow() {
+        PooledConnection conn = (PooledConnection) pool.getConnection();
+        assertNotNull(conn);
+        return conn;
+    }
+
+    @Test
+    public void disabledDetectionCapturesNothing() throws Exception {
+        PropertiesBean bean = bean();
+        bean.setLeakTraceSample(1);
+        pool = TestPools.create(bean);
+
+        // 没有开启泄漏检测时不记录借出位置和线程名称
+        PooledConnection conn = borrow();
+        assertNull(conn.borrowSite);
+        assertNull(conn.borrowerName);
+        Thread.sleep(20);
+        housekeep();
+        assertEquals(0, pool.getLeakCount());
+        conn.close();
+    }
+
+    @Test
+    public void leakIsReportedOnce() throws Exception {
+        PropertiesBean bean = bean();
+        bean.setLeakThreshold(30);
+        pool = TestPools.create(bean);
+
+        PooledConnection conn = borrow();
+        housekeep();
+        assertEquals(0, pool.getLeakCount());
+
+        Thread.sleep(50);
+        housekeep();
+        housekeep();
+        assertEquals(1, pool.getLeakCount());
+        assertTrue(conn.leakReported);
+        assertEquals(Thread.currentThread().getName(), conn.borrowerName);
+        conn.close();
+    }
+
+    @Test
+    public void autoModeStartsTracingAfterFirstLeak() throws Exception {
+        PropertiesBean bean = bean();
+        bean.setLeakThreshold(30);
+        bean.setLeakTraceSample(LeakDetector.TRACE_AUTO);
+        pool = TestPools.create(bean);
+
+        PooledConnection first = borrow();
+        assertNull(first.borrowSite);
+        Thread.sleep(50);
+        housekeep();
+        first.close();
+
+        // 发现泄漏之后借出的连接记录借出位置
+        PooledConnection second = borrow();
+        assertNotNull(second.borrowSite);
+        second.close();
+    }
+
+    @Test
+    public void sampleModesControlCapture() throws Exception {
+        PropertiesBean bean = bean();
+        bean.setLeakThreshold(10000);
+        bean.setLeakTraceSample(1);
+        pool = TestPools.create(bean);
+        PooledConnection conn = borrow();
+        assertNotNull(conn.borrowSite);
+        conn.close();
+
+        PropertiesBean never = TestPools.bean(bean.getNodeName(), 1, 1);
+        never.setLeakThreshold(10000);
+        never.setLeakTraceSample(0);
+        pool.reconfigure(never);
+        conn = borrow();
+        assertNull(conn.borrowSite);
+        conn.close();
+    }
+
+    @Test(timeout = 10000)
+    public void asyncBorrowRecordsRequestingThread() throws Exception {
+        PropertiesBean bean = bean();
+        bean.setLeakThreshold(10000);
+        bean.setLeakTraceSample(1);
+        pool = TestPools.create(bean);
+        PooledConnection held = borrow();
+
+        // 在另一个线程上发起异步请求, 连接由归还连接的当前线程交接
+        final AtomicReference<CompletableFuture<Connection>> future = new AtomicReference<CompletableFuture<Connection>>();
+        Thread requester = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                future.set(pool.getConnectionAsync(5000, TimeUnit.MILLISECONDS));
+            }
+        }, "leak-async-requester");
+        requester.start();
+        requester.join();
+        held.close();
+
+        PooledConnection conn = (PooledConnection) future.get().get(5, TimeUnit.SECONDS);
+        assertEquals("leak-async-requester", conn.borrowerName);
+        assertNotNull(conn.borrowSite);
+        boolean fromRequester = false;
+        for (StackTraceElement element : conn.borrowSite.getStackTrace()) {
+            if (element.getClassName().startsWith(LeakDetectorTest.class.getName())) {
+                fromRequester |= element.getMethodName().equals("run");
+            }
+        }
+        assertTrue(fromRequester);
+        conn.close();
+    }
+
+    @Test(timeout = 10000)
+    public void heldConnectionIsReclaimed() throws Exception {
+        PropertiesBean bean = bean();
+        bean.setLeakReclaim(30);
+        pool = TestPools.create(bean);
+        TestDriver.TestConnection physical = TestDriver.node(bean.getNodeName()).connections.get(0);
+
+        Connection stale = borrow();
+        Thread.sleep(50);
+        housekeep();
+
+        assertEquals(1, pool.getReclaimCount());
+        assertTrue(physical.closed);
+        try {
+            stale.createStatement();
+            fail("expected closed connection");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().contains("连接已经关闭"));
+        }
+        // 应用程序之后再关闭不会重复归还
+        stale.close();
+
+        Connection conn = pool.getConnection(2000, TimeUnit.MILLISECONDS);
+        assertNotNull(conn);
+        assertEquals(1, pool.getTotalConnections());
+        conn.close();
+    }
+
+    @Test
+    public void returnedConnectionIsNotReclaimed() throws Exception {
+        PropertiesBean bean = bean();
+        bean.setLeakReclaim(30);
+        pool = TestPools.create(bean);
+        TestDriver.TestConnection physical = TestDriver.node(bean.getNodeName()).connections.get(0);
+
+        PooledConnection conn = borrow();
+        Thread.sleep(50);
+        conn.close();
+        // 已经归还的连接不能再被回收
+        assertFalse(pool.reclaim(conn));
+        housekeep();
+        assertEquals(0, pool.getReclaimCount());
+        assertFalse(physical.closed);
+    }
+}
@@ -0,0 +1,102 @@
+package com.jia.connectionPool;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 借出和归还路径上不使用监视器锁, 虚拟线程在这些类中阻塞时不会占住载体线程
+ * */
+public class MonitorFreeTest {
+
+    private static final Class<?>[] HOT_PATH = {
+            ConnectionManager.class, ConnectionPool.class, ConnectionBag.class, PoolEntry.class, Waiter.class,
+            PriorityQuota.class, PooledConnection.class, PooledStatement.class, PooledPreparedStatement.class,
+            PooledResultSet.class, StatementCache.class, SessionState.class, TransactionScope.class
+    };
+
+    @Test
+    public void hotPathDeclaresNoSynchronizedMethods() {
+        List<String> found = new ArrayList<String>();
+        for (Class<?> type : HOT_PATH) {
+            for (Method method : type.getDeclaredMethods()) {
+                if (Modifier.isSynchronized(method.getModifiers())) {
+                    found.add(type.getSimpleName() + "." + method.getName());
+                }
+            }
+        }
+        assertEquals(Collections.<String>emptyList(), found);
+    }
+
+    private static PreparedStatement statement() {
+        return (PreparedStatement) Proxy.newProxyInstance(MonitorFreeTest.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("equals")) {
+                            return proxy == args[0];
+                        }
+                        if (method.getName().equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    @Test(timeout = 30000)
+    public void statementCacheNeverHandsOutOneStatementTwice() throws InterruptedException {
+        final StatementCache cache = new StatementCache(4);
+        final StatementKey[] keys = new StatementKey[8];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new StatementKey("select " + i, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY,
+                    ResultSet.HOLD_CURSORS_OVER_COMMIT);
+            cache.offer(keys[i], statement());
+        }
+        final Set<PreparedStatement> held = Collections.newSetFromMap(new ConcurrentHashMap<PreparedStatement, Boolean>());
+        final AtomicBoolean overlap = new AtomicBoolean();
+        final CountDownLatch done = new CountDownLatch(8);
+        for (int t = 0; t < 8; t++) {
+            final int offset = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        StatementKey key = keys[(i + offset) % keys.length];
+                        PreparedStatement statement = cache.take(key);
+                        if (statement == null) {
+                            statement = statement();
+                        }
+                        // 同一个语句同时被两个线程取走时第二次加入失败
+                        if (!held.add(statement)) {
+                            overlap.set(true);
+                        }
+                        held.remove(statement);
+                        cache.offer(key, statement);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertTrue(done.await(20, TimeUnit.SECONDS));
+        assertFalse(overlap.get());
+        assertTrue(cache.size() <= 4);
+    }
+}
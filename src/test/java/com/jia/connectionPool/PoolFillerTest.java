@@ -0,0 +1,63 @@
+package com.jia.connectionPool;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PoolFillerTest {
+
+    private ConnectionPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.destory();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void waitingBorrowerGetsConnectionCreatedInBackground() throws Exception {
+        String nodeName = TestPools.nodeName("filler");
+        pool = TestPools.create(TestPools.bean(nodeName, 1, 2));
+        TestDriver.Node node = TestDriver.node(nodeName);
+        assertNotNull(pool.getConnection());
+
+        // 借用的线程只排队等待, 新连接由后台线程创建后交接过来
+        node.connectDelayMillis = 100;
+        Connection second = pool.getConnection(2000, TimeUnit.MILLISECONDS);
+        assertNotNull(second);
+        assertEquals(2, node.opened.get());
+        assertTrue(node.connections.get(1).createdBy.endsWith("-connection-filler"));
+        second.close();
+    }
+
+    @Test(timeout = 10000)
+    public void poolDoesNotGrowBeyondMaxConnections() throws Exception {
+        String nodeName = TestPools.nodeName("filler");
+        pool = TestPools.create(TestPools.bean(nodeName, 1, 2));
+        assertNotNull(pool.getConnection());
+        assertNotNull(pool.getConnection());
+
+        assertNull(pool.getConnection(200, TimeUnit.MILLISECONDS));
+        assertEquals(2, TestDriver.node(nodeName).opened.get());
+    }
+
+    @Test(timeout = 10000)
+    public void failingNodeDoesNotHoldBorrowerPastTimeout() throws Exception {
+        String nodeName = TestPools.nodeName("filler");
+        pool = TestPools.create(TestPools.bean(nodeName, 1, 2));
+        assertNotNull(pool.getConnection());
+        TestDriver.node(nodeName).failConnect = true;
+
+        long start = System.nanoTime();
+        assertNull(pool.getConnection(300, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+    }
+}
@@ -0,0 +1,203 @@
+package com.jia.connectionPool;
+
+import com.jia.connectionPool.metrics.MetricsTracker;
+import com.jia.connectionPool.metrics.PoolStats;
+import com.jia.entity.PropertiesBean;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PoolMetricsTest {
+
+    private ConnectionPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.destory();
+        }
+    }
+
+    @Test
+    public void borrowAndReturnAreRecorded() throws Exception {
+        pool = TestPools.create(TestPools.bean(TestPools.nodeName("metrics"), 1, 1));
+        PoolStats stats = (PoolStats) pool.getMetricsTracker();
+
+        Connection conn = pool.getConnection();
+        Thread.sleep(5);
+        conn.close();
+
+        assertEquals(1, stats.getAcquireCount());
+        assertEquals(1, stats.getUsageHistogram().getCount());
+        assertTrue(stats.getUsageMaxMicros() >= TimeUnit.MILLISECONDS.toMicros(5));
+        assertEquals(1, stats.getCreateCount());
+        assertEquals(0, stats.getTimeoutCount());
+    }
+
+    @Test(timeout = 10000)
+    public void exhaustedPoolRecordsTimeout() throws Exception {
+        pool = TestPools.create(TestPools.bean(TestPools.nodeName("metrics"), 1, 1));
+        PoolStats stats = (PoolStats) pool.getMetricsTracker();
+
+        Connection conn = pool.getConnection();
+        assertNull(pool.getConnection(50, TimeUnit.MILLISECONDS));
+        conn.close();
+
+        assertEquals(1, stats.getTimeoutCount());
+        assertEquals(1, stats.getAcquireCount());
+    }
+
+    @Test
+    public void createFailureIsRecorded() throws Exception {
+        String nodeName = TestPools.nodeName("metrics");
+        pool = TestPools.create(TestPools.bean(nodeName, 1, 2));
+        PoolStats stats = (PoolStats) pool.getMetricsTracker();
+        Connection conn = pool.getConnection();
+
+        // 唯一的连接被借出, 下一次借用触发后台创建, 创建失败后等待超时
+        TestDriver.node(nodeName).failConnect = true;
+        assertNull(pool.getConnection(200, TimeUnit.MILLISECONDS));
+        conn.close();
+
+        assertTrue(stats.getCreateFailureCount() >= 1);
+    }
+
+    @Test
+    public void customTrackerReplacesDefault() throws Exception {
+        pool = TestPools.create(TestPools.bean(TestPools.nodeName("metrics"), 1, 1));
+        final long[] acquires = new long[1];
+        pool.setMetricsTracker(new CountingTracker() {
+            @Override
+            public void recordAcquire(long nanos) {
+                acquires[0]++;
+            }
+        });
+
+        Connection conn = pool.getConnection();
+        assertNotNull(conn);
+        conn.close();
+        assertEquals(1, acquires[0]);
+
+        // 设置为null时不记录指标, 也不影响借用
+        pool.setMetricsTracker(null);
+        assertEquals(MetricsTracker.NOOP, pool.getMetricsTracker());
+        pool.getConnection().close();
+    }
+
+    @Test(timeout = 10000)
+    public void blockedBorrowerIsPendingAndItsWaitIsRecorded() throws Exception {
+        pool = TestPools.create(TestPools.bean(TestPools.nodeName("metrics"), 1, 1));
+        PoolStats stats = (PoolStats) pool.getMetricsTracker();
+        Connection held = pool.getConnection();
+
+        final AtomicReference<Connection> result = new AtomicReference<Connection>();
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result.set(pool.getConnection(5000, TimeUnit.MILLISECONDS));
+            }
+        });
+        waiter.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (stats.getPendingThreads() == 0 && System.nanoTime() - deadline < 0) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, stats.getPendingThreads());
+
+        // 等待的时间计入获取连接的直方图
+        Thread.sleep(50);
+        held.close();
+        waiter.join();
+        assertNotNull(result.get());
+        result.get().close();
+
+        assertEquals(0, stats.getPendingThreads());
+        assertEquals(2, stats.getAcquireCount());
+        assertTrue(stats.getAcquireMaxMicros() >= TimeUnit.MILLISECONDS.toMicros(50));
+        assertEquals(0, stats.getTimeoutCount());
+    }
+
+    @Test(timeout = 10000)
+    public void closedIdleConnectionsAreCountedAsEvictions() throws Exception {
+        PropertiesBean bean = TestPools.bean(TestPools.nodeName("metrics"), 1, 3);
+        bean.setIdleTimeout(50);
+        pool = TestPools.create(bean);
+        PoolStats stats = (PoolStats) pool.getMetricsTracker();
+
+        List<Connection> borrowed = new ArrayList<Connection>();
+        for (int i = 0; i < 3; i++) {
+            borrowed.add(pool.getConnection(2000, TimeUnit.MILLISECONDS));
+        }
+        for (Connection conn : borrowed) {
+            conn.close();
+        }
+        assertEquals(0, stats.getEvictionCount());
+
+        Thread.sleep(80);
+        pool.new HouseKeeper().run();
+        // 空闲超时只关闭最小连接数以上的两个
+        assertEquals(2, stats.getEvictionCount());
+    }
+
+    @Test(timeout = 20000)
+    public void managerExposesEachPoolThroughJmx() throws Exception {
+        ConnectionManager manager = TestManager.get();
+        MetricsTracker tracker = manager.getMetricsTracker("sg1");
+        assertTrue(tracker instanceof PoolStats);
+        assertNull(manager.getMetricsTracker("missing"));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.jia.connectionPool:type=Pool,name=" + ObjectName.quote("sg1"));
+        assertTrue(server.isRegistered(name));
+        long before = (Long) server.getAttribute(name, "AcquireCount");
+
+        Connection conn = manager.getNodeConnection("sg1");
+        assertNotNull(conn);
+        conn.close();
+        assertEquals(before + 1, ((Long) server.getAttribute(name, "AcquireCount")).longValue());
+        assertEquals(((PoolStats) tracker).getAcquireCount(), ((Long) server.getAttribute(name, "AcquireCount")).longValue());
+    }
+
+    private static class CountingTracker implements MetricsTracker {
+        @Override
+        public void recordAcquire(long nanos) {
+        }
+
+        @Override
+        public void recordUsage(long nanos) {
+        }
+
+        @Override
+        public void recordTimeout() {
+        }
+
+        @Override
+        public void recordRejected() {
+        }
+
+        @Override
+        public void recordCreate(long nanos) {
+        }
+
+        @Override
+        public void recordCreateFailure() {
+        }
+
+        @Override
+        public void recordEviction() {
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.jia.connectionPool;
+
+import com.jia.entity.PriorityClass;
+import com.jia.entity.PropertiesBean;
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PoolShutdownTest {
+
+    private ConnectionPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.destory();
+        }
+    }
+
+    /**
+     * 在另一个线程上不限时地获取连接
+     * */
+    private CountDownLatch getConnectionAsync(final String priorityClass, final AtomicReference<Connection> result) {
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(pool.getConnection(priorityClass, 0, TimeUnit.MILLISECONDS));
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        thread.start();
+        return done;
+    }
+
+    private void awaitPending(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (pool.getPendingNum() < count && System.nanoTime() - deadline < 0) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, pool.getPendingNum());
+    }
+
+    @Test(timeout = 10000)
+    public void destroyReleasesThreadsWaitingForConnection() throws Exception {
+        pool = TestPools.create(TestPools.bean(TestPools.nodeName("shutdown"), 1, 1));
+        assertNotNull(pool.getConnection());
+
+        AtomicReference<Connection> result = new AtomicReference<Connection>();
+        CountDownLatch done = getConnectionAsync(null, result);
+        awaitPending(1);
+
+        pool.destory();
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertNull(result.get());
+    }
+
+    @Test(timeout = 10000)
+    public void destroyReleasesThreadsWaitingForPermit() throws Exception {
+        PropertiesBean bean = TestPools.bean(TestPools.nodeName("shutdown"), 1, 1);
+        bean.setPriorityClasses(Collections.singletonList(new PriorityClass("high", 0, 1)));
+        pool = TestPools.create(bean);
+        assertNotNull(pool.getConnection("high"));
+
+        // 许可已经用完, 同步和异步的请求都在许可的队列中等待
+        AtomicReference<Connection> result = new AtomicReference<Connection>();
+        CountDownLatch done = getConnectionAsync("high", result);
+        CompletableFuture<Connection> async = pool.getConnectionAsync(0, TimeUnit.MILLISECONDS);
+        awaitPending(2);
+
+        pool.destory();
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertNull(result.get());
+        try {
+            async.get(2, TimeUnit.SECONDS);
+            fail("expected abort");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("放弃等待"));
+        }
+    }
+}
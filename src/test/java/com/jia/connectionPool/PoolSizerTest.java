@@ -0,0 +1,227 @@
+package com.jia.connectionPool;
+
+import com.jia.connectionPool.metrics.PoolStats;
+import com.jia.entity.PropertiesBean;
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class PoolSizerTest {
+
+    private ConnectionPool pool;
+
+    private PoolSizer sizer;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.destory();
+        }
+    }
+
+    /**
+     * 连接池本身不开启自适应调整, 由测试直接驱动一个PoolSizer
+     * */
+    private void create(int minConnections, int maxConnections) throws Exception {
+        PropertiesBean bean = TestPools.bean(TestPools.nodeName("sizer"), minConnections, maxConnections);
+        bean.setAdaptiveWaitThreshold(5);
+        pool = TestPools.create(bean);
+        sizer = new PoolSizer(pool);
+    }
+
+    /**
+     * 在一个周期内记录count次获取和归还
+     * */
+    private void load(int count, long waitMillis, long holdMillis) {
+        for (int i = 0; i < count; i++) {
+            sizer.recordAcquire(TimeUnit.MILLISECONDS.toNanos(waitMillis));
+            sizer.recordUsage(TimeUnit.MILLISECONDS.toNanos(holdMillis));
+        }
+    }
+
+    @Test
+    public void startsAtMinimum() throws Exception {
+        create(2, 10);
+        assertEquals(2, sizer.getTargetSize());
+        assertEquals("", sizer.getLastDecision());
+    }
+
+    @Test
+    public void timeoutGrowsByAtLeastOne() throws Exception {
+        create(2, 10);
+        sizer.recordTimeout();
+        sizer.run();
+
+        assertEquals(3, sizer.getTargetSize());
+        assertTrue(sizer.getLastDecision().startsWith("增大 2 -> 3"));
+    }
+
+    @Test
+    public void longWaitGrowsByAtLeastOne() throws Exception {
+        create(2, 10);
+        load(1, 20, 0);
+        sizer.run();
+
+        assertEquals(3, sizer.getTargetSize());
+    }
+
+    /**
+     * 按利特尔法则估算需要的连接数
+     * */
+    private static int demand(int count, long holdMillis, long elapsedNanos) {
+        return (int) Math.ceil(count / (elapsedNanos / 1e9) * (holdMillis / 1e3) * 1.25);
+    }
+
+    @Test
+    public void growsToLittlesLawEstimateWithinMaximum() throws Exception {
+        long beforeCreate = System.nanoTime();
+        create(1, 100);
+        long created = System.nanoTime();
+        Thread.sleep(100);
+        // 每秒约100次, 每次占用200ms, 估算值约为 100 * 0.2 * 1.25 = 25
+        load(10, 0, 200);
+        long beforeRun = System.nanoTime();
+        sizer.run();
+        long afterRun = System.nanoTime();
+
+        // 周期的长度只能从外面估计上下限
+        int grown = sizer.getTargetSize();
+        assertTrue("target " + grown, grown >= demand(10, 200, afterRun - beforeCreate)
+                && grown <= demand(10, 200, beforeRun - created));
+        assertTrue(grown > 1);
+
+        // 估算值超过最大连接数时只增大到最大连接数
+        load(100000, 0, 20);
+        sizer.run();
+        assertEquals(100, sizer.getTargetSize());
+    }
+
+    @Test
+    public void shrinksAfterQuietTicks() throws Exception {
+        create(1, 8);
+        load(100000, 0, 20);
+        sizer.run();
+        assertEquals(8, sizer.getTargetSize());
+
+        // 连续三个周期没有负载才减小, 每次减到3/4
+        sizer.run();
+        sizer.run();
+        assertEquals(8, sizer.getTargetSize());
+        sizer.run();
+        assertEquals(6, sizer.getTargetSize());
+        for (int i = 0; i < 30; i++) {
+            sizer.run();
+        }
+        assertEquals(1, sizer.getTargetSize());
+    }
+
+    @Test(timeout = 10000)
+    public void idleConnectionsAboveTargetAreReclaimed() throws Exception {
+        create(1, 4);
+        List<Connection> borrowed = new ArrayList<Connection>();
+        for (int i = 0; i < 4; i++) {
+            Connection conn = pool.getConnection(2000, TimeUnit.MILLISECONDS);
+            assertNotNull(conn);
+            borrowed.add(conn);
+        }
+        for (Connection conn : borrowed) {
+            conn.close();
+        }
+        assertEquals(4, pool.getTotalConnections());
+
+        // 高峰期临时创建的连接在连续三个没有负载的周期后关闭
+        sizer.run();
+        sizer.run();
+        assertEquals(4, pool.getTotalConnections());
+        sizer.run();
+        assertEquals(1, pool.getTotalConnections());
+        assertEquals(1, sizer.getTargetSize());
+    }
+
+    /**
+     * 等待连接池大小满足条件, 超时返回false
+     * */
+    private static boolean awaitTarget(IConnectionPool pool, boolean grown, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() - deadline < 0) {
+            int target = pool.getTargetSize();
+            if (grown ? target > size : target == size) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    @Test(timeout = 20000)
+    public void adaptivePoolGrowsUnderRealWaitsAndPublishesDecisions() throws Exception {
+        PropertiesBean bean = TestPools.bean(TestPools.nodeName("sizer"), 1, 4);
+        bean.setAdaptive(true);
+        bean.setAdaptiveInterval(50);
+        bean.setAdaptiveWaitThreshold(5);
+        bean.setHousekeepingInterval(5000);
+        pool = TestPools.create(bean);
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+        scheduler.setRemoveOnCancelPolicy(true);
+        pool.checkPool(scheduler);
+        PoolStats stats = (PoolStats) pool.getMetricsTracker();
+        assertEquals(1, pool.getTargetSize());
+
+        // 8个线程争用最多4个连接, 每次占用20ms, 获取连接的等待时间超过阈值
+        final AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (running.get()) {
+                        Connection conn = pool.getConnection(2000, TimeUnit.MILLISECONDS);
+                        if (conn == null) {
+                            continue;
+                        }
+                        try {
+                            Thread.sleep(20);
+                            conn.close();
+                        } catch (Exception e) {
+                            return;
+                        }
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        try {
+            assertTrue(awaitTarget(pool, true, 1));
+            String decision = pool.getSizingDecision();
+            assertTrue(decision, decision.startsWith("增大 "));
+            // 调整的结果通过指标对外公开
+            assertEquals(decision, stats.getSizingDecision());
+        } finally {
+            running.set(false);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+        assertTrue(pool.getTargetSize() <= 4);
+
+        // 负载消失后逐步减小到最小连接数
+        try {
+            assertTrue(awaitTarget(pool, false, 1));
+            assertTrue(pool.getSizingDecision().startsWith("减小 "));
+            assertEquals(pool.getSizingDecision(), stats.getSizingDecision());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+}
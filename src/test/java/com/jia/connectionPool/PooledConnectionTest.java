@@ -0,0 +1,90 @@
+package com.jia.connectionPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PooledConnectionTest {
+
+    private ConnectionPool pool;
+
+    private String nodeName;
+
+    private TestDriver.TestConnection physical;
+
+    @Before
+    public void setUp() throws Exception {
+        nodeName = TestPools.nodeName("wrapper");
+        pool = TestPools.create(TestPools.bean(nodeName, 1, 1));
+        physical = TestDriver.node(nodeName).connections.get(0);
+    }
+
+    @After
+    public void tearDown() {
+        pool.destory();
+    }
+
+    @Test
+    public void wrappersNeverExposeThePhysicalConnection() throws Exception {
+        Connection conn = pool.getConnection();
+        Statement statement = conn.createStatement();
+        ResultSet resultSet = statement.executeQuery("select id from t");
+
+        assertSame(conn, statement.getConnection());
+        assertSame(statement, resultSet.getStatement());
+        assertSame(conn, conn.prepareStatement("select 1").getConnection());
+        conn.close();
+    }
+
+    @Test
+    public void closeReturnsConnectionOnceAndLeavesPhysicalOpen() throws Exception {
+        Connection conn = pool.getConnection();
+        conn.close();
+        conn.close();
+
+        assertTrue(conn.isClosed());
+        assertFalse(physical.closed);
+        // 重复关闭没有归还两次, 连接池中仍然只有一个空闲连接
+        Connection next = pool.getConnection();
+        assertNotSame(conn, next);
+        next.close();
+        assertEquals(1, TestDriver.node(nodeName).opened.get());
+    }
+
+    @Test
+    public void closedWrapperRejectsCalls() throws Exception {
+        Connection conn = pool.getConnection();
+        conn.close();
+        try {
+            conn.createStatement();
+            fail("expected SQLException");
+        } catch (SQLException e) {
+            assertTrue(e.getMessage().contains("关闭"));
+        }
+    }
+
+    @Test
+    public void statementsLeftOpenAreClosedOnReturn() throws Exception {
+        Connection conn = pool.getConnection();
+        conn.createStatement();
+        conn.prepareCall("call p()");
+        conn.close();
+
+        for (TestDriver.TestStatement statement : physical.statements) {
+            assertTrue(statement.closed);
+        }
+        assertEquals(2, physical.statements.size());
+    }
+}
@@ -0,0 +1,198 @@
+package com.jia.connectionPool;
+
+import com.jia.entity.PriorityClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PriorityQuotaTest {
+
+    private static long deadline(long millis) {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * 异步的等待者, 记录被唤醒的顺序
+     * */
+    private static final class RecordingWaiter extends PriorityQuota.PermitWaiter {
+
+        private final String name;
+
+        private final List<String> woken;
+
+        RecordingWaiter(PriorityQuota.Level priorityClass, String name, List<String> woken) {
+            super(priorityClass, null);
+            this.name = name;
+            this.woken = woken;
+        }
+
+        @Override
+        void wake() {
+            woken.add(name);
+        }
+    }
+
+    @Test
+    public void reservedConnectionsAreKeptForTheirClass() throws InterruptedException {
+        PriorityQuota quota = new PriorityQuota(Arrays.asList(
+                new PriorityClass("high", 1, 2), new PriorityClass("low", 0, 2)), 2);
+        PriorityQuota.Level high = quota.classOf("high");
+        PriorityQuota.Level low = quota.classOf("low");
+
+        assertEquals(PriorityQuota.SHARED, quota.acquire(low, deadline(10)));
+        // 共享部分已经用完, 预留给high的连接不能借给low
+        assertEquals(PriorityQuota.NONE, quota.acquire(low, deadline(10)));
+        assertEquals(PriorityQuota.RESERVED, quota.acquire(high, deadline(10)));
+        assertEquals(0, quota.getWaitingCount());
+    }
+
+    @Test
+    public void classCeilingIsEnforced() throws InterruptedException {
+        PriorityQuota quota = new PriorityQuota(Collections.singletonList(new PriorityClass("batch", 0, 1)), 4);
+        PriorityQuota.Level batch = quota.classOf("batch");
+
+        assertEquals(PriorityQuota.SHARED, quota.acquire(batch, deadline(10)));
+        assertEquals(PriorityQuota.NONE, quota.acquire(batch, deadline(10)));
+        assertEquals(1, quota.getInUse(batch));
+        // 其他类别不受batch上限的影响
+        PriorityQuota.Level other = quota.classOf("unknown");
+        assertEquals(PriorityQuota.SHARED, quota.acquire(other, deadline(10)));
+    }
+
+    @Test
+    public void releaseGrantsHigherPriorityFirstAndFifoWithinClass() throws InterruptedException {
+        PriorityQuota quota = new PriorityQuota(Arrays.asList(
+                new PriorityClass("high", 0, 1), new PriorityClass("low", 0, 1)), 1);
+        PriorityQuota.Level highClass = quota.classOf("high");
+        PriorityQuota.Level lowClass = quota.classOf("low");
+        int held = quota.acquire(lowClass, deadline(10));
+        assertEquals(PriorityQuota.SHARED, held);
+
+        List<String> woken = Collections.synchronizedList(new ArrayList<String>());
+        RecordingWaiter low1 = new RecordingWaiter(lowClass, "low1", woken);
+        RecordingWaiter low2 = new RecordingWaiter(lowClass, "low2", woken);
+        RecordingWaiter high = new RecordingWaiter(highClass, "high", woken);
+        assertEquals(PriorityQuota.NONE, quota.acquireAsync(low1));
+        assertEquals(PriorityQuota.NONE, quota.acquireAsync(low2));
+        assertEquals(PriorityQuota.NONE, quota.acquireAsync(high));
+        assertEquals(3, quota.getWaitingCount());
+
+        // 后来的high先拿到许可, low按到达顺序
+        quota.release(lowClass, held);
+        quota.release(highClass, high.kind);
+        quota.release(lowClass, low1.kind);
+        assertEquals(Arrays.asList("high", "low1", "low2"), woken);
+        assertEquals(0, quota.getWaitingCount());
+    }
+
+    @Test
+    public void releaseHandsPermitToQueuedWaiter() throws InterruptedException {
+        PriorityQuota quota = new PriorityQuota(Collections.singletonList(new PriorityClass("high", 0, 1)), 1);
+        PriorityQuota.Level high = quota.classOf("high");
+        int held = quota.acquire(high, deadline(10));
+
+        List<String> woken = Collections.synchronizedList(new ArrayList<String>());
+        RecordingWaiter first = new RecordingWaiter(high, "first", woken);
+        assertEquals(PriorityQuota.NONE, quota.acquireAsync(first));
+        quota.release(high, held);
+
+        assertEquals(Collections.singletonList("first"), woken);
+        assertEquals(PriorityQuota.NONE, quota.acquire(high, deadline(10)));
+    }
+
+    @Test
+    public void abortWaitersReleasesWaitersAndRejectsNewOnes() throws InterruptedException {
+        PriorityQuota quota = new PriorityQuota(Collections.singletonList(new PriorityClass("high", 0, 1)), 1);
+        PriorityQuota.Level high = quota.classOf("high");
+        quota.acquire(high, deadline(10));
+
+        List<String> woken = Collections.synchronizedList(new ArrayList<String>());
+        RecordingWaiter waiter = new RecordingWaiter(high, "waiter", woken);
+        quota.acquireAsync(waiter);
+
+        assertEquals(1, quota.abortWaiters());
+        assertTrue(waiter.isAborted());
+        assertEquals(PriorityQuota.NONE, waiter.kind);
+        assertEquals(0, quota.getWaitingCount());
+
+        long start = System.nanoTime();
+        assertEquals(PriorityQuota.NONE, quota.acquire(high, deadline(5000)));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void resizeKeepsPermitsHeldBeforeTheChange() throws InterruptedException {
+        PriorityQuota quota = new PriorityQuota(Collections.singletonList(new PriorityClass("batch", 0, 2)), 4);
+        PriorityQuota.Level batch = quota.classOf("batch");
+        int first = quota.acquire(batch, deadline(10));
+        quota.acquire(batch, deadline(10));
+
+        // 上限调大后只能再借出差额, 调整前借出的两个仍然计入batch
+        quota.resize(Collections.singletonList(new PriorityClass("batch", 0, 3)), 4);
+        assertSame(batch, quota.classOf("batch"));
+        assertEquals(PriorityQuota.SHARED, quota.acquire(batch, deadline(10)));
+        assertEquals(PriorityQuota.NONE, quota.acquire(batch, deadline(10)));
+
+        quota.release(batch, first);
+        assertEquals(2, quota.getInUse(batch));
+        assertEquals(PriorityQuota.SHARED, quota.acquire(batch, deadline(10)));
+    }
+
+    @Test
+    public void removedClassCountsUntilItsPermitsAreReturned() throws InterruptedException {
+        PriorityQuota quota = new PriorityQuota(Collections.singletonList(new PriorityClass("batch", 0, 2)), 2);
+        PriorityQuota.Level batch = quota.classOf("batch");
+        int held = quota.acquire(batch, deadline(10));
+        quota.acquire(batch, deadline(10));
+
+        // batch已经删除, 借出的许可仍然占用最大连接数
+        quota.resize(Collections.singletonList(new PriorityClass("online", 0, 2)), 2);
+        PriorityQuota.Level online = quota.classOf("online");
+        assertSame(quota.classOf(null), quota.classOf("batch"));
+        assertEquals(PriorityQuota.NONE, quota.acquire(online, deadline(10)));
+
+        quota.release(batch, held);
+        assertEquals(PriorityQuota.SHARED, quota.acquire(online, deadline(10)));
+    }
+
+    @Test
+    public void shrunkReservationStillOccupiesSharedPermits() throws InterruptedException {
+        PriorityQuota quota = new PriorityQuota(Collections.singletonList(new PriorityClass("high", 2, 3)), 3);
+        PriorityQuota.Level high = quota.classOf("high");
+        assertEquals(PriorityQuota.RESERVED, quota.acquire(high, deadline(10)));
+        assertEquals(PriorityQuota.RESERVED, quota.acquire(high, deadline(10)));
+
+        // 不再预留后共享部分是3, 调整前的两个预留许可归还之前占用其中的两个
+        quota.resize(Collections.singletonList(new PriorityClass("high", 0, 3)), 3);
+        PriorityQuota.Level other = quota.classOf(null);
+        assertEquals(PriorityQuota.SHARED, quota.acquire(other, deadline(10)));
+        assertEquals(PriorityQuota.NONE, quota.acquire(other, deadline(10)));
+
+        quota.release(high, PriorityQuota.RESERVED);
+        assertEquals(PriorityQuota.SHARED, quota.acquire(other, deadline(10)));
+    }
+
+    @Test
+    public void resizeGrantsQueuedWaitersWhenLimitsGrow() throws InterruptedException {
+        PriorityQuota quota = new PriorityQuota(Collections.singletonList(new PriorityClass("high", 0, 1)), 1);
+        PriorityQuota.Level high = quota.classOf("high");
+        quota.acquire(high, deadline(10));
+
+        List<String> woken = Collections.synchronizedList(new ArrayList<String>());
+        RecordingWaiter waiter = new RecordingWaiter(high, "waiter", woken);
+        assertEquals(PriorityQuota.NONE, quota.acquireAsync(waiter));
+
+        quota.resize(Collections.singletonList(new PriorityClass("high", 0, 2)), 2);
+        assertEquals(Collections.singletonList("waiter"), woken);
+        assertEquals(PriorityQuota.SHARED, waiter.kind);
+        assertEquals(0, quota.getWaitingCount());
+    }
+}
@@ -0,0 +1,97 @@
+package com.jia.connectionPool;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SessionResetTest {
+
+    private ConnectionPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.destory();
+        }
+    }
+
+    private TestDriver.TestConnection open(String nodeName, boolean defaultAutoCommit) throws Exception {
+        TestDriver.node(nodeName).defaultAutoCommit = defaultAutoCommit;
+        pool = TestPools.create(TestPools.bean(nodeName, 1, 1));
+        return TestDriver.node(nodeName).connections.get(0);
+    }
+
+    @Test
+    public void statementReusedAfterCommitIsRolledBackOnReturn() throws Exception {
+        TestDriver.TestConnection physical = open(TestPools.nodeName("reset"), true);
+
+        Connection conn = pool.getConnection();
+        conn.setAutoCommit(false);
+        Statement statement = conn.createStatement();
+        statement.executeUpdate("update t set x = 1");
+        conn.commit();
+        // 提交之后再次执行同一个Statement开启了新的事务
+        statement.executeUpdate("update t set x = 2");
+        conn.close();
+
+        assertEquals(1, physical.rollbacks.get());
+        assertEquals(0, physical.implicitCommits.get());
+        assertTrue(physical.autoCommit);
+        assertFalse(physical.inTransaction);
+    }
+
+    @Test
+    public void openTransactionDoesNotLeakToNextBorrower() throws Exception {
+        TestDriver.TestConnection physical = open(TestPools.nodeName("reset"), false);
+
+        Connection conn = pool.getConnection();
+        PreparedStatement statement = conn.prepareStatement("insert into t values (?)");
+        statement.setInt(1, 1);
+        statement.executeUpdate();
+        conn.commit();
+        statement.setInt(1, 2);
+        statement.executeUpdate();
+        conn.close();
+
+        assertFalse(physical.inTransaction);
+        assertEquals(1, physical.commits.get());
+        assertEquals(1, physical.rollbacks.get());
+    }
+
+    @Test
+    public void cleanConnectionIsNotRolledBack() throws Exception {
+        TestDriver.TestConnection physical = open(TestPools.nodeName("reset"), false);
+
+        Connection conn = pool.getConnection();
+        Statement statement = conn.createStatement();
+        statement.executeUpdate("update t set x = 1");
+        conn.commit();
+        conn.close();
+
+        // 提交后没有再执行语句, 归还时不需要额外的往返
+        assertEquals(0, physical.rollbacks.get());
+    }
+
+    @Test
+    public void modifiedSessionAttributesAreRestored() throws Exception {
+        TestDriver.TestConnection physical = open(TestPools.nodeName("reset"), true);
+
+        Connection conn = pool.getConnection();
+        conn.setAutoCommit(false);
+        conn.setAutoCommit(false);
+        conn.setReadOnly(false);
+        conn.close();
+
+        // 重复设置相同的值不访问数据库, 归还时只恢复被修改过的属性
+        assertEquals(2, physical.count("setAutoCommit"));
+        assertEquals(0, physical.count("setReadOnly"));
+        assertTrue(physical.autoCommit);
+    }
+}
@@ -0,0 +1,112 @@
+package com.jia.connectionPool;
+
+import com.jia.entity.PropertiesBean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StatementCacheTest {
+
+    private static final String SQL = "select id from t where id = ?";
+
+    private ConnectionPool pool;
+
+    private TestDriver.TestConnection physical;
+
+    @Before
+    public void setUp() throws Exception {
+        String nodeName = TestPools.nodeName("stmt");
+        PropertiesBean bean = TestPools.bean(nodeName, 1, 1);
+        bean.setStatementCacheSize(10);
+        pool = TestPools.create(bean);
+        physical = TestDriver.node(nodeName).connections.get(0);
+    }
+
+    @After
+    public void tearDown() {
+        pool.destory();
+    }
+
+    @Test
+    public void modifiedPropertiesAreRestoredBeforeReuse() throws Exception {
+        Connection conn = pool.getConnection();
+        PreparedStatement statement = conn.prepareStatement(SQL);
+        statement.setMaxRows(5);
+        statement.setQueryTimeout(3);
+        statement.setFetchSize(100);
+        statement.setInt(1, 1);
+        ResultSet resultSet = statement.executeQuery();
+        statement.close();
+
+        TestDriver.TestStatement cached = physical.statements.get(0);
+        assertFalse(cached.closed);
+        assertTrue(resultSet.isClosed());
+        assertEquals(0, cached.openResults.get());
+        assertEquals(0, cached.properties.get("MaxRows"));
+        assertEquals(0, cached.properties.get("QueryTimeout"));
+        assertEquals(0, cached.properties.get("FetchSize"));
+        conn.close();
+
+        // 下一个使用者拿到同一个物理语句, 看到的是原来的属性
+        conn = pool.getConnection();
+        statement = conn.prepareStatement(SQL);
+        assertEquals(1, physical.statements.size());
+        assertEquals(0, statement.getMaxRows());
+        assertEquals(0, statement.getQueryTimeout());
+        conn.close();
+    }
+
+    @Test
+    public void unmodifiedStatementIsRecycledWithoutExtraCalls() throws Exception {
+        Connection conn = pool.getConnection();
+        PreparedStatement statement = conn.prepareStatement(SQL);
+        statement.setInt(1, 1);
+        statement.executeQuery().close();
+        statement.close();
+        conn.close();
+
+        TestDriver.TestStatement cached = physical.statements.get(0);
+        assertFalse(cached.closed);
+        assertTrue(cached.properties.isEmpty());
+    }
+
+    @Test
+    public void statementWithUnrestorableChangeIsNotCached() throws Exception {
+        Connection conn = pool.getConnection();
+        PreparedStatement statement = conn.prepareStatement(SQL);
+        statement.setCursorName("c1");
+        statement.close();
+
+        TestDriver.TestStatement first = physical.statements.get(0);
+        assertTrue(first.closed);
+        conn.prepareStatement(SQL).close();
+        assertEquals(2, physical.statements.size());
+        assertNotSame(first, physical.statements.get(1));
+        conn.close();
+    }
+
+    @Test
+    public void resultOpenedOnReusedStatementIsClosed() throws Exception {
+        Connection conn = pool.getConnection();
+        PreparedStatement first = conn.prepareStatement(SQL);
+        first.executeQuery().close();
+        first.close();
+        PreparedStatement second = conn.prepareStatement(SQL);
+        assertSame(physical.statements.get(0), physical.statements.get(physical.statements.size() - 1));
+        ResultSet open = second.executeQuery();
+        second.close();
+        assertTrue(open.isClosed());
+        assertEquals(0, physical.statements.get(0).openResults.get());
+        conn.close();
+    }
+}
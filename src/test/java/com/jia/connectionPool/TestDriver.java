@@ -0,0 +1,480 @@
+package com.jia.connectionPool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * 测试用的JDBC驱动, 不访问网络, 记录每个连接上的调用和事务状态
+ *
+ * 地址为jdbc:test:节点名称, 同一个节点的连接共用Node中的计数和配置.
+ * 非自动提交模式下执行语句会开启事务, 开启自动提交时进行中的事务被隐式提交, 与MySQL驱动一致
+ * */
+public final class TestDriver implements Driver {
+
+    private static final String PREFIX = "jdbc:test:";
+
+    private static final Map<String, Node> NODES = new ConcurrentHashMap<String, Node>();
+
+    static {
+        try {
+            DriverManager.registerDriver(new TestDriver());
+        } catch (SQLException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public static String url(String nodeName) {
+        return PREFIX + nodeName;
+    }
+
+    /**
+     * 获取节点的状态, 不存在时创建
+     * */
+    public static Node node(String nodeName) {
+        Node node = NODES.get(nodeName);
+        if (node == null) {
+            Node created = new Node();
+            node = NODES.putIfAbsent(nodeName, created);
+            if (node == null) {
+                node = created;
+            }
+        }
+        return node;
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        Node node = node(url.substring(PREFIX.length()));
+        if (node.failConnect) {
+            throw new SQLException("connection refused");
+        }
+        if (node.connectDelayMillis > 0) {
+            try {
+                Thread.sleep(node.connectDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        TestConnection state = new TestConnection(node);
+        node.opened.incrementAndGet();
+        node.connections.add(state);
+        return (Connection) Proxy.newProxyInstance(TestDriver.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, state);
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(PREFIX);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    /**
+     * 一个节点上全部连接共用的状态
+     * */
+    public static final class Node {
+
+        public final AtomicInteger opened = new AtomicInteger();
+
+        public final List<TestConnection> connections = new CopyOnWriteArrayList<TestConnection>();
+
+        // 按执行顺序记录的语句, 批处理中的每条语句单独记录
+        public final List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+
+        // 新连接的自动提交属性
+        public volatile boolean defaultAutoCommit = true;
+
+        public volatile boolean failConnect;
+
+        public volatile long connectDelayMillis;
+
+        // 执行语句的延迟 单位毫秒
+        public volatile long queryDelayMillis;
+
+        // 执行的SQL包含该字符串时抛出异常
+        public volatile String failOn;
+
+        // 提交时抛出异常
+        public volatile boolean failCommit;
+
+        // 查询返回的列名和行
+        public volatile String[] labels = {"id"};
+
+        public volatile List<Object[]> rows = new ArrayList<Object[]>();
+    }
+
+    /**
+     * 一个物理连接, 同时作为Connection代理的InvocationHandler
+     * */
+    public static final class TestConnection implements InvocationHandler {
+
+        public final Node node;
+
+        public final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+
+        public volatile boolean autoCommit;
+
+        // 是否有进行中的事务
+        public volatile boolean inTransaction;
+
+        // 开启自动提交时被隐式提交的事务数
+        public final AtomicInteger implicitCommits = new AtomicInteger();
+
+        public final AtomicInteger commits = new AtomicInteger();
+
+        public final AtomicInteger rollbacks = new AtomicInteger();
+
+        public volatile boolean closed;
+
+        // 数据库端已经断开连接(比如超过wait_timeout), 驱动还不知道: isClosed()返回false, 其他调用失败
+        public volatile boolean dropped;
+
+        // 通过这个连接创建的语句
+        public final List<TestStatement> statements = new CopyOnWriteArrayList<TestStatement>();
+
+        // 创建连接的线程
+        public final String createdBy = Thread.currentThread().getName();
+
+        TestConnection(Node node) {
+            this.node = node;
+            this.autoCommit = node.defaultAutoCommit;
+        }
+
+        public int count(String method) {
+            int count = 0;
+            synchronized (calls) {
+                for (String call : calls) {
+                    if (call.equals(method)) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+
+        void execute(String sql) throws SQLException {
+            if (node.queryDelayMillis > 0) {
+                try {
+                    Thread.sleep(node.queryDelayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("interrupted");
+                }
+            }
+            String failOn = node.failOn;
+            if (failOn != null && sql != null && sql.contains(failOn)) {
+                throw new SQLException("failed: " + sql);
+            }
+            if (!autoCommit) {
+                inTransaction = true;
+            }
+            node.executed.add(sql);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            calls.add(name);
+            if (name.equals("close")) {
+                closed = true;
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return closed;
+            }
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (name.equals("toString")) {
+                return "TestConnection@" + System.identityHashCode(proxy);
+            }
+            if (name.equals("isValid")) {
+                return !closed && !dropped;
+            }
+            if (closed || dropped) {
+                throw new SQLException("connection closed");
+            }
+            if (name.equals("getAutoCommit")) {
+                return autoCommit;
+            }
+            if (name.equals("setAutoCommit")) {
+                boolean value = (Boolean) args[0];
+                if (value && !autoCommit && inTransaction) {
+                    implicitCommits.incrementAndGet();
+                    inTransaction = false;
+                }
+                autoCommit = value;
+                return null;
+            }
+            if (name.equals("commit")) {
+                if (node.failCommit) {
+                    throw new SQLException("commit failed");
+                }
+                commits.incrementAndGet();
+                inTransaction = false;
+                return null;
+            }
+            if (name.equals("rollback")) {
+                rollbacks.incrementAndGet();
+                inTransaction = false;
+                return null;
+            }
+            if (name.equals("getTransactionIsolation")) {
+                return Connection.TRANSACTION_REPEATABLE_READ;
+            }
+            if (name.equals("isReadOnly")) {
+                return false;
+            }
+            if (name.equals("getCatalog")) {
+                return "test";
+            }
+            if (name.equals("createStatement") || name.equals("prepareStatement") || name.equals("prepareCall")) {
+                TestStatement statement = new TestStatement(this, args != null && args.length > 0 ? (String) args[0] : null);
+                statements.add(statement);
+                Class<?> type = name.equals("createStatement") ? Statement.class
+                        : name.equals("prepareCall") ? java.sql.CallableStatement.class : PreparedStatement.class;
+                return Proxy.newProxyInstance(TestDriver.class.getClassLoader(), new Class<?>[]{type}, statement);
+            }
+            if (name.startsWith("set") || name.startsWith("release")) {
+                return null;
+            }
+            return defaultValue(method.getReturnType());
+        }
+    }
+
+    /**
+     * 一个语句, 记录被设置过的属性
+     * */
+    public static final class TestStatement implements InvocationHandler {
+
+        public final TestConnection connection;
+
+        public final String sql;
+
+        // 通过setXxx设置的属性, 例如MaxRows
+        public final Map<String, Object> properties = new ConcurrentHashMap<String, Object>();
+
+        // 打开的结果集数目
+        public final AtomicInteger openResults = new AtomicInteger();
+
+        private final List<String> batch = new ArrayList<String>();
+
+        public volatile boolean closed;
+
+        public volatile boolean cancelled;
+
+        TestStatement(TestConnection connection, String sql) {
+            this.connection = connection;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                closed = true;
+                return null;
+            }
+            if (name.equals("isClosed")) {
+                return closed;
+            }
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (name.equals("toString")) {
+                return "TestStatement@" + System.identityHashCode(proxy);
+            }
+            if (name.equals("cancel")) {
+                cancelled = true;
+                return null;
+            }
+            if (closed) {
+                throw new SQLException("statement closed");
+            }
+            String text = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql;
+            if (name.equals("addBatch")) {
+                batch.add(text);
+                return null;
+            }
+            if (name.equals("clearBatch")) {
+                batch.clear();
+                return null;
+            }
+            if (name.equals("clearParameters")) {
+                return null;
+            }
+            if (name.equals("executeBatch")) {
+                int[] counts = new int[batch.size()];
+                for (int i = 0; i < counts.length; i++) {
+                    connection.execute(batch.get(i));
+                    counts[i] = 1;
+                }
+                batch.clear();
+                return counts;
+            }
+            if (name.equals("executeQuery")) {
+                connection.execute(text);
+                return resultSet(proxy);
+            }
+            if (name.startsWith("execute")) {
+                connection.execute(text);
+                return method.getReturnType() == long.class ? (Object) 1L
+                        : method.getReturnType() == boolean.class ? (Object) false : (Object) 1;
+            }
+            if (name.equals("getResultSet")) {
+                return null;
+            }
+            if (name.startsWith("set") && args != null && args.length == 1 && !isParameter(method)) {
+                properties.put(name.substring(3), args[0]);
+                return null;
+            }
+            if (name.startsWith("get") && (args == null || args.length == 0) && properties.containsKey(name.substring(3))) {
+                return properties.get(name.substring(3));
+            }
+            return defaultValue(method.getReturnType());
+        }
+
+        private static boolean isParameter(Method method) {
+            return method.getParameterTypes().length == 2;
+        }
+
+        private ResultSet resultSet(final Object statement) {
+            final Node node = connection.node;
+            final List<Object[]> rows = node.rows;
+            final String[] labels = node.labels;
+            final int maxRows = properties.containsKey("MaxRows") ? (Integer) properties.get("MaxRows") : 0;
+            openResults.incrementAndGet();
+            final ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(TestDriver.class.getClassLoader(),
+                    new Class<?>[]{ResultSetMetaData.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getName().equals("getColumnCount")) {
+                        return labels.length;
+                    }
+                    if (method.getName().equals("getColumnLabel") || method.getName().equals("getColumnName")) {
+                        return labels[(Integer) args[0] - 1];
+                    }
+                    return defaultValue(method.getReturnType());
+                }
+            });
+            return (ResultSet) Proxy.newProxyInstance(TestDriver.class.getClassLoader(),
+                    new Class<?>[]{ResultSet.class}, new InvocationHandler() {
+                private int index = -1;
+                private boolean closed;
+
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String name = method.getName();
+                    if (name.equals("close")) {
+                        if (!closed) {
+                            closed = true;
+                            openResults.decrementAndGet();
+                        }
+                        return null;
+                    }
+                    if (name.equals("isClosed")) {
+                        return closed;
+                    }
+                    if (name.equals("equals")) {
+                        return proxy == args[0];
+                    }
+                    if (name.equals("hashCode")) {
+                        return System.identityHashCode(proxy);
+                    }
+                    if (closed) {
+                        throw new SQLException("result set closed");
+                    }
+                    if (name.equals("next")) {
+                        index++;
+                        return index < rows.size() && (maxRows == 0 || index < maxRows);
+                    }
+                    if (name.equals("getMetaData")) {
+                        return metaData;
+                    }
+                    if (name.equals("getStatement")) {
+                        return statement;
+                    }
+                    if (name.startsWith("get") && args != null && args.length >= 1 && args[0] instanceof Integer) {
+                        return rows.get(index)[(Integer) args[0] - 1];
+                    }
+                    return defaultValue(method.getReturnType());
+                }
+            });
+        }
+    }
+
+    static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == int[].class) {
+            return new int[0];
+        }
+        if (type == long[].class) {
+            return new long[0];
+        }
+        if (type == Map.class) {
+            return new HashMap<String, Class<?>>();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,137 @@
+package com.jia.connectionPool;
+
+import com.jia.utils.PropertiesManager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 测试共用的ConnectionManager, 配置写入临时文件, 所有节点连接到TestDriver
+ *
+ * ConnectionManager是单例, 同一个JVM中的测试共用一份基础配置;
+ * 需要额外节点的测试通过reload()追加配置, 结束后再恢复
+ * */
+public final class TestManager {
+
+    // 并行查询使用的节点
+    public static final List<String> SCATTER_NODES = Arrays.asList("sg1", "sg2", "sg3", "sg4", "sg5", "sg6");
+
+    private static final ReentrantLock lock = new ReentrantLock();
+
+    private static File file;
+
+    private static ConnectionManager manager;
+
+    private TestManager() {
+    }
+
+    /**
+     * 获取共用的ConnectionManager, 第一次调用时写入配置并创建
+     * */
+    public static ConnectionManager get() throws IOException {
+        lock.lock();
+        try {
+            if (manager == null) {
+                Class.forName(TestDriver.class.getName());
+                file = File.createTempFile("connection-pool-test", ".properties");
+                file.deleteOnExit();
+                write(new ArrayList<String>(), "");
+                System.setProperty(PropertiesManager.PATH_PROPERTY, file.getPath());
+                PropertiesManager.reload();
+                manager = ConnectionManager.getInstance();
+            }
+            return manager;
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 在基础配置之后追加配置并重新加载
+     * @param nodes 追加的节点, 已经在extra中写好各自的配置
+     * @param extra 追加的配置, 每行一项
+     * */
+    public static void reload(List<String> nodes, String extra) throws IOException {
+        lock.lock();
+        try {
+            get();
+            write(nodes, extra);
+            manager.reload();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 只改写配置文件, 不重新加载, 用于测试监听配置文件的变化
+     * @param nodes 追加的节点, 已经在extra中写好各自的配置
+     * @param extra 追加的配置, 每行一项
+     * @return 配置文件
+     * */
+    static File update(List<String> nodes, String extra) throws IOException {
+        lock.lock();
+        try {
+            get();
+            write(nodes, extra);
+            return file;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 生成一个节点的配置
+     * */
+    public static String node(String name, String... extra) {
+        StringBuilder config = new StringBuilder();
+        config.append(name).append(".driver=").append(TestDriver.class.getName()).append('\n');
+        config.append(name).append(".url=").append(TestDriver.url(name)).append('\n');
+        config.append(name).append(".user=test\n");
+        config.append(name).append(".password=test\n");
+        config.append(name).append(".maxconnections=4\n");
+        config.append(name).append(".minconnections=1\n");
+        config.append(name).append(".initconnections=1\n");
+        config.append(name).append(".timeout=1000\n");
+        config.append(name).append(".conninterval=100\n");
+        for (String line : extra) {
+            config.append(name).append('.').append(line).append('\n');
+        }
+        return config.toString();
+    }
+
+    /**
+     * 写入基础配置和追加的配置
+     * @param extraNodes 追加的节点名称
+     * @param extraConfig 追加的配置
+     * */
+    private static void write(List<String> extraNodes, String extraConfig) throws IOException {
+        StringBuilder config = new StringBuilder();
+        StringBuilder names = new StringBuilder();
+        for (String node : SCATTER_NODES) {
+            names.append(names.length() > 0 ? "," : "").append(node);
+            config.append(node(node));
+        }
+        for (String node : extraNodes) {
+            names.append(',').append(node);
+        }
+        config.append("nodename=").append(names).append('\n');
+        config.append("eventlevel=warn\n");
+        config.append("jmx=true\n");
+        config.append(extraConfig);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(config.toString());
+        } finally {
+            writer.close();
+        }
+    }
+}
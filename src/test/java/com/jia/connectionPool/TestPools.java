@@ -0,0 +1,58 @@
+package com.jia.connectionPool;
+
+import com.jia.entity.PropertiesBean;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试使用的连接池配置
+ * */
+final class TestPools {
+
+    private static final AtomicInteger sequence = new AtomicInteger();
+
+    private TestPools() {
+    }
+
+    /**
+     * 生成一个没有用过的节点名称, 每个测试使用自己的TestDriver节点
+     * */
+    static String nodeName(String prefix) {
+        return prefix + sequence.incrementAndGet();
+    }
+
+    /**
+     * 创建连接到TestDriver的节点配置
+     * @param nodeName 节点名称
+     * @param initConnections 初始连接数, 同时作为最小连接数
+     * @param maxConnections 最大连接数
+     * */
+    static PropertiesBean bean(String nodeName, int initConnections, int maxConnections) {
+        PropertiesBean bean = new PropertiesBean();
+        bean.setNodeName(nodeName);
+        bean.setDriverName(TestDriver.class.getName());
+        bean.setUrl(TestDriver.url(nodeName));
+        bean.setUsername("test");
+        bean.setPassword("test");
+        bean.setInitConnections(initConnections);
+        bean.setMinConnections(initConnections);
+        bean.setMaxConnections(maxConnections);
+        bean.setConnectionInterval(0);
+        bean.setTimeout(1000);
+        bean.setValidation("isvalid");
+        bean.setValidationTimeout(1000);
+        return bean;
+    }
+
+    /**
+     * 创建并初始化连接池
+     * */
+    static ConnectionPool create(PropertiesBean bean) throws ClassNotFoundException {
+        Class.forName(TestDriver.class.getName());
+        ConnectionPool pool = ConnectionPool.CreateConnectionPool(bean);
+        if (pool == null) {
+            throw new IllegalStateException(bean.getNodeName() + "节点连接池创建失败");
+        }
+        return pool;
+    }
+}
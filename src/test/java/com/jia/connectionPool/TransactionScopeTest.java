@@ -0,0 +1,205 @@
+package com.jia.connectionPool;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TransactionScopeTest {
+
+    private ConnectionPool pool;
+
+    private TestDriver.TestConnection physical;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.destory();
+        }
+    }
+
+    private void create(int maxConnections) throws Exception {
+        String nodeName = TestPools.nodeName("scope");
+        pool = TestPools.create(TestPools.bean(nodeName, 1, maxConnections));
+        physical = TestDriver.node(nodeName).connections.get(0);
+    }
+
+    @Test
+    public void nestedScopesShareOneConnection() throws Exception {
+        create(2);
+        TransactionScope outer = pool.openScope(false);
+        Connection conn = outer.getConnection();
+        assertTrue(outer.isOutermost());
+
+        TransactionScope inner = pool.openScope(false);
+        assertFalse(inner.isOutermost());
+        assertSame(conn, inner.getConnection());
+        assertSame(conn, pool.getCurrentConnection());
+
+        // 范围打开期间DAO关闭连接不归还
+        inner.getConnection().close();
+        inner.close();
+        assertEquals(1, pool.getActiveNum());
+        assertTrue(pool.inScope());
+
+        outer.close();
+        assertFalse(pool.inScope());
+        assertEquals(0, pool.getActiveNum());
+        assertEquals(pool.getTotalConnections(), pool.getFreeNum());
+    }
+
+    @Test
+    public void innerScopeJoinsOuterTransaction() throws Exception {
+        create(1);
+        TransactionScope outer = pool.openScope(true);
+        outer.getConnection().createStatement().executeUpdate("update t set x = 1");
+
+        TransactionScope inner = pool.openScope(true);
+        inner.getConnection().createStatement().executeUpdate("update t set x = 2");
+        inner.commit();
+        inner.close();
+        // 加入外层事务的范围不提交
+        assertEquals(0, physical.commits.get());
+        assertFalse(physical.autoCommit);
+
+        outer.commit();
+        outer.close();
+        assertEquals(1, physical.commits.get());
+        assertEquals(0, physical.rollbacks.get());
+        assertTrue(physical.autoCommit);
+    }
+
+    @Test
+    public void unfinishedInnerScopeRollsBackWholeTransaction() throws Exception {
+        create(1);
+        TransactionScope outer = pool.openScope(true);
+        TransactionScope inner = pool.openScope(true);
+        inner.getConnection().createStatement().executeUpdate("update t set x = 1");
+        inner.close();
+
+        try {
+            outer.commit();
+            fail("expected rollback");
+        } catch (SQLException e) {
+            // 内层没有提交, 整个事务回滚
+        }
+        outer.close();
+        assertEquals(0, physical.commits.get());
+        assertEquals(1, physical.rollbacks.get());
+        assertTrue(physical.autoCommit);
+        assertFalse(physical.inTransaction);
+        assertEquals(1, pool.getFreeNum());
+    }
+
+    @Test
+    public void uncommittedScopeIsRolledBackOnClose() throws Exception {
+        create(1);
+        TransactionScope scope = pool.openScope(true);
+        scope.getConnection().createStatement().executeUpdate("update t set x = 1");
+        scope.close();
+
+        assertEquals(1, physical.rollbacks.get());
+        assertTrue(physical.autoCommit);
+        assertEquals(1, pool.getFreeNum());
+
+        // 关闭后不能再使用
+        try {
+            scope.getConnection();
+            fail("expected closed scope");
+        } catch (SQLException e) {
+            // 已经关闭
+        }
+    }
+
+    @Test
+    public void transactionalInnerScopeOwnsItsTransaction() throws Exception {
+        create(1);
+        TransactionScope outer = pool.openScope(false);
+        TransactionScope inner = pool.openScope(true);
+        inner.getConnection().createStatement().executeUpdate("update t set x = 1");
+        inner.commit();
+        inner.close();
+
+        // 外层没有事务, 内层自己提交并恢复自动提交
+        assertEquals(1, physical.commits.get());
+        assertTrue(physical.autoCommit);
+        assertEquals(1, pool.getActiveNum());
+
+        // 之后的事务范围开启新的事务
+        TransactionScope again = pool.openScope(true);
+        again.setRollbackOnly();
+        try {
+            again.commit();
+            fail("expected rollback");
+        } catch (SQLException e) {
+            // 标记为只能回滚的事务提交时回滚
+        }
+        again.close();
+        outer.close();
+        assertEquals(1, physical.commits.get());
+        assertEquals(1, physical.rollbacks.get());
+        assertEquals(0, pool.getActiveNum());
+    }
+
+    @Test
+    public void currentConnectionOutsideScopeIsReused() throws Exception {
+        create(2);
+        // 没有打开范围时每个线程复用同一个连接
+        Connection first = pool.getCurrentConnection();
+        assertSame(first, pool.getCurrentConnection());
+        assertFalse(pool.inScope());
+        first.close();
+    }
+
+    @Test(timeout = 10000)
+    public void threadsGetTheirOwnConnections() throws Exception {
+        create(2);
+        final CountDownLatch opened = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<Connection> other = new AtomicReference<Connection>();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TransactionScope scope = pool.openScope(true);
+                    try {
+                        other.set(scope.getConnection());
+                        opened.countDown();
+                        release.await();
+                        scope.commit();
+                    } finally {
+                        scope.close();
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                    opened.countDown();
+                }
+            }
+        });
+        thread.start();
+        assertTrue(opened.await(5, TimeUnit.SECONDS));
+
+        TransactionScope scope = pool.openScope(true);
+        assertNotSame(other.get(), scope.getConnection());
+        assertEquals(2, pool.getActiveNum());
+        scope.commit();
+        scope.close();
+        release.countDown();
+        thread.join();
+        assertNull(error.get());
+        assertEquals(0, pool.getActiveNum());
+    }
+}
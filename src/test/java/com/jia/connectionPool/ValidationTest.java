@@ -0,0 +1,125 @@
+package com.jia.connectionPool;
+
+import com.jia.entity.PropertiesBean;
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.Connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ValidationTest {
+
+    private ConnectionPool pool;
+
+    private String nodeName;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.destory();
+        }
+    }
+
+    private TestDriver.TestConnection open(PropertiesBean bean) throws Exception {
+        pool = TestPools.create(bean);
+        return TestDriver.node(nodeName).connections.get(0);
+    }
+
+    private PropertiesBean bean() {
+        nodeName = TestPools.nodeName("validation");
+        return TestPools.bean(nodeName, 1, 1);
+    }
+
+    private void borrowAndReturn() throws Exception {
+        Connection conn = pool.getConnection();
+        assertNotNull(conn);
+        conn.close();
+    }
+
+    @Test
+    public void everyBorrowIsValidatedWithoutSkipWindow() throws Exception {
+        TestDriver.TestConnection physical = open(bean());
+
+        borrowAndReturn();
+        borrowAndReturn();
+
+        assertEquals(2, physical.count("isValid"));
+    }
+
+    @Test
+    public void recentlyUsedConnectionSkipsValidation() throws Exception {
+        PropertiesBean bean = bean();
+        bean.setValidationSkipWindow(10000);
+        TestDriver.TestConnection physical = open(bean);
+
+        borrowAndReturn();
+        borrowAndReturn();
+
+        assertEquals(0, physical.count("isValid"));
+    }
+
+    @Test
+    public void brokenConnectionIsReplacedOnBorrow() throws Exception {
+        TestDriver.TestConnection physical = open(bean());
+        // 模拟连接已经断开
+        physical.closed = true;
+
+        borrowAndReturn();
+
+        assertEquals(2, TestDriver.node(nodeName).opened.get());
+        assertEquals(1, pool.getFreeNum());
+    }
+
+    @Test
+    public void testQueryIsExecutedAndRolledBack() throws Exception {
+        PropertiesBean bean = bean();
+        bean.setValidation("query");
+        bean.setTestQuery("select 1");
+        TestDriver.node(nodeName).defaultAutoCommit = false;
+        TestDriver.TestConnection physical = open(bean);
+
+        borrowAndReturn();
+
+        assertTrue(TestDriver.node(nodeName).executed.contains("select 1"));
+        assertEquals(0, physical.count("isValid"));
+        // 测试语句开启的事务在交给应用程序之前回滚
+        assertEquals(1, physical.rollbacks.get());
+    }
+
+    @Test
+    public void queryModeWithoutTestQueryFallsBackToIsValid() throws Exception {
+        PropertiesBean bean = bean();
+        bean.setValidation("query");
+        TestDriver.TestConnection physical = open(bean);
+
+        borrowAndReturn();
+
+        assertEquals(1, physical.count("isValid"));
+        assertTrue(TestDriver.node(nodeName).executed.isEmpty());
+    }
+
+    @Test
+    public void noneModeOnlyChecksLocalState() throws Exception {
+        PropertiesBean bean = bean();
+        bean.setValidation("none");
+        TestDriver.TestConnection physical = open(bean);
+
+        borrowAndReturn();
+
+        assertEquals(0, physical.count("isValid"));
+        assertTrue(physical.count("isClosed") > 0);
+    }
+
+    @Test
+    public void validationModeIsParsedIgnoringCase() {
+        assertEquals(ValidationMode.ISVALID, ValidationMode.of("IsValid"));
+        assertEquals(ValidationMode.QUERY, ValidationMode.of(" query "));
+        assertEquals(ValidationMode.NONE, ValidationMode.of("NONE"));
+        assertNull(ValidationMode.of("ping"));
+        assertNull(ValidationMode.of(null));
+    }
+}
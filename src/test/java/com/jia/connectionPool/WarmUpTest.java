@@ -0,0 +1,166 @@
+package com.jia.connectionPool;
+
+import com.jia.entity.PropertiesBean;
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WarmUpTest {
+
+    private ConnectionPool pool;
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.destory();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void concurrentWarmUpStopsAtInitialConnections() throws Exception {
+        Class.forName(TestDriver.class.getName());
+        for (int attempt = 0; attempt < 100; attempt++) {
+            String nodeName = TestPools.nodeName("warmup");
+            PropertiesBean bean = TestPools.bean(nodeName, 50, 100);
+            pool = ConnectionPool.createEmptyPool(bean);
+
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(16);
+            final AtomicInteger created = new AtomicInteger();
+            for (int t = 0; t < 16; t++) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            created.addAndGet(pool.warmUp());
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }).start();
+            }
+            start.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+
+            assertEquals(50, created.get());
+            assertEquals(50, pool.getTotalConnections());
+            assertEquals(50, TestDriver.node(nodeName).opened.get());
+            pool.destory();
+            pool = null;
+        }
+    }
+
+    private static void awaitOpened(String nodeName, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (TestDriver.node(nodeName).opened.get() < count && System.nanoTime() - deadline < 0) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, TestDriver.node(nodeName).opened.get());
+    }
+
+    private static String nodes(String... names) {
+        StringBuilder config = new StringBuilder();
+        for (String name : names) {
+            TestDriver.node(name).connectDelayMillis = 100;
+            config.append(TestManager.node(name, "initconnections=3", "maxconnections=3"));
+        }
+        return config.toString();
+    }
+
+    private static void resetNodes(String... names) throws Exception {
+        TestManager.reload(Collections.<String>emptyList(), "");
+        for (String name : names) {
+            TestDriver.node(name).connectDelayMillis = 0;
+            TestDriver.node(name).failConnect = false;
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void nodesWarmUpInParallel() throws Exception {
+        TestManager.get();
+        try {
+            // 依次创建需要9 * 100ms
+            long start = System.nanoTime();
+            TestManager.reload(Arrays.asList("wu1", "wu2", "wu3"), nodes("wu1", "wu2", "wu3") + "startupthreads=9\n");
+            long elapsed = System.nanoTime() - start;
+
+            assertTrue("elapsed " + elapsed, elapsed < TimeUnit.MILLISECONDS.toNanos(700));
+            for (String name : Arrays.asList("wu1", "wu2", "wu3")) {
+                assertEquals(3, TestDriver.node(name).opened.get());
+            }
+        } finally {
+            resetNodes("wu1", "wu2", "wu3");
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void startupDeadlineLeavesTheRestToTheBackground() throws Exception {
+        TestManager.get();
+        try {
+            long start = System.nanoTime();
+            TestManager.reload(Arrays.asList("wu4", "wu5"), nodes("wu4", "wu5") + "startupthreads=1\nstartuptimeout=150\n");
+            long elapsed = System.nanoTime() - start;
+
+            assertTrue("elapsed " + elapsed, elapsed < TimeUnit.MILLISECONDS.toNanos(500));
+            awaitOpened("wu4", 3);
+            awaitOpened("wu5", 3);
+        } finally {
+            resetNodes("wu4", "wu5");
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void lazyInitReturnsImmediatelyAndBorrowersWait() throws Exception {
+        ConnectionManager manager = TestManager.get();
+        try {
+            long start = System.nanoTime();
+            TestManager.reload(Collections.singletonList("wu6"), nodes("wu6") + "lazyinit=true\n");
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+
+            // 预热完成前借连接的线程排队等待新建的连接
+            Connection conn = manager.getConnection("wu6", 2000, TimeUnit.MILLISECONDS);
+            assertNotNull(conn);
+            conn.close();
+            awaitOpened("wu6", 3);
+        } finally {
+            resetNodes("wu6");
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void failingNodeStaysRegistered() throws Exception {
+        ConnectionManager manager = TestManager.get();
+        TestDriver.node("wu7").failConnect = true;
+        try {
+            TestManager.reload(Arrays.asList("wu7", "wu8"), TestManager.node("wu7") + TestManager.node("wu8"));
+            assertEquals(1, TestDriver.node("wu8").opened.get());
+            assertNull(manager.getNodeConnection("wu7"));
+
+            // 数据库恢复后后台线程重新连接成功, 不需要重新加载配置
+            TestDriver.node("wu7").failConnect = false;
+            Connection conn = null;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (conn == null && System.nanoTime() - deadline < 0) {
+                conn = manager.getConnection("wu7", 100, TimeUnit.MILLISECONDS);
+            }
+            assertNotNull(conn);
+            conn.close();
+        } finally {
+            resetNodes("wu7", "wu8");
+        }
+    }
+}
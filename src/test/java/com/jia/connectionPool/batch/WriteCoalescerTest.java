@@ -0,0 +1,167 @@
+package com.jia.connectionPool.batch;
+
+import com.jia.connectionPool.ConnectionManager;
+import com.jia.connectionPool.TestDriver;
+import com.jia.connectionPool.TestManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WriteCoalescerTest {
+
+    private static final String NODE = TestManager.SCATTER_NODES.get(1);
+
+    private static final String INSERT = "insert into t values (?)";
+
+    private static final String UPDATE = "update t set x = ? where id = 1";
+
+    private ConnectionManager manager;
+
+    private TestDriver.Node node;
+
+    private WriteCoalescer coalescer;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = TestManager.get();
+        node = TestDriver.node(NODE);
+        node.executed.clear();
+    }
+
+    @After
+    public void tearDown() {
+        if (coalescer != null) {
+            coalescer.close(5, TimeUnit.SECONDS);
+        }
+        node.failOn = null;
+        node.failCommit = false;
+        node.executed.clear();
+    }
+
+    /**
+     * 凑批等待足够长, 提交的语句一次执行
+     * */
+    private WriteCoalescer coalescer(int batchSize) {
+        coalescer = new WriteCoalescer(manager, NODE, batchSize, 1000, 1, 2000);
+        return coalescer;
+    }
+
+    private static Throwable failure(CompletableFuture<Integer> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("expected failure");
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void onlyConsecutiveWritesAreMerged() throws Exception {
+        WriteCoalescer coalescer = coalescer(4);
+        List<CompletableFuture<Integer>> futures = new ArrayList<CompletableFuture<Integer>>();
+        futures.add(coalescer.submit(INSERT, 1));
+        futures.add(coalescer.submit(UPDATE, 2));
+        futures.add(coalescer.submit(INSERT, 3));
+        futures.add(coalescer.submit(INSERT, 4));
+        for (CompletableFuture<Integer> future : futures) {
+            assertEquals(1, (int) future.get(5, TimeUnit.SECONDS));
+        }
+
+        // UPDATE依赖它前面的INSERT, 不能被后面的INSERT越过
+        assertEquals(Arrays.asList(INSERT, UPDATE, INSERT, INSERT), node.executed);
+        assertEquals(1, coalescer.getBatchCount());
+    }
+
+    @Test(timeout = 20000)
+    public void failureBeforeCommitRetriesEachStatement() throws Exception {
+        node.failOn = "bad";
+        WriteCoalescer coalescer = coalescer(3);
+        CompletableFuture<Integer> first = coalescer.submit(INSERT, 1);
+        CompletableFuture<Integer> bad = coalescer.submit("update bad set x = ?", 2);
+        CompletableFuture<Integer> last = coalescer.submit(INSERT, 3);
+
+        assertEquals(1, (int) first.get(5, TimeUnit.SECONDS));
+        assertTrue(failure(bad).getMessage().contains("bad"));
+        assertEquals(1, (int) last.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 20000)
+    public void commitFailureIsNotRetried() throws Exception {
+        node.failCommit = true;
+        WriteCoalescer coalescer = coalescer(2);
+        CompletableFuture<Integer> first = coalescer.submit(INSERT, 1);
+        CompletableFuture<Integer> second = coalescer.submit(INSERT, 2);
+
+        assertEquals("commit failed", failure(first).getMessage());
+        assertEquals("commit failed", failure(second).getMessage());
+        // 提交失败时结果未知, 重新执行可能重复写入
+        assertEquals(2, node.executed.size());
+    }
+
+    @Test(timeout = 20000)
+    public void submitRacingCloseAlwaysCompletes() throws Exception {
+        final WriteCoalescer coalescer = new WriteCoalescer(manager, NODE, 50, 100000, 2, 0);
+        final List<CompletableFuture<Integer>> futures =
+                Collections.synchronizedList(new ArrayList<CompletableFuture<Integer>>());
+        final CountDownLatch started = new CountDownLatch(4);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    for (int i = 0; i < 2000; i++) {
+                        futures.add(coalescer.submit(INSERT, i));
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        started.await();
+        coalescer.close(5, TimeUnit.SECONDS);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // 关闭开始之后提交的语句立即失败, 之前提交的执行完, 没有一直等待的调用者
+        for (CompletableFuture<Integer> future : futures) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().getMessage().contains("关闭"));
+            }
+        }
+        assertTrue(coalescer.submit(INSERT, 0).isCompletedExceptionally());
+    }
+
+    @Test(timeout = 20000)
+    public void reloadCreatesAndClosesCoalescersAndCaches() throws Exception {
+        TestManager.reload(Collections.singletonList("wc1"), TestManager.node("wc1", "batch=true", "querycache=true"));
+        WriteCoalescer added = manager.getWriteCoalescer("wc1");
+        assertNotNull(added);
+        assertNotNull(manager.getQueryCache("wc1"));
+        assertEquals(1, (int) added.submit(INSERT, 1).get(5, TimeUnit.SECONDS));
+
+        TestManager.reload(Collections.<String>emptyList(), "");
+        assertNull(manager.getWriteCoalescer("wc1"));
+        assertNull(manager.getQueryCache("wc1"));
+        assertTrue(added.isClosed());
+    }
+}
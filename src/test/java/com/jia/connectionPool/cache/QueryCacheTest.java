@@ -0,0 +1,192 @@
+package com.jia.connectionPool.cache;
+
+import com.jia.connectionPool.ConnectionManager;
+import com.jia.connectionPool.TestDriver;
+import com.jia.connectionPool.TestManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class QueryCacheTest {
+
+    private static final String NODE = TestManager.SCATTER_NODES.get(0);
+
+    private ConnectionManager manager;
+
+    private TestDriver.Node node;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = TestManager.get();
+        node = TestDriver.node(NODE);
+        List<Object[]> rows = new ArrayList<Object[]>();
+        rows.add(new Object[]{1L});
+        node.rows = rows;
+        node.executed.clear();
+    }
+
+    @After
+    public void tearDown() {
+        node.rows = new ArrayList<Object[]>();
+        node.queryDelayMillis = 0;
+        node.executed.clear();
+    }
+
+    private QueryCache cache() {
+        return new QueryCache(manager, NODE, 60000, 100, 1 << 20);
+    }
+
+    @Test
+    public void hitDoesNotQueryTheDatabase() throws Exception {
+        QueryCache cache = cache();
+
+        QueryResult first = cache.query("select id from t where id = ?", 1);
+        assertSame(first, cache.query("select id from t where id = ?", 1));
+        cache.query("select id from t where id = ?", 2);
+
+        assertEquals(2, node.executed.size());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void invalidateRemovesEntriesOfTheTable() throws Exception {
+        QueryCache cache = cache();
+        cache.query("select id from t");
+        cache.query("select id from other");
+
+        cache.invalidate("T");
+        assertEquals(1, cache.getEntryCount());
+        cache.query("select id from t");
+        assertEquals(3, node.executed.size());
+    }
+
+    @Test
+    public void commaJoinIndexesEveryTable() throws Exception {
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b", "c", "d")),
+                QueryCache.tablesOf("select * from db.a x, `b` as y, c where x.id = y.id and exists "
+                        + "(select 1 from d where d.id = x.id)"));
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b")),
+                QueryCache.tablesOf("select * from a join b on a.id = b.id"));
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b")),
+                QueryCache.tablesOf("select * from a left join b using (id)"));
+
+        QueryCache cache = cache();
+        cache.query("select a.id from a, b where a.id = b.id");
+        cache.invalidate("b");
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void invalidationDuringLoadIsNotCached() throws Exception {
+        final QueryCache cache = cache();
+        node.queryDelayMillis = 300;
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread loader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cache.query("select id from t");
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        });
+        loader.start();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (cache.getMissCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(50);
+        // 查询期间表被修改, 读到的可能是修改前的结果, 不能写入缓存
+        cache.invalidate("t");
+        loader.join();
+
+        assertNull(error.get());
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void columnLabelsIgnoreDefaultLocale() throws Exception {
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            node.labels = new String[]{"ID"};
+            QueryResult result = cache().query("select id from t");
+            assertEquals(1L, result.get(0, "id"));
+            assertEquals(1L, result.get(0, "ID"));
+        } finally {
+            Locale.setDefault(locale);
+            node.labels = new String[]{"id"};
+        }
+    }
+
+    @Test
+    public void evictedEntriesLeaveNoEmptyTableIndex() throws Exception {
+        QueryCache cache = new QueryCache(manager, NODE, 60000, 1, 1 << 20);
+        for (int i = 0; i < 10; i++) {
+            cache.query("select id from t" + i);
+        }
+        // 只保留最后一项, 其余表的索引随着淘汰一起删除
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(1, cache.getTableCount());
+
+        cache.invalidate("t9");
+        assertEquals(0, cache.getTableCount());
+    }
+
+    @Test
+    public void expiredEntryIsDroppedOnLookup() throws Exception {
+        QueryCache cache = new QueryCache(manager, NODE, 30, 100, 1 << 20);
+        cache.query("select id from t");
+        Thread.sleep(60);
+
+        // 重新查询失败时过期的结果也不再保留
+        node.failOn = "from t";
+        try {
+            cache.query("select id from t");
+            fail("expected query failure");
+        } catch (SQLException e) {
+            // 查询失败
+        } finally {
+            node.failOn = null;
+        }
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getTableCount());
+        assertEquals(0, cache.getEstimatedBytes());
+    }
+
+    @Test
+    public void openNodeIsNotServedFromItsPeer() throws Exception {
+        TestDriver.node("qcf").failConnect = true;
+        try {
+            TestManager.reload(Arrays.asList("qcf"), TestManager.node("qcf", "breakerthreshold=1", "failover=" + NODE));
+            QueryCache cache = new QueryCache(manager, "qcf", 60000, 100, 1 << 20);
+            try {
+                cache.query("select id from t");
+                fail("expected failure of the open node");
+            } catch (SQLException e) {
+                // 熔断的节点不能缓存failover节点的结果
+            }
+            assertEquals(0, cache.getEntryCount());
+            assertEquals(0, node.executed.size());
+        } finally {
+            TestManager.reload(Collections.<String>emptyList(), "");
+            TestDriver.node("qcf").failConnect = false;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.jia.connectionPool.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        Histogram histogram = new Histogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanMicros(), 0);
+        assertEquals(0, histogram.getMaxMicros());
+        assertEquals(0, histogram.getPercentileMicros(0.99));
+    }
+
+    @Test
+    public void percentileIsUpperBoundOfBucket() {
+        Histogram histogram = new Histogram();
+        // 99个样本落在[64, 128)微秒的桶, 1个样本落在[512, 1024)微秒的桶
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(1000));
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(128, histogram.getPercentileMicros(0.5));
+        assertEquals(128, histogram.getPercentileMicros(0.99));
+        assertEquals(1024, histogram.getPercentileMicros(1.0));
+        assertEquals(1000, histogram.getMaxMicros());
+        assertEquals(109, histogram.getMeanMicros(), 0.001);
+    }
+
+    @Test
+    public void samplesBeyondLastBucketReportMax() {
+        Histogram histogram = new Histogram();
+        histogram.record(TimeUnit.SECONDS.toNanos(100));
+
+        assertEquals(TimeUnit.SECONDS.toMicros(100), histogram.getPercentileMicros(0.5));
+    }
+
+    @Test
+    public void negativeSampleIsRecordedAsZero() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMaxMicros());
+        assertEquals(1, histogram.getPercentileMicros(1.0));
+    }
+
+    @Test
+    public void concurrentRecordingLosesNoSamples() throws InterruptedException {
+        final Histogram histogram = new Histogram();
+        final int threads = 8;
+        final int samples = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        List<Thread> started = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < samples; i++) {
+                        histogram.record(i * 1000L);
+                    }
+                    done.countDown();
+                }
+            });
+            started.add(thread);
+            thread.start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals((long) threads * samples, histogram.getCount());
+        assertEquals(samples - 1, histogram.getMaxMicros());
+    }
+}
@@ -0,0 +1,151 @@
+package com.jia.connectionPool.metrics;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PoolEventLogTest {
+
+    private final Logger logger = Logger.getLogger(PoolEventLog.class);
+
+    // 测试中记录的事件, 只保留测试节点的事件
+    private final List<String> messages = new CopyOnWriteArrayList<String>();
+
+    private final AppenderSkeleton appender = new AppenderSkeleton() {
+        @Override
+        protected void append(LoggingEvent event) {
+            String message = String.valueOf(event.getMessage());
+            if (message.startsWith("evt-")) {
+                messages.add(message);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean requiresLayout() {
+            return false;
+        }
+    };
+
+    private Level level;
+
+    @Before
+    public void setUp() {
+        level = logger.getLevel();
+        logger.setLevel(Level.DEBUG);
+        logger.setAdditivity(false);
+        logger.addAppender(appender);
+    }
+
+    @After
+    public void tearDown() {
+        PoolEventLog.configure(PoolEventLog.WARN, PoolEventLog.DEFAULT_CAPACITY, false);
+        logger.removeAppender(appender);
+        logger.setAdditivity(true);
+        logger.setLevel(level);
+    }
+
+    private void await(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (messages.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void levelsAreParsed() {
+        assertEquals(PoolEventLog.OFF, PoolEventLog.parseLevel("off", PoolEventLog.INFO));
+        assertEquals(PoolEventLog.WARN, PoolEventLog.parseLevel(" WARN ", PoolEventLog.INFO));
+        assertEquals(PoolEventLog.DEBUG, PoolEventLog.parseLevel("debug", PoolEventLog.INFO));
+        assertEquals(PoolEventLog.INFO, PoolEventLog.parseLevel("verbose", PoolEventLog.INFO));
+        assertEquals(PoolEventLog.INFO, PoolEventLog.parseLevel(null, PoolEventLog.INFO));
+    }
+
+    @Test
+    public void levelControlsEnabledEvents() {
+        PoolEventLog.configure(PoolEventLog.WARN, PoolEventLog.DEFAULT_CAPACITY, false);
+        assertTrue(PoolEventLog.isEnabled(PoolEventLog.TIMEOUT));
+        assertTrue(PoolEventLog.isEnabled(PoolEventLog.REJECT));
+        assertFalse(PoolEventLog.isEnabled(PoolEventLog.CREATE));
+        assertFalse(PoolEventLog.isEnabled(PoolEventLog.BORROW));
+
+        PoolEventLog.configure(PoolEventLog.INFO, PoolEventLog.DEFAULT_CAPACITY, false);
+        assertTrue(PoolEventLog.isEnabled(PoolEventLog.CREATE));
+        assertFalse(PoolEventLog.isEnabled(PoolEventLog.RETURN));
+
+        PoolEventLog.configure(PoolEventLog.OFF, PoolEventLog.DEFAULT_CAPACITY, false);
+        assertFalse(PoolEventLog.isEnabled(PoolEventLog.TIMEOUT));
+    }
+
+    @Test(timeout = 10000)
+    public void disabledEventsAreNotWritten() throws Exception {
+        PoolEventLog.configure(PoolEventLog.WARN, PoolEventLog.DEFAULT_CAPACITY, false);
+        PoolEventLog.record(PoolEventLog.BORROW, "evt-off", 1);
+        PoolEventLog.record(PoolEventLog.REJECT, "evt-off", PoolEventLog.REJECT_QUEUE_FULL);
+        PoolEventLog.record(PoolEventLog.TIMEOUT, "evt-off", 0);
+
+        // 同一个线程写入的事件按顺序输出, 读到最后一个事件时前面的事件都已经输出
+        await(2);
+        assertEquals(2, messages.size());
+        assertEquals("evt-off节点等待队列已满, 拒绝获取连接", messages.get(0));
+        assertEquals("evt-off节点等待连接超时", messages.get(1));
+    }
+
+    @Test(timeout = 20000)
+    public void concurrentWritersKeepTheirOrder() throws Exception {
+        PoolEventLog.configure(PoolEventLog.DEBUG, PoolEventLog.DEFAULT_CAPACITY, false);
+        final int writers = 4;
+        final int events = 5000;
+        long droppedBefore = PoolEventLog.getDroppedCount();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < writers; i++) {
+            final String node = "evt-" + i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < events; j++) {
+                        PoolEventLog.record(PoolEventLog.STATUS, node, j, 0);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // 缓冲区写满时丢弃事件, 输出的事件和丢弃的事件合计等于写入的事件
+        long dropped = PoolEventLog.getDroppedCount() - droppedBefore;
+        await((int) (writers * events - dropped));
+        assertEquals(writers * events, messages.size() + dropped);
+
+        // 每个线程的事件按写入的顺序输出, 不重复也不错乱
+        long[] last = new long[writers];
+        for (int i = 0; i < writers; i++) {
+            last[i] = -1;
+        }
+        for (String message : messages) {
+            int writer = Integer.parseInt(message.substring(4, message.indexOf('节')));
+            long value = Long.parseLong(message.substring(message.indexOf(':') + 1, message.indexOf(',')));
+            assertTrue(message, value > last[writer]);
+            last[writer] = value;
+        }
+    }
+}
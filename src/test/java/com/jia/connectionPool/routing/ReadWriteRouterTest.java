@@ -0,0 +1,235 @@
+package com.jia.connectionPool.routing;
+
+import com.jia.connectionPool.ConnectionManager;
+import com.jia.connectionPool.IConnectionPool;
+import com.jia.connectionPool.TestDriver;
+import com.jia.connectionPool.TestManager;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ReadWriteRouterTest {
+
+    private static ConnectionManager manager;
+
+    private ReadWriteRouter router;
+
+    private IConnectionPool primary;
+
+    private IConnectionPool first;
+
+    private IConnectionPool second;
+
+    @BeforeClass
+    public static void configure() throws Exception {
+        manager = TestManager.get();
+        // degraded分组的从库一直连接失败, 主库只有一个连接
+        TestDriver.node("rwr").failConnect = true;
+        TestManager.reload(Arrays.asList("rwp", "rwr"), TestManager.node("rwp", "maxconnections=1")
+                + TestManager.node("rwr", "breakerthreshold=1")
+                + "groups=rw,solo,degraded\n"
+                + "rw.primary=sg4\n"
+                + "rw.replicas=sg5,sg6\n"
+                + "rw.balance=roundrobin\n"
+                + "solo.primary=sg3\n"
+                + "degraded.primary=rwp\n"
+                + "degraded.replicas=rwr\n");
+    }
+
+    @AfterClass
+    public static void restore() throws Exception {
+        TestManager.reload(Collections.<String>emptyList(), "");
+        TestDriver.node("rwr").failConnect = false;
+    }
+
+    @Before
+    public void setUp() {
+        router = manager.getRouter("rw");
+        router.setLoadBalancer(new RoundRobinBalancer());
+        primary = router.getPrimary();
+        first = router.getReplicas().get(0);
+        second = router.getReplicas().get(1);
+    }
+
+    @Test
+    public void groupIsBuiltFromConfiguration() {
+        assertNotNull(router);
+        assertEquals(2, router.getReplicas().size());
+        assertTrue(manager.getRouter("solo").getReplicas().isEmpty());
+    }
+
+    @Test
+    public void writesUsePrimaryAndReadsAlternateReplicas() throws Exception {
+        Connection write = router.getConnection();
+        assertEquals(1, primary.getActiveNum());
+        write.close();
+
+        Connection read1 = router.getConnection(true);
+        Connection read2 = router.getConnection(true);
+        assertEquals(0, primary.getActiveNum());
+        assertEquals(1, first.getActiveNum());
+        assertEquals(1, second.getActiveNum());
+        read1.close();
+        read2.close();
+        assertEquals(0, first.getActiveNum() + second.getActiveNum());
+    }
+
+    @Test
+    public void setReadOnlySwitchesSidesOutsideTransaction() throws Exception {
+        Connection conn = router.getConnection();
+        conn.setReadOnly(true);
+        assertEquals(0, primary.getActiveNum());
+        assertEquals(1, first.getActiveNum() + second.getActiveNum());
+
+        conn.setReadOnly(false);
+        assertEquals(1, primary.getActiveNum());
+        assertEquals(0, first.getActiveNum() + second.getActiveNum());
+        conn.close();
+        assertEquals(0, primary.getActiveNum());
+    }
+
+    @Test
+    public void setReadOnlyInTransactionStaysOnPrimary() throws Exception {
+        Connection conn = router.getConnection();
+        conn.setAutoCommit(false);
+        conn.setReadOnly(true);
+
+        assertEquals(1, primary.getActiveNum());
+        assertEquals(0, first.getActiveNum() + second.getActiveNum());
+        assertTrue(conn.isReadOnly());
+        conn.rollback();
+        conn.close();
+    }
+
+    @Test
+    public void groupWithoutReplicasReadsFromPrimary() throws Exception {
+        IConnectionPool soloPrimary = manager.getRouter("solo").getPrimary();
+        // 并行查询的测试可能还有慢查询占用着这个节点的连接
+        int before = soloPrimary.getActiveNum();
+        Connection conn = manager.getConnection("solo", true);
+        assertEquals(before + 1, soloPrimary.getActiveNum());
+        conn.setReadOnly(false);
+        assertEquals(before + 1, soloPrimary.getActiveNum());
+        conn.close();
+        assertEquals(before, soloPrimary.getActiveNum());
+    }
+
+    @Test
+    public void leastActiveBalancerPicksIdleReplica() throws Exception {
+        Connection busy = first.getConnection();
+        LoadBalancer balancer = new LeastActiveBalancer();
+        List<IConnectionPool> replicas = Arrays.asList(first, second);
+        for (int i = 0; i < 4; i++) {
+            assertSame(second, balancer.select(replicas));
+        }
+        busy.close();
+    }
+
+    @Test
+    public void latencyAwareBalancerPrefersFasterReplica() {
+        LoadBalancer balancer = new LatencyAwareBalancer();
+        List<IConnectionPool> replicas = Arrays.asList(first, second);
+        // 第二个从库的平均耗时是第一个的100倍
+        for (int i = 0; i < 10; i++) {
+            balancer.record(first, 10000);
+            balancer.record(second, 1000000);
+        }
+        int fast = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (balancer.select(replicas) == first) {
+                fast++;
+            }
+        }
+        assertTrue(fast > 900);
+    }
+
+    @Test(timeout = 10000)
+    public void unavailableReplicasKeepTheBoundPrimaryConnection() throws Exception {
+        ReadWriteRouter degraded = manager.getRouter("degraded");
+        IConnectionPool degradedPrimary = degraded.getPrimary();
+        Connection conn = degraded.getConnection();
+        assertEquals(1, degradedPrimary.getActiveNum());
+
+        // 从库熔断后改用主库, 主库唯一的连接已经被自己占用, 不能再借第二个连接
+        long start = System.nanoTime();
+        conn.setReadOnly(true);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertTrue(conn.isReadOnly());
+        assertEquals(1, degradedPrimary.getActiveNum());
+        conn.setReadOnly(false);
+        assertEquals(1, degradedPrimary.getActiveNum());
+        conn.close();
+        assertEquals(0, degradedPrimary.getActiveNum());
+    }
+
+    @Test
+    public void sessionAttributesFollowTheSwitch() throws Exception {
+        int holdability = replicaCalls("setHoldability");
+        Connection conn = router.getConnection();
+        conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+        conn.setCatalog("reports");
+        conn.setHoldability(ResultSet.CLOSE_CURSORS_AT_COMMIT);
+
+        conn.setReadOnly(true);
+        assertEquals(1, first.getActiveNum() + second.getActiveNum());
+        assertEquals(Connection.TRANSACTION_READ_COMMITTED, conn.getTransactionIsolation());
+        assertEquals("reports", conn.getCatalog());
+        assertEquals(holdability + 1, replicaCalls("setHoldability"));
+
+        conn.setReadOnly(false);
+        assertEquals(Connection.TRANSACTION_READ_COMMITTED, conn.getTransactionIsolation());
+        assertEquals("reports", conn.getCatalog());
+        conn.close();
+    }
+
+    @Test
+    public void balancerSeesAcquireTimeNotHoldTime() throws Exception {
+        final List<Long> samples = new ArrayList<Long>();
+        router.setLoadBalancer(new LoadBalancer() {
+            @Override
+            public IConnectionPool select(List<IConnectionPool> replicas) {
+                return replicas.get(0);
+            }
+
+            @Override
+            public void record(IConnectionPool replica, long nanos) {
+                samples.add(nanos);
+            }
+        });
+
+        // 借出时记录一次耗时, 之后持有连接的时间不计入从库的响应时间
+        Connection conn = router.getConnection(true);
+        assertEquals(1, samples.size());
+        Thread.sleep(200);
+        conn.close();
+        assertEquals(1, samples.size());
+        assertTrue(samples.get(0) < TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    /**
+     * 从库的物理连接上某个方法被调用的次数
+     * */
+    private static int replicaCalls(String method) {
+        int count = 0;
+        for (String node : Arrays.asList("sg5", "sg6")) {
+            for (TestDriver.TestConnection connection : TestDriver.node(node).connections) {
+                count += connection.count(method);
+            }
+        }
+        return count;
+    }
+}
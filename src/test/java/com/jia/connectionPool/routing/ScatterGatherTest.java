@@ -0,0 +1,215 @@
+package com.jia.connectionPool.routing;
+
+import com.jia.connectionPool.ConnectionManager;
+import com.jia.connectionPool.TestDriver;
+import com.jia.connectionPool.TestManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScatterGatherTest {
+
+    private ConnectionManager manager;
+
+    private ScatterGather scatterGather;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = TestManager.get();
+    }
+
+    @After
+    public void tearDown() {
+        if (scatterGather != null) {
+            scatterGather.shutdown();
+        }
+        for (String node : TestManager.SCATTER_NODES) {
+            TestDriver.Node state = TestDriver.node(node);
+            state.rows = new ArrayList<Object[]>();
+            state.queryDelayMillis = 0;
+        }
+    }
+
+    /**
+     * 第i个节点返回i, i+n, i+2n...共count行, 每个节点按升序排列
+     * */
+    private static void fillRows(int count) {
+        int nodes = TestManager.SCATTER_NODES.size();
+        for (int i = 0; i < nodes; i++) {
+            List<Object[]> rows = new ArrayList<Object[]>();
+            for (int j = 0; j < count; j++) {
+                rows.add(new Object[]{(long) (j * nodes + i)});
+            }
+            TestDriver.node(TestManager.SCATTER_NODES.get(i)).rows = rows;
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void orderedMergeWithMoreNodesThanThreadsDoesNotDeadlock() throws Exception {
+        // 每个节点的行数超过缓冲区, 线程数少于节点数
+        fillRows(ScatterGather.NODE_BUFFER * 3);
+        scatterGather = new ScatterGather(manager, 2, 100);
+
+        MergedRows rows = scatterGather.query(TestManager.SCATTER_NODES, "select id from t", null,
+                ScatterGather.orderBy(0, true), 0, 0);
+        try {
+            long expected = 0;
+            while (rows.next()) {
+                assertEquals(expected++, rows.get(0));
+            }
+            assertEquals(TestManager.SCATTER_NODES.size() * ScatterGather.NODE_BUFFER * 3L, expected);
+        } finally {
+            rows.close();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void concurrentCallsSharingTheExecutorDoNotDeadlock() throws Exception {
+        fillRows(ScatterGather.NODE_BUFFER * 2);
+        scatterGather = new ScatterGather(manager, 3, 100);
+
+        // 多个调用者同时查询, 每次调用都有节点在线程池队列中排在其他调用的节点后面
+        final int callers = 4;
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final int total = TestManager.SCATTER_NODES.size() * ScatterGather.NODE_BUFFER * 2;
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < callers; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        MergedRows rows = scatterGather.query(TestManager.SCATTER_NODES, "select id from t", null,
+                                ScatterGather.orderBy(0, true), 0, 0);
+                        int count = 0;
+                        while (rows.next()) {
+                            count++;
+                        }
+                        if (count == total) {
+                            completed.incrementAndGet();
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get());
+        assertEquals(callers, completed.get());
+    }
+
+    @Test(timeout = 20000)
+    public void unorderedMergeReturnsEveryRow() throws Exception {
+        fillRows(10);
+        scatterGather = new ScatterGather(manager, 4, 100);
+
+        MergedRows rows = scatterGather.query(TestManager.SCATTER_NODES, "select id from t");
+        int count = 0;
+        while (rows.next()) {
+            count++;
+        }
+        assertEquals(TestManager.SCATTER_NODES.size() * 10, count);
+    }
+
+    @Test(timeout = 20000)
+    public void limitIsPushedDownToEveryNode() throws Exception {
+        fillRows(100);
+        scatterGather = new ScatterGather(manager, 8, 100);
+
+        MergedRows rows = scatterGather.query(TestManager.SCATTER_NODES, "select id from t order by id", null,
+                ScatterGather.orderBy(0, true), 5, 0);
+        List<Object> ids = new ArrayList<Object>();
+        while (rows.next()) {
+            ids.add(rows.get("ID"));
+        }
+        assertEquals(5, ids.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals((long) i, ids.get(i));
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void timeoutIsMeasuredPerNode() throws Exception {
+        fillRows(1);
+        for (String node : TestManager.SCATTER_NODES) {
+            TestDriver.node(node).queryDelayMillis = 100;
+        }
+        // 只有一个线程, 节点依次执行, 总耗时超过超时时间, 但每个节点都在自己的超时时间内完成
+        scatterGather = new ScatterGather(manager, 1, 100);
+
+        MergedRows rows = scatterGather.query(TestManager.SCATTER_NODES, "select id from t", null, null, 0, 400);
+        int count = 0;
+        while (rows.next()) {
+            count++;
+        }
+        assertEquals(TestManager.SCATTER_NODES.size(), count);
+    }
+
+    @Test(timeout = 20000)
+    public void slowNodeTimesOut() throws Exception {
+        fillRows(1);
+        TestDriver.node(TestManager.SCATTER_NODES.get(2)).queryDelayMillis = 3000;
+        scatterGather = new ScatterGather(manager, 8, 100);
+
+        long start = System.nanoTime();
+        MergedRows rows = scatterGather.query(TestManager.SCATTER_NODES, "select id from t", null,
+                ScatterGather.orderBy(0, true), 0, 200);
+        try {
+            while (rows.next()) {
+                // 读到超时为止
+            }
+            fail("expected timeout");
+        } catch (SQLTimeoutException e) {
+            assertTrue(e.getMessage().contains(TestManager.SCATTER_NODES.get(2)));
+        }
+        assertTrue(System.nanoTime() - start < 2000000000L);
+    }
+
+    @Test(timeout = 20000)
+    public void openNodeFailsInsteadOfQueryingItsPeer() throws Exception {
+        fillRows(3);
+        TestDriver.node("sgf").failConnect = true;
+        try {
+            TestManager.reload(Arrays.asList("sgf"), TestManager.node("sgf", "breakerthreshold=1", "failover=sg1"));
+            scatterGather = new ScatterGather(manager, 4, 100);
+
+            // 熔断的节点不能用failover节点的数据代替, 否则sg1的数据会重复出现
+            List<String> nodes = Arrays.asList("sg1", "sgf");
+            for (long timeout : new long[]{0, 500}) {
+                MergedRows rows = scatterGather.query(nodes, "select id from t", null, null, 0, timeout);
+                try {
+                    while (rows.next()) {
+                        // 读到失败为止
+                    }
+                    fail("expected failure of the open node");
+                } catch (SQLException e) {
+                    assertTrue(e.getMessage(), e.getMessage().contains("sgf"));
+                } finally {
+                    rows.close();
+                }
+            }
+        } finally {
+            TestManager.reload(Collections.<String>emptyList(), "");
+            TestDriver.node("sgf").failConnect = false;
+        }
+    }
+}
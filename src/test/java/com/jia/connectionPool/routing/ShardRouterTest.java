@@ -0,0 +1,160 @@
+package com.jia.connectionPool.routing;
+
+import com.jia.connectionPool.ConnectionManager;
+import com.jia.connectionPool.IConnectionPool;
+import com.jia.connectionPool.TestDriver;
+import com.jia.connectionPool.TestManager;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ShardRouterTest {
+
+    private static final int KEYS = 30000;
+
+    private static ConnectionManager manager;
+
+    @BeforeClass
+    public static void configure() throws Exception {
+        manager = TestManager.get();
+        TestDriver.node("sh1").failConnect = true;
+        TestManager.reload(Arrays.asList("sh1", "sh2"), TestManager.node("sh1", "breakerthreshold=1", "failover=sh2")
+                + TestManager.node("sh2")
+                + "shardgroups=three,four,reversed,single,broken\n"
+                + "three.shards=sg1,sg2,sg3\n"
+                + "four.shards=sg1,sg2,sg3,sg4\n"
+                + "reversed.shards=sg3,sg2,sg1\n"
+                + "single.shards=sg1,sg2\n"
+                + "single.vnodes=1\n"
+                + "broken.shards=sh1\n");
+    }
+
+    @AfterClass
+    public static void restore() throws Exception {
+        TestManager.reload(Collections.<String>emptyList(), "");
+        TestDriver.node("sh1").failConnect = false;
+    }
+
+    @Test
+    public void groupsAreBuiltFromConfiguration() {
+        ShardRouter router = manager.getShardRouter("three");
+        assertNotNull(router);
+        assertEquals("three", router.getName());
+        assertEquals(Arrays.asList("sg1", "sg2", "sg3"), router.getNodeNames());
+        assertNull(manager.getShardRouter("missing"));
+        assertNull(manager.getShardConnection("missing", 1L));
+    }
+
+    @Test
+    public void keysAreSpreadEvenly() {
+        ShardRouter router = manager.getShardRouter("three");
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < KEYS; i++) {
+            count(counts, router.nodeOf((long) i));
+            count(counts, router.nodeOf("user-" + i));
+        }
+        // 160个虚拟节点时每个节点分到的键与平均值相差不超过20%
+        for (String node : router.getNodeNames()) {
+            int expected = 2 * KEYS / 3;
+            assertTrue(node + "=" + counts.get(node), Math.abs(counts.get(node) - expected) < expected / 5);
+        }
+    }
+
+    @Test
+    public void addingNodeOnlyMovesKeysToNewNode() {
+        ShardRouter three = manager.getShardRouter("three");
+        ShardRouter four = manager.getShardRouter("four");
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String before = three.nodeOf((long) i);
+            String after = four.nodeOf((long) i);
+            if (!before.equals(after)) {
+                // 改变归属的键全部移动到新增的节点
+                assertEquals("sg4", after);
+                moved++;
+            }
+        }
+        // 约1/4的键改变归属
+        assertTrue("moved=" + moved, moved > KEYS / 6 && moved < KEYS / 3);
+    }
+
+    @Test
+    public void ringDoesNotDependOnConfigurationOrder() {
+        ShardRouter three = manager.getShardRouter("three");
+        ShardRouter reversed = manager.getShardRouter("reversed");
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(three.nodeOf((long) i), reversed.nodeOf((long) i));
+            assertEquals(three.nodeOf("key" + i), reversed.nodeOf("key" + i));
+        }
+    }
+
+    @Test
+    public void singleVirtualNodeStillCoversTheRing() {
+        ShardRouter router = manager.getShardRouter("single");
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            count(counts, router.nodeOf((long) i));
+        }
+        // 每个节点只有一个虚拟节点, 两个节点都能分到键, 超过最后一个位置的键回到第一个
+        assertEquals(2, counts.size());
+    }
+
+    @Test
+    public void stringKeysAreStable() {
+        ShardRouter router = manager.getShardRouter("three");
+        StringBuilder key = new StringBuilder("order-");
+        key.append(12345);
+        // 内容相同的字符序列映射到同一个节点
+        assertEquals(router.nodeOf("order-12345"), router.nodeOf(key));
+        assertSame(router.select("order-12345"), router.select(key));
+    }
+
+    @Test
+    public void connectionComesFromTheKeysNode() throws Exception {
+        ShardRouter router = manager.getShardRouter("three");
+        for (long key = 0; key < 20; key++) {
+            String sql = "update shard set x = " + key;
+            Connection conn = manager.getShardConnection("three", key);
+            assertNotNull(conn);
+            conn.createStatement().executeUpdate(sql);
+            conn.close();
+            assertTrue(TestDriver.node(router.nodeOf(key)).executed.contains(sql));
+
+            conn = router.getConnection("key" + key);
+            conn.createStatement().executeUpdate(sql + " -- string");
+            conn.close();
+            assertTrue(TestDriver.node(router.nodeOf("key" + key)).executed.contains(sql + " -- string"));
+        }
+    }
+
+    @Test(timeout = 15000)
+    public void openShardFailsOverToPeer() throws Exception {
+        Connection conn = manager.getShardConnection("broken", "anything");
+        assertNotNull(conn);
+        conn.createStatement().executeUpdate("update shard failover set x = 1");
+        conn.close();
+        assertTrue(TestDriver.node("sh2").executed.contains("update shard failover set x = 1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyGroupIsRejected() {
+        new ShardRouter("empty", Collections.<String, IConnectionPool>emptyMap(), 10);
+    }
+
+    private static void count(Map<String, Integer> counts, String node) {
+        Integer count = counts.get(node);
+        counts.put(node, count == null ? 1 : count + 1);
+    }
+}